@@ -15,6 +15,7 @@ import gov.sandia.n2a.execenvs.Host;
 import gov.sandia.n2a.plugins.PluginManager;
 import gov.sandia.n2a.plugins.extpoints.Backend;
 import gov.sandia.n2a.ui.MainFrame;
+import gov.sandia.n2a.ui.jobs.BatchRender;
 import gov.sandia.n2a.ui.jobs.OutputParser;
 import gov.sandia.n2a.ui.jobs.OutputParser.Column;
 import gov.sandia.n2a.ui.settings.SettingsLookAndFeel;
@@ -42,6 +43,7 @@ public class Main
         // Parse command line
         ArrayList<String> pluginClassNames = new ArrayList<String> ();
         ArrayList<File>   pluginDirs       = new ArrayList<File> ();
+        ArrayList<Path>   renderPaths      = new ArrayList<Path> ();
         MNode runModel = new MVolatile ();
         boolean headless = false;
         for (String arg : args)
@@ -54,6 +56,7 @@ public class Main
                 runModel.set (arg.substring (5), "$inherit");
                 headless = true;
             }
+            if (arg.startsWith ("-render=")) renderPaths.add (Paths.get (arg.substring (8)));
             if (arg.startsWith ("-param=")) processParamFile (arg.substring (7), runModel);
             if (! arg.startsWith ("-"))
             {
@@ -65,6 +68,15 @@ public class Main
             }
         }
 
+        // Batch rendering only needs the chart classes, so skip the rest of startup.
+        // In this mode, runModel holds the chart spec rather than a model. See BatchRender for keys.
+        if (! renderPaths.isEmpty ())
+        {
+            System.setProperty ("java.awt.headless", "true");
+            if (! BatchRender.render (renderPaths, runModel)) System.exit (1);
+            return;
+        }
+
         if (! headless) setUncaughtExceptionHandler (null);
 
         // Set global application properties.
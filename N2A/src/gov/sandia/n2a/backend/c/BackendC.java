@@ -8,8 +8,18 @@ package gov.sandia.n2a.backend.c;
 
 import gov.sandia.n2a.backend.internal.InternalBackend;
 import gov.sandia.n2a.db.MNode;
+import gov.sandia.n2a.execenvs.Host;
+import gov.sandia.n2a.execenvs.Scheduler.Footprint;
 import gov.sandia.n2a.plugins.extpoints.Backend;
 
+import java.io.ByteArrayInputStream;
+import java.io.FileOutputStream;
+import java.io.PrintStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
 public class BackendC extends Backend
 {
     @Override
@@ -26,9 +36,76 @@ public class BackendC extends Backend
         t.start ();
     }
 
+    /**
+        Each job is still compiled into its own binary, since parameters are baked into the generated code.
+        However, all the binaries are launched together by a single process on the host, rather than
+        passing one at a time through host assignment.
+    **/
+    @Override
+    public void start (final List<MNode> jobs)
+    {
+        Thread t = new Thread ("C Job Pack")
+        {
+            public void run ()
+            {
+                List<MNode>  ready    = new ArrayList<MNode> ();
+                List<String> commands = new ArrayList<String> ();
+                Host env = null;
+                for (MNode job : jobs)
+                {
+                    JobC j = new JobC (job);
+                    String command = j.prepare ();
+                    if (command == null) continue;  // prepare() has already marked the job as failed.
+                    ready   .add (job);
+                    commands.add (command);
+                    env = j.env;
+                }
+                if (ready.isEmpty ()) return;
+
+                try
+                {
+                    env.submitJobs (ready, commands);
+                }
+                catch (Exception e)
+                {
+                    // Submission failed for the whole pack, so report it in the err file of every job.
+                    // Backend.err only points at the last job prepared on this thread.
+                    for (MNode job : ready)
+                    {
+                        Path localJobDir = Host.getJobDir (Host.getLocalResourceDir (), job);
+                        if (! (e instanceof AbortRun))
+                        {
+                            try (PrintStream err = new PrintStream (new FileOutputStream (localJobDir.resolve ("err").toFile (), true), false, "UTF-8"))
+                            {
+                                e.printStackTrace (err);
+                            }
+                            catch (Exception f) {}
+                        }
+                        try {Files.copy (new ByteArrayInputStream ("failure".getBytes ("UTF-8")), localJobDir.resolve ("finished"));}
+                        catch (Exception f) {}
+                    }
+                }
+            }
+        };
+        t.setDaemon (true);
+        t.start ();
+    }
+
+    /**
+        The C runtime lays out instances much like Internal does, so borrow its estimate.
+    **/
+    @Override
+    public Footprint estimate (MNode job)
+    {
+        return Backend.getBackend ("Internal").estimate (job);
+    }
+
     @Override
     public double currentSimTime (MNode job)
     {
-        return InternalBackend.getSimTimeFromOutput (job, "out", 0);
+        double result = InternalBackend.getSimTimeFromOutput (job, "out", 0);
+        // A distributed run only fills "out" at the end, when rank 0 gathers output. Until then, follow rank 0's own copy.
+        if (result == 0  &&  job.getOrDefault (0, "$metadata", "backend", "c", "mpi") > 0) result = InternalBackend.getSimTimeFromOutput (job, "out.0", 0);
+        return result;
     }
 }
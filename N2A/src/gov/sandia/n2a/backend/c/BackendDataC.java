@@ -15,7 +15,11 @@ import gov.sandia.n2a.backend.internal.InternalBackendData.EventTarget;
 import gov.sandia.n2a.eqset.EquationSet;
 import gov.sandia.n2a.eqset.Variable;
 import gov.sandia.n2a.eqset.VariableReference;
+import gov.sandia.n2a.language.Operator;
+import gov.sandia.n2a.language.Visitor;
 import gov.sandia.n2a.language.function.Delay;
+import gov.sandia.n2a.language.function.Input;
+import gov.sandia.n2a.language.function.Output;
 import gov.sandia.n2a.plugins.extpoints.Backend;
 import gov.sandia.n2a.eqset.EquationSet.ConnectionBinding;
 
@@ -63,6 +67,8 @@ public class BackendDataC
 
     public boolean lastT;
     public boolean setDt;
+    public boolean dtCanChange;
+    public boolean threadSafe;  // Instances touch only their own state while stepping, so a worker thread may visit them.
 
     public boolean needGlobalDerivative;
     public boolean needGlobalPreserve;
@@ -503,12 +509,54 @@ public class BackendDataC
             if (hasIntegrated) break;
             hasIntegrated = ((BackendDataC) p.backendData).globalIntegrated.size () > 0;
         }
-        boolean dtCanChange =  dt != null  &&  ! dt.hasAny ("constant", "initOnly")  &&  (dt.equations.size () > 0  ||  dt.hasAttribute ("externalWrite"));
+        dtCanChange =  dt != null  &&  ! dt.hasAny ("constant", "initOnly")  &&  (dt.equations.size () > 0  ||  dt.hasAttribute ("externalWrite"));
         // dt could also change if we use a variable-step integrator. There are currently no plans to implement one.
 
         lastT = hasIntegrated  &&  (eventTargets.size () > 0  ||  dtCanChange);
     }
 
+    /**
+        Determines whether instances of this part may be stepped on a worker thread, concurrently with
+        other instances. This is deliberately conservative: any access outside the instance, any I/O,
+        and any structural change (birth, death, change of period) keeps the part on the main thread.
+        Must be called after analyzeLastT().
+    **/
+    public void analyzeThreads (EquationSet s)
+    {
+        threadSafe = false;
+        if (s.container == null  ||  s.connectionBindings != null  ||  s.parts.size () > 0) return;
+        if (s.canDie ()  ||  canGrowOrDie  ||  type != null  ||  dtCanChange) return;
+
+        class IOVisitor implements Visitor
+        {
+            boolean found;
+            public boolean visit (Operator op)
+            {
+                if (op instanceof Output  ||  op instanceof Input) found = true;
+                return ! found;
+            }
+        }
+        IOVisitor visitor = new IOVisitor ();
+        for (Variable v : s.variables)
+        {
+            if (v.reference != null  &&  v.reference.variable != null  &&  v.reference.variable.container != s) return;
+            v.visit (visitor);
+            if (visitor.found) return;
+        }
+
+        // Events are fine as long as a part only monitors itself. Spikes then go through the worker's private buffer.
+        for (EventTarget et : eventTargets)
+        {
+            for (EventSource es : et.sources) if (es.container != s) return;
+        }
+        for (EventSource es : eventSources)
+        {
+            if (es.target.container != s) return;
+        }
+
+        threadSafe = true;
+    }
+
     /**
         @param s The equation set directly associated with this backend data.
     **/
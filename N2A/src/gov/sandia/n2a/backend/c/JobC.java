@@ -6,6 +6,7 @@ the U.S. Government retains certain rights in this software.
 
 package gov.sandia.n2a.backend.c;
 
+import gov.sandia.n2a.backend.internal.InternalBackend;
 import gov.sandia.n2a.backend.internal.InternalBackendData.EventSource;
 import gov.sandia.n2a.backend.internal.InternalBackendData.EventTarget;
 import gov.sandia.n2a.db.MNode;
@@ -19,6 +20,7 @@ import gov.sandia.n2a.eqset.VariableReference;
 import gov.sandia.n2a.execenvs.Host;
 import gov.sandia.n2a.execenvs.Host.AnyProcess;
 import gov.sandia.n2a.execenvs.Host.AnyProcessBuilder;
+import gov.sandia.n2a.execenvs.RemoteSlurm;
 import gov.sandia.n2a.language.AccessVariable;
 import gov.sandia.n2a.language.BuildMatrix;
 import gov.sandia.n2a.language.Constant;
@@ -51,8 +53,11 @@ import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.StandardCopyOption;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
 import java.util.HashMap;
 import java.util.List;
+import java.util.Map.Entry;
 import java.util.NavigableSet;
 import java.util.Set;
 import java.util.TreeSet;
@@ -69,12 +74,20 @@ public class JobC extends Thread
     public Path jobDir;     // local or remote
     public Path runtimeDir; // local or remote
     public Path gcc;        // local or remote
+    public Path mpicxx;     // local or remote. Only used when mpi > 0.
 
     public String  T;
     public long    seed;
     public boolean during;
     public boolean after;
 
+    // Parallel execution. For threads, see Simulator::threads in the runtime. For mpi, see partitionModel().
+    public int                          threads;          // Number of worker threads for stepping. Values less than 2 mean single-threaded.
+    public int                          mpi;              // Number of ranks to start when launching directly. Any positive value enables MPI.
+    public HashMap<EquationSet,Integer> rankComponent;    // For each top-level part, its index in componentWeight, or -1 if it must stay on rank 0 with the top-level model.
+    public double[]                     componentWeight;  // Sorted heaviest first, so a greedy assignment balances well.
+    public double                       rootWeight;       // Work that always lands on rank 0.
+
     // These values are unique across the whole simulation, so they go here rather than BackendDataC.
     // Where possible, the key is a String. Otherwise, it is an Operator which is specific to one expression.
     public HashMap<Object,String> matrixNames = new HashMap<Object,String> ();
@@ -96,11 +109,35 @@ public class JobC extends Thread
     }
 
     public void run ()
+    {
+        String command = prepare ();
+        if (command == null) return;
+        try
+        {
+            env.submitJob (job, command);
+        }
+        catch (Exception e)
+        {
+            if (! (e instanceof AbortRun)) e.printStackTrace (Backend.err.get ());
+
+            try {Files.copy (new ByteArrayInputStream ("failure".getBytes ("UTF-8")), localJobDir.resolve ("finished"));}
+            catch (Exception f) {}
+        }
+    }
+
+    /**
+        Generates and compiles the code for this job, but does not run it.
+        May be called directly on another thread, for example to prepare a pack of jobs that will be submitted together.
+        @return The command that executes the job, or null if preparation failed. In the latter case, the
+        "finished" file has already been written.
+    **/
+    public String prepare ()
     {
         localJobDir = Host.getJobDir (Host.getLocalResourceDir (), job);  // assumes the MNode "job" is really an MDoc. In any case, the value of the node should point to a file on disk where it is stored in a directory just for it.
         try {Backend.err.set (new PrintStream (new FileOutputStream (localJobDir.resolve ("err").toFile (), true), false, "UTF-8"));}
         catch (Exception e) {}
 
+        String command = null;
         try
         {
             Files.createFile (localJobDir.resolve ("started"));
@@ -124,8 +161,13 @@ public class JobC extends Thread
             runtimeDir       = resourceDir.resolve ("cruntime");
             rebuildRuntime ();
 
+            threads = job.getOrDefault (0, "$metadata", "backend", "c", "threads");
+            mpi     = job.getOrDefault (0, "$metadata", "backend", "c", "mpi");
+            if (mpi > 0) mpicxx = resourceDir.getFileSystem ().getPath (env.config.getOrDefault ("mpicxx", "c", "mpicxx"));
+
             model = new EquationSet (job);
             digestModel ();
+            if (mpi > 0) partitionModel ();
             String duration = model.metadata.get ("duration");
             if (! duration.isEmpty ()) job.set (duration, "$metadata", "duration");
 
@@ -156,17 +198,11 @@ public class JobC extends Thread
             Files.createDirectories (jobDir);
             Path source = jobDir.resolve ("model.cc");
             generateCode (source);
-            String command = env.quote (build (source));
-
-            // The C program could append to the same error file, so we need to close the file before submitting.
-            PrintStream ps = Backend.err.get ();
-            if (ps != System.err)
+            command = env.quote (build (source));
+            if (mpi > 0  &&  ! (env instanceof RemoteSlurm))  // RemoteSlurm wraps every job in its own launcher.
             {
-                ps.close ();
-                Backend.err.remove ();
+                command = env.config.getOrDefault ("mpiexec", "c", "mpiexec") + " -n " + mpi + " " + command;
             }
-
-            env.submitJob (job, command);
         }
         catch (Exception e)
         {
@@ -174,15 +210,17 @@ public class JobC extends Thread
 
             try {Files.copy (new ByteArrayInputStream ("failure".getBytes ("UTF-8")), localJobDir.resolve ("finished"));}
             catch (Exception f) {}
+            command = null;
         }
 
-        // If an exception occurred, the error file will still be open.
+        // The C program could append to the same error file, so we need to close the file before submitting.
         PrintStream ps = Backend.err.get ();
         if (ps != System.err)
         {
             ps.close ();
             Backend.err.remove ();
         }
+        return command;
     }
 
     public void rebuildRuntime () throws Exception
@@ -229,7 +267,7 @@ public class JobC extends Thread
             Path source = runtimeDir.resolve (stem + ".cc");
             Path out = runCommand
             (
-                gcc.toString (), "-c", "-O3", "-std=c++11",
+                gcc.toString (), "-c", "-O3", "-std=c++11", "-pthread",  // The worker pool is always compiled in, but only started when the model asks for threads.
                 "-ffunction-sections", "-fdata-sections",
                 "-I" + runtimeDir,
                 "-Dn2a_T=" + T,
@@ -264,10 +302,13 @@ public class JobC extends Thread
         String stem = source.getFileName ().toString ().split ("\\.", 2)[0];
         Path binary = source.getParent ().resolve (stem + ".bin");
 
+        // The runtime itself has no MPI calls, so only the model needs the MPI compiler wrapper.
+        Path compiler = mpi > 0 ? mpicxx : gcc;
         Path out = runCommand
         (
-            gcc.toString (), "-O3", "-std=c++11",
+            compiler.toString (), "-O3", "-std=c++11",
             "-ffunction-sections", "-fdata-sections", "-Wl,--gc-sections",
+            (threads > 1 ? "-pthread" : ""),
             "-I" + env.quote (runtimeDir),
             "-Dn2a_T=" + T,
             (T.equals ("int") ? "-Dn2a_FP" : ""),
@@ -543,6 +584,198 @@ public class JobC extends Thread
         BackendDataC bed = (BackendDataC) s.backendData;
         bed.analyze (s);
         bed.analyzeLastT (s);
+        if (threads > 1) bed.analyzeThreads (s);
+    }
+
+    /**
+        Divides the top-level parts of the model into components which share no state, so each component
+        can run on its own MPI rank without any communication. A reference from one subtree into another
+        binds them into the same component, as does a connection binding or a $type split. Parts that
+        interact with the top-level model stay on rank 0. The top-level model itself runs on every rank,
+        since it holds the clock.
+    **/
+    public void partitionModel ()
+    {
+        int count = model.parts.size ();
+        int[] group = new int[count + 1];  // The last entry represents the top-level model.
+        HashMap<EquationSet,Integer> index = new HashMap<EquationSet,Integer> ();
+        for (int i = 0; i < count; i++)
+        {
+            group[i] = i;
+            index.put (model.parts.get (i), i);
+        }
+        group[count] = count;
+        index.put (model, count);
+
+        partitionReferences (model, count, index, group);
+        for (int i = 0; i < count; i++) partitionLinks (model.parts.get (i), i, index, group);
+
+        // Collect components and their weights
+        HashMap<Integer,Integer>     componentIndex = new HashMap<Integer,Integer> ();
+        List<Double>                 weights        = new ArrayList<Double> ();
+        HashMap<EquationSet,Integer> assigned       = new HashMap<EquationSet,Integer> ();
+        int root = partitionFind (group, count);
+        rootWeight = 0;
+        for (int i = 0; i < count; i++)
+        {
+            EquationSet p = model.parts.get (i);
+            double weight = partitionWeight (p);
+            int g = partitionFind (group, i);
+            if (g == root)
+            {
+                assigned.put (p, -1);
+                rootWeight += weight;
+                continue;
+            }
+            Integer c = componentIndex.get (g);
+            if (c == null)
+            {
+                c = weights.size ();
+                componentIndex.put (g, c);
+                weights.add (0.0);
+            }
+            assigned.put (p, c);
+            weights.set (c, weights.get (c) + weight);
+        }
+
+        // Sort heaviest first, then renumber.
+        List<Integer> order = new ArrayList<Integer> ();
+        for (int c = 0; c < weights.size (); c++) order.add (c);
+        Collections.sort (order, new Comparator<Integer> ()
+        {
+            public int compare (Integer a, Integer b)
+            {
+                return Double.compare (weights.get (b), weights.get (a));
+            }
+        });
+        int[] renumber = new int[order.size ()];
+        componentWeight = new double[order.size ()];
+        for (int c = 0; c < order.size (); c++)
+        {
+            renumber[order.get (c)] = c;
+            componentWeight[c] = weights.get (order.get (c));
+        }
+        rankComponent = new HashMap<EquationSet,Integer> ();
+        for (Entry<EquationSet,Integer> e : assigned.entrySet ())
+        {
+            int c = e.getValue ();
+            rankComponent.put (e.getKey (), c < 0 ? -1 : renumber[c]);
+        }
+
+        if (componentWeight.length == 0) Backend.err.get ().println ("WARNING: All parts of this model interact, so it can't be distributed. Every rank except the first will sit idle.");
+    }
+
+    /**
+        Follows every coupling out of the given part and its subparts, merging the groups of the top-level parts involved.
+    **/
+    public void partitionLinks (EquationSet s, int from, HashMap<EquationSet,Integer> index, int[] group)
+    {
+        partitionReferences (s, from, index, group);
+        if (s.connectionBindings != null)
+        {
+            for (ConnectionBinding c : s.connectionBindings) partitionUnion (group, from, partitionIndex (c.endpoint, index));
+        }
+        if (s.splitSources != null)
+        {
+            for (EquationSet e : s.splitSources) partitionUnion (group, from, partitionIndex (e, index));
+        }
+        for (EquationSet p : s.parts) partitionLinks (p, from, index, group);
+    }
+
+    public void partitionReferences (EquationSet s, int from, HashMap<EquationSet,Integer> index, int[] group)
+    {
+        for (Variable v : s.variables)
+        {
+            if (v.reference == null  ||  v.reference.variable == null) continue;
+            Variable target = v.reference.variable;
+            if (target.container == model  &&  target.name.startsWith ("$")) continue;  // The top-level model is replicated on every rank.
+            partitionUnion (group, from, partitionIndex (target.container, index));
+        }
+    }
+
+    /**
+        @return Index of the top-level part that contains s, or the index of the top-level model itself.
+    **/
+    public int partitionIndex (EquationSet s, HashMap<EquationSet,Integer> index)
+    {
+        while (s != null  &&  s.container != null  &&  s.container != model) s = s.container;
+        Integer result = index.get (s);
+        if (result == null) return index.get (model);
+        return result;
+    }
+
+    public static int partitionFind (int[] group, int i)
+    {
+        while (group[i] != i) i = group[i] = group[group[i]];
+        return i;
+    }
+
+    public static void partitionUnion (int[] group, int a, int b)
+    {
+        a = partitionFind (group, a);
+        b = partitionFind (group, b);
+        // The higher index wins, so the top-level model always represents its own group.
+        if      (a < b) group[a] = b;
+        else if (b < a) group[b] = a;
+    }
+
+    /**
+        Rough measure of the work done by a part, based on the number of instances it will have.
+        Non-constant sizes count as 1.
+    **/
+    public static double partitionWeight (EquationSet s)
+    {
+        double n = 1;
+        if (s.connectionBindings == null)
+        {
+            n = InternalBackend.constantValue (s, "$n", 1);
+        }
+        else
+        {
+            for (ConnectionBinding c : s.connectionBindings) n *= InternalBackend.constantValue (c.endpoint, "$n", 1);
+            n *= InternalBackend.constantValue (s, "$p", 1);
+        }
+        double inner = 1;
+        for (EquationSet p : s.parts) inner += partitionWeight (p);
+        return n * inner;
+    }
+
+    /**
+        Emits the table of components and the function that assigns them to ranks.
+        The assignment happens at run time, because the number of ranks is only known then.
+    **/
+    public void generateDecomposition (StringBuilder result)
+    {
+        int count = componentWeight.length;
+        result.append ("int mpiRank  = 0;\n");
+        result.append ("int mpiRanks = 1;\n");
+        if (count > 0)
+        {
+            result.append ("int mpiOwner[" + count + "];\n");
+            result.append ("const double mpiWeight[" + count + "] = {");
+            for (int c = 0; c < count; c++)
+            {
+                if (c > 0) result.append (", ");
+                result.append (componentWeight[c]);
+            }
+            result.append ("};\n");
+        }
+        result.append ("\n");
+        result.append ("void mpiAssign ()\n");
+        result.append ("{\n");
+        if (count > 0)
+        {
+            result.append ("  vector<double> load (mpiRanks, 0.0);\n");
+            result.append ("  load[0] = " + rootWeight + ";\n");
+            result.append ("  for (int c = 0; c < " + count + "; c++)\n");
+            result.append ("  {\n");
+            result.append ("    int best = 0;\n");
+            result.append ("    for (int r = 1; r < mpiRanks; r++) if (load[r] < load[best]) best = r;\n");
+            result.append ("    mpiOwner[c] = best;\n");
+            result.append ("    load[best] += mpiWeight[c];\n");
+            result.append ("  }\n");
+        }
+        result.append ("}\n");
     }
 
     public void generateCode (Path source) throws Exception
@@ -552,6 +785,7 @@ public class JobC extends Thread
         if (T.equals ("int")) context = new RendererCfp (this, result);
         else                  context = new RendererC   (this, result);
 
+        if (mpi > 0) result.append ("#include <mpi.h>\n");
         result.append ("#include \"runtime.h\"\n");
         result.append ("#include \"Matrix.tcc\"\n");
         result.append ("#include \"MatrixFixed.tcc\"\n");
@@ -566,6 +800,11 @@ public class JobC extends Thread
         result.append ("\n");
         generateStatic (context, model);
         result.append ("\n");
+        if (mpi > 0)
+        {
+            generateDecomposition (result);
+            result.append ("\n");
+        }
         generateClassList (model, result);
         result.append ("class Wrapper;\n");
         result.append ("\n");
@@ -591,13 +830,29 @@ public class JobC extends Thread
         result.append ("  signal (SIGINT,  signalHandler);\n");
         result.append ("  signal (SIGTERM, signalHandler);\n");
         result.append ("\n");
+        if (mpi > 0)
+        {
+            result.append ("  MPI_Init (&argc, &argv);\n");
+            result.append ("  MPI_Comm_rank (MPI_COMM_WORLD, &mpiRank);\n");
+            result.append ("  MPI_Comm_size (MPI_COMM_WORLD, &mpiRanks);\n");
+            result.append ("  mpiAssign ();\n");
+            result.append ("  outputRank = mpiRank;\n");
+        }
+        else
+        {
+            // A launcher such as mpiexec may start several copies of this program.
+            // Without MPI compiled in, they would only duplicate the work.
+            result.append ("  if (launcherRank () > 0) return 0;\n");
+        }
+        result.append ("\n");
         result.append ("  try\n");
         result.append ("  {\n");
         generateMainInitializers (result);
         result.append ("\n");
         if (seed >= 0)
         {
-            result.append ("    srand (" + seed + ");\n");
+            if (mpi > 0) result.append ("    srand (" + seed + " + mpiRank);\n");
+            else         result.append ("    srand (" + seed + ");\n");
         }
         if (T.equals ("int"))
         {
@@ -609,6 +864,7 @@ public class JobC extends Thread
         else                                            integrator = "Euler";
         result.append ("    Simulator<" + T + ">::instance.integrator = new " + integrator + "<" + T + ">;\n");
         result.append ("    Simulator<" + T + ">::instance.after = " + after + ";\n");
+        if (threads > 1) result.append ("    Simulator<" + T + ">::instance.threads = " + threads + ";\n");
         result.append ("    Wrapper wrapper;\n");
         result.append ("    Simulator<" + T + ">::instance.run (wrapper);\n");
         result.append ("\n");
@@ -617,8 +873,16 @@ public class JobC extends Thread
         result.append ("  catch (const char * message)\n");
         result.append ("  {\n");
         result.append ("    cerr << \"Exception: \" << message << endl;\n");
+        if (mpi > 0) result.append ("    MPI_Abort (MPI_COMM_WORLD, 1);\n");
         result.append ("    return 1;\n");
         result.append ("  }\n");
+        if (mpi > 0)
+        {
+            // Each rank wrote its own files. Once all are closed, rank 0 merges them.
+            result.append ("  MPI_Barrier (MPI_COMM_WORLD);\n");
+            result.append ("  if (mpiRank == 0) outputGather (mpiRanks);\n");
+            result.append ("  MPI_Finalize ();\n");
+        }
         result.append ("  return 0;\n");
         result.append ("}\n");
 
@@ -1256,6 +1520,10 @@ public class JobC extends Thread
         {
             result.append ("  virtual bool getNewborn ();\n");
         }
+        if (bed.threadSafe)
+        {
+            result.append ("  virtual bool threadSafe ();\n");
+        }
         if (s.connectionMatrix != null)
         {
             result.append ("  virtual int mapIndex (int i, int rc);\n");
@@ -2343,7 +2611,11 @@ public class JobC extends Thread
                 {
                     if (((BackendDataC) e.backendData).needGlobalInit)
                     {
-                        result.append ("  " + mangle (e.name) + ".init ();\n");
+                        Integer c = null;
+                        if (s == model  &&  rankComponent != null) c = rankComponent.get (e);
+                        String guard = "";
+                        if (c != null) guard = c < 0 ? "if (mpiRank == 0) " : "if (mpiOwner[" + c + "] == mpiRank) ";
+                        result.append ("  " + guard + mangle (e.name) + ".init ();\n");
                     }
                 }
             }
@@ -3058,6 +3330,16 @@ public class JobC extends Thread
             result.append ("\n");
         }
 
+        // Unit threadSafe
+        if (bed.threadSafe)
+        {
+            result.append ("bool " + ns + "threadSafe ()\n");
+            result.append ("{\n");
+            result.append ("  return true;\n");
+            result.append ("}\n");
+            result.append ("\n");
+        }
+
         // Unit getLive
         if (bed.live != null  &&  ! bed.live.hasAttribute ("constant"))
         {
@@ -3508,7 +3790,7 @@ public class JobC extends Thread
         result.append (pad + "spike->latch = " + et.valueIndex + ";\n");
         if (multi) result.append (pad + "spike->targets = &eventMonitor_" + prefix (et.container) + ";\n");
         else       result.append (pad + "spike->target = p;\n");
-        result.append (pad + "Simulator<" + T + ">::instance.queueEvent.push (spike);\n");
+        result.append (pad + "Simulator<" + T + ">::instance.queueSpike (spike);\n");
     }
 
     public void eventGenerate (String pad, EventTarget et, RendererC context, String eventSpike, String eventSpikeLatch)
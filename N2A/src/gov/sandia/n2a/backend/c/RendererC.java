@@ -357,7 +357,15 @@ public class RendererC extends Renderer
         if (op instanceof Output)
         {
             Output o = (Output) op;
-            result.append (o.name + "->trace (Simulator<" + job.T + ">::instance.currentEvent->t, ");
+            if (job.mpi > 0  &&  part == job.model)  // The top-level model runs on every rank, but only rank 0 should report it.
+            {
+                result.append ("(mpiRank ? outputDiscard<" + job.T + "> () : " + o.name + ")");
+            }
+            else
+            {
+                result.append (o.name);
+            }
+            result.append ("->trace (Simulator<" + job.T + ">::instance.currentEvent->t, ");
 
             if (o.hasColumnName)  // column name is explicit
             {
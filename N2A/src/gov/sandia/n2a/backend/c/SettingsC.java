@@ -30,10 +30,12 @@ import javax.swing.event.ListSelectionListener;
 public class SettingsC implements Settings, ChangeListener
 {
     protected JScrollPane            scrollPane;
-    protected DefaultListModel<Host> model    = new DefaultListModel<Host> ();
-    protected JList<Host>            list     = new JList<Host> (model);
-    protected JPanel                 editor   = new JPanel ();
-    protected MTextField             fieldCpp = new MTextField (40);
+    protected DefaultListModel<Host> model        = new DefaultListModel<Host> ();
+    protected JList<Host>            list         = new JList<Host> (model);
+    protected JPanel                 editor       = new JPanel ();
+    protected MTextField             fieldCpp     = new MTextField (40);
+    protected MTextField             fieldMpiCpp  = new MTextField (40);
+    protected MTextField             fieldMpiExec = new MTextField (40);
 
     public SettingsC ()
     {
@@ -69,7 +71,9 @@ public class SettingsC implements Settings, ChangeListener
                 if (e.getValueIsAdjusting ()) return;
                 Host h = (Host) list.getSelectedValue ();
                 if (h == null) return;
-                fieldCpp.bind (h.config.childOrCreate ("c"), "cxx", "g++");
+                fieldCpp    .bind (h.config.childOrCreate ("c"), "cxx",     "g++");
+                fieldMpiCpp .bind (h.config.childOrCreate ("c"), "mpicxx",  "mpicxx");
+                fieldMpiExec.bind (h.config.childOrCreate ("c"), "mpiexec", "mpiexec");
             }
         });
 
@@ -84,7 +88,9 @@ public class SettingsC implements Settings, ChangeListener
                     Box.createHorizontalStrut (5),
                     Lay.BL ("N",
                         Lay.BxL (
-                            Lay.BL ("W", Lay.FL ("H", new JLabel ("Compiler path"), fieldCpp))
+                            Lay.BL ("W", Lay.FL ("H", new JLabel ("Compiler path"), fieldCpp)),
+                            Lay.BL ("W", Lay.FL ("H", new JLabel ("MPI compiler path"), fieldMpiCpp)),
+                            Lay.BL ("W", Lay.FL ("H", new JLabel ("MPI launcher path"), fieldMpiExec))
                         )
                     )
                 )
@@ -25,6 +25,7 @@ template MatrixInput<n2a_T> *  matrixHelper (const String & fileName,
 template InputHolder<n2a_T> *  inputHelper  (const String & fileName,               InputHolder<n2a_T> *  oldHandle);
 #endif
 template OutputHolder<n2a_T> * outputHelper (const String & fileName,               OutputHolder<n2a_T> * oldHandle);
+template OutputHolder<n2a_T> * outputDiscard<n2a_T> ();
 
 
 // Non-templated functions ---------------------------------------------------
@@ -41,6 +42,256 @@ Holder::~Holder ()
 void
 outputClose ()
 {
+    if (outputRank >= 0)  // List our files, so rank 0 can find them in outputGather().
+    {
+        String manifestName = String ("outputs.") + outputRank;
+        ofstream manifest (manifestName.c_str ());
+        for (auto it : outputMap) manifest << (it->fileName.empty () ? String ("out") : it->fileName) << endl;
+    }
     for (auto it : outputMap) delete it;
     // No need to clear collection, because this function is only called during shutdown.
 }
+
+/// One rank's copy of an output file, read a row at a time by outputGather().
+struct GatherSource
+{
+    ifstream       in;
+    vector<int>    columns;  ///< Position in the merged file of each column in this file.
+    vector<String> fields;   ///< Current row
+    double         t;
+    bool           done;
+    bool           header;   ///< Indicates that a header row was seen. A file with no header before its first row was written in raw mode.
+
+    GatherSource (const String & fileName)
+    :   in (fileName.c_str ())
+    {
+        t      = 0;
+        header = false;
+        done   = ! next ();
+    }
+
+    bool next ()
+    {
+        while (in.good ())
+        {
+            String line;
+            getline (in, line);
+            if (line.empty ()) continue;
+            char firstCharacter = line[0];
+            if (firstCharacter < '-'  ||  firstCharacter == '/'  ||  firstCharacter > '9')  // not a number, so must be column header
+            {
+                header = true;
+                continue;
+            }
+
+            fields.clear ();
+            int i = 0;
+            int end = line.size ();
+            while (true)
+            {
+                int j = line.find_first_of ("\t", i);
+                if (j == String::npos) j = end;
+                fields.push_back (line.substr (i, j - i));
+                if (j >= end) break;
+                i = j + 1;
+            }
+            t = atof (fields[0].c_str ());
+            return true;
+        }
+        return false;
+    }
+};
+
+void
+outputGather (int ranks)
+{
+    // Every rank lists the files it wrote. Collect the union, in order of first appearance.
+    vector<String> bases;
+    for (int r = 0; r < ranks; r++)
+    {
+        String manifestName = String ("outputs.") + r;
+        ifstream manifest (manifestName.c_str ());
+        while (manifest.good ())
+        {
+            String line;
+            getline (manifest, line);
+            if (line.empty ()) continue;
+            bool found = false;
+            for (auto & b : bases) if (b == line) found = true;
+            if (! found) bases.push_back (line);
+        }
+        manifest.close ();
+        remove (manifestName.c_str ());
+    }
+
+    for (auto & base : bases)
+    {
+        vector<GatherSource *>          sources;
+        vector<String>                  names;  // of merged columns
+        vector<map<String,String>>      modes;
+        unordered_map<String,int>       columnMap;
+        vector<String>                  columnFileNames;
+        names.push_back ("$t");  // Always first, as in each rank's file.
+        modes.resize (1);
+        columnMap["$t"] = 0;
+        bool raw = false;
+        for (int r = 0; r < ranks; r++)
+        {
+            String fileName = base + "." + r;
+            GatherSource * s = new GatherSource (fileName);
+            if (! s->in.is_open ())
+            {
+                delete s;
+                continue;
+            }
+            sources.push_back (s);
+            columnFileNames.push_back (fileName + ".columns");
+            if (! s->done  &&  ! s->header) raw = true;
+        }
+
+        // Map each rank's columns into the merged file.
+        // Named columns are matched by name. In raw mode the name is the column index, so position is kept instead.
+        int sourceCount = sources.size ();
+        for (int k = 0; k < sourceCount; k++)
+        {
+            GatherSource * s = sources[k];
+            String & columnFileName = columnFileNames[k];
+
+            // The columns file lists entries in no particular order, so collect them by position first.
+            vector<String>             sourceNames;
+            vector<map<String,String>> sourceModes;
+            ifstream mi (columnFileName.c_str ());
+            int current = -1;
+            while (mi.good ())
+            {
+                String line;
+                getline (mi, line);
+                if (line.empty ()) continue;
+                String key;
+                String value;
+                if (line[0] == ' ')  // mode for current column
+                {
+                    if (current < 0) continue;
+                    line.trim ();
+                    split (line, ":", key, value);
+                    sourceModes[current][key] = value;
+                    continue;
+                }
+                split (line, ":", key, value);
+                if (value.empty ()) continue;  // schema line
+                current = atoi (key.c_str ());
+                if (current >= sourceNames.size ())
+                {
+                    sourceNames.resize (current + 1);
+                    sourceModes.resize (current + 1);
+                }
+                sourceNames[current] = value;
+            }
+
+            int columnCount = sourceNames.size ();
+            s->columns.resize (columnCount, -1);
+            for (int c = 0; c < columnCount; c++)
+            {
+                String & name = sourceNames[c];
+                if (name.empty ()) continue;  // gap in raw columns
+                int m = c;
+                if (! raw)
+                {
+                    auto it = columnMap.find (name);
+                    if (it == columnMap.end ())
+                    {
+                        m = names.size ();
+                        columnMap[name] = m;
+                    }
+                    else
+                    {
+                        m = it->second;
+                    }
+                }
+                if (m >= names.size ())
+                {
+                    names.resize (m + 1);
+                    modes.resize (m + 1);
+                }
+                names[m] = name;
+                for (auto nv : sourceModes[c]) modes[m][nv.first] = nv.second;
+                s->columns[c] = m;
+            }
+            mi.close ();
+            remove (columnFileName.c_str ());
+        }
+
+        ostream * out;
+        if (base == "out") out = &cout;
+        else               out = new ofstream (base.c_str ());
+        int count = names.size ();
+        if (! raw  &&  count)
+        {
+            for (int i = 0; i < count; i++)
+            {
+                if (i) (*out) << "\t";
+                String header (names[i]);  // deep copy
+                header.replace_all (' ', '_');
+                (*out) << header;
+            }
+            (*out) << endl;
+        }
+
+        // Merge rows in time order. Rows from several ranks at the same time become one row.
+        vector<String> row (count);
+        while (true)
+        {
+            bool any = false;
+            double t = 0;
+            for (auto s : sources)
+            {
+                if (s->done) continue;
+                if (! any  ||  s->t < t) t = s->t;
+                any = true;
+            }
+            if (! any) break;
+
+            for (auto & f : row) f.clear ();
+            for (auto s : sources)
+            {
+                if (s->done  ||  s->t != t) continue;
+                int fieldCount = s->fields.size ();
+                for (int i = 0; i < fieldCount; i++)
+                {
+                    if (s->fields[i].empty ()) continue;
+                    int c = raw ? i : (i < s->columns.size () ? s->columns[i] : -1);
+                    if (c < 0) continue;
+                    if (c >= row.size ()) row.resize (c + 1);
+                    row[c] = s->fields[i];
+                }
+                s->done = ! s->next ();
+            }
+            int last = row.size () - 1;
+            for (int i = 0; i <= last; i++)
+            {
+                (*out) << row[i];
+                if (i < last) (*out) << "\t";
+            }
+            (*out) << endl;
+        }
+        out->flush ();
+        if (out != &cout) delete out;
+
+        for (auto s : sources) delete s;
+        for (int r = 0; r < ranks; r++)
+        {
+            String fileName = base + "." + r;
+            remove (fileName.c_str ());
+        }
+
+        String columnFileName = base + ".columns";
+        ofstream mo (columnFileName.c_str ());
+        mo << "N2A.schema=2\n";
+        for (int i = 0; i < count; i++)
+        {
+            if (names[i].empty ()) continue;  // gap in raw columns
+            mo << i << ":" << names[i] << "\n";
+            for (auto nv : modes[i]) mo << " " << nv.first << ":" << nv.second << "\n";
+        }
+    }
+}
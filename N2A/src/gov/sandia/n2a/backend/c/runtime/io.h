@@ -133,7 +133,7 @@ public:
     bool                                   traceReceived;   ///< Indicates that at least one column was touched during the current cycle.
     T                                      t;
 
-    OutputHolder (const String & fileName);
+    OutputHolder (const String & fileName, bool open = true);  ///< If open is false, the holder accepts traces but writes nothing.
     virtual ~OutputHolder ();
 
     void trace (T now);               ///< Subroutine for other trace() functions.
@@ -151,7 +151,10 @@ public:
     void writeModes ();
 };
 template<class T> extern OutputHolder<T> * outputHelper (const String & fileName, OutputHolder<T> * oldHandle = 0);
-extern void outputClose ();  ///< Close all OutputHolders
+template<class T> extern OutputHolder<T> * outputDiscard ();  ///< Shared holder which writes nothing. Lets all but one rank skip output that every rank would otherwise duplicate.
+extern void outputClose ();           ///< Close all OutputHolders
+extern void outputGather (int ranks); ///< Merge the per-rank files of a distributed simulation into the files a single process would have written. Only called on rank 0, after every rank has closed its output.
+extern int  outputRank;               ///< Rank of this process in a distributed simulation, or -1 when running alone. Each rank writes its own copy of every output file, with the rank as a suffix.
 
 
 #endif
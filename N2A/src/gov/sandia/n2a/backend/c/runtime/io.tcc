@@ -772,7 +772,7 @@ inputHelper (const String & fileName,               InputHolder<T> * oldHandle)
 // OutputHolder --------------------------------------------------------------
 
 template<class T>
-OutputHolder<T>::OutputHolder (const String & fileName)
+OutputHolder<T>::OutputHolder (const String & fileName, bool open)
 :   Holder (fileName)
 {
     columnsPrevious = 0;
@@ -780,7 +780,17 @@ OutputHolder<T>::OutputHolder (const String & fileName)
     t               = 0;
     raw             = false;
 
-    if (fileName.empty ())
+    if (! open)
+    {
+        out = 0;
+    }
+    else if (outputRank >= 0)
+    {
+        String name = (fileName.empty () ? String ("out") : fileName) + "." + outputRank;
+        out = new std::ofstream (name.c_str ());
+        columnFileName = name + ".columns";
+    }
+    else if (fileName.empty ())
     {
         out = &std::cout;
         columnFileName = "out.columns";
@@ -988,6 +998,7 @@ OutputHolder<T>::trace (T now, T column, T value,                  const char *
         {
             index++;  // column index + offset for time column
             columnValues.resize (index, NAN);  // add any missing columns before the one we are about to create
+            while (columnMode.size () < index) columnMode.push_back (new std::map<String,String>);  // keep modes aligned with columns
         }
         columnMap[columnName] = columnValues.size ();
         columnValues.push_back ((float) value);
@@ -1065,6 +1076,7 @@ OutputHolder<T>::writeModes ()
 }
 
 std::vector<Holder *> outputMap;
+int outputRank = -1;
 
 template<class T>
 OutputHolder<T> *
@@ -1079,5 +1091,13 @@ outputHelper (const String & fileName, OutputHolder<T> * oldHandle)
     return handle;
 }
 
+template<class T>
+OutputHolder<T> *
+outputDiscard ()
+{
+    static OutputHolder<T> handle ("", false);
+    return &handle;
+}
+
 
 #endif
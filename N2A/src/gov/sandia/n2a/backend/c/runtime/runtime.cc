@@ -3,6 +3,7 @@
 #include "Matrix.tcc"
 
 #include <csignal>
+#include <cstdlib>
 
 
 using namespace std;
@@ -34,8 +35,40 @@ void signalHandler (int number)
             exit (number);
     }
 }
+
+int launcherRank ()
+{
+    // Each MPI launcher advertises the rank through its own environment variable.
+    const char * names[] = {"OMPI_COMM_WORLD_RANK", "PMI_RANK", "MV2_COMM_WORLD_RANK", "SLURM_PROCID"};
+    for (const char * name : names)
+    {
+        const char * value = getenv (name);
+        if (value) return atoi (value);
+    }
+    return 0;
+}
 #endif
 
+static thread_local bool         randomLocal = false;
+static thread_local unsigned int randomState;
+
+int randomInt ()
+{
+    if (! randomLocal) return rand ();
+
+    // xorshift32. Quality is adequate for simulation noise, and the state is only one word per thread.
+    randomState ^= randomState << 13;
+    randomState ^= randomState >> 17;
+    randomState ^= randomState << 5;
+    return randomState % ((unsigned int) RAND_MAX + 1);
+}
+
+void randomSeed (unsigned int seed)
+{
+    randomLocal = true;
+    randomState = seed ? seed : 0x9E3779B9;  // xorshift can't leave the all-zero state.
+}
+
 
 // I/O -----------------------------------------------------------------------
 
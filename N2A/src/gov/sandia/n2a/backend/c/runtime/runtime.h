@@ -11,6 +11,9 @@
 #include <queue>
 #include <vector>
 #include <map>
+#include <thread>
+#include <mutex>
+#include <condition_variable>
 
 
 // General functions ---------------------------------------------------------
@@ -79,8 +82,12 @@ template<class T> MatrixFixed<T,3,1> gridRaw (int i, int nx = 1, int ny = 1, int
 
 #ifndef N2A_SPINNAKER
 extern void signalHandler (int number);
+extern int  launcherRank ();  ///< Rank assigned by mpiexec or srun, if any. Zero when the program was started directly.
 #endif
 
+extern int  randomInt  ();                   ///< Same range as rand(). Draws from a private generator on any thread that has called randomSeed(), otherwise from rand().
+extern void randomSeed (unsigned int seed);  ///< Gives the calling thread its own generator, so worker threads neither contend for nor perturb the shared rand() sequence.
+
 
 // Simulation classes --------------------------------------------------------
 
@@ -186,6 +193,9 @@ public:
     virtual int       mapIndex   (int i, int rc);                   ///< Converts matrix index to population $index. Generally, rows map to endpoint 0 and columns to endpoint 1.
     virtual bool      getNewborn ();                                ///< @return The value of the newborn flag (or false if it doesn't exist in this part). Unlike the above, this is a direct function of the endpoint.
 
+    // Threading
+    virtual bool threadSafe ();  ///< @return true if this part touches only its own state while stepping, so a worker thread may visit it. Default is false.
+
     // Accessors for $variables
     virtual T    getLive ();                         ///< @return 1 if we are in normal simulation. 0 if we have died. Default is 1.
     virtual T    getP    ();                         ///< Default is 1 (always create)
@@ -436,6 +446,19 @@ public:
     Event<T> *                                   currentEvent;
     bool                                         after;         ///< When true, and timesteps match, sort spike events after step events. Otherwise sort them before.
 
+    // Worker threads for EventStep. See EventStep::visit().
+    int                                          threads;       ///< Number of workers that step thread-safe parts. Values less than 2 mean all work happens on the main thread.
+    std::vector<std::thread>                     workers;
+    std::mutex                                   workMutex;
+    std::condition_variable                      workReady;
+    std::condition_variable                      workDone;
+    std::function<void (int)>                    work;          ///< Current job. The argument is the index of the worker.
+    int                                          workCycle;     ///< Incremented each time a job is posted, so workers can tell new work from old.
+    int                                          workPending;   ///< Number of workers still busy with the current job.
+    bool                                         workStop;
+    std::vector<std::vector<Event<T> *>>         spikes;        ///< Events generated by each worker during the current job. Merged into queueEvent at the barrier, in worker order, so the result does not depend on thread timing.
+    static thread_local int                      worker;        ///< Index of the worker running on the current thread, or -1 for the main thread.
+
     static Simulator<T> instance;  ///< Singleton
 
     Simulator ();
@@ -446,6 +469,11 @@ public:
 
     void enqueue      (Part<T> * part, T dt); ///< Places part on event with period dt. If the event already exists, then the actual time till the part next executes may be less than dt, but thereafter will be exactly dt. Caller is responsible to call dequeue() or enterSimulation().
     void removePeriod (EventStep<T> * event);
+    void queueSpike   (Event<T> * event);     ///< Adds event to queueEvent, or to the private buffer of the current worker while a parallel job is running.
+
+    void startWorkers ();
+    void stopWorkers  ();
+    void runParallel  (std::function<void (int)> job); ///< Runs job once on every worker, then waits for all of them to finish.
 
     // callbacks
     void resize   (Population<T> * population, int n); ///< Schedule population to be resized at end of current cycle.
@@ -487,7 +515,8 @@ class EventStep : public Event<T>
 {
 public:
     T dt;
-    std::vector<VisitorStep<T> *> visitors;
+    std::vector<VisitorStep<T> *> visitors;  ///< visitors[0] holds parts that must run on the main thread. When Simulator::threads > 1, each remaining visitor belongs to one worker.
+    int nextVisitor;                          ///< Round-robin position for distributing thread-safe parts among workers.
 
     EventStep (T t, T dt);
     virtual ~EventStep ();
@@ -21,14 +21,14 @@ template<class T>
 T
 uniform ()
 {
-    return (T) rand () / RAND_MAX;
+    return (T) randomInt () / RAND_MAX;
 }
 
 template<class T>
 T
 uniform (T sigma)
 {
-    return sigma * rand () / RAND_MAX;
+    return sigma * randomInt () / RAND_MAX;
 }
 
 // Box-Muller method (polar variant) for Gaussian random numbers.
@@ -36,8 +36,8 @@ template<class T>
 T
 gaussian ()
 {
-    static bool haveNextGaussian = false;
-    static T nextGaussian;
+    static thread_local bool haveNextGaussian = false;
+    static thread_local T nextGaussian;
 
     if (haveNextGaussian)
     {
@@ -105,9 +105,9 @@ int
 uniform ()
 {
 #if RAND_MAX == 0x7FFFFFFF
-    return rand ();  // exponent=-1; This version can never actually reach 1, only [0,1). However, this shouldn't make any algorithmic difference to callers.
+    return randomInt ();  // exponent=-1; This version can never actually reach 1, only [0,1). However, this shouldn't make any algorithmic difference to callers.
 #elif RAND_MAX == 0x7FFF
-    return rand () << 16;
+    return randomInt () << 16;
 #else
 # error Need support for unique size of RAND_MAX
 #endif
@@ -127,8 +127,8 @@ template<>
 int
 gaussian ()
 {
-    static bool haveNextGaussian = false;
-    static int nextGaussian;
+    static thread_local bool haveNextGaussian = false;
+    static thread_local int nextGaussian;
 
     if (haveNextGaussian)
     {
@@ -392,6 +392,13 @@ Part<T>::getNewborn ()
     return false;
 }
 
+template<class T>
+bool
+Part<T>::threadSafe ()
+{
+    return false;
+}
+
 template<class T>
 T
 Part<T>::getLive ()
@@ -1154,12 +1161,17 @@ Population<T>::getIterator (int i)
 // class Simulator -----------------------------------------------------------
 
 template<class T> Simulator<T> Simulator<T>::instance;
+template<class T> thread_local int Simulator<T>::worker = -1;
 
 template<class T>
 Simulator<T>::Simulator ()
 {
-    integrator = 0;
-    stop = false;
+    integrator  = 0;
+    stop        = false;
+    threads     = 1;
+    workCycle   = 0;
+    workPending = 0;
+    workStop    = false;
 
 #   ifdef n2a_FP
     EventStep<T> * event = new EventStep<T> (0, (1 << FP_MSB) / 10000);  // Works for exponentTime=0. For any other case, it is necessary for top-level part to call setPeriod().
@@ -1173,6 +1185,7 @@ Simulator<T>::Simulator ()
 template<class T>
 Simulator<T>::~Simulator ()
 {
+    stopWorkers ();
     for (auto event : periods) delete event;
     if (integrator) delete integrator;
 }
@@ -1181,6 +1194,8 @@ template<class T>
 void
 Simulator<T>::run (WrapperBase<T> & wrapper)
 {
+    if (threads > 1) startWorkers ();
+
     // Init cycle
     EventStep<T> * event = (EventStep<T> *) currentEvent;
     event->enqueue (&wrapper);  // no need for wrapper->enterSimulation()
@@ -1211,6 +1226,8 @@ Simulator<T>::run (WrapperBase<T> & wrapper)
         }
 #       endif
     }
+
+    stopWorkers ();
 }
 
 template<class T>
@@ -1275,6 +1292,82 @@ Simulator<T>::removePeriod (EventStep<T> * event)
     delete event;  // Events still in periods at end will get deleted by dtor.
 }
 
+template<class T>
+void
+Simulator<T>::queueSpike (Event<T> * event)
+{
+    if (worker < 0) queueEvent.push (event);
+    else            spikes[worker].push_back (event);
+}
+
+template<class T>
+void
+Simulator<T>::startWorkers ()
+{
+    if (! workers.empty ()) return;
+    spikes.resize (threads);
+    workStop = false;
+    for (int i = 0; i < threads; i++)
+    {
+        // Seeds are drawn on the main thread, so the whole run remains reproducible from the single seed.
+        unsigned int seed = randomInt ();
+        workers.push_back (std::thread ([this, i, seed] ()
+        {
+            worker = i;
+            randomSeed (seed);
+            int cycle = 0;
+            std::unique_lock<std::mutex> lock (workMutex);
+            while (true)
+            {
+                workReady.wait (lock, [this, &cycle] () {return workStop  ||  workCycle != cycle;});
+                if (workStop) return;
+                cycle = workCycle;
+                lock.unlock ();
+                work (i);
+                lock.lock ();
+                if (--workPending == 0) workDone.notify_one ();
+            }
+        }));
+    }
+}
+
+template<class T>
+void
+Simulator<T>::stopWorkers ()
+{
+    if (workers.empty ()) return;
+    {
+        std::lock_guard<std::mutex> lock (workMutex);
+        workStop = true;
+    }
+    workReady.notify_all ();
+    for (auto & t : workers) t.join ();
+    workers.clear ();
+}
+
+template<class T>
+void
+Simulator<T>::runParallel (std::function<void (int)> job)
+{
+    {
+        std::lock_guard<std::mutex> lock (workMutex);
+        work        = job;
+        workPending = workers.size ();
+        workCycle++;
+    }
+    workReady.notify_all ();
+    {
+        std::unique_lock<std::mutex> lock (workMutex);
+        workDone.wait (lock, [this] () {return workPending == 0;});
+    }
+
+    for (auto & buffer : spikes)
+    {
+        for (auto event : buffer) queueEvent.push (event);
+        buffer.clear ();
+    }
+}
+
 template<class T>
 void
 Simulator<T>::resize (Population<T> * population, int n)
@@ -1475,6 +1568,7 @@ EventStep<T>::EventStep (T t, T dt)
 :   dt (dt)
 {
     this->t = t;
+    nextVisitor = 0;
     visitors.push_back (new VisitorStep<T> (this));
 }
 
@@ -1521,6 +1615,19 @@ template<class T>
 void
 EventStep<T>::visit (std::function<void (Visitor<T> * visitor)> f)
 {
+    if (visitors.size () > 1  &&  ! Simulator<T>::instance.workers.empty ())
+    {
+        // Thread-safe parts only touch their own state, so each worker can step its share without locks.
+        // The remaining parts run on the main thread after the barrier, so they see the finished work of the others.
+        Simulator<T>::instance.runParallel ([this, &f] (int i)
+        {
+            visitors[i+1]->visit (f);
+        });
+    }
+    else
+    {
+        for (int i = 1; i < visitors.size (); i++) visitors[i]->visit (f);
+    }
     visitors[0]->visit (f);
 }
 
@@ -1528,7 +1635,14 @@ template<class T>
 void
 EventStep<T>::requeue ()
 {
-    if (visitors[0]->queue.next)  // still have instances, so re-queue event
+    bool empty = true;
+    for (auto v : visitors)
+    {
+        if (! v->queue.next) continue;
+        empty = false;
+        break;
+    }
+    if (! empty)  // still have instances, so re-queue event
     {
         this->t += dt;
         Simulator<T>::instance.queueEvent.push (this);
@@ -1543,7 +1657,15 @@ template<class T>
 void
 EventStep<T>::enqueue (Part<T> * part)
 {
-    visitors[0]->enqueue (part);
+    int threads = Simulator<T>::instance.threads;
+    if (threads < 2  ||  ! part->threadSafe ())
+    {
+        visitors[0]->enqueue (part);
+        return;
+    }
+    while (visitors.size () <= threads) visitors.push_back (new VisitorStep<T> (this));
+    visitors[1 + nextVisitor]->enqueue (part);
+    nextVisitor = (nextVisitor + 1) % threads;
 }
 
 
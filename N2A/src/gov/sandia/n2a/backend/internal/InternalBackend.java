@@ -7,7 +7,13 @@ the U.S. Government retains certain rights in this software.
 package gov.sandia.n2a.backend.internal;
 
 import gov.sandia.n2a.db.MNode;
+import gov.sandia.n2a.eqset.EquationEntry;
 import gov.sandia.n2a.eqset.EquationSet;
+import gov.sandia.n2a.eqset.EquationSet.ConnectionBinding;
+import gov.sandia.n2a.eqset.Variable;
+import gov.sandia.n2a.execenvs.Host;
+import gov.sandia.n2a.execenvs.Scheduler.Footprint;
+import gov.sandia.n2a.language.Constant;
 import gov.sandia.n2a.plugins.extpoints.Backend;
 import java.io.ByteArrayInputStream;
 import java.io.FileOutputStream;
@@ -15,6 +21,8 @@ import java.io.PrintStream;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
 
 public class InternalBackend extends Backend
 {
@@ -32,6 +40,14 @@ public class InternalBackend extends Backend
         simulationThread.start ();
     }
 
+    @Override
+    public void start (List<MNode> jobs)
+    {
+        Thread packThread = new PackThread (jobs);
+        packThread.setDaemon (true);
+        packThread.start ();
+    }
+
     @Override
     public boolean isActive (MNode job)
     {
@@ -44,6 +60,7 @@ public class InternalBackend extends Backend
             {
                 SimulationThread s = (SimulationThread) t;
                 if (s.job == job) return s.isAlive ();
+                if (s instanceof PackThread  &&  ((PackThread) s).contains (job)) return s.isAlive ();
             }
         }
         return false;
@@ -61,6 +78,16 @@ public class InternalBackend extends Backend
             if (t instanceof SimulationThread)
             {
                 SimulationThread s = (SimulationThread) t;
+                if (s instanceof PackThread  &&  ((PackThread) s).remove (job))  // Job has not started yet, so simply drop it from the queue.
+                {
+                    try
+                    {
+                        Path jobDir = Paths.get (job.get ()).getParent ();
+                        Files.copy (new ByteArrayInputStream ("killed".getBytes ("UTF-8")), jobDir.resolve ("finished"));
+                    }
+                    catch (Exception e) {}
+                    return;
+                }
                 if (s.job != job) continue;
                 if (! force  &&  s.simulator != null) s.simulator.stop = true;
                 else                                  s.stop ();
@@ -81,6 +108,11 @@ public class InternalBackend extends Backend
         }
 
         public void run ()
+        {
+            runJob ();
+        }
+
+        public void runJob ()
         {
             Path jobDir = Paths.get (job.get ()).getParent ();  // assumes the MNode "job" is really an MDoc. In any case, the value of the node should point to a file on disk where it is stored in a directory just for it.
             try {err.set (new PrintStream (new FileOutputStream (jobDir.resolve ("err").toFile (), true), false, "UTF-8"));}
@@ -149,6 +181,67 @@ public class InternalBackend extends Backend
         }
     }
 
+    /**
+        Runs a batch of jobs back-to-back on a single thread, so that a study with many small
+        samples does not pay for thread startup and host assignment on each one.
+        Each job still gets its own digest, since parameters may alter the structure of the model.
+    **/
+    public class PackThread extends SimulationThread
+    {
+        protected List<MNode> pending;
+
+        public PackThread (List<MNode> jobs)
+        {
+            super (jobs.get (0));
+            setName ("Internal Simulation Pack");
+            pending = new ArrayList<MNode> (jobs);
+        }
+
+        /**
+            Determines if the given job is still waiting its turn.
+        **/
+        public boolean contains (MNode job)
+        {
+            synchronized (pending)
+            {
+                for (MNode p : pending) if (p == job) return true;  // MNode.equals() is a deep comparison, so test identity directly.
+            }
+            return false;
+        }
+
+        /**
+            Removes the given job from the queue, if it has not started yet.
+            @return true if the job was removed.
+        **/
+        public boolean remove (MNode job)
+        {
+            synchronized (pending)
+            {
+                for (int i = 0; i < pending.size (); i++)
+                {
+                    if (pending.get (i) != job) continue;
+                    pending.remove (i);
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        public void run ()
+        {
+            while (true)
+            {
+                synchronized (pending)
+                {
+                    if (pending.isEmpty ()) break;
+                    job       = pending.remove (0);
+                    simulator = null;
+                }
+                runJob ();
+            }
+        }
+    }
+
     @Override
     public double currentSimTime (MNode job)
     {
@@ -168,6 +261,77 @@ public class InternalBackend extends Backend
         return 0;
     }
 
+    /**
+        Digests the model in order to estimate how much memory its instances will occupy.
+        An explicit $metadata.memory takes precedence.
+    **/
+    @Override
+    public Footprint estimate (MNode job)
+    {
+        Footprint result = super.estimate (job);
+        if (result.memory > 0) return result;
+        try
+        {
+            EquationSet digestedModel = new EquationSet (job);
+            digestModel (digestedModel);
+            result.memory = estimateMemory (digestedModel, 1);
+            long total = Host.get (job).getMemoryTotal ();
+            if (total > 0) result.memory = Math.min (result.memory, total);  // No point holding a job for more than the host has. Scheduler will run it alone.
+        }
+        catch (Exception e) {}  // Leave memory unknown. Any problem with the model will be reported when the job actually runs.
+        return result;
+    }
+
+    /**
+        Rough number of bytes needed to hold all instances of the given part and its children.
+        Only a constant $n is understood. Connections are charged as if every combination of endpoints
+        were realized, scaled by $p if it is constant. When $p is not constant, connections are charged
+        as one per instance of the largest endpoint.
+        @param count Number of instances of the container.
+    **/
+    public static long estimateMemory (EquationSet s, double count)
+    {
+        InternalBackendData bed = (InternalBackendData) s.backendData;
+        double n = 1;
+        if (s.connectionBindings == null)
+        {
+            n = constantValue (s, "$n", 1);
+        }
+        else
+        {
+            double largest = 1;
+            for (ConnectionBinding c : s.connectionBindings)
+            {
+                double e = constantValue (c.endpoint, "$n", 1);
+                n *= e;
+                largest = Math.max (largest, e);
+            }
+            if (s.find (new Variable ("$p", 0)) != null)
+            {
+                double p = constantValue (s, "$p", -1);
+                if (p < 0) n = largest;  // $p varies, typically to select a sparse subset, so the full product would wildly overstate the count.
+                else       n *= p;
+            }
+        }
+        n *= count;
+
+        // Each instance holds an array of floats and an array of object references, plus object headers.
+        // Object references are charged extra, since they usually point to something.
+        double result = count * (48 + 4 * bed.countGlobalFloat + 16 * bed.countGlobalObject);  // population
+        result       += n     * (48 + 4 * bed.countLocalFloat  + 16 * bed.countLocalObject);
+        for (EquationSet p : s.parts) result += estimateMemory (p, n);
+        return (long) Math.min (result, Long.MAX_VALUE);
+    }
+
+    public static double constantValue (EquationSet s, String name, double defaultValue)
+    {
+        Variable v = s.find (new Variable (name, 0));
+        if (v == null  ||  v.equations == null  ||  v.equations.size () != 1) return defaultValue;
+        EquationEntry e = v.equations.first ();
+        if (e.condition != null  ||  ! (e.expression instanceof Constant)) return defaultValue;
+        return Math.max (0, e.expression.getDouble ());
+    }
+
     /**
         Utility function to enable other backends to use Internal to prepare static network structures.
         @return A Simulator object which contains the constructed network.
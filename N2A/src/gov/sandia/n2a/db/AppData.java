@@ -6,33 +6,34 @@ the U.S. Government retains certain rights in this software.
 
 package gov.sandia.n2a.db;
 
-import java.io.BufferedReader;
-import java.io.InputStreamReader;
+import java.io.InputStream;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
-import java.util.zip.ZipEntry;
-import java.util.zip.ZipInputStream;
 
 /**
     Manages all user data associated with the application.
     This singleton contains several MDir objects which wrap various categories
     of records. We are responsible for loading all data, providing it to the
-    rest of the app, and saving it. Saves occur at shutdown, and also on a
-    regular interval (every 30 seconds) during operation.
+    rest of the app, and saving it. Changes to documents are recorded in a
+    journal as they happen (see MJournal), and full saves occur at shutdown and
+    whenever a journal grows large. The state doc and any unjournaled dirs are
+    saved on a regular interval (every 30 seconds) during operation.
 **/
 public class AppData
 {
     public static MNode  properties;
     public static MDoc   state;
     public static MDir   runs;
+    public static MDoc   runsIndex;  // Summary of each job in runs, so the Runs panel can be populated without opening every job.
     public static MDir   studies;
     public static MDir   repos;
     public static MCombo models;
     public static MCombo references;
+    public static Path   journalDir;
 
     protected static boolean stop;
     protected static Thread saveThread;
@@ -44,12 +45,19 @@ public class AppData
         Path root = Paths.get (System.getProperty ("user.home"), "n2a").toAbsolutePath ();
         properties = new MVolatile ();
         properties.set (root, "resourceDir");
+        journalDir = root.resolve ("journal");  // Kept separate so journals never appear in a repo's working tree.
 
         state   = new MDoc (root.resolve ("state"));
+        long cacheSize = state.getLong ("General", "cacheSize");  // in MB
+        if (cacheSize > 0) MDocCache.instance.setBudget (cacheSize * 0x100000);
         runs    = new MDir (root.resolve ("jobs"), "model");  // "model" is our internal housekeeping data, in MNode serialization form. Backend output generally goes into a simulator-specific file.
+        runsIndex = new MDoc (root.resolve ("jobs").resolve (".index"));  // Leading dot keeps MDir from treating the file as a job.
         studies = new MDir (root.resolve ("studies"), "study");  // "study" contains general metadata. A separate MDoc called "model" holds a snapshot of the model being studied.
         Path reposDir = root.resolve ("repos");
         repos   = new MDir (reposDir, "state");
+        journal (runs);
+        journal (studies);
+        journal (repos);
 
         String reposOrderString = state.get ("Repos", "order");
         List<String> reposOrder = new ArrayList<String> ();
@@ -84,9 +92,8 @@ public class AppData
         {
             MNode repo = repos.child (repoName);
             if (repo == null  ||  repo.getInt ("visible") == 0  &&  ! repoName.equals (primary)) continue;
-            Path repoDir = reposDir.resolve (repoName);
-            modelContainers    .add (new MDir (repoName, repoDir.resolve ("models")));
-            referenceContainers.add (new MDir (repoName, repoDir.resolve ("references")));
+            modelContainers    .add (repoDir (repoName, "models"));
+            referenceContainers.add (repoDir (repoName, "references"));
         }
         models     = new MCombo ("models",     modelContainers);
         references = new MCombo ("references", referenceContainers);
@@ -104,7 +111,7 @@ public class AppData
                     try
                     {
                         sleep (30000);
-                        AppData.save ();
+                        AppData.compact ();
                     }
                     catch (InterruptedException e)
                     {
@@ -116,6 +123,30 @@ public class AppData
         saveThread.start ();
     }
 
+    /**
+        Attaches a journal to the given dir. The file name is derived from the dir's location
+        relative to our resource dir, so it is stable across sessions.
+    **/
+    public static void journal (MDir dir)
+    {
+        Path root = Paths.get (properties.get ("resourceDir")).toAbsolutePath ();
+        Path relative = root.relativize (dir.root.toAbsolutePath ());
+        String name = relative.toString ().replace (relative.getFileSystem ().getSeparator (), "-");
+        dir.journal (journalDir.resolve (name));
+    }
+
+    /**
+        Opens one of the content dirs ("models" or "references") of the named repo, with a journal attached.
+        All code that works with repo contents should get its MDirs here, so none of them miss the journal.
+    **/
+    public static MDir repoDir (String repoName, String type)
+    {
+        Path reposDir = Paths.get (properties.get ("resourceDir")).toAbsolutePath ().resolve ("repos");
+        MDir result = new MDir (repoName, reposDir.resolve (repoName).resolve (type));
+        journal (result);
+        return result;
+    }
+
     public static void checkInitialDB ()
     {
         if (repos.size () > 0) return;
@@ -125,15 +156,10 @@ public class AppData
         state.set ("local,base", "Repos", "order");
         state.set ("local",      "Repos", "primary");
 
-        Path root = Paths.get (properties.get ("resourceDir")).toAbsolutePath ();
-        Path reposDir = root.resolve ("repos");
-        Path baseDir  = reposDir.resolve ("base");
-        Path localDir = reposDir.resolve ("local");
-
-        MDir baseModels      = new MDir (baseDir .resolve ("models"));
-        MDir baseReferences  = new MDir (baseDir .resolve ("references"));
-        MDir localModels     = new MDir (localDir.resolve ("models"));
-        MDir localReferences = new MDir (localDir.resolve ("references"));
+        MDir baseModels      = repoDir ("base",  "models");
+        MDir baseReferences  = repoDir ("base",  "references");
+        MDir localModels     = repoDir ("local", "models");
+        MDir localReferences = repoDir ("local", "references");
 
         List<MNode> modelContainers     = new ArrayList<MNode> ();
         List<MNode> referenceContainers = new ArrayList<MNode> ();
@@ -144,30 +170,21 @@ public class AppData
         models    .init (modelContainers);
         references.init (referenceContainers);
 
-        try (ZipInputStream zip = new ZipInputStream (AppData.class.getResource ("initialDB").openStream ()))
+        // Initial DB is large, so parse it in parallel. See BulkTransfer.
+        final MDir[] dirs = {localModels, localReferences, baseModels, baseReferences};
+        try (InputStream stream = AppData.class.getResource ("initialDB").openStream ())
         {
-            ZipEntry entry;
-            while ((entry = zip.getNextEntry ()) != null)
+            new BulkTransfer ().importZip (stream, new BulkTransfer.Router ()
             {
-                if (entry.isDirectory ()) continue;
-                String name = entry.getName ();
-                String[] pieces = name.split ("/");
-                if (pieces.length != 3) continue;
-                MDir dir = null;
-                if (pieces[0].equals ("local"))
-                {
-                    if (pieces[1].equals ("references")) dir = localReferences;
-                    else                                 dir = localModels;
-                }
-                else
+                public MNode route (String name, MNode doc)
                 {
-                    if (pieces[1].equals ("references")) dir = baseReferences;
-                    else                                 dir = baseModels;
+                    String[] pieces = name.split ("/");
+                    if (pieces.length != 3) return null;
+                    int i = pieces[0].equals ("local") ? 0 : 2;
+                    if (pieces[1].equals ("references")) i++;
+                    return dirs[i].childOrCreate (pieces[2]);
                 }
-                MDoc doc = (MDoc) dir.childOrCreate (pieces[2]);
-                BufferedReader reader = new BufferedReader (new InputStreamReader (zip, "UTF-8"));
-                Schema.readAll (doc, reader);
-            }
+            });
         }
         catch (Exception e)
         {
@@ -221,10 +238,25 @@ public class AppData
         references.save ();
         studies.save ();
         runs.save ();
+        runsIndex.save ();
         repos.save ();
         state.save ();
     }
 
+    /**
+        Periodic save. Journaled dirs only rewrite their documents when the journal has grown large or old.
+    **/
+    public synchronized static void compact ()
+    {
+        models.compact ();
+        references.compact ();
+        studies.compact ();
+        runs.compact ();
+        runsIndex.save ();
+        repos.compact ();
+        state.save ();
+    }
+
     public static void quit ()
     {
         stop = true;
@@ -0,0 +1,333 @@
+/*
+Copyright 2021 National Technology & Engineering Solutions of Sandia, LLC (NTESS).
+Under the terms of Contract DE-NA0003525 with NTESS,
+the U.S. Government retains certain rights in this software.
+*/
+
+package gov.sandia.n2a.db;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipInputStream;
+import java.util.zip.ZipOutputStream;
+
+/**
+    Moves large numbers of documents between MDirs and external files or archives.
+    Parsing and serialization run on a pool of worker threads. The calling thread acts as the
+    single writer, so MDirs only see one thread creating documents, and it saves them in batches
+    rather than all at the end. Zip archives are streamed one entry at a time, and only a small
+    window of documents is in flight, so memory does not grow with the size of the archive.
+**/
+public class BulkTransfer
+{
+    public int      threads   = Runtime.getRuntime ().availableProcessors ();
+    public int      batchSize = 200;  // Number of documents to add to an MDir before saving it.
+    public Progress progress;         // Optional
+
+    protected ExecutorService pool;
+    protected int             done;
+    protected List<MDir>      touched = new ArrayList<MDir> ();
+    protected int             pending;  // Documents added since last batch save.
+
+    public interface Progress
+    {
+        /**
+            @param total Number of documents expected, or -1 if unknown (for example, while streaming an archive).
+            @return false to cancel the rest of the transfer.
+        **/
+        public boolean progress (int done, int total);
+    }
+
+    /**
+        Decides where an incoming document should be stored.
+    **/
+    public interface Router
+    {
+        /**
+            Called only on the writer thread. The router may modify doc before it is stored, for example to assign a fresh ID.
+            @param name Entry name in the archive, or file name in the source dir.
+            @param doc Parsed contents of the entry.
+            @return The destination document, typically from MDir.childOrCreate(), or null to skip this entry.
+        **/
+        public MNode route (String name, MNode doc);
+    }
+
+    /**
+        Holds the result of parsing one entry until the writer gets to it.
+    **/
+    protected static class Parsed
+    {
+        public String name;
+        public MNode  doc;
+    }
+
+    /**
+        Reads documents from a zip stream. Entries that are directories are skipped.
+        The stream is not closed.
+    **/
+    public void importZip (InputStream stream, Router router) throws IOException
+    {
+        start ();
+        try
+        {
+            ZipInputStream zip = new ZipInputStream (stream);
+            ArrayDeque<Future<Parsed>> window = new ArrayDeque<Future<Parsed>> ();
+            ZipEntry entry;
+            while ((entry = zip.getNextEntry ()) != null)
+            {
+                if (entry.isDirectory ()) continue;
+                byte[] bytes = readAll (zip);
+                window.add (pool.submit (parse (entry.getName (), bytes)));
+                if (window.size () >= 2 * threads)
+                {
+                    if (! store (window.remove ().get (), router, -1)) return;
+                }
+            }
+            while (! window.isEmpty ())
+            {
+                if (! store (window.remove ().get (), router, -1)) return;
+            }
+        }
+        catch (InterruptedException | ExecutionException e)
+        {
+            throw new IOException (e);
+        }
+        finally
+        {
+            finish ();
+        }
+    }
+
+    /**
+        Reads every file in the given directory as a document. Subdirectories are ignored.
+    **/
+    public void importDir (Path dir, Router router) throws IOException
+    {
+        List<Path> files = new ArrayList<Path> ();
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream (dir))
+        {
+            for (Path p : stream)
+            {
+                if (Files.isDirectory (p)) continue;
+                if (p.getFileName ().toString ().startsWith (".")) continue;
+                files.add (p);
+            }
+        }
+
+        start ();
+        try
+        {
+            int total = files.size ();
+            ArrayDeque<Future<Parsed>> window = new ArrayDeque<Future<Parsed>> ();
+            for (final Path p : files)
+            {
+                window.add (pool.submit (new Callable<Parsed> ()
+                {
+                    public Parsed call () throws Exception
+                    {
+                        String name = p.getFileName ().toString ();
+                        byte[] bytes;
+                        try
+                        {
+                            bytes = Files.readAllBytes (p);
+                        }
+                        catch (IOException e)
+                        {
+                            System.err.println ("Skipping unreadable document: " + name);
+                            Parsed result = new Parsed ();
+                            result.name = name;
+                            return result;
+                        }
+                        return parse (name, bytes).call ();
+                    }
+                }));
+                if (window.size () >= 2 * threads)
+                {
+                    if (! store (window.remove ().get (), router, total)) return;
+                }
+            }
+            while (! window.isEmpty ())
+            {
+                if (! store (window.remove ().get (), router, total)) return;
+            }
+        }
+        catch (InterruptedException | ExecutionException e)
+        {
+            throw new IOException (e);
+        }
+        finally
+        {
+            finish ();
+        }
+    }
+
+    /**
+        Writes the named documents to a zip stream, one entry per document, named by document key.
+        Documents are fetched by key on the worker threads, so none of them are held here beyond
+        the time it takes to serialize them.
+        The stream is finished but not closed.
+    **/
+    public void exportZip (final MNode container, List<String> keys, OutputStream stream) throws IOException
+    {
+        start ();
+        try
+        {
+            ZipOutputStream zip = new ZipOutputStream (stream);
+            int total = keys.size ();
+            ArrayDeque<Future<byte[]>> window = new ArrayDeque<Future<byte[]>> ();
+            ArrayDeque<String>         names  = new ArrayDeque<String> ();
+            for (String key : keys)
+            {
+                window.add (pool.submit (serialize (container, key)));
+                names .add (key);
+                if (window.size () >= 2 * threads)
+                {
+                    if (! writeEntry (zip, names.remove (), window.remove ().get (), total)) break;
+                }
+            }
+            while (! window.isEmpty ())
+            {
+                if (! writeEntry (zip, names.remove (), window.remove ().get (), total)) break;
+            }
+            zip.finish ();
+        }
+        catch (InterruptedException | ExecutionException e)
+        {
+            throw new IOException (e);
+        }
+        finally
+        {
+            finish ();
+        }
+    }
+
+    protected void start ()
+    {
+        done    = 0;
+        pending = 0;
+        touched.clear ();
+        pool = Executors.newFixedThreadPool (Math.max (1, threads));
+    }
+
+    protected void finish ()
+    {
+        pool.shutdownNow ();
+        pool = null;
+        for (MDir dir : touched) dir.save ();
+        touched.clear ();
+    }
+
+    protected Callable<Parsed> parse (final String name, final byte[] bytes)
+    {
+        return new Callable<Parsed> ()
+        {
+            public Parsed call () throws Exception
+            {
+                Parsed result = new Parsed ();
+                result.name = name;
+                result.doc  = new MVolatile ();
+                try (BufferedReader reader = new BufferedReader (new InputStreamReader (new ByteArrayInputStream (bytes), StandardCharsets.UTF_8)))
+                {
+                    Schema.readAll (result.doc, reader);
+                }
+                catch (Exception e)  // A damaged document should not abort the rest of the transfer.
+                {
+                    System.err.println ("Skipping malformed document: " + name);
+                    result.doc = null;
+                }
+                return result;
+            }
+        };
+    }
+
+    protected Callable<byte[]> serialize (final MNode container, final String key)
+    {
+        return new Callable<byte[]> ()
+        {
+            public byte[] call () throws Exception
+            {
+                ByteArrayOutputStream bytes = new ByteArrayOutputStream ();
+                MNode doc = container.child (key);
+                if (doc == null) return bytes.toByteArray ();
+                try (Writer writer = new OutputStreamWriter (bytes, StandardCharsets.UTF_8))
+                {
+                    Schema.latest ().writeAll (doc, writer);
+                }
+                return bytes.toByteArray ();
+            }
+        };
+    }
+
+    /**
+        The writer stage for import. Runs only on the calling thread.
+        @return false if the transfer was canceled.
+    **/
+    protected boolean store (Parsed parsed, Router router, int total)
+    {
+        if (parsed.doc != null)
+        {
+            try
+            {
+                MNode destination = router.route (parsed.name, parsed.doc);
+                if (destination != null)
+                {
+                    destination.merge (parsed.doc);
+                    MNode dir = destination.parent ();
+                    if (dir instanceof MDir  &&  ! touched.contains (dir)) touched.add ((MDir) dir);
+                    if (++pending >= batchSize)
+                    {
+                        for (MDir d : touched) d.save ();
+                        pending = 0;
+                    }
+                }
+            }
+            catch (Exception e)
+            {
+                System.err.println ("Skipping document: " + parsed.name);
+                e.printStackTrace ();
+            }
+        }
+        done++;
+        if (progress == null) return true;
+        return progress.progress (done, total);
+    }
+
+    protected boolean writeEntry (ZipOutputStream zip, String name, byte[] bytes, int total) throws IOException
+    {
+        zip.putNextEntry (new ZipEntry (name));
+        zip.write (bytes);
+        zip.closeEntry ();
+        done++;
+        if (progress == null) return true;
+        return progress.progress (done, total);
+    }
+
+    protected static byte[] readAll (InputStream stream) throws IOException
+    {
+        ByteArrayOutputStream result = new ByteArrayOutputStream ();
+        byte[] buffer = new byte[8192];
+        int count;
+        while ((count = stream.read (buffer)) >= 0) result.write (buffer, 0, count);
+        return result.toByteArray ();
+    }
+}
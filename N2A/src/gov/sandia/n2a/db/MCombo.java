@@ -59,6 +59,14 @@ public class MCombo extends MNode implements MNodeListener
         return result;
     }
 
+    /**
+        @return The container that receives new documents.
+    **/
+    public synchronized MNode getPrimary ()
+    {
+        return primary;
+    }
+
     public boolean isWriteable (MNode doc)
     {
         return doc.parent () == primary;
@@ -288,6 +296,11 @@ public class MCombo extends MNode implements MNodeListener
         for (MNode c : containers) if (c instanceof MDir) ((MDir) c).save ();
     }
 
+    public synchronized void compact ()
+    {
+        for (MNode c : containers) if (c instanceof MDir) ((MDir) c).compact ();
+    }
+
     public synchronized void load ()
     {
         if (loaded) return;
@@ -7,7 +7,7 @@ the U.S. Government retains certain rights in this software.
 package gov.sandia.n2a.db;
 
 import java.io.IOException;
-import java.lang.ref.SoftReference;
+import java.lang.ref.WeakReference;
 import java.nio.file.DirectoryStream;
 import java.nio.file.Files;
 import java.nio.file.Path;
@@ -38,9 +38,13 @@ public class MDir extends MNode
     protected String  suffix;  // Relative path to document file, or null if documents are directly under root
     protected boolean loaded;  // Indicates that an initial read of the dir has been done. After that, it is not necessary to monitor the dir, only keep track of documents internally.
 
-    protected NavigableMap<String,SoftReference<MDoc>> children   = new TreeMap<String,SoftReference<MDoc>> ();
+    protected NavigableMap<String,WeakReference<MDoc>> children   = new TreeMap<String,WeakReference<MDoc>> ();  // Retention is decided by MDocCache, not by these references.
     protected Set<MDoc>                                writeQueue = new HashSet<MDoc> ();  // By storing strong references to docs that need to be saved, we prevent them from being garbage collected until that is done.
     protected List<MNodeListener>                      listeners  = new ArrayList<MNodeListener> ();
+    protected MJournal                                 journal;  // If non-null, changes to documents are recorded here between full saves.
+    protected MDocCache                                cache      = MDocCache.instance;
+    protected int                                      batch;    // Nesting depth of beginBatch(). While positive, events are held back.
+    protected boolean                                  batchChanged;
 
     public MDir (Path root)
     {
@@ -103,9 +107,13 @@ public class MDir extends MNode
     {
         if (key.isEmpty ()) return null;  // The file-existence code below can be fooled by an empty string, so explicitly guard against it.
         MDoc result = null;
-        SoftReference<MDoc> reference = children.get (key);
+        WeakReference<MDoc> reference = children.get (key);
         if (reference != null) result = reference.get ();
-        if (result == null)  // We have never loaded this document, or it has been garbage collected.
+        if (result != null)
+        {
+            cache.touch (result, true);
+        }
+        else  // We have never loaded this document, or it has been garbage collected.
         {
             Path childPath = pathForChild (key);
             if (! Files.isReadable (childPath))
@@ -116,7 +124,8 @@ public class MDir extends MNode
                 if (! Files.isReadable (parentPath)) return null;
             }
             result = new MDoc (this, key);
-            children.put (key, new SoftReference<MDoc> (result));
+            children.put (key, new WeakReference<MDoc> (result));
+            cache.touch (result, false);
         }
         return result;
     }
@@ -127,8 +136,14 @@ public class MDir extends MNode
     **/
     public synchronized void clear ()
     {
+        for (WeakReference<MDoc> reference : children.values ())
+        {
+            MDoc doc = reference == null ? null : reference.get ();
+            if (doc != null) cache.remove (doc);
+        }
         children.clear ();
         writeQueue.clear ();
+        if (journal != null) journal.reset ();
         Host.deleteTree (root.toAbsolutePath (), false);
         fireChanged ();
     }
@@ -139,8 +154,14 @@ public class MDir extends MNode
     **/
     protected synchronized void clearChild (String key)
     {
-        SoftReference<MDoc> ref = children.remove (key);
-        if (ref != null) writeQueue.remove (ref.get ());
+        WeakReference<MDoc> ref = children.remove (key);
+        if (ref != null)
+        {
+            MDoc doc = ref.get ();
+            writeQueue.remove (doc);
+            if (doc != null) cache.remove (doc);
+        }
+        if (journal != null) journal.append (MJournal.DELETE, key, new String[0], null);  // Otherwise, replay could resurrect the document.
         Host.deleteTree (root.resolve (key).toAbsolutePath (), true);
         fireChildDeleted (key);
     }
@@ -176,8 +197,10 @@ public class MDir extends MNode
         if (result == null)  // new document
         {
             result = new MDoc (this, key);
-            children.put (key, new SoftReference<MDoc> (result));
+            children.put (key, new WeakReference<MDoc> (result));
+            cache.touch (result, false);
             result.markChanged ();  // Set the new document to save. Adds to writeQueue.
+            if (journal != null) journal.append (MJournal.CREATE, key, new String[0], null);
 
             fireChildAdded (key);
         }
@@ -207,8 +230,8 @@ public class MDir extends MNode
             // This can happen if a new doc has not yet been flushed to disk.
         }
 
-        SoftReference<MDoc> fromReference = children.get (fromKey);
-        SoftReference<MDoc> toReference   = children.get (toKey);
+        WeakReference<MDoc> fromReference = children.get (fromKey);
+        WeakReference<MDoc> toReference   = children.get (toKey);
         children.remove (fromKey);
         children.remove (toKey);
         if (fromReference == null)
@@ -234,23 +257,59 @@ public class MDir extends MNode
         listeners.remove (listener);
     }
 
+    /**
+        Suspends listener notifications, so that a bulk operation can add many documents without
+        updating the UI for each one. This also allows the bulk operation to run on a thread other
+        than the one that listeners expect events on.
+    **/
+    public synchronized void beginBatch ()
+    {
+        batch++;
+    }
+
+    /**
+        Resumes listener notifications. If anything happened during the batch, listeners receive
+        a single changed() event. This should be called on the thread that listeners expect.
+    **/
+    public synchronized void endBatch ()
+    {
+        if (batch == 0) return;
+        if (--batch > 0  ||  ! batchChanged) return;
+        batchChanged = false;
+        fireChanged ();
+    }
+
+    /**
+        @return true if the event should be held back.
+    **/
+    protected boolean batching ()
+    {
+        if (batch == 0) return false;
+        batchChanged = true;
+        return true;
+    }
+
     public synchronized void fireChanged ()
     {
+        if (batching ()) return;
         for (MNodeListener l : listeners) l.changed ();
     }
 
     public synchronized void fireChildAdded (String key)
     {
+        if (batching ()) return;
         for (MNodeListener l : listeners) l.childAdded (key);
     }
 
     public synchronized void fireChildDeleted (String key)
     {
+        if (batching ()) return;
         for (MNodeListener l : listeners) l.childDeleted (key);
     }
 
     public synchronized void fireChildChanged (String oldKey, String newKey)
     {
+        if (batching ()) return;
         for (MNodeListener l : listeners) l.childChanged (oldKey, newKey);
     }
 
@@ -264,18 +323,21 @@ public class MDir extends MNode
         Path childPath = pathForChild (key);
         if (! Files.isReadable (childPath))
         {
-            children.remove (key);
+            WeakReference<MDoc> reference = children.remove (key);
+            MDoc child = reference == null ? null : reference.get ();
+            if (child != null) cache.remove (child);
             fireChildDeleted (key);
             return;
         }
 
         // Synchronize with updated/restored doc on disk.
-        SoftReference<MDoc> reference = children.get (key);
+        WeakReference<MDoc> reference = children.get (key);
         if (reference == null)  // added back into db
         {
             MDoc child = new MDoc (this, key);
-            reference = new SoftReference<MDoc> (child);
+            reference = new WeakReference<MDoc> (child);
             children.put (key, reference);
+            cache.touch (child, false);
             fireChildAdded (key);
         }
         else  // reverted to previous state
@@ -285,8 +347,7 @@ public class MDir extends MNode
             {
                 // Put doc into same state as newly-read directory entry.
                 // All old children are invalid, and listeners should completely reload data.
-                child.needsWrite = false;
-                child.children = null;
+                child.unload ();
             }
             fireChildChanged (key, key);
         }
@@ -305,18 +366,27 @@ public class MDir extends MNode
     {
         loaded = false;  // Force a fresh run of load(). children will be preserved as much as possible, to maintain object identity.
         load ();
-        for (Entry<String,SoftReference<MDoc>> e : children.entrySet ())
+        for (Entry<String,WeakReference<MDoc>> e : children.entrySet ())
         {
-            SoftReference<MDoc> reference = e.getValue ();
+            WeakReference<MDoc> reference = e.getValue ();
             if (reference == null) continue;
             MDoc child = reference.get ();
             if (child == null) continue;
-            child.needsWrite = false;
-            child.children = null;
+            child.unload ();
         }
         fireChanged ();
     }
 
+    /**
+        Lists the keys of all documents, without instantiating or opening any of them.
+        This is much cheaper than iterating when there are many documents.
+    **/
+    public synchronized List<String> keys ()
+    {
+        load ();
+        return new ArrayList<String> (children.keySet ());
+    }
+
     public synchronized Iterator<MNode> iterator ()
     {
         load ();
@@ -327,7 +397,7 @@ public class MDir extends MNode
     {
         if (loaded) return;
 
-        NavigableMap<String,SoftReference<MDoc>> newChildren = new TreeMap<String,SoftReference<MDoc>> ();
+        NavigableMap<String,WeakReference<MDoc>> newChildren = new TreeMap<String,WeakReference<MDoc>> ();
         // Scan directory.
         // This may cost a lot of time in some cases. However, N2A should never have more than about 10,000 models in a dir.
         try (DirectoryStream<Path> stream = Files.newDirectoryStream (root))
@@ -352,9 +422,56 @@ public class MDir extends MNode
         loaded = true;
     }
 
+    /**
+        Enables write-behind journaling of changes to our documents.
+        If the journal file contains changes left over from a previous session (for example, due to a crash),
+        they are applied and the affected documents saved before this function returns.
+        @param file Location of the journal. Should be outside our root dir.
+    **/
+    public synchronized void journal (Path file)
+    {
+        if (journal != null) journal.close ();
+        journal = null;  // Don't journal the replay itself.
+        if (MJournal.replay (this, file)) save ();
+        try
+        {
+            journal = new MJournal (file);
+        }
+        catch (IOException e)
+        {
+            System.err.println ("Unable to open journal, so falling back on periodic save: " + file);
+        }
+    }
+
+    /**
+        Stops journaling and deletes the journal file. Any unsaved changes remain in the write queue,
+        to be written by the next save().
+    **/
+    public synchronized void unjournal ()
+    {
+        if (journal == null) return;
+        journal.delete ();
+        journal = null;
+    }
+
+    /**
+        Writes all modified documents to disk.
+        If journaling, this also compacts the journal. Changes made while documents are being written
+        go into a fresh journal, and the previous one is deleted only after all documents are written.
+    **/
     public synchronized void save ()
     {
+        if (journal != null) journal.rotate ();
         for (MDoc doc: writeQueue) doc.save ();
         writeQueue.clear ();  // This releases the strong references, so these docs can be garbage collected if needed.
+        if (journal != null) journal.retire ();
+    }
+
+    /**
+        Same as save(), except that when journaling it only does the work if the journal has grown large or old.
+    **/
+    public synchronized void compact ()
+    {
+        if (journal == null  ||  journal.needsCompaction ()) save ();
     }
 }
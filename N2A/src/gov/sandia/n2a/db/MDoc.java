@@ -9,6 +9,7 @@ package gov.sandia.n2a.db;
 import java.io.BufferedReader;
 import java.io.BufferedWriter;
 import java.io.IOException;
+import java.nio.file.AtomicMoveNotSupportedException;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
@@ -31,6 +32,9 @@ import java.util.TreeMap;
 **/
 public class MDoc extends MPersistent
 {
+    protected boolean loading;     // Suppresses journaling while the file is read in.
+    protected long    loadedSize;  // Length of file at the time it was loaded. Used by MDocCache to estimate memory.
+
     /**
         Constructs a document as a child of an MDir.
         In this case, the key contains the file name in the dir, and the full path is constructed
@@ -137,6 +141,7 @@ public class MDoc extends MPersistent
         {
             Files.move (Paths.get (this.value.toString ()), Paths.get (value), StandardCopyOption.REPLACE_EXISTING);
             this.value = value;
+            invalidateHash ();
         }
         catch (IOException e)
         {
@@ -163,6 +168,15 @@ public class MDoc extends MPersistent
         return super.iterator ();
     }
 
+    /**
+        @return The journal that should record changes to this document, or null if changes are not journaled.
+    **/
+    protected MJournal journal ()
+    {
+        if (loading  ||  ! (parent instanceof MDir)) return null;
+        return ((MDir) parent).journal;
+    }
+
     public synchronized Path path ()
     {
         if (parent instanceof MDir) return ((MDir) parent).pathForChild (name);
@@ -178,26 +192,58 @@ public class MDoc extends MPersistent
 	    children = new TreeMap<String,MNode> (comparator);
         Path file = path ();
         needsWrite = true;  // lie to ourselves, to prevent being put onto the MDir write queue
+        loading    = true;
         try (BufferedReader br = Files.newBufferedReader (file))
         {
             Schema.readAll (this, br);
         }
         catch (IOException e) {}  // This exception is common for a newly created doc that has not yet been flushed to disk.
+        loading = false;
         clearChanged ();  // After load(), clear the slate so we can detect any changes and save the document.
+
+        try {loadedSize = Files.size (file);}
+        catch (IOException e) {}
+        if (parent instanceof MDir) ((MDir) parent).cache.update (this);
+	}
+
+	/**
+	    Put doc into same state as newly-read directory entry.
+	    All old children are invalid, and the next access will load from disk.
+	**/
+	public synchronized void unload ()
+	{
+	    needsWrite = false;
+	    children   = null;
+	    loadedSize = 0;
+	    invalidateHash ();
+        if (parent instanceof MDir) ((MDir) parent).cache.update (this);
 	}
 
+	/**
+	    Writes to a temporary file and then moves it into place, so a crash during save never leaves a partial document.
+	    This matters when the document is journaled, because compaction discards the journal right after saving.
+	**/
 	public synchronized void save ()
 	{
 	    if (! needsWrite) return;
         Path file = path ();
+        Path temp = file.resolveSibling ("." + file.getFileName () + ".tmp");  // Leading dot keeps MDir.load() from treating it as a document.
 	    try
 	    {
 	        Files.createDirectories (file.getParent ());
-	        try (BufferedWriter writer = Files.newBufferedWriter (file))
+	        try (BufferedWriter writer = Files.newBufferedWriter (temp))
 	        {
 	            Schema.latest ().writeAll (this, writer);
-	            clearChanged ();
 	        }
+	        try
+	        {
+	            Files.move (temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+	        }
+	        catch (AtomicMoveNotSupportedException e)
+	        {
+	            Files.move (temp, file, StandardCopyOption.REPLACE_EXISTING);
+	        }
+	        clearChanged ();
 	    }
 	    catch (IOException e)
 	    {
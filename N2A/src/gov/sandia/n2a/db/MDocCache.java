@@ -0,0 +1,222 @@
+/*
+Copyright 2021 National Technology & Engineering Solutions of Sandia, LLC (NTESS).
+Under the terms of Contract DE-NA0003525 with NTESS,
+the U.S. Government retains certain rights in this software.
+*/
+
+package gov.sandia.n2a.db;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map.Entry;
+
+/**
+    Keeps recently used documents in memory, up to a fixed budget of bytes shared by all MDirs.
+    Retention is LRU. MDir itself only holds weak references, so a document that falls out of
+    this cache is released as soon as no other part of the app is using it, rather than whenever
+    the garbage collector happens to feel pressure. A document that has been evicted but is still
+    referenced elsewhere will be found again by MDir without re-parsing.
+
+    Documents waiting in an MDir write queue are pinned. They are strongly held by the write queue
+    in any case, so evicting them would not free memory.
+
+    Eviction happens on a background thread, so usage can briefly run over budget.
+
+    Sizes are estimates. A loaded document is charged in proportion to the length of its file,
+    which is cheap to obtain and tracks the number of nodes reasonably well.
+**/
+public class MDocCache
+{
+    public static MDocCache instance = new MDocCache (Runtime.getRuntime ().maxMemory () / 4);
+
+    public static final long overhead  = 256;  // Approximate cost of an MDoc object that has not been loaded.
+    public static final long expansion = 10;   // Approximate ratio of loaded size in memory to size on disk.
+
+    protected long                           budget;
+    protected long                           used;
+    protected LinkedHashMap<Key,Long>        entries = new LinkedHashMap<Key,Long> (16, 0.75f, true);  // access-ordered, so the eldest entry is least recently used
+    protected Thread                         evictor;  // Started the first time we go over budget.
+    public    long                           hits;
+    public    long                           misses;
+    public    long                           evictions;
+
+    /**
+        MNode.equals() does a deep comparison, so documents can't be used directly as keys.
+    **/
+    protected static class Key
+    {
+        public MDoc doc;
+
+        public Key (MDoc doc)
+        {
+            this.doc = doc;
+        }
+
+        public int hashCode ()
+        {
+            return System.identityHashCode (doc);
+        }
+
+        public boolean equals (Object o)
+        {
+            return o instanceof Key  &&  ((Key) o).doc == doc;
+        }
+    }
+
+    public MDocCache (long budget)
+    {
+        this.budget = budget;
+    }
+
+    public synchronized long getBudget ()
+    {
+        return budget;
+    }
+
+    public synchronized void setBudget (long budget)
+    {
+        this.budget = budget;
+        evict ();
+    }
+
+    public synchronized long getUsed ()
+    {
+        return used;
+    }
+
+    public synchronized int getCount ()
+    {
+        return entries.size ();
+    }
+
+    public synchronized void resetCounters ()
+    {
+        hits      = 0;
+        misses    = 0;
+        evictions = 0;
+    }
+
+    /**
+        Records an access to the given document, making it most recently used.
+        @param found true if the document was already in memory, false if it had to be constructed.
+    **/
+    public synchronized void touch (MDoc doc, boolean found)
+    {
+        if (found) hits++;
+        else       misses++;
+        Key key = new Key (doc);
+        if (entries.get (key) == null)  // get() also moves an existing entry to the young end
+        {
+            long weight = weigh (doc);
+            entries.put (key, weight);
+            used += weight;
+            evict ();
+        }
+    }
+
+    /**
+        Recomputes the charge for the given document, typically because it was just loaded or unloaded.
+        Does nothing if the document is not currently cached.
+    **/
+    public synchronized void update (MDoc doc)
+    {
+        Key key = new Key (doc);
+        Long old = entries.get (key);
+        if (old == null) return;
+        long weight = weigh (doc);
+        entries.put (key, weight);
+        used += weight - old;
+        evict ();
+    }
+
+    public synchronized void remove (MDoc doc)
+    {
+        Long weight = entries.remove (new Key (doc));
+        if (weight != null) used -= weight;
+    }
+
+    protected long weigh (MDoc doc)
+    {
+        return overhead + expansion * doc.loadedSize;
+    }
+
+    /**
+        Wakes the eviction thread if we are over budget. Called with the lock on this cache held.
+        Eviction itself can't happen here, because it must lock each document so that the check for
+        unsaved changes can't race with markChanged(). Callers such as MDoc.load() and MDir.getChild()
+        already hold a document or directory lock, so taking a document lock here could deadlock.
+    **/
+    protected void evict ()
+    {
+        if (used <= budget) return;
+        if (evictor == null)
+        {
+            evictor = new Thread ("MDocCache Evictor")
+            {
+                public void run ()
+                {
+                    evictLoop ();
+                }
+            };
+            evictor.setDaemon (true);
+            evictor.start ();
+        }
+        notifyAll ();
+    }
+
+    /**
+        Drops least-recently-used documents until we are within budget. Pinned documents are skipped.
+        Locks are taken in the order document, then cache, the same as MDoc.load() and unload().
+    **/
+    protected void evictLoop ()
+    {
+        while (true)
+        {
+            List<MDoc> candidates = new ArrayList<MDoc> ();
+            synchronized (this)
+            {
+                try
+                {
+                    while (used <= budget) wait ();
+
+                    // needsWrite is only a hint here. It is checked again under the document's lock.
+                    long excess = used - budget;
+                    for (Entry<Key,Long> e : entries.entrySet ())
+                    {
+                        if (excess <= 0) break;
+                        MDoc doc = e.getKey ().doc;
+                        if (doc.needsWrite) continue;  // pinned
+                        candidates.add (doc);
+                        excess -= e.getValue ();
+                    }
+                    if (candidates.isEmpty ())  // Everything is pinned. Wait for the next change to the cache.
+                    {
+                        wait ();
+                        continue;
+                    }
+                }
+                catch (InterruptedException e)
+                {
+                    continue;
+                }
+            }
+
+            for (MDoc doc : candidates)
+            {
+                synchronized (doc)  // Same lock as markChanged() and save(), so the document can't become dirty between the check and the eviction.
+                {
+                    synchronized (this)
+                    {
+                        if (used <= budget) break;
+                        if (doc.needsWrite) continue;
+                        Long weight = entries.remove (new Key (doc));
+                        if (weight == null) continue;  // Already gone, for example removed by its MDir.
+                        used -= weight;
+                        evictions++;
+                    }
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,414 @@
+/*
+Copyright 2021 National Technology & Engineering Solutions of Sandia, LLC (NTESS).
+Under the terms of Contract DE-NA0003525 with NTESS,
+the U.S. Government retains certain rights in this software.
+*/
+
+package gov.sandia.n2a.db;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.CRC32;
+
+/**
+    Append-only record of changes made to the documents in an MDir.
+    Each mutation of an MDoc is encoded as a small binary entry. A background thread forces
+    entries to disk in batches, so a crash loses at most a fraction of a second of work.
+    The full documents only need to be rewritten occasionally, at which point the journal
+    is discarded. This is called compaction, and is done by MDir.save().
+
+    All entries are blind writes: set a value, remove a node, or replace a subtree.
+    This makes replay idempotent, so it does no harm if some of the recorded changes already
+    made it into a document before the crash.
+
+    The journal file should live outside the directory it protects, so that it does not
+    show up as an untracked file in a git working tree.
+**/
+public class MJournal
+{
+    public static final int CREATE    = 0;  // New document, possibly still empty.
+    public static final int DELETE    = 1;  // Document removed from directory.
+    public static final int SET       = 2;  // Value of a single node. Creates the node if needed.
+    public static final int CLEAR     = 3;  // Remove a node along with all its children.
+    public static final int CLEAR_ALL = 4;  // Remove all children of a node, but not the node itself.
+    public static final int REPLACE   = 5;  // Substitute an entire subtree. Used to record moves.
+
+    public static long compactSize = 0x100000;  // Journal length in bytes that triggers compaction.
+    public static long compactAge  = 300000;    // Milliseconds after first entry that triggers compaction, even if journal is short.
+    public static long flushPeriod = 100;       // Milliseconds between batched writes to disk.
+
+    protected Path                  file;
+    protected Path                  old;          // Journal being retired by compaction. Its entries are still needed until all documents have been written.
+    protected FileChannel           channel;
+    protected ByteArrayOutputStream buffer;       // Entries not yet written to disk.
+    protected long                  size;         // Total bytes appended since last rotate, including those still in buffer.
+    protected long                  started;      // Time of first entry since last rotate.
+    protected Object                writeLock = new Object ();  // Serializes access to channel, separate from the lock on buffer, so that callers of append() don't wait on disk.
+
+    protected static List<MJournal> journals = new ArrayList<MJournal> ();
+    protected static Thread         flushThread;
+
+    public MJournal (Path file) throws IOException
+    {
+        this.file = file;
+        old       = file.resolveSibling (file.getFileName () + ".old");
+        buffer    = new ByteArrayOutputStream ();
+        Files.createDirectories (file.getParent ());
+        Files.deleteIfExists (old);
+        channel = FileChannel.open (file, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+
+        synchronized (journals)
+        {
+            journals.add (this);
+            if (flushThread == null)
+            {
+                flushThread = new Thread ("Flush Journals")
+                {
+                    public void run ()
+                    {
+                        while (true)
+                        {
+                            try
+                            {
+                                sleep (flushPeriod);
+                                flushAll ();
+                            }
+                            catch (InterruptedException e)
+                            {
+                            }
+                        }
+                    }
+                };
+                flushThread.setDaemon (true);  // AppData.quit() does a full save, so any entries left in memory are redundant.
+                flushThread.start ();
+            }
+        }
+    }
+
+    public static void flushAll ()
+    {
+        List<MJournal> copy;
+        synchronized (journals)
+        {
+            copy = new ArrayList<MJournal> (journals);
+        }
+        for (MJournal j : copy) j.flush ();
+    }
+
+    /**
+        Adds an entry to the write buffer. This is safe to call from the UI thread, since it never touches the disk.
+        @param doc Key of the document within its MDir.
+        @param path Keys of the affected node relative to the document. May be empty.
+        @param argument For SET, the new value (possibly null). For REPLACE, the node whose contents will be copied.
+        Ignored by other operations.
+    **/
+    public void append (int op, String doc, String[] path, Object argument)
+    {
+        try
+        {
+            ByteArrayOutputStream entry = new ByteArrayOutputStream ();
+            DataOutputStream out = new DataOutputStream (entry);
+            out.writeByte (op);
+            writeString (out, doc);
+            out.writeInt (path.length);
+            for (String key : path) writeString (out, key);
+            if (op == SET)
+            {
+                String value = (String) argument;
+                out.writeBoolean (value != null);
+                if (value != null) writeString (out, value);
+            }
+            else if (op == REPLACE)
+            {
+                writeTree (out, (MNode) argument);
+            }
+            out.flush ();
+
+            CRC32 crc = new CRC32 ();
+            byte[] bytes = entry.toByteArray ();
+            crc.update (bytes);
+
+            synchronized (this)
+            {
+                if (channel == null) return;  // closed
+                DataOutputStream frame = new DataOutputStream (buffer);
+                frame.writeInt (bytes.length);
+                frame.writeInt ((int) crc.getValue ());
+                frame.write (bytes);
+                if (size == 0) started = System.currentTimeMillis ();
+                size += bytes.length + 8;
+            }
+        }
+        catch (IOException e) {}  // Can't happen, since we only write to memory.
+    }
+
+    /**
+        Writes buffered entries to disk and forces them to stable storage.
+    **/
+    public void flush ()
+    {
+        synchronized (writeLock)
+        {
+            byte[] bytes;
+            synchronized (this)
+            {
+                if (channel == null  ||  buffer.size () == 0) return;
+                bytes = buffer.toByteArray ();
+                buffer.reset ();
+            }
+            try
+            {
+                ByteBuffer b = ByteBuffer.wrap (bytes);
+                while (b.hasRemaining ()) channel.write (b);
+                channel.force (false);
+            }
+            catch (IOException e)
+            {
+                System.err.println ("Failed to write journal: " + file);
+                e.printStackTrace ();
+            }
+        }
+    }
+
+    public synchronized long size ()
+    {
+        return size;
+    }
+
+    /**
+        Indicates that the journal has grown long enough, or old enough, that it is worth rewriting the documents.
+    **/
+    public synchronized boolean needsCompaction ()
+    {
+        if (size == 0) return false;
+        return  size >= compactSize  ||  System.currentTimeMillis () - started >= compactAge;
+    }
+
+    /**
+        Starts a fresh journal file. All entries written so far go to the old file, which remains
+        on disk until retire() is called. This is the first step of compaction.
+    **/
+    public void rotate ()
+    {
+        flush ();
+        synchronized (writeLock)
+        {
+            synchronized (this)
+            {
+                if (channel == null  ||  size == 0) return;
+                try
+                {
+                    channel.close ();
+                    Files.move (file, old, StandardCopyOption.REPLACE_EXISTING);
+                    channel = FileChannel.open (file, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+                }
+                catch (IOException e)
+                {
+                    System.err.println ("Failed to rotate journal: " + file);
+                    e.printStackTrace ();
+                }
+                size = 0;
+            }
+        }
+    }
+
+    /**
+        Deletes the old journal file. Should only be called after all documents have been written.
+        This is the last step of compaction.
+    **/
+    public void retire ()
+    {
+        try {Files.deleteIfExists (old);}
+        catch (IOException e) {}
+    }
+
+    /**
+        Discards all entries, both on disk and in memory.
+        Used when the entire directory has been emptied.
+    **/
+    public void reset ()
+    {
+        synchronized (writeLock)
+        {
+            synchronized (this)
+            {
+                buffer.reset ();
+                size = 0;
+                if (channel == null) return;
+                try {channel.truncate (0);}
+                catch (IOException e) {}
+            }
+        }
+        retire ();
+    }
+
+    public void close ()
+    {
+        flush ();
+        synchronized (journals)
+        {
+            journals.remove (this);
+        }
+        synchronized (writeLock)
+        {
+            synchronized (this)
+            {
+                if (channel == null) return;
+                try {channel.close ();}
+                catch (IOException e) {}
+                channel = null;
+            }
+        }
+    }
+
+    /**
+        Closes this journal and removes its files from disk. Used when the directory it protects
+        is going away, so that a later directory at the same location does not replay stale entries.
+    **/
+    public void delete ()
+    {
+        close ();
+        try
+        {
+            Files.deleteIfExists (file);
+            Files.deleteIfExists (old);
+        }
+        catch (IOException e) {}
+    }
+
+    /**
+        Applies any entries left over from a previous session to the given directory.
+        The old file (from an interrupted compaction) is replayed first, then the current one.
+        Replay stops at the first damaged entry, which is normally the tail of a write cut short by a crash.
+        @return true if any entries were applied. In that case, the caller should save the directory.
+    **/
+    public static boolean replay (MDir dir, Path file)
+    {
+        boolean result = replayFile (dir, file.resolveSibling (file.getFileName () + ".old"));
+        result        |= replayFile (dir, file);
+        return result;
+    }
+
+    protected static boolean replayFile (MDir dir, Path file)
+    {
+        if (! Files.isReadable (file)) return false;
+        boolean result = false;
+        try (InputStream stream = Files.newInputStream (file);
+             DataInputStream in = new DataInputStream (new BufferedInputStream (stream)))
+        {
+            while (true)
+            {
+                int length;
+                try {length = in.readInt ();}
+                catch (EOFException e) {break;}
+                int check = in.readInt ();
+                if (length < 0) break;
+                byte[] bytes = new byte[length];
+                in.readFully (bytes);
+
+                CRC32 crc = new CRC32 ();
+                crc.update (bytes);
+                if ((int) crc.getValue () != check) break;
+
+                apply (dir, new DataInputStream (new ByteArrayInputStream (bytes)));
+                result = true;
+            }
+        }
+        catch (IOException e)  // Most likely a truncated entry at the end of the file.
+        {
+        }
+        if (result) System.err.println ("Recovered unsaved changes from journal: " + file);
+        return result;
+    }
+
+    protected static void apply (MDir dir, DataInputStream in) throws IOException
+    {
+        int op = in.readByte ();
+        String docKey = readString (in);
+        String[] path = new String[in.readInt ()];
+        for (int i = 0; i < path.length; i++) path[i] = readString (in);
+
+        if (op == DELETE)
+        {
+            dir.clear (docKey);
+            return;
+        }
+        MNode doc = dir.childOrCreate (docKey);
+        switch (op)
+        {
+            case SET:
+                String value = null;
+                if (in.readBoolean ()) value = readString (in);
+                doc.set (value, path);
+                break;
+            case CLEAR:
+                if (path.length > 0) doc.clear (path);
+                break;
+            case CLEAR_ALL:
+                MNode node = doc.child (path);
+                if (node != null) node.clear ();
+                break;
+            case REPLACE:
+                MNode tree = new MVolatile ();
+                readTree (in, tree);
+                doc.set (tree, path);
+                break;
+        }
+        // CREATE needs nothing beyond the childOrCreate() above.
+    }
+
+    protected static void writeString (DataOutputStream out, String value) throws IOException
+    {
+        byte[] bytes = value.getBytes (StandardCharsets.UTF_8);  // Unlike writeUTF(), this has no length limit.
+        out.writeInt (bytes.length);
+        out.write (bytes);
+    }
+
+    protected static String readString (DataInputStream in) throws IOException
+    {
+        byte[] bytes = new byte[in.readInt ()];
+        in.readFully (bytes);
+        return new String (bytes, StandardCharsets.UTF_8);
+    }
+
+    protected static void writeTree (DataOutputStream out, MNode node) throws IOException
+    {
+        boolean data = node.data ();
+        out.writeBoolean (data);
+        if (data) writeString (out, node.get ());
+        List<MNode> children = new ArrayList<MNode> ();  // Guard against count changing between size() and iteration.
+        for (MNode c : node) if (c != null) children.add (c);
+        out.writeInt (children.size ());
+        for (MNode c : children)
+        {
+            writeString (out, c.key ());
+            writeTree (out, c);
+        }
+    }
+
+    protected static void readTree (DataInputStream in, MNode node) throws IOException
+    {
+        if (in.readBoolean ()) node.set (readString (in));
+        int count = in.readInt ();
+        for (int i = 0; i < count; i++)
+        {
+            MNode c = node.set (null, readString (in));
+            readTree (in, c);
+        }
+    }
+}
@@ -519,6 +519,12 @@ public class MNode implements Iterable<MNode>, Comparable<MNode>
     **/
     public synchronized void uniqueNodes (MNode that)
     {
+        if (sameContent (that))  // Every node is defined in that, so nothing is unique.
+        {
+            if (data ()) set (null);
+            clear ();
+            return;
+        }
         if (that.data ()) set (null);
         for (MNode c : this)
         {
@@ -537,6 +543,12 @@ public class MNode implements Iterable<MNode>, Comparable<MNode>
     **/
     public synchronized void uniqueValues (MNode that)
     {
+        if (sameContent (that))
+        {
+            if (data ()) set (null);
+            clear ();
+            return;
+        }
         if (data ()  &&  that.data ()  &&  get ().equals (that.get ())) set (null);
         for (MNode c : this)
         {
@@ -564,6 +576,12 @@ public class MNode implements Iterable<MNode>, Comparable<MNode>
     **/
     public synchronized void changes (MNode that)
     {
+        if (sameContent (that))  // A merge would change nothing.
+        {
+            if (data ()) set (null);
+            clear ();
+            return;
+        }
         if (data ())
         {
             if (that.data ())
@@ -733,6 +751,8 @@ public class MNode implements Iterable<MNode>, Comparable<MNode>
     {
         if (data () != that.data ()) return false;
         if (! get ().equals (that.get ())) return false;
+        // Differing hashes prove the trees differ. Matching hashes prove nothing, since two different trees can collide.
+        if (hashCached ()  &&  that.hashCached ()  &&  contentHash () != that.contentHash ()) return false;
         if (size () != that.size ()) return false;
         for (MNode a : this)
         {
@@ -743,6 +763,71 @@ public class MNode implements Iterable<MNode>, Comparable<MNode>
         return true;
     }
 
+    /**
+        Merkle-style hash of the values and structure of this subtree. The key of this node is not included,
+        but the keys of all children are. Two subtrees with the same content have the same hash regardless
+        of their class or the order in which children are iterated.
+        This base implementation computes the hash fresh on each call. Subclasses that can detect all
+        changes to their content (MVolatile and its descendants) cache the result, so comparing two
+        unchanged trees costs nothing beyond the first call.
+    **/
+    public synchronized long contentHash ()
+    {
+        long result = data () ? mix (hash (get ())) : 0x5BD1E995L;  // Distinguish "undefined" from empty string.
+        for (MNode c : this)
+        {
+            // Summing makes the result independent of child order. Each term is mixed first so that
+            // swapping values between siblings still changes the sum.
+            result += mix (hash (c.key ()) * 31 + c.contentHash ());
+        }
+        return result;
+    }
+
+    /**
+        @return true if contentHash() is kept up to date incrementally, and is therefore cheap.
+        Comparison shortcuts are only taken when both sides are cheap, since otherwise computing the hash
+        costs as much as the full walk it is meant to avoid.
+    **/
+    protected boolean hashCached ()
+    {
+        return false;
+    }
+
+    /**
+        Determines whether this subtree and the given one have identical content (ignoring their own keys).
+        Returns false, meaning "not known to be the same", when either side would have to compute its hash
+        from scratch. Otherwise, differing hashes give a quick answer, and matching hashes are confirmed
+        by a full comparison.
+    **/
+    public boolean sameContent (MNode that)
+    {
+        return  hashCached ()  &&  that.hashCached ()  &&  contentHash () == that.contentHash ()  &&  equalsRecursive (that);
+    }
+
+    /**
+        64-bit FNV-1a.
+    **/
+    public static long hash (String value)
+    {
+        long result = 0xCBF29CE484222325L;
+        for (int i = 0; i < value.length (); i++)
+        {
+            result ^= value.charAt (i);
+            result *= 0x100000001B3L;
+        }
+        return result;
+    }
+
+    /**
+        Finalizer from SplitMix64. Spreads every input bit across the whole word.
+    **/
+    public static long mix (long value)
+    {
+        value = (value ^ (value >>> 30)) * 0xBF58476D1CE4E5B9L;
+        value = (value ^ (value >>> 27)) * 0x94D049BB133111EBL;
+        return value ^ (value >>> 31);
+    }
+
     /**
         Compares only key structure, not values.
     **/
@@ -6,6 +6,7 @@ the U.S. Government retains certain rights in this software.
 
 package gov.sandia.n2a.db;
 
+import java.util.Arrays;
 import java.util.TreeMap;
 
 public class MPersistent extends MVolatile
@@ -51,12 +52,14 @@ public class MPersistent extends MVolatile
     {
         super.clear ();
         markChanged ();
+        journal (MJournal.CLEAR_ALL, null, null);
     }
 
     protected synchronized void clearChild (String key)
     {
         super.clearChild (key);
         markChanged ();
+        journal (MJournal.CLEAR, key, null);
     }
 
 	public synchronized void set (String value)
@@ -66,7 +69,9 @@ public class MPersistent extends MVolatile
             if (this.value != null)
             {
                 this.value = null;
+                invalidateHash ();
                 markChanged ();
+                journal (MJournal.SET, null, null);
             }
         }
         else
@@ -74,7 +79,9 @@ public class MPersistent extends MVolatile
             if (this.value == null  ||  ! this.value.equals (value))
             {
                 this.value = value;
+                invalidateHash ();
                 markChanged ();
+                journal (MJournal.SET, null, value);
             }
         }
     }
@@ -88,6 +95,8 @@ public class MPersistent extends MVolatile
             markChanged ();
             result = new MPersistent (this, key, value);
             children.put (key, result);
+            invalidateHash ();
+            journal (MJournal.SET, key, value);
             return result;
         }
         result.set (value);
@@ -108,6 +117,39 @@ public class MPersistent extends MVolatile
             p.name = toKey;
             p.markChanged ();
         }
+        invalidateHash ();
         markChanged ();
+
+        // Journal the move as blind writes, so that replay is idempotent.
+        if (source == null)
+        {
+            journal (MJournal.CLEAR, toKey, null);
+        }
+        else
+        {
+            journal (MJournal.REPLACE, toKey, source);
+            journal (MJournal.CLEAR, fromKey, null);
+        }
+    }
+
+    /**
+        Records a change in the journal of the enclosing document, if it has one.
+        @param key Child of this node which is the subject of the change, or null if the change applies to this node itself.
+    **/
+    protected void journal (int op, String key, Object argument)
+    {
+        MPersistent doc = this;
+        while (doc.parent instanceof MPersistent) doc = (MPersistent) doc.parent;
+        if (! (doc instanceof MDoc)) return;
+        MJournal journal = ((MDoc) doc).journal ();
+        if (journal == null) return;
+
+        String[] path = keyPath (doc);
+        if (key != null)
+        {
+            path = Arrays.copyOf (path, path.length + 1);
+            path[path.length - 1] = key;
+        }
+        journal.append (op, doc.key (), path, argument);
     }
 }
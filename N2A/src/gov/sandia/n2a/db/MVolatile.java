@@ -17,6 +17,9 @@ public class MVolatile extends MNode
     protected Object                     value;
     protected MNode                      parent;
     protected NavigableMap<String,MNode> children;
+    protected volatile long              hash;
+    protected volatile boolean           hashValid;  // If true, then hash is correct, and so is the hash of every descendant.
+    protected volatile long              version;    // Incremented whenever this node or any descendant changes. Lets contentHash() detect a change made while it was hashing.
 
     public MVolatile ()
     {
@@ -70,12 +73,14 @@ public class MVolatile extends MNode
     public synchronized void clear ()
     {
         if (children != null) children.clear ();
+        invalidateHash ();
     }
 
     protected synchronized void clearChild (String key)
     {
         if (children == null) return;
         children.remove (key);
+        invalidateHash ();
     }
 
     public synchronized int size ()
@@ -114,6 +119,7 @@ public class MVolatile extends MNode
     public synchronized void set (String value)
     {
         this.value = value;
+        invalidateHash ();
     }
 
     public synchronized MNode set (String value, String key)
@@ -124,6 +130,7 @@ public class MVolatile extends MNode
         {
             result = new MVolatile (value, key, this);
             children.put (key, result);
+            invalidateHash ();
             return result;
         }
         result.set (value);
@@ -139,6 +146,7 @@ public class MVolatile extends MNode
         for (int i = 0; i < keys.length; i++) stringKeys[i] = keys[i].toString ();
         MVolatile result = (MVolatile) childOrCreate (stringKeys);
         result.value = value;
+        result.invalidateHash ();
         return result;
     }
 
@@ -158,6 +166,46 @@ public class MVolatile extends MNode
             ((MVolatile) source).name = toKey;  // If this cast ceases to be a safe assumption, then the M hierarchy needs re-design.
             children.put (toKey, source);
         }
+        invalidateHash ();
+    }
+
+    /**
+        Writers only lock the node they change, so a descendant may change while this runs on another thread.
+        The hash is published first and then withdrawn if the version moved. Since invalidateHash() bumps
+        version before clearing hashValid, every interleaving ends with either a correct hash or hashValid false.
+    **/
+    public synchronized long contentHash ()
+    {
+        if (hashValid) return hash;
+        long v = version;
+        long result = super.contentHash ();
+        hash      = result;
+        hashValid = true;
+        if (version != v) hashValid = false;
+        return result;
+    }
+
+    protected boolean hashCached ()
+    {
+        return true;
+    }
+
+    /**
+        Marks the cached hash of this node and all its ancestors as stale.
+        Must be called by every method that changes value or children.
+        Walks all the way to the root, because an ancestor that is stale now may be in the middle of
+        computing a hash that is about to become stale as well.
+    **/
+    protected void invalidateHash ()
+    {
+        MNode n = this;
+        while (n instanceof MVolatile)
+        {
+            MVolatile m = (MVolatile) n;
+            m.version++;
+            m.hashValid = false;
+            n = m.parent;
+        }
     }
 
     public synchronized Iterator<MNode> iterator ()
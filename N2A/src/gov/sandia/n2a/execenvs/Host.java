@@ -42,6 +42,7 @@ import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.Callable;
 import java.util.concurrent.TimeUnit;
 import java.util.stream.Collectors;
 
@@ -67,10 +68,14 @@ import com.jcraft.jsch.JSchException;
 **/
 public abstract class Host
 {
-    public    String             name;                                 // Identifies host internally. Also acts as the default value of network address, but this can be overridden by the hostname key. This allows the use of a friendly name for display combined with, say, a raw IP for address.
-    public    MNode              config;                               // Collection of attributes that describe the target, including login information, directory structure and command forms. This should be a direct reference to node in app state, so any changes are recorded.
-    protected ArrayList<NodeJob> running = new ArrayList<NodeJob> ();  // Jobs that we are actively monitoring because they may still be running.
-    protected MonitorThread      monitorThread;
+    public    String               name;                                 // Identifies host internally. Also acts as the default value of network address, but this can be overridden by the hostname key. This allows the use of a friendly name for display combined with, say, a raw IP for address.
+    public    MNode                config;                               // Collection of attributes that describe the target, including login information, directory structure and command forms. This should be a direct reference to node in app state, so any changes are recorded.
+    protected ArrayList<NodeJob>   running = new ArrayList<NodeJob> ();  // Jobs that we are actively monitoring because they may still be running.
+    protected MonitorThread        monitorThread;
+    protected volatile JobEvents   events;                               // Push channel for job completion. Owned by monitorThread.
+    protected Map<String,Snapshot> snapshots = new HashMap<String,Snapshot> ();  // Results of recent status queries. See snapshot().
+
+    public static long statusPeriod = 1000;  // Milliseconds that a status snapshot remains valid. Generally matches the polling interval of MonitorThread.
 
     protected static Map<String,Host>     hosts     = new HashMap<String,Host> ();
     protected static List<ChangeListener> listeners = new ArrayList<ChangeListener> ();
@@ -253,13 +258,19 @@ public abstract class Host
 
     public static void waitForHost (NodeJob job)
     {
-        synchronized (waitingForHost) {waitingForHost.add (job);}
+        synchronized (waitingForHost)
+        {
+            waitingForHost.add (job);
+            waitingForHost.notifyAll ();  // Wake AssignmentThread so it considers the new job right away.
+        }
     }
 
+    /**
+        Starts waiting jobs as resources become available. All decisions are made by Scheduler.
+    **/
     public static class AssignmentThread extends Thread
     {
-        public boolean        stop;
-        public Map<Host,Long> hostTime = new HashMap<Host,Long> ();
+        public boolean stop;
 
         public AssignmentThread ()
         {
@@ -270,85 +281,45 @@ public abstract class Host
         {
             while (! stop)
             {
-                if (waitingForHost.isEmpty ())
+                int launched = 0;
+                try
                 {
-                    try {sleep (1000);}
-                    catch (InterruptedException e) {}
+                    launched = Scheduler.instance.assign (this);
                 }
-
-                int i = 0;
-                while (! stop)
+                catch (Exception e)
                 {
-                    NodeJob job;
-                    synchronized (waitingForHost)
-                    {
-                        if (i >= waitingForHost.size ()) break;
-                        job = waitingForHost.get (i);
-                        if (job.complete == 3  ||  job.deleted)  // The user terminated or deleted job before it got started.
-                        {
-                            job.complete = 4;
-                            waitingForHost.remove (i);  // And don't bother sending to regular monitor.
-                            continue;
-                        }
-                    }
-
-                    // Find available host
-                    MNode source = job.getSource ();
-                    Backend backend = Backend.getBackend (source.get ("$metadata", "backend"));
-
-                    List<Host> hosts = new ArrayList<Host> ();
-                    for (String hostname : source.get ("$metadata", "host").split (","))
-                    {
-                        Host h = Host.get (hostname.trim ());
-                        if (h != null) hosts.add (h);
-                    }
-                    if (hosts.isEmpty ()) hosts.add (Host.get ("localhost"));
-
-                    Host chosenHost = null;
-                    for (Host h : hosts)
-                    {
-                        // Enable host, but only for newly-launched jobs.
-                        // If the job pre-existed the current session of this app,
-                        // then wait for the user to explicitly enable the host.
-                        if (! job.old  &&  h instanceof Remote) ((Remote) h).enable ();
-
-                        // Throttle runs on the same host, so each has time to allocate resources
-                        // before the next one starts.
-                        if (stop) return;
-                        Long previous = hostTime.get (h);
-                        if (previous != null)
-                        {
-                            long elapsed = System.currentTimeMillis () - previous;
-                            long wait = 1000 - elapsed;
-                            try {if (wait > 0) sleep (wait);}
-                            catch (InterruptedException e) {}
-                        }
+                    System.err.println ("Job scheduler failed:");
+                    e.printStackTrace ();
+                }
+                if (stop) break;
 
-                        if (stop) return;
-                        if (backend.canRunNow (h, source))
-                        {
-                            chosenHost = h;
-                            break;
-                        }
-                    }
-                    if (chosenHost == null)  // No host ready, so move on to next job.
-                    {
-                        i++;
-                    }
-                    else  // Host is ready, so start job and move to host's monitor list.
-                    {
-                        if (stop) return;
-                        source.set (chosenHost.name, "$metadata", "host");
-                        backend.start (source);
-                        hostTime.put (chosenHost, System.currentTimeMillis ());  // Remember when the most recent job was started on the chosen host.
-                        synchronized (waitingForHost) {waitingForHost.remove (i);}
-                        synchronized (chosenHost.running) {chosenHost.running.add (job);}
-                    }
+                // If something started, make another pass immediately, in case more will fit.
+                // Otherwise, wait for new jobs to arrive or for running jobs to finish.
+                if (launched > 0) continue;
+                synchronized (waitingForHost)
+                {
+                    try {waitingForHost.wait (statusPeriod);}
+                    catch (InterruptedException e) {}
                 }
             }
         }
     }
 
+    /**
+        Determines if two waiting jobs may be launched together as a pack.
+        They must come from the same model (typically the same study), and agree on backend,
+        candidate hosts and pack size. Packing is enabled by setting $metadata.study.pack to the
+        maximum number of jobs per launch, or by a host whose getPackLimit() is greater than 1.
+    **/
+    public static boolean canPack (MNode a, MNode b)
+    {
+        if (! a.get ("$inherit")                    .equals (b.get ("$inherit")))                    return false;
+        if (! a.get ("$metadata", "backend")        .equals (b.get ("$metadata", "backend")))        return false;
+        if (! a.get ("$metadata", "host")           .equals (b.get ("$metadata", "host")))           return false;
+        if (! a.get ("$metadata", "study", "pack")  .equals (b.get ("$metadata", "study", "pack")))  return false;
+        return true;
+    }
+
     /**
         Determines if this application is running on a Windows system.
         Not to be confused with the type of system a particular job executes on.
@@ -410,14 +381,18 @@ public abstract class Host
 
         public void run ()
         {
-            // Periodic refresh to show status of running jobs
+            JobEvents e = new JobEvents (Host.this);
+            events = e;
+            e.start ();
+
+            // Periodic refresh to show status of running jobs.
+            // Between sweeps, block on the event channel so that completions are noticed immediately.
+            long lastSweep = 0;
             while (! stop)
             {
-                if (running.isEmpty ())
-                {
-                    try {sleep (1000);}
-                    catch (InterruptedException e) {}
-                }
+                handleEvents (e, statusPeriod - (System.currentTimeMillis () - lastSweep));
+                if (stop) break;
+                lastSweep = System.currentTimeMillis ();
 
                 int i = 0;
                 while (! stop)
@@ -439,11 +414,54 @@ public abstract class Host
                     {
                         i++;
                     }
+                    handleEvents (e, 0);
+                }
+
+                boolean idle;
+                synchronized (running) {idle = running.isEmpty ();}
+                if (idle) e.truncate ();  // Keep the shared event file from growing without bound.
+            }
+
+            e.stop ();
+            if (events == e) events = null;
+        }
+
+        /**
+            Passes completion events to the associated jobs.
+            @param timeout Milliseconds to wait for the first event. Any further events that are already queued are also handled.
+        **/
+        public void handleEvents (JobEvents e, long timeout)
+        {
+            String[] event = e.poll (Math.max (0, timeout));
+            while (event != null)
+            {
+                NodeJob job = null;
+                synchronized (running)
+                {
+                    for (NodeJob j : running)
+                    {
+                        if (j.getKey ().equals (event[0]))
+                        {
+                            job = j;
+                            break;
+                        }
+                    }
                 }
+                if (job != null) job.notifyFinished (event[1]);
+                event = e.poll (0);
             }
         }
     }
 
+    /**
+        @return true if job completions on this host are being pushed to us, so that polling can be less frequent.
+    **/
+    public boolean eventsLive ()
+    {
+        JobEvents e = events;
+        return  e != null  &&  e.isLive ();
+    }
+
     /**
         Used to show this host in a list for editing.
     **/
@@ -471,12 +489,76 @@ public abstract class Host
     public abstract void              submitJob      (MNode job, String command) throws Exception;
     public abstract void              killJob        (MNode job, boolean force)  throws Exception;
 
+    /**
+        Launches several prepared jobs as a unit. Each job already has its own job dir, and
+        commands.get(i) is the command that would have been passed to submitJob() for jobs.get(i).
+        The default implementation submits each job separately.
+    **/
+    public void submitJobs (List<MNode> jobs, List<String> commands) throws Exception
+    {
+        for (int i = 0; i < jobs.size (); i++) submitJob (jobs.get (i), commands.get (i));
+    }
+
     public class ProcessInfo
     {
         public long   pid;
-        public long   memory;     // bytes in use
-        public double cpu = 1;    // number of cores in use
-        public String state = ""; // for HPC jobs
+        public long   memory;       // bytes in use
+        public double cpu = 1;      // number of cores in use
+        public String state   = ""; // for HPC jobs
+        public int    task    = -1; // index within a job array, for HPC jobs; -1 if not part of an array
+        public String command = ""; // full command line, if available
+    }
+
+    protected static class Snapshot
+    {
+        public long   time;
+        public Object value;
+    }
+
+    /**
+        Returns the result of a status query, running it only if the previous result is older than the given period.
+        Querying a host generally means spawning a process, and possibly an ssh exec. With hundreds of jobs
+        on one host, per-job queries would add up to hundreds of spawns per second. Instead, all callers
+        within one period share a single result. Concurrent callers for the same query wait for the one that
+        is in progress rather than starting their own.
+        @param name Identifies the query. Each distinct query gets its own snapshot.
+        @param period Milliseconds that the result remains valid. Typically statusPeriod.
+    **/
+    @SuppressWarnings("unchecked")
+    protected <T> T snapshot (String name, long period, Callable<T> query) throws Exception
+    {
+        Snapshot s;
+        synchronized (snapshots)
+        {
+            s = snapshots.get (name);
+            if (s == null)
+            {
+                s = new Snapshot ();
+                snapshots.put (name, s);
+            }
+        }
+        synchronized (s)
+        {
+            long now = System.currentTimeMillis ();
+            if (s.value == null  ||  now - s.time >= period)
+            {
+                s.value = query.call ();
+                s.time  = System.currentTimeMillis ();
+            }
+            return (T) s.value;
+        }
+    }
+
+    /**
+        Forces the next call for each kind of status to query the host again.
+        Used after an action that is known to change process status, such as submitting or killing a job.
+    **/
+    public void invalidateSnapshots ()
+    {
+        synchronized (snapshots)
+        {
+            snapshots.clear ();
+        }
     }
 
     /**
@@ -690,6 +772,44 @@ public abstract class Host
         }
     }
 
+    /**
+        @return Number of jobs the scheduler should try to launch together, when the job itself
+        does not specify $metadata.study.pack. Hosts that have a high cost per submission can
+        raise this to batch up studies by default.
+    **/
+    public int getPackLimit ()
+    {
+        return 1;
+    }
+
+    /**
+        @return Maximum number of jobs that the scheduler will run here at the same time, or 0 for no limit.
+    **/
+    public int getSlotJobs ()
+    {
+        return config.getOrDefault (0, "slots", "jobs");
+    }
+
+    /**
+        @return Number of processors the scheduler may commit to jobs on this host.
+    **/
+    public double getSlotCores ()
+    {
+        double result = config.getOrDefault (0.0, "slots", "cores");
+        if (result > 0) return result;
+        return getProcessorTotal ();
+    }
+
+    /**
+        @return Bytes of memory the scheduler may commit to jobs on this host.
+    **/
+    public long getSlotMemory ()
+    {
+        long result = config.getOrDefault (0L, "slots", "memory");
+        if (result > 0) return result;
+        return getMemoryTotal ();
+    }
+
     public int getProcessorTotal ()
     {
         // We will assume that processors available to JVM are exactly the same as total system processors.
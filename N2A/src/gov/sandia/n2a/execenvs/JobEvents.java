@@ -0,0 +1,249 @@
+/*
+Copyright 2021 National Technology & Engineering Solutions of Sandia, LLC (NTESS).
+Under the terms of Contract DE-NA0003525 with NTESS,
+the U.S. Government retains certain rights in this software.
+*/
+
+package gov.sandia.n2a.execenvs;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.ByteBuffer;
+import java.nio.channels.SeekableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+    Push channel for job completion. The wrapper script for each job appends a line of the form
+    "key status" to a shared file in the jobs directory when the job ends. This class follows that
+    file and delivers each line as soon as it appears, so MonitorThread can block on it rather than
+    poll every job directory.
+
+    On the local machine, the file is followed with a WatchService. On a remote machine, a single
+    long-lived "tail -F" runs over the existing ssh session, so the cost is one channel per host
+    rather than an sftp request per job per second.
+
+    This is purely an optimization. The "finished" file in each job dir remains the authoritative
+    record, and MonitorThread still checks it periodically in case an event is missed, for example
+    because the job ended while the connection was down.
+
+    Since every job appends to the same file, it would grow without bound. Once all delivered lines
+    have been consumed and no job is running, MonitorThread calls truncate() to empty it.
+**/
+public class JobEvents
+{
+    public static final String fileName = ".events";
+
+    public static long retryPeriod = 10000;  // Milliseconds to wait before restarting a remote tail that ended.
+
+    protected Host                             host;
+    protected LinkedBlockingQueue<String[]>    queue = new LinkedBlockingQueue<String[]> ();
+    protected Thread                           thread;
+    protected volatile boolean                 stop;
+    protected volatile boolean                 live;  // Indicates that events are actually being delivered right now.
+    protected volatile boolean                 dirty = true;  // The file may hold lines that no longer matter. Initially true in case an earlier session left some.
+    protected volatile long                    position;  // For local host. Number of bytes of the file already read.
+    protected volatile Host.AnyProcess         tail;  // For remote hosts. Written by our thread, but closed by stop().
+
+    public JobEvents (Host host)
+    {
+        this.host = host;
+    }
+
+    public void start ()
+    {
+        if (thread != null) return;
+        thread = new Thread ("Job Events " + host.name)
+        {
+            public void run ()
+            {
+                if (host instanceof Remote) followRemote ();
+                else                        followLocal ();
+                live = false;
+            }
+        };
+        thread.setDaemon (true);
+        thread.start ();
+    }
+
+    public void stop ()
+    {
+        stop = true;
+        live = false;
+        if (thread != null) thread.interrupt ();
+        Host.AnyProcess t = tail;
+        if (t != null)
+        {
+            try {t.close ();}
+            catch (IOException e) {}
+        }
+    }
+
+    /**
+        Empties the event file, if there is anything in it that has already been delivered.
+        Caller must ensure that no job is running on the host. Does nothing while undelivered events remain in the queue.
+        If a job slips in anyway and its line gets erased, the periodic check of its "finished"
+        file will still catch it.
+    **/
+    public void truncate ()
+    {
+        if (! dirty  ||  ! queue.isEmpty ()) return;
+        try
+        {
+            if (host instanceof Remote)
+            {
+                if (! ((Remote) host).isConnected ()) return;
+                Path events = host.getResourceDir ().resolve ("jobs").resolve (fileName);
+                // tail -F notices the truncation and continues from the beginning.
+                try (Host.AnyProcess proc = host.build ("truncate", "-s", "0", host.quote (events)).start ())
+                {
+                    proc.waitFor ();
+                }
+            }
+            else
+            {
+                Path events = Host.getLocalResourceDir ().resolve ("jobs").resolve (fileName);
+                if (! Files.exists (events)) return;
+                try (SeekableByteChannel channel = Files.newByteChannel (events, StandardOpenOption.WRITE))
+                {
+                    if (channel.size () != position) return;  // Something arrived that has not been read yet.
+                    channel.truncate (0);
+                }
+                // followLocal() sees that the file shrank and starts over from 0.
+            }
+            dirty = false;
+        }
+        catch (Exception e)
+        {
+            dirty = false;  // Don't retry on every sweep. The next delivered event will arm it again.
+        }
+    }
+
+    /**
+        @return true if events are currently being delivered, in which case callers may reduce their polling rate.
+    **/
+    public boolean isLive ()
+    {
+        return live;
+    }
+
+    /**
+        Waits for the next event.
+        @return Array of {key, status}, or null if nothing arrived within the timeout.
+    **/
+    public String[] poll (long timeout)
+    {
+        try
+        {
+            return queue.poll (timeout, TimeUnit.MILLISECONDS);
+        }
+        catch (InterruptedException e)
+        {
+            return null;
+        }
+    }
+
+    protected void deliver (String line)
+    {
+        String[] pieces = line.trim ().split ("\\s+", 2);
+        if (pieces.length < 2  ||  pieces[0].isEmpty ()) return;
+        dirty = true;
+        queue.add (pieces);
+    }
+
+    protected void followLocal ()
+    {
+        try
+        {
+            Path jobsDir = Host.getLocalResourceDir ().resolve ("jobs");
+            Path events  = jobsDir.resolve (fileName);
+            Files.createDirectories (jobsDir);
+            position = Files.exists (events) ? Files.size (events) : 0;  // Only report events that happen from now on.
+            String partial = "";  // Text after the last complete line.
+
+            try (WatchService watcher = FileSystems.getDefault ().newWatchService ())
+            {
+                jobsDir.register (watcher, StandardWatchEventKinds.ENTRY_CREATE, StandardWatchEventKinds.ENTRY_MODIFY);
+                live = true;
+                while (! stop)
+                {
+                    WatchKey key = watcher.take ();
+                    boolean relevant = false;
+                    for (WatchEvent<?> e : key.pollEvents ())
+                    {
+                        Object context = e.context ();
+                        if (context != null  &&  context.toString ().equals (fileName)) relevant = true;
+                    }
+                    key.reset ();
+                    if (! relevant) continue;
+
+                    try (SeekableByteChannel channel = Files.newByteChannel (events, StandardOpenOption.READ))
+                    {
+                        if (channel.size () < position) position = 0;  // File was truncated or replaced.
+                        channel.position (position);
+                        ByteBuffer buffer = ByteBuffer.allocate ((int) Math.min (channel.size () - position, 0x100000));
+                        while (buffer.hasRemaining ()  &&  channel.read (buffer) > 0) {}
+                        position += buffer.position ();
+                        String text = partial + new String (buffer.array (), 0, buffer.position (), StandardCharsets.UTF_8);
+                        int end = text.lastIndexOf ('\n');
+                        partial = text.substring (end + 1);
+                        if (end >= 0) for (String line : text.substring (0, end).split ("\n")) deliver (line);
+                    }
+                    catch (IOException e) {}
+                }
+            }
+        }
+        catch (InterruptedException e) {}
+        catch (Exception e)
+        {
+            System.err.println ("Unable to watch for job events on " + host.name);
+            e.printStackTrace ();
+        }
+    }
+
+    protected void followRemote ()
+    {
+        Remote remote = (Remote) host;
+        while (! stop)
+        {
+            if (remote.isConnected ())  // Never force a connection. That is up to the user.
+            {
+                try
+                {
+                    Path events = host.getResourceDir ().resolve ("jobs").resolve (fileName);
+                    tail = host.build ("tail", "-n", "0", "-F", host.quote (events)).start ();
+                    try (BufferedReader reader = new BufferedReader (new InputStreamReader (tail.getInputStream (), StandardCharsets.UTF_8)))
+                    {
+                        live = true;
+                        String line;
+                        while ((line = reader.readLine ()) != null) deliver (line);
+                    }
+                }
+                catch (Exception e) {}
+                finally
+                {
+                    live = false;
+                    if (tail != null)
+                    {
+                        try {tail.close ();}
+                        catch (IOException e) {}
+                        tail = null;
+                    }
+                }
+            }
+            if (stop) break;
+            try {Thread.sleep (retryPeriod);}
+            catch (InterruptedException e) {}
+        }
+    }
+}
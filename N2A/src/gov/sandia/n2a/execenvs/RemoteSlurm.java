@@ -13,7 +13,10 @@ import java.io.BufferedReader;
 import java.io.InputStreamReader;
 import java.nio.file.Path;
 import java.util.ArrayList;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Callable;
 
 /**
     Wraps access to a system that runs jobs via slurm.
@@ -46,40 +49,54 @@ public class RemoteSlurm extends RemoteUnix
     {
         long pid = job.getOrDefault (0l, "$metadata", "pid");
         if (pid == 0) return false;
+        int task = job.getOrDefault (-1, "$metadata", "task");
 
-        try (AnyProcess proc = build ("squeue -O JobID --noheader -u " + connection.username).start ();
-             BufferedReader reader = new BufferedReader (new InputStreamReader (proc.getInputStream ())))
+        for (ProcessInfo info : getActiveProcs ())
         {
-            String line;
-            while ((line = reader.readLine ()) != null)
-            {
-                long pidListed = Long.parseLong (line);
-                if (pidListed == pid) return true;
-            }
+            if (info.pid != pid) continue;
+            if (task < 0  ||  info.task == task) return true;
         }
         return false;
     }
 
+    /**
+        A single squeue call is shared by all callers within one statusPeriod.
+        Array jobs are expanded to one entry per task, with the task index in ProcessInfo.task.
+        The returned list is shared, so it must not be modified.
+    **/
     @Override
     public List<ProcessInfo> getActiveProcs () throws Exception
     {
-        List<ProcessInfo> result = new ArrayList<ProcessInfo> ();
-        try (AnyProcess proc = build ("squeue -O JobID,State --noheader -u " + connection.username).start ();
-             BufferedReader reader = new BufferedReader (new InputStreamReader (proc.getInputStream ())))
+        return snapshot ("squeue", statusPeriod, new Callable<List<ProcessInfo>> ()
         {
-            String line;
-            while ((line = reader.readLine ()) != null)
+            public List<ProcessInfo> call () throws Exception
             {
-                ProcessInfo info = new ProcessInfo ();
+                List<ProcessInfo> result = new ArrayList<ProcessInfo> ();
+                // With -r, JobID gives each array task its own ID, so ask for the array ID and task index separately.
+                // For a job that is not an array, ArrayJobID is the same as JobID and ArrayTaskID is "N/A".
+                try (AnyProcess proc = build ("squeue -r -O ArrayJobID,ArrayTaskID,State --noheader -u " + connection.username).start ();
+                     BufferedReader reader = new BufferedReader (new InputStreamReader (proc.getInputStream ())))
+                {
+                    String line;
+                    while ((line = reader.readLine ()) != null)
+                    {
+                        line = line.trim ();
+                        if (line.isEmpty ()) continue;
+                        ProcessInfo info = new ProcessInfo ();
 
-                String[] pieces = line.trim ().split (" ", 2);
-                info.pid   = Long.valueOf (pieces[0]);
-                info.state = pieces[1].trim ();
-                
-                result.add (info);
+                        String[] pieces = line.split ("\\s+");
+                        if (pieces.length < 3) continue;
+                        info.pid   = Long.valueOf (pieces[0]);
+                        info.state = pieces[2];
+                        try {info.task = Integer.valueOf (pieces[1]);}
+                        catch (NumberFormatException e) {}  // "N/A" for a job that is not an array, or a range of pending tasks that squeue did not expand.
+
+                        result.add (info);
+                    }
+                }
+                return result;
             }
-        }
-        return result;
+        });
     }
 
     @Override
@@ -94,32 +111,117 @@ public class RemoteSlurm extends RemoteUnix
 
         stringToFile (jobDir.resolve ("n2a_job"),
               "#!/bin/bash\n"
-            + "mpiexec --npernode " + cores + " " + "numa_wrapper --ppn " + cores + " " + command
+            + "if mpiexec --npernode " + cores + " " + "numa_wrapper --ppn " + cores + " " + command + "; then\n"
+            + "  status=success\n"
+            + "else\n"
+            + "  status=failure\n"
+            + "fi\n"
+            + "echo $status > " + quote (jobDir.resolve ("finished")) + "\n"
+            + "echo \"" + job.key () + " $status\" >> " + quote (jobsDir.resolve (JobEvents.fileName)) + "\n"  // Notify monitor thread. See JobEvents.
         );
 
         // Note: There may be other sbatch parameters that are worth controlling here.
-        try (AnyProcess proc = build (
-                "sbatch",
-                "--nodes="   + nodes,
-                "--time=24:00:00",
-                "--account=" + config.get ("cluster", "account"),
-                "--job-name=N2A",  // TODO: use better job name here, one that is unique
-                "--output="  + quote (jobDir.resolve ("out")),
-                "--error="   + quote (jobDir.resolve ("err")),
-                quote (jobDir.resolve ("n2a_job"))).start ();
+        long pid = sbatch (
+            "--nodes="   + nodes,
+            "--time="    + getTimeLimit (job),
+            "--account=" + config.get ("cluster", "account"),
+            "--job-name=N2A",  // TODO: use better job name here, one that is unique
+            "--output="  + quote (jobDir.resolve ("out")),
+            "--error="   + quote (jobDir.resolve ("err")),
+            quote (jobDir.resolve ("n2a_job")));
+        job.set (pid, "$metadata", "pid");
+    }
+
+    /**
+        Submits all the jobs as a single slurm job array. A parameter table in the dir of the first job
+        maps each array index to a job key and the command that runs it. Each task changes to its own
+        job dir, so "out", "err" and "finished" land in the same places as for a separately submitted job.
+
+        Every job records the array's ID in $metadata.pid and its own index in $metadata.task.
+        The time limit and the number of tasks allowed to run at once (the %N suffix to --array) come
+        from $metadata.remote.time and $metadata.remote.throttle, or else from cluster.time and
+        cluster.throttle in the host config.
+    **/
+    @Override
+    public void submitJobs (List<MNode> jobs, List<String> commands) throws Exception
+    {
+        if (jobs.size () == 1)
+        {
+            submitJob (jobs.get (0), commands.get (0));
+            return;
+        }
+
+        Path  resourceDir = getResourceDir ();
+        Path  jobsDir     = resourceDir.resolve ("jobs");
+        MNode lead        = jobs.get (0);
+        Path  leadDir     = jobsDir.resolve (lead.key ());
+
+        StringBuilder table = new StringBuilder ();
+        for (int i = 0; i < jobs.size (); i++) table.append (jobs.get (i).key () + "\t" + commands.get (i) + "\n");
+        Path tableFile = leadDir.resolve ("n2a_array_table");
+        stringToFile (tableFile, table.toString ());
+
+        String cores = lead.getOrDefault ("1", "$metadata", "cores");
+        String nodes = lead.getOrDefault ("1", "$metadata", "remote", "nodes");
+        Path   script = leadDir.resolve ("n2a_array");
+        stringToFile (script,
+              "#!/bin/bash\n"
+            + "line=$(sed -n \"$((SLURM_ARRAY_TASK_ID + 1))p\" " + quote (tableFile) + ")\n"
+            + "key=${line%%$'\\t'*}\n"
+            + "command=${line#*$'\\t'}\n"
+            + "cd " + quote (jobsDir) + "/$key\n"
+            + "if eval \"mpiexec --npernode " + cores + " numa_wrapper --ppn " + cores + " $command\" > out 2>> err; then\n"  // eval, because the command in the table carries shell quoting.
+            + "  status=success\n"
+            + "else\n"
+            + "  status=failure\n"
+            + "fi\n"
+            + "echo $status > finished\n"
+            + "echo \"$key $status\" >> " + quote (jobsDir.resolve (JobEvents.fileName)) + "\n"  // Notify monitor thread. See JobEvents.
+        );
+
+        String array = "0-" + (jobs.size () - 1);
+        int throttle = lead.getOrDefault (config.getOrDefault (0, "cluster", "throttle"), "$metadata", "remote", "throttle");
+        if (throttle > 0) array += "%" + throttle;
+
+        long pid = sbatch (
+            "--array="   + array,
+            "--nodes="   + nodes,
+            "--time="    + getTimeLimit (lead),
+            "--account=" + config.get ("cluster", "account"),
+            "--job-name=N2A",
+            "--output="  + quote (leadDir.resolve ("n2a_array_%a.log")),  // Only catches output from the script itself. The simulation writes to its own job dir.
+            quote (script));
+        for (int i = 0; i < jobs.size (); i++)
+        {
+            MNode job = jobs.get (i);
+            job.set (pid, "$metadata", "pid");
+            job.set (i,   "$metadata", "task");
+        }
+    }
+
+    /**
+        Runs sbatch with the given arguments.
+        @return The slurm job ID.
+    **/
+    protected long sbatch (String... args) throws Exception
+    {
+        List<String> command = new ArrayList<String> ();
+        command.add ("sbatch");
+        for (String a : args) command.add (a);
+        try (AnyProcess proc = build (command).start ();
              BufferedReader reader = new BufferedReader (new InputStreamReader (proc.getInputStream ())))
         {
             // Example output:
             //   Using wcid "FY139768"  found on CLI.
             //   Submitted batch job 10979768
-            while (reader.ready ())
+            String line;
+            while ((line = reader.readLine ()) != null)
             {
-                String line = reader.readLine ();
                 String[] parts = line.split ("job", 2);
                 if (parts.length == 2)
                 {
-                    job.set (Long.parseLong (parts[1].trim ()), "$metadata", "pid");
-                    return;
+                    invalidateSnapshots ();  // So the next check of the queue includes this job.
+                    return Long.parseLong (parts[1].trim ());
                 }
             }
 
@@ -130,16 +232,57 @@ public class RemoteSlurm extends RemoteUnix
         }
     }
 
+    /**
+        @return Wall-clock limit for the given job, in any format that sbatch --time accepts.
+    **/
+    public String getTimeLimit (MNode job)
+    {
+        return job.getOrDefault (config.getOrDefault ("24:00:00", "cluster", "time"), "$metadata", "remote", "time");
+    }
+
     @Override
     public void killJob (MNode job, boolean force) throws Exception
     {
         long pid = job.getOrDefault (0l, "$metadata", "pid");
         if (pid == 0) return;
+        int task = job.getOrDefault (-1, "$metadata", "task");
 
-        try (AnyProcess proc = build ("scancel", force ? "" : "-s 15 ", String.valueOf (pid)).start ())
+        String id = String.valueOf (pid);
+        if (task >= 0) id += "_" + task;  // Only cancel this job's task, not the whole array.
+        List<String> command = new ArrayList<String> ();
+        command.add ("scancel");
+        if (! force)
+        {
+            command.add ("-s");
+            command.add ("15");
+        }
+        command.add (id);
+        try (AnyProcess proc = build (command).start ())
         {
-            proc.wait ();  // To avoid killing the process by closing the channel.
+            proc.waitFor ();  // To avoid killing the process by closing the channel.
         }
+        invalidateSnapshots ();
+    }
+
+    /**
+        Studies are submitted as job arrays by default, since each sbatch call is costly and slurm
+        is better at packing work onto the cluster than we are. The size is limited by cluster.array,
+        which should not exceed the MaxArraySize of the cluster.
+    **/
+    @Override
+    public int getPackLimit ()
+    {
+        return config.getOrDefault (1000, "cluster", "array");
+    }
+
+    /**
+        Slurm decides how many jobs actually run, so by default the scheduler places no limit here.
+        The only throttle is the length of the queue, which canRunNow() checks through getProcessorIdle().
+    **/
+    @Override
+    public double getSlotCores ()
+    {
+        return config.getOrDefault (Double.POSITIVE_INFINITY, "slots", "cores");
     }
 
     // Load management is handled by slurm, so the following functions lie about resources
@@ -163,7 +306,8 @@ public class RemoteSlurm extends RemoteUnix
     {
         // Return the maximum number of jobs allowed to wait in queue.
         // Jobs that are already running won't count against this.
-        return 3;
+        // A job array counts once, no matter how many tasks it has.
+        return config.getOrDefault (3, "cluster", "queue");
     }
 
     @Override
@@ -171,16 +315,16 @@ public class RemoteSlurm extends RemoteUnix
     {
         // Return the number of jobs currently waiting in queue.
         // For simplicity, count any job owned by the current user.
-        int waiting = 0;
+        Set<Long> waiting = new HashSet<Long> ();
         try
         {
             for (ProcessInfo info : getActiveProcs ())
             {
                 // TODO: determine what other states to include in "waiting".
-                if (info.state.equals ("PENDING")) waiting++;
+                if (info.state.equals ("PENDING")) waiting.add (info.pid);
             }
         }
         catch (Exception e) {}
-        return getProcessorTotal () - waiting;
+        return getProcessorTotal () - waiting.size ();
     }
 }
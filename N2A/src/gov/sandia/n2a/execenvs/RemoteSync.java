@@ -0,0 +1,381 @@
+/*
+Copyright 2021 National Technology & Engineering Solutions of Sandia, LLC (NTESS).
+Under the terms of Contract DE-NA0003525 with NTESS,
+the U.S. Government retains certain rights in this software.
+*/
+
+package gov.sandia.n2a.execenvs;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.SeekableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.FileTime;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import gov.sandia.n2a.db.MNode;
+import gov.sandia.n2a.execenvs.Host.AnyProcess;
+
+/**
+    Keeps the local mirror of a remote job directory up to date, transferring only the parts of
+    each file that changed.
+
+    The remote side is queried with standard tools (find, dd, split, md5sum) over the existing ssh
+    session, so nothing needs to be installed on the host. A single "find" returns size and
+    modification time for every file, so an unchanged file costs nothing beyond that one listing.
+    When a file has changed, there are two cases:
+    <ul>
+    <li>The file grew, and the last complete block we hold still matches. This is the usual case for
+    simulation output, and only the new bytes are fetched.
+    <li>Anything else, such as a column file that gets rewritten. The remote side hashes the file in
+    fixed-size blocks, and only blocks whose hash differs from the local copy are fetched.
+    </ul>
+    After a file is synchronized, its local modification time is set to match the remote file.
+    The local file itself is therefore the only state, and a transfer interrupted by a dropped
+    connection simply resumes on the next pass, even after a restart.
+
+    A background thread can keep a selected set of files current, so that displaying a live remote
+    run only has to read what is already on local disk.
+**/
+public class RemoteSync
+{
+    public static int  blockSize = 0x10000;  // 64KiB
+    public static long period    = 2000;     // Milliseconds between background passes.
+
+    protected Host                 host;
+    protected MNode                job;
+    protected Path                 localDir;
+    protected long                 rate;        // Maximum transfer rate in bytes per second. 0 means unlimited. Taken from host config "syncRate".
+    protected Map<String,Entry>    manifest;    // Most recent listing of the remote job dir, keyed by path relative to that dir.
+    protected long                 manifestTime;
+    protected Set<String>          watched = new HashSet<String> ();  // Names (files or subdirs) that the background thread keeps current.
+    protected Thread               thread;
+    protected volatile boolean     stop;
+
+    public static class Entry
+    {
+        public long size;
+        public long modified;  // milliseconds since epoch, truncated to whole seconds, which is the resolution sftp reports
+    }
+
+    public interface Progress
+    {
+        /**
+            Called on the thread doing the transfer.
+            @param done Amount transferred so far in the current call.
+            @param total Amount expected to be transferred. This is an upper bound, since some blocks may turn out to match.
+            Both numbers are in bytes, except while fetching new members of a directory, when they count files.
+        **/
+        public void update (long done, long total);
+    }
+
+    public RemoteSync (Host host, MNode job)
+    {
+        this.host = host;
+        this.job  = job;
+        localDir  = Host.getJobDir (Host.getLocalResourceDir (), job);
+        rate      = host.config.getOrDefault (0L, "syncRate");
+    }
+
+    public MNode getJob ()
+    {
+        return job;
+    }
+
+    /**
+        Adds the given file or directory to the set kept up to date in the background.
+    **/
+    public void watch (String name)
+    {
+        synchronized (watched) {watched.add (name);}
+    }
+
+    public void start ()
+    {
+        if (thread != null) return;
+        thread = new Thread ("Sync " + job.key ())
+        {
+            public void run ()
+            {
+                Remote remote = (Remote) host;
+                while (! stop)
+                {
+                    boolean finished = Files.exists (localDir.resolve ("finished"));  // Check before pass, so that the pass covers everything written before job ended.
+                    List<String> names;
+                    synchronized (watched) {names = new ArrayList<String> (watched);}
+                    if (! names.isEmpty ()  &&  remote.isConnected ())  // Never force a connection. That is up to the user.
+                    {
+                        try
+                        {
+                            refreshManifest (0);
+                            for (String name : names)
+                            {
+                                if (stop) break;
+                                sync (name, null);
+                            }
+                            if (finished) break;  // Output is now final.
+                        }
+                        catch (Exception e) {}  // Most likely a dropped connection. Try again on next pass.
+                    }
+                    try {sleep (period);}
+                    catch (InterruptedException e) {}
+                }
+            }
+        };
+        thread.setDaemon (true);
+        thread.start ();
+    }
+
+    public void stop ()
+    {
+        stop = true;
+        if (thread != null) thread.interrupt ();
+    }
+
+    /**
+        Brings the named file up to date. If the name refers to a subdirectory, then every file
+        in it is synchronized.
+        @param progress May be null.
+        @return true if anything was transferred.
+    **/
+    public synchronized boolean sync (String name, final Progress progress) throws Exception
+    {
+        refreshManifest (period);
+        Path remoteDir = Host.getJobDir (host.getResourceDir (), job);
+
+        // Files that are new in a subdirectory, such as an image sequence, can be fetched several at a time.
+        String prefix = name + "/";
+        boolean directory = false;
+        for (String key : manifest.keySet ()) if (key.startsWith (prefix)) {directory = true; break;}
+        Path remote = remoteDir.resolve (name);
+        if (directory  &&  rate == 0  &&  remote instanceof SshPath)
+        {
+            Path local = localDir.resolve (name);
+            Files.createDirectories (local);
+            SshFileSystemProvider.downloadMissing ((SshPath) remote, local, new SshFileSystemProvider.DownloadProgress ()
+            {
+                public void update (int done, int total)
+                {
+                    if (progress != null) progress.update (done, total);
+                }
+            });
+        }
+
+        Map<String,Entry> changed = new HashMap<String,Entry> ();
+        long total = 0;
+        for (Map.Entry<String,Entry> e : manifest.entrySet ())
+        {
+            String key = e.getKey ();
+            if (! key.equals (name)  &&  ! key.startsWith (prefix)) continue;
+            Entry entry = e.getValue ();
+            if (isCurrent (localDir.resolve (key), entry)) continue;
+            changed.put (key, entry);
+            total += entry.size;
+        }
+        if (changed.isEmpty ()) return false;
+
+        long[] done = new long[1];
+        for (Map.Entry<String,Entry> e : changed.entrySet ())
+        {
+            String key = e.getKey ();
+            syncFile (remoteDir.resolve (key), localDir.resolve (key), e.getValue (), done, total, progress);
+        }
+        return true;
+    }
+
+    /**
+        Fetches a fresh listing of the remote job dir, unless the current one is younger than maxAge.
+    **/
+    public synchronized void refreshManifest (long maxAge) throws Exception
+    {
+        long now = System.currentTimeMillis ();
+        if (manifest != null  &&  now - manifestTime < maxAge) return;
+
+        Map<String,Entry> result = new HashMap<String,Entry> ();
+        Path remoteDir = Host.getJobDir (host.getResourceDir (), job);
+        try (AnyProcess proc = host.build ("find", host.quote (remoteDir), "-maxdepth", "2", "-type", "f", "-printf", "'%P\\t%s\\t%T@\\n'").start ();
+             BufferedReader reader = new BufferedReader (new InputStreamReader (proc.getInputStream (), StandardCharsets.UTF_8)))
+        {
+            String line;
+            while ((line = reader.readLine ()) != null)
+            {
+                String[] pieces = line.split ("\t");
+                if (pieces.length != 3) continue;
+                try
+                {
+                    Entry e = new Entry ();
+                    e.size     = Long.parseLong (pieces[1]);
+                    e.modified = (long) Double.parseDouble (pieces[2]) * 1000;
+                    result.put (pieces[0], e);
+                }
+                catch (NumberFormatException e) {}
+            }
+        }
+        manifest     = result;
+        manifestTime = now;
+    }
+
+    /**
+        @return Listing for the given file, or null if it does not exist on the remote side.
+        Based on the most recent manifest, which is refreshed if older than one period.
+    **/
+    public synchronized Entry getEntry (String name) throws Exception
+    {
+        refreshManifest (period);
+        return manifest.get (name);
+    }
+
+    public static boolean isCurrent (Path local, Entry remote)
+    {
+        try
+        {
+            if (Files.size (local) != remote.size) return false;
+            return Files.getLastModifiedTime (local).toMillis () == remote.modified;
+        }
+        catch (IOException e)
+        {
+            return false;
+        }
+    }
+
+    protected void syncFile (Path remoteFile, Path localFile, Entry remote, long[] done, long total, Progress progress) throws Exception
+    {
+        Files.createDirectories (localFile.getParent ());
+        long localSize = Files.exists (localFile) ? Files.size (localFile) : 0;
+
+        // Determine which byte ranges to fetch. Each range is a pair {start, end}.
+        List<long[]> ranges = new ArrayList<long[]> ();
+        long start = 0;  // Start of the range that extends to end of file.
+        if (localSize > 0)
+        {
+            // Optimistic check for a file that only grew.
+            long last = Math.min (localSize, remote.size) / blockSize - 1;  // last complete block held by both sides
+            if (last >= 0  &&  localSize <= remote.size  &&  remoteHash (remoteFile, last).equals (localHash (localFile, last)))
+            {
+                start = (last + 1) * blockSize;
+            }
+            else
+            {
+                List<String> remoteHashes = remoteHashes (remoteFile);
+                long blocks = Math.min (remoteHashes.size (), (Math.min (localSize, remote.size) + blockSize - 1) / blockSize);
+                try (FileChannel in = FileChannel.open (localFile, StandardOpenOption.READ))
+                {
+                    for (long b = 0; b < blocks; b++)
+                    {
+                        if (localHash (in, b).equals (remoteHashes.get ((int) b))) continue;
+                        long[] previous = ranges.isEmpty () ? null : ranges.get (ranges.size () - 1);
+                        long end = Math.min ((b + 1) * blockSize, remote.size);
+                        if (previous != null  &&  previous[1] == b * blockSize) previous[1] = end;  // Merge with adjacent range, so the remote stream does not have to seek.
+                        else ranges.add (new long[] {b * blockSize, end});
+                    }
+                }
+                start = blocks * blockSize;
+            }
+        }
+        if (start < remote.size) ranges.add (new long[] {start, remote.size});
+
+        try (SeekableByteChannel in  = Files.newByteChannel (remoteFile, StandardOpenOption.READ);
+             FileChannel         out = FileChannel.open (localFile, StandardOpenOption.CREATE, StandardOpenOption.WRITE))
+        {
+            ByteBuffer buffer = ByteBuffer.allocate (blockSize);
+            long began = System.currentTimeMillis ();
+            long transferred = 0;
+            for (long[] r : ranges)
+            {
+                in.position (r[0]);
+                long position = r[0];
+                while (position < r[1])
+                {
+                    buffer.clear ();
+                    buffer.limit ((int) Math.min (blockSize, r[1] - position));
+                    int count = in.read (buffer);
+                    if (count < 0) break;  // File shrank since listing. Next pass will see a new modification time.
+                    buffer.flip ();
+                    while (buffer.hasRemaining ()) out.write (buffer, position + buffer.position ());
+                    position    += count;
+                    transferred += count;
+                    done[0]     += count;
+                    if (progress != null) progress.update (done[0], total);
+                    if (rate > 0)
+                    {
+                        long ahead = transferred * 1000 / rate - (System.currentTimeMillis () - began);
+                        if (ahead > 0) Thread.sleep (ahead);
+                    }
+                }
+            }
+            if (out.size () > remote.size) out.truncate (remote.size);
+        }
+        // Only mark the file current after all its data has arrived.
+        Files.setLastModifiedTime (localFile, FileTime.from (remote.modified, TimeUnit.MILLISECONDS));
+    }
+
+    protected String remoteHash (Path remoteFile, long block) throws Exception
+    {
+        try (AnyProcess proc = host.build ("dd", "if=" + host.quote (remoteFile), "bs=" + blockSize, "skip=" + block, "count=1", "2>/dev/null", "|", "md5sum").start ();
+             BufferedReader reader = new BufferedReader (new InputStreamReader (proc.getInputStream (), StandardCharsets.UTF_8)))
+        {
+            String line = reader.readLine ();
+            if (line == null) return "";
+            return line.split ("\\s+")[0];
+        }
+    }
+
+    /**
+        Hashes every block of the remote file in a single round trip.
+        If split does not support --filter (older coreutils), the result is empty and the whole file will be fetched.
+    **/
+    protected List<String> remoteHashes (Path remoteFile) throws Exception
+    {
+        List<String> result = new ArrayList<String> ();
+        try (AnyProcess proc = host.build ("split", "-b", String.valueOf (blockSize), "--filter=md5sum", host.quote (remoteFile), "2>/dev/null").start ();
+             BufferedReader reader = new BufferedReader (new InputStreamReader (proc.getInputStream (), StandardCharsets.UTF_8)))
+        {
+            String line;
+            while ((line = reader.readLine ()) != null) result.add (line.split ("\\s+")[0]);
+        }
+        return result;
+    }
+
+    protected static String localHash (Path localFile, long block) throws IOException
+    {
+        try (FileChannel in = FileChannel.open (localFile, StandardOpenOption.READ))
+        {
+            return localHash (in, block);
+        }
+    }
+
+    protected static String localHash (FileChannel in, long block) throws IOException
+    {
+        try
+        {
+            MessageDigest md5 = MessageDigest.getInstance ("MD5");
+            ByteBuffer buffer = ByteBuffer.allocate (blockSize);
+            long position = block * blockSize;
+            int count;
+            while (buffer.hasRemaining ()  &&  (count = in.read (buffer, position)) > 0) position += count;
+            buffer.flip ();
+            md5.update (buffer);
+            StringBuilder result = new StringBuilder ();
+            for (byte b : md5.digest ()) result.append (String.format ("%02x", b));
+            return result.toString ();
+        }
+        catch (NoSuchAlgorithmException e)
+        {
+            return "";  // Every JVM is required to provide MD5, so this won't happen.
+        }
+    }
+}
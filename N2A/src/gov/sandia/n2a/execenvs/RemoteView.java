@@ -0,0 +1,161 @@
+/*
+Copyright 2021 National Technology & Engineering Solutions of Sandia, LLC (NTESS).
+Under the terms of Contract DE-NA0003525 with NTESS,
+the U.S. Government retains certain rights in this software.
+*/
+
+package gov.sandia.n2a.execenvs;
+
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.TreeSet;
+
+import gov.sandia.n2a.execenvs.Host.AnyProcess;
+
+/**
+    Produces a reduced version of an output file on the remote host, so that a chart can be drawn
+    without first downloading the whole file. The reduction runs as a small awk program, which is
+    sent along with the command, so nothing needs to be installed on the host.
+
+    The time axis is divided into a fixed number of buckets. For each bucket, the result contains
+    two rows: one holding the minimum of each column and one holding the maximum, stamped with the
+    first and last times in the bucket. This preserves the envelope of a trace, along with any
+    spikes, which is all that can be seen at screen resolution anyway. A bucket with only one row
+    passes that row through unchanged, so zooming in far enough shows the original data.
+
+    Output has the same layout as the original file, including header lines, so it can be fed
+    directly to OutputParser. When a subset of columns is requested, the other columns are left
+    empty rather than removed, so column indices (for example, in an auxiliary .columns file) still apply.
+**/
+public class RemoteView
+{
+    public static long threshold      = 0x4000000;  // 64MiB. Remote output files larger than this are charted through a RemoteView rather than downloaded in full.
+    public static int  defaultBuckets = 2000;       // A few times the width of a typical chart, in pixels.
+
+    public Host         host;
+    public Path         file;                // on the remote host
+    public double       xmin    = Double.NaN;  // Requested time range. NaN means extent of data.
+    public double       xmax    = Double.NaN;
+    public int          buckets = defaultBuckets;
+    public Set<Integer> columns;             // Zero-based indices of columns to keep. The time column is always kept. Null means all.
+
+    public static final String program =
+        "function fields(line) {if (index(line, \"\\t\")) return split(line, f, \"\\t\"); return split(line, f, \" \")}\n" +
+        "function keep(i) {return cols == \"\" || i == tc || (i in sel)}\n" +
+        "function row(n,   i, r) {r = \"\"; for (i = 1; i <= n; i++) r = r (i > 1 ? \"\\t\" : \"\") (keep(i) ? f[i] : \"\"); return r}\n" +
+        "function emit(   i, r1, r2) {\n" +
+        "  if (count == 0) return\n" +
+        "  if (count == 1) print single\n" +
+        "  else {\n" +
+        "    r1 = \"\"; r2 = \"\"\n" +
+        "    for (i = 1; i <= nc; i++) {\n" +
+        "      if (i > 1) {r1 = r1 \"\\t\"; r2 = r2 \"\\t\"}\n" +
+        "      if (i == tc) {r1 = r1 t1; r2 = r2 t2}\n" +
+        "      else if (i in mn) {r1 = r1 mn[i]; r2 = r2 mx[i]}\n" +
+        "    }\n" +
+        "    print r1; print r2\n" +
+        "  }\n" +
+        "  count = 0; nc = 0; split(\"\", mn); split(\"\", mx); split(\"\", mnv); split(\"\", mxv)\n" +
+        "}\n" +
+        "BEGIN {tc = 1; best = 0; pass = 0; if (cols != \"\") {n = split(cols, c, \",\"); for (i = 1; i <= n; i++) sel[c[i] + 1] = 1}}\n" +
+        "FNR == 1 {pass++; if (pass == final) {w = (hi - lo) / buckets; if (w <= 0) w = 1}}\n" +
+        "{\n" +
+        "  if ($0 == \"\" || substr($0, 1, 6) == \"End of\") next\n" +
+        "  n = fields($0)\n" +
+        "  if (substr(f[1], 1, 1) !~ /[-+.0-9]/) {\n" +
+        "    for (i = 1; i <= n; i++) {\n" +
+        "      p = 0\n" +
+        "      if (f[i] == \"t\") p = 1; else if (f[i] == \"TIME\") p = 2; else if (f[i] == \"$t\") p = 3\n" +
+        "      if (p > best) {best = p; tc = i}\n" +
+        "    }\n" +
+        "    if (pass == final) {emit(); print row(n)}\n" +
+        "    next\n" +
+        "  }\n" +
+        "  t = f[tc] + 0\n" +
+        "  if (pass < final) {if (!seen || t < lo) lo = t; if (!seen || t > hi) hi = t; seen = 1; next}\n" +
+        "  if (t < lo) {before = row(n); next}\n" +
+        "  if (before != \"\") {print before; before = \"\"}\n" +
+        "  if (t > hi) {emit(); print row(n); exit}\n" +
+        "  b = int((t - lo) / w); if (b >= buckets) b = buckets - 1\n" +
+        "  if (count && b != bucket) emit()\n" +
+        "  bucket = b\n" +
+        "  if (count == 0) {t1 = f[tc]; single = row(n)}\n" +
+        "  t2 = f[tc]; count++\n" +
+        "  if (n > nc) nc = n\n" +
+        "  for (i = 1; i <= n; i++) {\n" +
+        "    if (i == tc || f[i] == \"\" || !keep(i)) continue\n" +
+        "    v = f[i] + 0\n" +
+        "    if (!(i in mn) || v < mnv[i]) {mnv[i] = v; mn[i] = f[i]}\n" +
+        "    if (!(i in mx) || v > mxv[i]) {mxv[i] = v; mx[i] = f[i]}\n" +
+        "  }\n" +
+        "}\n" +
+        "END {emit(); if (before != \"\") print before}\n";
+
+    public RemoteView (Host host, Path file)
+    {
+        this.host = host;
+        this.file = file;
+    }
+
+    /**
+        Creates a copy of this view restricted to the given time range.
+    **/
+    public RemoteView zoom (double xmin, double xmax)
+    {
+        RemoteView result = new RemoteView (host, file);
+        result.xmin    = xmin;
+        result.xmax    = xmax;
+        result.buckets = buckets;
+        result.columns = columns;
+        return result;
+    }
+
+    public boolean isZoomed ()
+    {
+        return ! Double.isNaN (xmin)  &&  ! Double.isNaN (xmax);
+    }
+
+    /**
+        Starts the reduction on the remote host. The caller reads the result from the standard output of
+        the returned process, and must close it when done.
+    **/
+    public AnyProcess start () throws Exception
+    {
+        List<String> command = new ArrayList<String> ();
+        command.add ("awk");
+        command.add ("-v");
+        command.add ("buckets=" + buckets);
+        if (isZoomed ())
+        {
+            command.add ("-v");
+            command.add ("final=1");
+            command.add ("-v");
+            command.add ("lo=" + xmin);
+            command.add ("-v");
+            command.add ("hi=" + xmax);
+        }
+        else  // Make one pass to find the time range, then a second pass to reduce.
+        {
+            command.add ("-v");
+            command.add ("final=2");
+        }
+        if (columns != null)
+        {
+            String cols = "";
+            for (Integer c : new TreeSet<Integer> (columns))
+            {
+                if (! cols.isEmpty ()) cols += ",";
+                cols += c;
+            }
+            command.add ("-v");
+            command.add ("cols=" + cols);
+        }
+        command.add ("'" + program + "'");
+        String quoted = host.quote (file);
+        command.add (quoted);
+        if (! isZoomed ()) command.add (quoted);
+        return host.build (command).start ();
+    }
+}
@@ -0,0 +1,523 @@
+/*
+Copyright 2021 National Technology & Engineering Solutions of Sandia, LLC (NTESS).
+Under the terms of Contract DE-NA0003525 with NTESS,
+the U.S. Government retains certain rights in this software.
+*/
+
+package gov.sandia.n2a.execenvs;
+
+import gov.sandia.n2a.db.MNode;
+import gov.sandia.n2a.plugins.extpoints.Backend;
+import gov.sandia.n2a.ui.jobs.NodeJob;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+    Decides which waiting jobs to start, and on which hosts. Runs on AssignmentThread.
+
+    Each host declares a number of slots in its config:
+    <ul>
+    <li>slots.cores -- processors available to jobs. Defaults to the number of processors on the host.
+    <li>slots.memory -- bytes available to jobs. Defaults to the total memory of the host.
+    <li>slots.jobs -- maximum number of concurrent jobs. Defaults to 0, which means no limit.
+    </ul>
+    Each job has an estimated footprint, supplied by its backend (see Backend.estimate()).
+    The scheduler charges that footprint against the host when it starts the job, and releases it
+    when the job leaves the host's monitor list. This accounting does not depend on measured load,
+    so there is no need to wait for one job to ramp up before starting the next.
+    Backend.canRunNow() still gets the final say, based on measured load.
+
+    Ordering:
+    <ul>
+    <li>Higher $metadata.study.priority goes first. The default is 0.
+    <li>Among equal priorities, the study with the fewest jobs currently running goes first (fair share).
+    A run that is not part of a study is its own group.
+    <li>Otherwise, first come first served.
+    </ul>
+    When the job at the front of the line does not fit, it reserves the first host that could eventually
+    hold it. Jobs further back may still start (backfill), but on the reserved host only if they will
+    still fit alongside the reserved job once it runs. A job too large for any host's slots runs alone.
+**/
+public class Scheduler
+{
+    public static Scheduler instance = new Scheduler ();
+
+    public static long   estimateTTL = 600000;  // Milliseconds before a cached footprint estimate must be recomputed, in case the model was edited.
+    public static double smoothing   = 0.05;    // Weight of the current pass in the moving average of utilization.
+    public static long   gatherTime  = 2000;    // Milliseconds to hold back a partial pack while more jobs from the same study are still arriving.
+
+    protected Map<NodeJob,Claim>   claims    = new IdentityHashMap<NodeJob,Claim> ();
+    protected Map<NodeJob,Long>    arrivals  = new IdentityHashMap<NodeJob,Long> ();  // When each waiting job was first seen. Only touched by AssignmentThread.
+    protected Map<String,Estimate> estimates = new HashMap<String,Estimate> ();
+    protected Map<Host,Usage>      usage     = new HashMap<Host,Usage> ();
+    protected int                  waiting;
+    protected int                  blocked;
+
+    /**
+        Resources needed by a job, or available on a host.
+    **/
+    public static class Footprint
+    {
+        public double cores  = 1;
+        public long   memory;  // bytes; 0 means unknown
+
+        public Footprint ()
+        {
+        }
+
+        public Footprint (double cores, long memory)
+        {
+            this.cores  = cores;
+            this.memory = memory;
+        }
+    }
+
+    /**
+        Utilization of one host, as seen by the scheduler. A snapshot is returned by getUsage().
+    **/
+    public static class Usage
+    {
+        public String name;
+        public int    jobs;         // Number of launches currently charged to this host. A pack counts once.
+        public double cores;
+        public long   memory;
+        public int    slotJobs;
+        public double slotCores;
+        public long   slotMemory;
+        public double average;      // Moving average of cores/slotCores.
+        public int    backfillJobs; // Subset of jobs that were started around a reservation.
+        public double backfillCores;
+        public long   backfillMemory;
+        public Footprint reserved;  // Job waiting for this host during the most recent pass, or null.
+
+        public Usage copy ()
+        {
+            Usage result = new Usage ();
+            result.name           = name;
+            result.jobs           = jobs;
+            result.cores          = cores;
+            result.memory         = memory;
+            result.slotJobs       = slotJobs;
+            result.slotCores      = slotCores;
+            result.slotMemory     = slotMemory;
+            result.average        = average;
+            result.backfillJobs   = backfillJobs;
+            result.backfillCores  = backfillCores;
+            result.backfillMemory = backfillMemory;
+            result.reserved       = reserved;
+            return result;
+        }
+
+        /**
+            Determines if the given footprint fits in the remaining slots right now.
+            A host with nothing running will accept any single job, even one larger than its slots.
+        **/
+        public boolean fits (Footprint f)
+        {
+            if (jobs == 0) return true;
+            if (slotJobs > 0  &&  jobs + 1 > slotJobs) return false;
+            if (cores + f.cores > slotCores) return false;
+            if (f.memory > 0  &&  memory + f.memory > slotMemory) return false;
+            return true;
+        }
+
+        /**
+            Determines if the given footprint can run beside the reserved job without delaying it.
+        **/
+        public boolean fitsBeside (Footprint f)
+        {
+            if (reserved == null) return true;
+            if (slotJobs > 0  &&  backfillJobs + 2 > slotJobs) return false;
+            if (backfillCores + f.cores + reserved.cores > slotCores) return false;
+            if (f.memory > 0  &&  backfillMemory + f.memory + reserved.memory > slotMemory) return false;
+            return true;
+        }
+
+        public void charge (Footprint f, boolean backfill)
+        {
+            jobs++;
+            cores  += f.cores;
+            memory += f.memory;
+            if (backfill)
+            {
+                backfillJobs++;
+                backfillCores  += f.cores;
+                backfillMemory += f.memory;
+            }
+        }
+    }
+
+    /**
+        Resources charged to a host on behalf of a job we started.
+    **/
+    protected static class Claim
+    {
+        public Footprint footprint;
+        public String    group;
+        public String    pack;      // Key of the job that leads the pack, so a pack is only charged once.
+        public boolean   backfill;
+    }
+
+    protected static class Estimate
+    {
+        public Footprint footprint;
+        public long      time;
+    }
+
+    /**
+        A job waiting to run, along with the information needed to rank it.
+    **/
+    protected static class Ticket
+    {
+        public NodeJob    job;
+        public MNode      source;
+        public Backend    backend;
+        public int        priority;
+        public String     group;
+        public int        index;  // Position in the waiting list, for first-come first-served.
+    }
+
+    /**
+        Looks at every waiting job once and starts as many as will fit.
+        @param thread The calling thread. Checked for early exit.
+        @return Number of launches. Several jobs started as a pack count as one.
+    **/
+    public int assign (Host.AssignmentThread thread)
+    {
+        // Gather waiting jobs. Drop any that the user terminated or deleted before they got started.
+        List<NodeJob> jobs = new ArrayList<NodeJob> ();
+        synchronized (Host.waitingForHost)
+        {
+            Iterator<NodeJob> it = Host.waitingForHost.iterator ();
+            while (it.hasNext ())
+            {
+                NodeJob job = it.next ();
+                if (job.complete == 3  ||  job.deleted)
+                {
+                    job.complete = 4;
+                    it.remove ();  // And don't bother sending to regular monitor.
+                    continue;
+                }
+                jobs.add (job);
+            }
+        }
+
+        long now = System.currentTimeMillis ();
+        Map<NodeJob,Long> seen = new IdentityHashMap<NodeJob,Long> ();
+        for (NodeJob job : jobs)
+        {
+            Long t = arrivals.get (job);
+            seen.put (job, t == null ? now : t);
+        }
+        arrivals = seen;
+
+        Map<Host,Usage> current = measure ();
+
+        // Queue tickets by group, in order of arrival.
+        Map<String,ArrayDeque<Ticket>> groups = new HashMap<String,ArrayDeque<Ticket>> ();
+        Map<String,Integer>            active = new HashMap<String,Integer> ();
+        Map<String,Long>               newest = new HashMap<String,Long> ();  // Most recent arrival in each group.
+        synchronized (this)
+        {
+            Set<String> packs = new HashSet<String> ();
+            for (Claim c : claims.values ())
+            {
+                if (! packs.add (c.pack)) continue;
+                Integer count = active.get (c.group);
+                active.put (c.group, count == null ? 1 : count + 1);
+            }
+        }
+        for (int i = 0; i < jobs.size (); i++)
+        {
+            Ticket t = new Ticket ();
+            t.job      = jobs.get (i);
+            t.source   = t.job.getSource ();
+            t.backend  = Backend.getBackend (t.source.get ("$metadata", "backend"));
+            t.priority = t.source.getOrDefault (0, "$metadata", "study", "priority");
+            t.group    = t.source.getOrDefault (t.job.getKey (), "$metadata", "study", "id");
+            t.index    = i;
+            ArrayDeque<Ticket> queue = groups.get (t.group);
+            if (queue == null)
+            {
+                queue = new ArrayDeque<Ticket> ();
+                groups.put (t.group, queue);
+            }
+            queue.add (t);
+
+            long arrival = arrivals.get (t.job);
+            Long n = newest.get (t.group);
+            if (n == null  ||  n < arrival) newest.put (t.group, arrival);
+        }
+
+        int launched = 0;
+        int started  = 0;  // Counts each job in a pack separately.
+        int stuck    = 0;
+        while (! thread.stop)
+        {
+            // Select the next ticket: highest priority, then least active group, then earliest arrival.
+            Ticket best = null;
+            int    bestActive = 0;
+            for (ArrayDeque<Ticket> queue : groups.values ())
+            {
+                Ticket t = queue.peek ();
+                if (t == null) continue;
+                Integer a = active.get (t.group);
+                int ta = a == null ? 0 : a;
+                if (best != null)
+                {
+                    if (t.priority < best.priority) continue;
+                    if (t.priority == best.priority)
+                    {
+                        if (ta > bestActive) continue;
+                        if (ta == bestActive  &&  t.index > best.index) continue;
+                    }
+                }
+                best       = t;
+                bestActive = ta;
+            }
+            if (best == null) break;
+            groups.get (best.group).remove ();
+
+            Footprint need = estimate (best.backend, best.source);
+            List<Host> hosts = new ArrayList<Host> ();
+            for (String hostname : best.source.get ("$metadata", "host").split (","))
+            {
+                Host h = Host.get (hostname.trim ());
+                if (h != null) hosts.add (h);
+            }
+            if (hosts.isEmpty ()) hosts.add (Host.get ("localhost"));
+
+            Host    chosen   = null;
+            boolean backfill = false;
+            for (Host h : hosts)
+            {
+                // Enable host, but only for newly-launched jobs.
+                // If the job pre-existed the current session of this app,
+                // then wait for the user to explicitly enable the host.
+                if (! best.job.old  &&  h instanceof Remote) ((Remote) h).enable ();
+
+                if (thread.stop) return launched;
+                Usage u = current.get (h);
+                if (u == null)
+                {
+                    u = newUsage (h);
+                    current.put (h, u);
+                }
+                if (! u.fits (need)) continue;
+                if (! u.fitsBeside (need)) continue;
+                if (! best.backend.canRunNow (h, best.source)) continue;
+                chosen   = h;
+                backfill = u.reserved != null;
+                break;
+            }
+
+            if (chosen == null)  // Reserve a host for this job, so later jobs don't starve it.
+            {
+                stuck++;
+                for (Host h : hosts)
+                {
+                    Usage u = current.get (h);
+                    if (u.reserved != null) continue;
+                    u.reserved = need;
+                    break;
+                }
+                continue;
+            }
+
+            // Gather other waiting jobs that can share the same launch. See Host.canPack().
+            List<Ticket> pack = new ArrayList<Ticket> ();
+            pack.add (best);
+            int packSize = best.source.getOrDefault (chosen.getPackLimit (), "$metadata", "study", "pack");
+            if (packSize > 1)
+            {
+                ArrayDeque<Ticket> queue = groups.get (best.group);
+                boolean study = best.source.child ("$metadata", "study", "id") != null;  // A lone interactive run has nothing to wait for.
+                if (study  &&  queue.size () + 1 < packSize  &&  now - newest.get (best.group) < gatherTime)
+                {
+                    // The study is still generating jobs, so wait for a fuller pack.
+                    queue.clear ();
+                    continue;
+                }
+                Iterator<Ticket> it = queue.iterator ();
+                while (it.hasNext ()  &&  pack.size () < packSize)
+                {
+                    Ticket t = it.next ();
+                    if (! Host.canPack (best.source, t.source)) continue;
+                    pack.add (t);
+                    it.remove ();
+                }
+            }
+
+            if (thread.stop) return launched;
+            if (pack.size () == 1)
+            {
+                best.source.set (chosen.name, "$metadata", "host");
+                best.backend.start (best.source);
+            }
+            else
+            {
+                List<MNode> sources = new ArrayList<MNode> (pack.size ());
+                for (Ticket t : pack)
+                {
+                    t.source.set (chosen.name, "$metadata", "host");
+                    sources.add (t.source);
+                }
+                best.backend.start (sources);
+            }
+            launched++;
+            started += pack.size ();
+
+            current.get (chosen).charge (need, backfill);
+            Integer a = active.get (best.group);
+            active.put (best.group, a == null ? 1 : a + 1);
+
+            synchronized (this)
+            {
+                for (Ticket t : pack)
+                {
+                    Claim c = new Claim ();
+                    c.footprint = need;
+                    c.group     = best.group;
+                    c.pack      = best.job.getKey ();
+                    c.backfill  = backfill;
+                    claims.put (t.job, c);
+                }
+            }
+            synchronized (Host.waitingForHost)
+            {
+                for (Ticket t : pack) Host.waitingForHost.remove (t.job);
+            }
+            synchronized (chosen.running)
+            {
+                for (Ticket t : pack) chosen.running.add (t.job);
+            }
+        }
+
+        synchronized (this)
+        {
+            for (Map.Entry<Host,Usage> e : current.entrySet ())
+            {
+                Usage u        = e.getValue ();
+                Usage previous = usage.get (e.getKey ());
+                double ratio = u.slotCores > 0 ? u.cores / u.slotCores : 0;
+                if (previous == null) u.average = ratio;
+                else                  u.average = previous.average + smoothing * (ratio - previous.average);
+            }
+            usage   = current;
+            waiting = jobs.size () - started;
+            blocked = stuck;
+        }
+        return launched;
+    }
+
+    /**
+        Charges each host for the jobs it is currently running. Claims for jobs that have left
+        the host's monitor list are released.
+    **/
+    protected Map<Host,Usage> measure ()
+    {
+        Map<Host,Usage> result = new HashMap<Host,Usage> ();
+        synchronized (this)
+        {
+            Map<NodeJob,Claim> live = new IdentityHashMap<NodeJob,Claim> ();
+            for (Host h : Host.getHosts ())
+            {
+                Usage u = newUsage (h);
+                result.put (h, u);
+
+                List<NodeJob> running;
+                synchronized (h.running) {running = new ArrayList<NodeJob> (h.running);}
+                Set<String> packs = new HashSet<String> ();
+                for (NodeJob job : running)
+                {
+                    Claim c = claims.get (job);
+                    if (c == null)  // Job was started before this session, or by some other path. Assume the minimum.
+                    {
+                        u.charge (new Footprint (), false);
+                        continue;
+                    }
+                    live.put (job, c);
+                    if (packs.add (c.pack)) u.charge (c.footprint, c.backfill);
+                }
+            }
+            claims = live;
+        }
+        return result;
+    }
+
+    protected Usage newUsage (Host h)
+    {
+        Usage result = new Usage ();
+        result.name       = h.name;
+        result.slotJobs   = h.getSlotJobs ();
+        result.slotCores  = h.getSlotCores ();
+        result.slotMemory = h.getSlotMemory ();
+        return result;
+    }
+
+    /**
+        Finds the resources needed by the given job. Jobs that come from the same model on the same
+        backend are assumed to be similar, so the estimate is cached by model name. This means a study
+        only digests its model once for scheduling purposes.
+    **/
+    public Footprint estimate (Backend backend, MNode job)
+    {
+        String key = backend.getName () + "/" + job.get ("$inherit");
+        long now = System.currentTimeMillis ();
+        synchronized (this)
+        {
+            Estimate e = estimates.get (key);
+            if (e != null  &&  now - e.time < estimateTTL) return e.footprint;
+        }
+
+        Footprint result;
+        try
+        {
+            result = backend.estimate (job);
+        }
+        catch (Exception e)
+        {
+            result = new Footprint ();
+        }
+
+        Estimate e = new Estimate ();
+        e.footprint = result;
+        e.time      = now;
+        synchronized (this) {estimates.put (key, e);}
+        return result;
+    }
+
+    /**
+        @return Snapshot of utilization for each host, as of the most recent pass.
+    **/
+    public synchronized List<Usage> getUsage ()
+    {
+        List<Usage> result = new ArrayList<Usage> (usage.size ());
+        for (Usage u : usage.values ()) result.add (u.copy ());
+        return result;
+    }
+
+    /**
+        @return Number of jobs that were still waiting after the most recent pass.
+    **/
+    public synchronized int getWaiting ()
+    {
+        return waiting;
+    }
+
+    /**
+        @return Number of jobs at the front of a queue that could not be placed in the most recent pass.
+    **/
+    public synchronized int getBlocked ()
+    {
+        return blocked;
+    }
+}
@@ -18,22 +18,38 @@ import java.nio.file.attribute.FileStoreAttributeView;
 import java.nio.file.attribute.UserPrincipalLookupService;
 import java.nio.file.spi.FileSystemProvider;
 import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.HashSet;
+import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
 import java.util.regex.Pattern;
 
 import com.jcraft.jsch.ChannelSftp;
 import com.jcraft.jsch.JSchException;
+import com.jcraft.jsch.SftpATTRS;
+import com.jcraft.jsch.SftpException;
 
 public class SshFileSystem extends FileSystem
 {
-    protected URI          uri;  // For convenience in answering Path.getURI() call.
-    protected Connection   connection;
-    protected ChannelSftp  sftp;
-    protected SshPath      rootDir = new SshPath (this);
-    protected SshPath      defaultDir;
-    protected SshFileStore fileStore;
+    protected URI                    uri;  // For convenience in answering Path.getURI() call.
+    protected Connection             connection;
+    protected List<ChannelSftp>      idle       = new ArrayList<ChannelSftp> ();  // sftp channels not currently checked out by any thread
+    protected SshPath                rootDir    = new SshPath (this);
+    protected SshPath                defaultDir;
+    protected SshFileStore           fileStore;
+    protected Map<String,Attributes> attributes = new HashMap<String,Attributes> ();  // Recent results of stat/lstat, keyed by absolute path. Links have a separate entry for each form.
+
+    public static int  poolSize     = 4;     // Maximum number of idle sftp channels to keep open. More may be open at once while in use.
+    public static long attributeTTL = 2000;  // Milliseconds that a cached stat result remains valid.
+
+    public static class Attributes
+    {
+        public SftpATTRS stat;   // follows links
+        public SftpATTRS lstat;  // does not follow links
+        public long      time;
+    }
 
     public FileSystemProvider provider ()
     {
@@ -42,7 +58,8 @@ public class SshFileSystem extends FileSystem
 
     public synchronized void close () throws IOException
     {
-        if (sftp != null) synchronized (sftp) {sftp.disconnect ();}
+        for (ChannelSftp c : idle) c.disconnect ();
+        idle.clear ();
 
         // The only real way to close is to shut down connection, but that is used by other tools.
         // Thus, we never close.
@@ -273,15 +290,29 @@ public class SshFileSystem extends FileSystem
         }
     }
 
-    public synchronized ChannelSftp getSftp () throws IOException
+    /**
+        Checks out an sftp channel for the exclusive use of the calling thread.
+        A ChannelSftp can only carry one request at a time, so rather than serializing all threads
+        through a single channel, each concurrent user gets its own. The caller must return the
+        channel with releaseSftp(), typically in a finally clause.
+    **/
+    public ChannelSftp acquireSftp () throws IOException
     {
-        if (sftp != null) synchronized (sftp) {if (sftp.isConnected ()) return sftp;}
+        synchronized (idle)
+        {
+            while (! idle.isEmpty ())
+            {
+                ChannelSftp result = idle.remove (idle.size () - 1);
+                if (result.isConnected ()) return result;
+            }
+        }
         try
         {
             connection.connect ();
-            synchronized (connection.session) {sftp = (ChannelSftp) connection.session.openChannel ("sftp");}
-            sftp.connect ();  // No need to synchronize this, because no other thread holds a reference to it yet.
-            return sftp;
+            ChannelSftp result;
+            synchronized (connection.session) {result = (ChannelSftp) connection.session.openChannel ("sftp");}
+            result.connect ();  // No need to synchronize this, because no other thread holds a reference to it yet.
+            return result;
         }
         catch (JSchException e)
         {
@@ -289,6 +320,96 @@ public class SshFileSystem extends FileSystem
         }
     }
 
+    public void releaseSftp (ChannelSftp channel)
+    {
+        if (channel == null) return;
+        synchronized (idle)
+        {
+            if (channel.isConnected ()  &&  idle.size () < poolSize)
+            {
+                idle.add (channel);
+                return;
+            }
+        }
+        channel.disconnect ();
+    }
+
+    /**
+        Retrieves attributes from cache, or fetches them from the remote host.
+        @param followLinks Selects between stat and lstat.
+    **/
+    public SftpATTRS stat (String name, boolean followLinks) throws SftpException, IOException
+    {
+        long now = System.currentTimeMillis ();
+        synchronized (attributes)
+        {
+            Attributes a = attributes.get (name);
+            if (a != null  &&  now - a.time < attributeTTL)
+            {
+                SftpATTRS result = followLinks ? a.stat : a.lstat;
+                if (result != null) return result;
+            }
+        }
+
+        SftpATTRS result;
+        ChannelSftp channel = acquireSftp ();
+        try
+        {
+            if (followLinks) result = channel. stat (name);
+            else             result = channel.lstat (name);
+        }
+        finally
+        {
+            releaseSftp (channel);
+        }
+        cacheAttributes (name, result, followLinks);
+        return result;
+    }
+
+    public void cacheAttributes (String name, SftpATTRS value, boolean followLinks)
+    {
+        long now = System.currentTimeMillis ();
+        synchronized (attributes)
+        {
+            Attributes a = attributes.get (name);
+            if (a == null  ||  now - a.time >= attributeTTL)
+            {
+                a = new Attributes ();
+                attributes.put (name, a);
+            }
+            a.time = now;
+            if (followLinks) a.stat  = value;
+            else             a.lstat = value;
+            if (! value.isLink ())  // Both forms are the same, so fill in the other one as well.
+            {
+                a.stat  = value;
+                a.lstat = value;
+            }
+
+            // Keep the map from growing without bound.
+            if (attributes.size () > 10000)
+            {
+                Iterator<Attributes> it = attributes.values ().iterator ();
+                while (it.hasNext ()) if (now - it.next ().time >= attributeTTL) it.remove ();
+            }
+        }
+    }
+
+    /**
+        Removes cached attributes for the given path and anything below it.
+        Should be called after any operation that modifies the file.
+    **/
+    public void invalidateAttributes (String name)
+    {
+        synchronized (attributes)
+        {
+            attributes.remove (name);
+            String prefix = name.endsWith ("/") ? name : name + "/";
+            Iterator<String> it = attributes.keySet ().iterator ();
+            while (it.hasNext ()) if (it.next ().startsWith (prefix)) it.remove ();
+        }
+    }
+
     public synchronized SshFileStore getFileStore ()
     {
         if (fileStore == null) fileStore = new SshFileStore ();
@@ -16,7 +16,6 @@ import java.nio.ByteBuffer;
 import java.nio.channels.Channels;
 import java.nio.channels.NonReadableChannelException;
 import java.nio.channels.NonWritableChannelException;
-import java.nio.channels.ReadableByteChannel;
 import java.nio.channels.SeekableByteChannel;
 import java.nio.channels.WritableByteChannel;
 import java.nio.file.AccessDeniedException;
@@ -29,6 +28,7 @@ import java.nio.file.FileStore;
 import java.nio.file.FileSystem;
 import java.nio.file.FileSystemAlreadyExistsException;
 import java.nio.file.FileSystemNotFoundException;
+import java.nio.file.Files;
 import java.nio.file.LinkOption;
 import java.nio.file.NoSuchFileException;
 import java.nio.file.OpenOption;
@@ -55,6 +55,11 @@ import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.Vector;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.util.concurrent.TimeUnit;
 
 import com.jcraft.jsch.ChannelSftp;
@@ -243,6 +248,7 @@ public class SshFileSystemProvider extends FileSystemProvider
                 {
                     stream.flush ();
                     proc.close ();
+                    A.fileSystem.invalidateAttributes (A.toAbsolutePath ().toString ());
                 }
 
                 public void write (int b) throws IOException
@@ -290,27 +296,30 @@ public class SshFileSystemProvider extends FileSystemProvider
         }
 
         SshPath A = (SshPath) dir;
-        ChannelSftp channel = A.getSftp ();
         String name = A.toAbsolutePath ().toString ();
+        A.fileSystem.invalidateAttributes (name);
+        ChannelSftp channel = A.fileSystem.acquireSftp ();
         try
         {
-            synchronized (channel)
-            {
-                channel.mkdir (name);
-                if (permissions != null) channel.chmod (sftpPermissions (permissions), name);
-            }
+            channel.mkdir (name);
+            if (permissions != null) channel.chmod (sftpPermissions (permissions), name);
         }
         catch (SftpException e)
         {
             if (A.exists ()) throw new FileAlreadyExistsException (name);
             throw new IOException (e);
         }
+        finally
+        {
+            A.fileSystem.releaseSftp (channel);
+        }
     }
 
     @SuppressWarnings("unchecked")
     PosixFileAttributes createFile (SshPath path, FileAttribute<?>... attributes) throws IOException
     {
         execute (path, "touch", path.quote ());
+        path.fileSystem.invalidateAttributes (path.toAbsolutePath ().toString ());
 
         SshFileAttributeView view = new SshFileAttributeView ((SshPath) path);
         for (FileAttribute<?> a : attributes)
@@ -333,22 +342,25 @@ public class SshFileSystemProvider extends FileSystemProvider
 
     public void delete (Path path) throws IOException
     {
+        SshFileSystem fileSystem = ((SshPath) path).fileSystem;
         String name = path.toAbsolutePath ().toString ();
+        fileSystem.invalidateAttributes (name);
+        ChannelSftp channel = fileSystem.acquireSftp ();
         try
         {
-            ChannelSftp channel = ((SshPath) path).getSftp ();
-            synchronized (channel)
-            {
-                SftpATTRS attributes = channel.lstat (name);  // doesn't follow links
-                if (attributes.isDir ()) channel.rmdir (name);
-                else                     channel.rm    (name);
-            }
+            SftpATTRS attributes = channel.lstat (name);  // doesn't follow links
+            if (attributes.isDir ()) channel.rmdir (name);
+            else                     channel.rm    (name);
         }
         catch (SftpException e)
         {
             if (e.id == ChannelSftp.SSH_FX_NO_SUCH_FILE) throw new NoSuchFileException (name);
             throw new IOException (e);
         }
+        finally
+        {
+            fileSystem.releaseSftp (channel);
+        }
     }
 
     public void copy (Path source, Path target, CopyOption... options) throws IOException
@@ -387,6 +399,8 @@ public class SshFileSystemProvider extends FileSystemProvider
             args.add (Astring);
             args.add (Bstring);
             execute (A, args);
+            A.fileSystem.invalidateAttributes (Astring);
+            A.fileSystem.invalidateAttributes (Bstring);
         }
         else  // Crossing between hosts. Stream A -> localhost -> B, then delete A.
         {
@@ -429,9 +443,7 @@ public class SshFileSystemProvider extends FileSystemProvider
         String name = A.toAbsolutePath ().toString ();
         try
         {
-            ChannelSftp channel = A.getSftp ();
-            SftpATTRS attributes;
-            synchronized (channel) {attributes = channel.stat (name);}
+            SftpATTRS attributes = A.fileSystem.stat (name, true);
             int permissions = attributes.getPermissions ();
             for (AccessMode mode : modes)
             {
@@ -560,6 +572,12 @@ public class SshFileSystemProvider extends FileSystemProvider
         protected long    position;
         protected long    size;  // This number can change in multiple ways.
 
+        // Sequential reads go through a single sftp download stream, which keeps several read requests
+        // in flight at once. A seek to any position other than where the stream left off closes it.
+        protected InputStream stream;
+        protected ChannelSftp streamChannel;  // Checked out from pool for as long as stream is open.
+        protected long        streamPosition;
+
         public SshSeekableByteChannel (SshPath path, Set<? extends OpenOption> options, FileAttribute<?>... attrs) throws IOException
         {
             this.path = path.toAbsolutePath();
@@ -594,6 +612,19 @@ public class SshFileSystemProvider extends FileSystemProvider
         public void close () throws IOException
         {
             open = false;
+            closeStream ();
+        }
+
+        protected void closeStream ()
+        {
+            if (stream != null)
+            {
+                try {stream.close ();}
+                catch (IOException e) {}
+                stream = null;
+            }
+            path.fileSystem.releaseSftp (streamChannel);
+            streamChannel = null;
         }
 
         public boolean isOpen ()
@@ -618,27 +649,43 @@ public class SshFileSystemProvider extends FileSystemProvider
             int count = buffer.remaining ();
             if (count == 0) return 0;
 
-            int result = 0;
-            Connection connection = path.fileSystem.connection;
-            AnyProcessBuilder b = connection.build ("dd", "bs=1", "count=" + count, "skip=" + position, "if=" + path.quote ());
-            try (AnyProcess proc = b.start ();
-                 InputStream in = proc.getInputStream ();
-                 ReadableByteChannel channel = Channels.newChannel (in))
+            if (stream == null  ||  streamPosition != position)
             {
-                int received;
-                while (buffer.hasRemaining ()  &&  (received = channel.read (buffer)) > 0) result += received;
+                closeStream ();
+                streamChannel = path.fileSystem.acquireSftp ();
+                try
+                {
+                    stream = streamChannel.get (path.toString (), null, position);
+                }
+                catch (SftpException e)
+                {
+                    closeStream ();
+                    if (e.id == ChannelSftp.SSH_FX_NO_SUCH_FILE) throw new NoSuchFileException (path.toString ());
+                    throw new IOException (e);
+                }
+                streamPosition = position;
             }
-            catch (IOException e)
+
+            int result;
+            if (buffer.hasArray ())
             {
-                throw e;
+                result = stream.read (buffer.array (), buffer.arrayOffset () + buffer.position (), count);
+                if (result > 0) buffer.position (buffer.position () + result);
             }
-            catch (Exception e)
+            else
             {
-                throw new IOException (e);
+                byte[] bytes = new byte[Math.min (count, 0x10000)];
+                result = stream.read (bytes);
+                if (result > 0) buffer.put (bytes, 0, result);
+            }
+            if (result < 0)
+            {
+                closeStream ();
+                return -1;
             }
 
-            if (result == 0  &&  position >= size) return -1;
-            position += result;
+            position       += result;
+            streamPosition  = position;
             if (position > size) size = position;
             return result;
         }
@@ -657,7 +704,9 @@ public class SshFileSystemProvider extends FileSystemProvider
             if (position > newSize) position = newSize;
             if (size () > newSize)
             {
+                closeStream ();
                 execute (path, "truncate", "-s", String.valueOf (newSize), path.quote ());
+                path.fileSystem.invalidateAttributes (path.toString ());
                 size = newSize;
             }
             return this;
@@ -667,6 +716,7 @@ public class SshFileSystemProvider extends FileSystemProvider
         {
             if (! writeable) throw new NonWritableChannelException ();
             if (append) position = size ();
+            closeStream ();  // Any read-ahead is now stale.
 
             int result = 0;
             AnyProcessBuilder b = path.fileSystem.connection.build ("dd", "conv=notrunc", "bs=1", "seek=" + position, "of=" + path.quote ());
@@ -685,6 +735,7 @@ public class SshFileSystemProvider extends FileSystemProvider
                 throw new IOException (e);
             }
 
+            path.fileSystem.invalidateAttributes (path.toString ());
             position += result;
             if (position > size) size = position;
             return result;
@@ -695,24 +746,14 @@ public class SshFileSystemProvider extends FileSystemProvider
     {
         protected SshPath                     parent;
         protected Filter<? super Path>        filter;
-        protected Vector<ChannelSftp.LsEntry> entries;  // LsEntry also stat information. Sadly, we won't use it here.
+        protected Vector<ChannelSftp.LsEntry> entries;  // LsEntry also carries stat information, which goes into the attribute cache.
 
-        @SuppressWarnings("unchecked")
         public SshDirectoryStream (SshPath parent, Filter<? super Path> filter) throws IOException
         {
             this.parent = parent;
             this.filter = filter;
 
-            String name = parent.toAbsolutePath ().toString ();
-            try
-            {
-                ChannelSftp channel = parent.getSftp ();
-                synchronized (channel) {entries = channel.ls (name);}
-            }
-            catch (SftpException e)
-            {
-                throw new IOException (e);
-            }
+            entries = list (parent);
         }
 
         public void close () throws IOException
@@ -903,12 +944,7 @@ public class SshFileSystemProvider extends FileSystemProvider
             try
             {
                 SshFileAttributes result = new SshFileAttributes ();
-                ChannelSftp channel = path.getSftp ();
-                synchronized (channel)
-                {
-                    if (followLinks) result.attributes = channel. stat (name);
-                    else             result.attributes = channel.lstat (name);
-                }
+                result.attributes  = path.fileSystem.stat (name, followLinks);
                 result.path        = path;
                 result.followLinks = followLinks;
                 return result;
@@ -923,20 +959,24 @@ public class SshFileSystemProvider extends FileSystemProvider
         public void setTimes (FileTime modify, FileTime access, FileTime create) throws IOException
         {
             String name = path.toAbsolutePath ().toString ();
+            path.fileSystem.invalidateAttributes (name);
+            ChannelSftp channel = path.fileSystem.acquireSftp ();
             try
             {
-                ChannelSftp channel = path.getSftp ();
-                SftpATTRS attributes;
-                synchronized (channel) {attributes = channel.stat (name);}
+                SftpATTRS attributes = channel.stat (name);
                 int atime =  access == null ? attributes.getATime () : (int) access.to (TimeUnit.SECONDS);
                 int mtime =  modify == null ? attributes.getMTime () : (int) modify.to (TimeUnit.SECONDS);
                 attributes.setACMODTIME (atime, mtime);
-                synchronized (channel) {channel.setStat (name, attributes);}
+                channel.setStat (name, attributes);
             }
             catch (SftpException e)
             {
                 throw new IOException (e);
             }
+            finally
+            {
+                path.fileSystem.releaseSftp (channel);
+            }
         }
 
         public UserPrincipal getOwner () throws IOException
@@ -947,43 +987,58 @@ public class SshFileSystemProvider extends FileSystemProvider
         public void setOwner (UserPrincipal owner) throws IOException
         {
             String name = path.toAbsolutePath ().toString ();
+            path.fileSystem.invalidateAttributes (name);
+            ChannelSftp channel = path.fileSystem.acquireSftp ();
             try
             {
-                ChannelSftp channel = path.getSftp ();
-                synchronized (channel) {channel.chown (((SshPrincipal) owner).id, name);}
+                channel.chown (((SshPrincipal) owner).id, name);
             }
             catch (SftpException e)
             {
                 throw new IOException (e);
             }
+            finally
+            {
+                path.fileSystem.releaseSftp (channel);
+            }
         }
 
         public void setGroup (GroupPrincipal group) throws IOException
         {
             String name = path.toAbsolutePath ().toString ();
+            path.fileSystem.invalidateAttributes (name);
+            ChannelSftp channel = path.fileSystem.acquireSftp ();
             try
             {
-                ChannelSftp channel = path.getSftp ();
-                synchronized (channel) {channel.chgrp (((SshPrincipal) group).id, name);}
+                channel.chgrp (((SshPrincipal) group).id, name);
             }
             catch (SftpException e)
             {
                 throw new IOException (e);
             }
+            finally
+            {
+                path.fileSystem.releaseSftp (channel);
+            }
         }
 
         public void setPermissions (Set<PosixFilePermission> permissions) throws IOException
         {
             String name = path.toAbsolutePath ().toString ();
+            path.fileSystem.invalidateAttributes (name);
+            ChannelSftp channel = path.fileSystem.acquireSftp ();
             try
             {
-                ChannelSftp channel = path.getSftp ();
-                synchronized (channel) {channel.chmod (sftpPermissions (permissions), name);}
+                channel.chmod (sftpPermissions (permissions), name);
             }
             catch (SftpException e)
             {
                 throw new IOException (e);
             }
+            finally
+            {
+                path.fileSystem.releaseSftp (channel);
+            }
         }
     }
 
@@ -1018,6 +1073,133 @@ public class SshFileSystemProvider extends FileSystemProvider
         execute (path, command.toArray (new String[command.size ()]));
     }
 
+    /**
+        Fetches a directory listing in a single request, and puts the attributes of each entry
+        into the cache, so that subsequent queries on the children don't go back to the server.
+    **/
+    @SuppressWarnings("unchecked")
+    public static Vector<ChannelSftp.LsEntry> list (SshPath dir) throws IOException
+    {
+        SshFileSystem fileSystem = dir.fileSystem;
+        String name = dir.toAbsolutePath ().toString ();
+        Vector<ChannelSftp.LsEntry> result;
+        ChannelSftp channel = fileSystem.acquireSftp ();
+        try
+        {
+            result = channel.ls (name);
+        }
+        catch (SftpException e)
+        {
+            if (e.id == ChannelSftp.SSH_FX_NO_SUCH_FILE) throw new NoSuchFileException (name);
+            throw new IOException (e);
+        }
+        finally
+        {
+            fileSystem.releaseSftp (channel);
+        }
+
+        String prefix = name.endsWith ("/") ? name : name + "/";
+        for (ChannelSftp.LsEntry e : result)
+        {
+            String fileName = e.getFilename ();
+            if (fileName.equals (".")  ||  fileName.equals ("..")) continue;
+            fileSystem.cacheAttributes (prefix + fileName, e.getAttrs (), false);  // Directory entries are not resolved, so they are equivalent to lstat.
+        }
+        return result;
+    }
+
+    public interface DownloadProgress
+    {
+        /**
+            Called on the thread that invoked downloadMissing(), once at the start and again after each file.
+            @param done Number of files in the remote directory that are now present locally.
+            @param total Number of files in the remote directory.
+        **/
+        public void update (int done, int total);
+    }
+
+    /**
+        Copies each regular file in the remote directory that does not already exist in the local directory.
+        Several files are fetched at the same time, each over its own sftp channel, which hides most
+        of the round-trip latency when there are many small files, such as an image sequence.
+        Each file is first written under a temporary name, so an interrupted download will be retried next time.
+        The local copy receives the modification time of the remote file.
+        Failure on an individual file is not reported, since the next call will simply try again.
+        @param localDir Must already exist.
+        @param progress May be null.
+        @return Number of files actually copied.
+    **/
+    public static int downloadMissing (SshPath remoteDir, final Path localDir, DownloadProgress progress) throws IOException
+    {
+        final SshFileSystem fileSystem = remoteDir.fileSystem;
+        String prefix = remoteDir.toAbsolutePath ().toString ();
+        if (! prefix.endsWith ("/")) prefix += "/";
+
+        int total = 0;
+        final Map<String,Integer> missing = new HashMap<String,Integer> ();  // file name --> remote modification time
+        for (ChannelSftp.LsEntry e : list (remoteDir))
+        {
+            if (! e.getAttrs ().isReg ()) continue;  // Also skips . and ..
+            total++;
+            String fileName = e.getFilename ();
+            if (! Files.exists (localDir.resolve (fileName))) missing.put (fileName, e.getAttrs ().getMTime ());
+        }
+        int done = total - missing.size ();
+        if (progress != null) progress.update (done, total);
+        if (missing.isEmpty ()) return 0;
+
+        int result = 0;
+        ExecutorService pool = Executors.newFixedThreadPool (Math.min (SshFileSystem.poolSize, missing.size ()));
+        try
+        {
+            List<Future<Boolean>> futures = new ArrayList<Future<Boolean>> ();
+            for (final String fileName : missing.keySet ())
+            {
+                final String remoteName = prefix + fileName;
+                futures.add (pool.submit (new Callable<Boolean> ()
+                {
+                    public Boolean call () throws Exception
+                    {
+                        Path local = localDir.resolve (fileName);
+                        Path part  = localDir.resolve (fileName + ".part");
+                        ChannelSftp channel = fileSystem.acquireSftp ();
+                        try
+                        {
+                            channel.get (remoteName, part.toString ());
+                            Files.setLastModifiedTime (part, FileTime.from (missing.get (fileName), TimeUnit.SECONDS));  // Lets RemoteSync recognize the file as current.
+                            Files.move (part, local, StandardCopyOption.REPLACE_EXISTING);
+                            return true;
+                        }
+                        catch (Exception e)
+                        {
+                            Files.deleteIfExists (part);
+                            return false;
+                        }
+                        finally
+                        {
+                            fileSystem.releaseSftp (channel);
+                        }
+                    }
+                }));
+            }
+            for (Future<Boolean> f : futures)
+            {
+                if (f.get ()) result++;
+                done++;
+                if (progress != null) progress.update (done, total);
+            }
+        }
+        catch (InterruptedException | ExecutionException e)
+        {
+            throw new IOException (e);
+        }
+        finally
+        {
+            pool.shutdownNow ();
+        }
+        return result;
+    }
+
     public static int sftpPermissions (Set<PosixFilePermission> permissions)
     {
         int result = 0;
@@ -319,11 +319,6 @@ public class SshPath implements Path
         return "'" + result + "'";
     }
 
-    public ChannelSftp getSftp () throws IOException
-    {
-        return fileSystem.getSftp ();
-    }
-
     /**
         Utility to check if file exists. Does not follow symbolic links, so this can be used to check
         existence of the link itself, rather than its target.
@@ -333,8 +328,7 @@ public class SshPath implements Path
         String name = toAbsolutePath ().toString ();
         try
         {
-            ChannelSftp channel = getSftp ();
-            synchronized (channel) {channel.lstat (name);}
+            fileSystem.stat (name, false);
             return true;
         }
         catch (SftpException e)
@@ -13,11 +13,15 @@ import java.io.BufferedReader;
 import java.io.InputStreamReader;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.nio.file.Paths;
 import java.nio.file.attribute.PosixFilePermissions;
 import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
 import java.util.TreeSet;
+import java.util.concurrent.Callable;
 
 public class Unix extends Host
 {
@@ -50,55 +54,172 @@ public class Unix extends Host
         long pid = job.getOrDefault (0l, "$metadata", "pid");
         if (pid == 0) return false;
 
-        String jobDir = Host.getJobDir (getResourceDir (), job).toAbsolutePath ().toString ();
-        try (AnyProcess proc = build ("ps", "-q", String.valueOf (pid), "-wwo", "command", "--no-header").start ();
-             BufferedReader reader = new BufferedReader (new InputStreamReader (proc.getInputStream ())))
+        Path   resourceDir = getResourceDir ();
+        String jobDir      = Host.getJobDir (resourceDir, job).toAbsolutePath ().toString ();
+        String pack        = job.get ("$metadata", "pack");
+        String packDir     = pack.isEmpty () ? null : resourceDir.resolve ("jobs").resolve (pack).toAbsolutePath ().toString ();
+        for (ProcessInfo info : getActiveProcs ())
         {
-            String line;
-            while ((line = reader.readLine ()) != null)
-            {
-                if (line.startsWith (jobDir)) return true;
-            }
+            if (info.pid != pid) continue;
+            if (info.command.startsWith (jobDir)) return true;
+            if (packDir != null  &&  info.command.contains (packDir)) return true;
         }
         return false;
     }
 
+    /**
+        Lists all processes that belong to jobs. A single ps call is shared by all callers within one statusPeriod.
+        The returned list is shared, so it must not be modified.
+    **/
     @Override
     public List<ProcessInfo> getActiveProcs () throws Exception
     {
-        List<ProcessInfo> result = new ArrayList<ProcessInfo> ();
+        return snapshot ("ps", statusPeriod, new Callable<List<ProcessInfo>> ()
+        {
+            public List<ProcessInfo> call () throws Exception
+            {
+                List<ProcessInfo> result = new ArrayList<ProcessInfo> ();
 
-        Path   resourceDir = getResourceDir ();
-        String jobsDir     = resourceDir.resolve ("jobs").toAbsolutePath ().toString ();
+                Path   resourceDir = getResourceDir ();
+                String jobsDir     = resourceDir.resolve ("jobs").toAbsolutePath ().toString ();
+
+                try (AnyProcess proc = build ("ps", "-ewwo", "pid,pcpu,rss,command", "--no-header").start ();
+                     BufferedReader reader = new BufferedReader (new InputStreamReader (proc.getInputStream ())))
+                {
+                    String line;
+                    while ((line = reader.readLine ()) != null)
+                    {
+                        if (line.contains (jobsDir))
+                        {
+                            ProcessInfo info = new ProcessInfo ();
+
+                            String[] parts = line.trim ().split (" ", 2);
+                            info.pid = Long.valueOf (parts[0]);
+
+                            parts = parts[1].trim ().split (" ", 2);
+                            info.cpu = Double.valueOf (parts[0]);
+
+                            parts = parts[1].trim ().split (" ", 2);
+                            info.memory = Long.valueOf (parts[0]);
+                            info.command = parts[1].trim ();
+
+                            result.add (info);
+                        }
+                    }
+                }
+                return result;
+            }
+        });
+    }
+
+    @Override
+    public void submitJob (MNode job, String command) throws Exception
+    {
+        Path resourceDir = getResourceDir ();
+        Path jobDir      = Host.getJobDir (resourceDir, job);
+        Path script      = writeJobScript (resourceDir, job, command);
+        launch (script);
 
-        try (AnyProcess proc = build ("ps", "-ewwo", "pid,pcpu,rss,command", "--no-header").start ();
+        // Get PID of newly created job
+        String jobDirString = jobDir.toString ();
+        try (AnyProcess proc = build ("ps", "-ewwo", "pid,command", "--no-header").start ();
              BufferedReader reader = new BufferedReader (new InputStreamReader (proc.getInputStream ())))
         {
             String line;
             while ((line = reader.readLine ()) != null)
             {
-                if (line.contains (jobsDir))
+                if (line.contains (jobDirString))
                 {
-                    ProcessInfo info = new ProcessInfo ();
-
-                    String[] parts = line.trim ().split (" ", 2);
-                    info.pid = Long.valueOf (parts[0]);
+                    line = line.trim ();
+                    String[] parts = line.split ("\\s+");
+                    job.set (Long.parseLong (parts[0]), "$metadata", "pid");
+                    if (parts[1].equals (command)) break;  // exact match
+                    // Otherwise, may be the wrapper script.
+                    // The wrapper script is better than nothing, but keep scanning.
+                }
+            }
+        }
+        invalidateSnapshots ();  // So resource checks for the next job see this one.
+    }
 
-                    parts = parts[1].trim ().split (" ", 2);
-                    info.cpu = Double.valueOf (parts[0]);
+    /**
+        Runs all the jobs one after another from a single pack script, stored in the dir of the first job.
+        Each job still has its own wrapper script, so it writes "out", "err" and "finished" in its own
+        dir and posts its own completion event. Every job records the PID of the pack script, along with
+        the key of the first job in $metadata.pack, so isActive() and killJob() can tell them apart.
+    **/
+    @Override
+    public void submitJobs (List<MNode> jobs, List<String> commands) throws Exception
+    {
+        if (jobs.size () == 1)
+        {
+            submitJob (jobs.get (0), commands.get (0));
+            return;
+        }
 
-                    parts = parts[1].trim ().split (" ", 2);
-                    info.memory = Long.valueOf (parts[0]);
+        Path          resourceDir = getResourceDir ();
+        MNode         lead        = jobs.get (0);
+        StringBuilder pack        = new StringBuilder ("#!/bin/bash\n");
+        for (int i = 0; i < jobs.size (); i++)
+        {
+            MNode job    = jobs.get (i);
+            Path  jobDir = Host.getJobDir (resourceDir, job);
+            Path  script = writeJobScript (resourceDir, job, commands.get (i));
+            pack.append ("[ -e " + quote (jobDir.resolve ("finished")) + " ] || " + quote (script) + "\n");  // Skip any job that was killed while waiting its turn.
+        }
+        Path packScript = Host.getJobDir (resourceDir, lead).resolve ("n2a_pack");
+        stringToFile (packScript, pack.toString ());
+        Files.setPosixFilePermissions (packScript, PosixFilePermissions.fromString ("rwxr--r--"));
+        launch (packScript);
 
-                    result.add (info);
-                }
+        long pid = 0;
+        String packString = packScript.toString ();
+        try (AnyProcess proc = build ("ps", "-ewwo", "pid,command", "--no-header").start ();
+             BufferedReader reader = new BufferedReader (new InputStreamReader (proc.getInputStream ())))
+        {
+            String line;
+            while ((line = reader.readLine ()) != null)
+            {
+                if (! line.contains (packString)) continue;
+                pid = Long.parseLong (line.trim ().split ("\\s+")[0]);
+                break;
             }
         }
-        return result;
+        for (MNode job : jobs)
+        {
+            job.set (pid,         "$metadata", "pid");
+            job.set (lead.key (), "$metadata", "pack");
+        }
+        invalidateSnapshots ();
     }
 
-    @Override
-    public void submitJob (MNode job, String command) throws Exception
+    /**
+        Writes the wrapper script for a single job, which runs the given command in the job dir
+        and then reports its status.
+    **/
+    protected Path writeJobScript (Path resourceDir, MNode job, String command) throws Exception
+    {
+        Path jobDir = Host.getJobDir (resourceDir, job);
+        Path script = jobDir.resolve ("n2a_job");
+        stringToFile (script,
+              "#!/bin/bash\n"
+            + "cd " + quote (jobDir) + "\n"
+            + "if " + command + " > out 2>> err; then\n"   // Wait for process to finish.
+            + "  status=success\n"
+            + "else\n"
+            + "  status=failure\n"
+            + "fi\n"
+            + "echo $status > finished\n"
+            + "echo \"" + job.key () + " $status\" >> " + quote (resourceDir.resolve ("jobs").resolve (JobEvents.fileName)) + "\n"  // Notify monitor thread. See JobEvents.
+        );
+        Files.setPosixFilePermissions (script, PosixFilePermissions.fromString ("rwxr--r--"));
+        return script;
+    }
+
+    /**
+        Starts the given script in the background, so this call returns immediately.
+    **/
+    protected void launch (Path script) throws Exception
     {
         Path resourceDir = getResourceDir ();
         Path binDir      = resourceDir.resolve ("bin");
@@ -114,19 +235,6 @@ public class Unix extends Host
             Files.setPosixFilePermissions (background, PosixFilePermissions.fromString ("rwxr--r--"));
         }
 
-        Path jobDir = Host.getJobDir (resourceDir, job);
-        Path script = jobDir.resolve ("n2a_job");
-        stringToFile (script,
-              "#!/bin/bash\n"
-            + "cd " + quote (jobDir) + "\n"
-            + "if " + command + " > out 2>> err; then\n"   // Wait for process to finish.
-            + "  echo success > finished\n"
-            + "else\n"
-            + "  echo failure > finished\n"
-            + "fi"
-        );
-        Files.setPosixFilePermissions (script, PosixFilePermissions.fromString ("rwxr--r--"));
-
         try (AnyProcess proc = build (quote (background), quote (script)).start ();)
         {
             proc.waitFor ();
@@ -136,26 +244,6 @@ public class Unix extends Host
                 throw new Backend.AbortRun ();
             }
         }
-
-        // Get PID of newly created job
-        String jobDirString = jobDir.toString ();
-        try (AnyProcess proc = build ("ps", "-ewwo", "pid,command", "--no-header").start ();
-             BufferedReader reader = new BufferedReader (new InputStreamReader (proc.getInputStream ())))
-        {
-            String line;
-            while ((line = reader.readLine ()) != null)
-            {
-                if (line.contains (jobDirString))
-                {
-                    line = line.trim ();
-                    String[] parts = line.split ("\\s+");
-                    job.set (Long.parseLong (parts[0]), "$metadata", "pid");
-                    if (parts[1].equals (command)) return;  // exact match
-                    // Otherwise, may be the wrapper script.
-                    // The wrapper script is better than nothing, but keep scanning.
-                }
-            }
-        }
     }
 
     @Override
@@ -163,6 +251,11 @@ public class Unix extends Host
     {
         long pid = job.getOrDefault (0l, "$metadata", "pid");
         if (pid == 0) return;
+        if (! job.get ("$metadata", "pack").isEmpty ())
+        {
+            killPacked (job, force);
+            return;
+        }
 
         // Scan for PIDs chained from the given one. We need to kill them all.
         Set<Long> pids = new TreeSet<Long> ();
@@ -189,101 +282,197 @@ public class Unix extends Host
         command.add (force ? "-9" : "-15");
         for (long l : pids) command.add (String.valueOf (l));
         try (AnyProcess proc = build (command).start ();) {}
+        invalidateSnapshots ();
     }
 
-    @Override
-    public long getMemoryTotal ()
+    /**
+        The PID of a packed job belongs to the pack script, so killing it would take down every other job
+        in the pack. Instead, only kill processes that refer to this job's dir, which covers both the wrapper
+        script and the model it runs. Either way, mark the job finished. If it has not started yet, this makes
+        the pack script skip it. If it was running, the wrapper is gone and can't write the file itself, while
+        the PID of the pack script stays alive.
+    **/
+    protected void killPacked (MNode job, boolean force) throws Exception
     {
-        try (AnyProcess proc = build ("cat", "/proc/meminfo").start ();
+        Path   jobDir       = Host.getJobDir (getResourceDir (), job);
+        String jobDirString = jobDir.toAbsolutePath ().toString () + "/";  // Trailing slash so that one job key can't match as a prefix of another.
+        String packString   = jobDir.resolve ("n2a_pack").toAbsolutePath ().toString ();  // Present in the dir of the lead job. Must survive, so the rest of the pack can run.
+        List<String> command = new ArrayList<String> ();
+        command.add ("kill");
+        command.add (force ? "-9" : "-15");
+        try (AnyProcess proc = build ("ps", "-ewwo", "pid,command", "--no-header").start ();
              BufferedReader reader = new BufferedReader (new InputStreamReader (proc.getInputStream ())))
         {
             String line;
             while ((line = reader.readLine ()) != null)
             {
-                if (! line.startsWith ("MemTotal:")) continue;
-                String[] parts = line.trim ().split ("\\s+");
-                return Long.parseLong (parts[1]) * 1024;  // assumes "kB" is unit
+                // Match anywhere in the command line, since the wrapper runs as "/bin/bash <jobDir>/n2a_job".
+                String[] parts = line.trim ().split ("\\s+", 2);
+                if (parts.length == 2  &&  parts[1].contains (jobDirString)  &&  ! parts[1].contains (packString)) command.add (parts[0]);
             }
         }
-        catch (Exception e) {}
-        return 0;
+
+        if (command.size () > 2)
+        {
+            try (AnyProcess proc = build (command).start ();) {}
+        }
+        stringToFile (jobDir.resolve ("finished"), "killed");
+        invalidateSnapshots ();
     }
 
-    @Override
-    public long getMemoryFree ()
+    /**
+        Reads /proc/meminfo, directly if this is the local machine or through a shell command if remote.
+        @return Map from field name (without trailing colon) to value in bytes.
+    **/
+    protected Map<String,Long> getMemInfo () throws Exception
     {
-        try (AnyProcess proc = build ("cat", "/proc/meminfo").start ();
-             BufferedReader reader = new BufferedReader (new InputStreamReader (proc.getInputStream ())))
+        return snapshot ("meminfo", statusPeriod, new Callable<Map<String,Long>> ()
         {
-            String line;
-            while ((line = reader.readLine ()) != null)
+            public Map<String,Long> call () throws Exception
             {
-                if (! line.startsWith ("MemAvailable:")) continue;
-                String[] parts = line.trim ().split ("\\s+");
-                return Long.parseLong (parts[1]) * 1024;
+                Map<String,Long> result = new HashMap<String,Long> ();
+                for (String line : readProcFile ("/proc/meminfo", 0))
+                {
+                    String[] parts = line.trim ().split ("\\s+");
+                    if (parts.length < 2) continue;
+                    try
+                    {
+                        long value = Long.parseLong (parts[1]);
+                        if (parts.length > 2) value *= 1024;  // assumes "kB" is unit
+                        result.put (parts[0].replace (":", ""), value);
+                    }
+                    catch (NumberFormatException e) {}
+                }
+                return result;
             }
+        });
+    }
+
+    /**
+        Reads a file from the /proc filesystem. For the local machine this is a direct read, which
+        costs much less than spawning a process. For a remote machine, it requires a shell command,
+        since sftp does not handle the pseudo-files in /proc correctly.
+        @param lines Maximum number of lines to read, or 0 for all.
+    **/
+    protected List<String> readProcFile (String file, int lines) throws Exception
+    {
+        if (! (this instanceof Remote))
+        {
+            List<String> result = Files.readAllLines (Paths.get (file));
+            if (lines > 0  &&  result.size () > lines) result = result.subList (0, lines);
+            return result;
         }
-        catch (Exception e) {}
-        return 0;
+
+        List<String> result = new ArrayList<String> ();
+        AnyProcessBuilder b;
+        if (lines > 0) b = build ("head", "-" + lines, file);
+        else           b = build ("cat", file);
+        try (AnyProcess proc = b.start ();
+             BufferedReader reader = new BufferedReader (new InputStreamReader (proc.getInputStream ())))
+        {
+            String line;
+            while ((line = reader.readLine ()) != null) result.add (line);
+        }
+        return result;
     }
 
     @Override
-    public int getProcessorTotal ()
+    public long getMemoryTotal ()
     {
-        try (AnyProcess proc = build ("nproc").start ();
-             BufferedReader reader = new BufferedReader (new InputStreamReader (proc.getInputStream ())))
+        try
         {
-            String line = reader.readLine ();
-            return Integer.parseInt (line);
+            Long result = getMemInfo ().get ("MemTotal");
+            if (result != null) return result;
         }
         catch (Exception e) {}
-        return 1;
+        return 0;
     }
 
     @Override
-    public double getProcessorIdle ()
+    public long getMemoryFree ()
     {
-        // Approach: Read /proc/stat twice and use differences in jiffy count to determine idle time.
-        long deltaTotal = 1;
-        long deltaIdle  = 1;
-        try (AnyProcess proc = build ("head", "-1", "/proc/stat").start ();
-             BufferedReader reader = new BufferedReader (new InputStreamReader (proc.getInputStream ())))
+        try
         {
-            String line = reader.readLine ();
-            String[] pieces = line.split ("\\s+");
-            long user   = Long.parseLong (pieces[1]);
-            long system = Long.parseLong (pieces[3]);
-            long idle   = Long.parseLong (pieces[4]);
-            deltaTotal = -user - system - idle;
-            deltaIdle  = -idle;
+            Long result = getMemInfo ().get ("MemAvailable");
+            if (result != null) return result;
         }
         catch (Exception e) {}
+        return 0;
+    }
 
-        // Fetch number of processors, then fill out remaining time to get 1 second delay between readings.
-        long startTime = System.currentTimeMillis ();
-        int nproc = getProcessorTotal ();
-        long duration = System.currentTimeMillis () - startTime;
-        long wait = 1000 - duration;  // target is 1 second
-        if (wait > 0)
+    @Override
+    public int getProcessorTotal ()
+    {
+        // The processor count never changes while we are running, so there is no need to ask very often.
+        try
         {
-            try {Thread.sleep (wait);}
-            catch (InterruptedException e) {}
+            return snapshot ("nproc", 60 * statusPeriod, new Callable<Integer> ()
+            {
+                public Integer call () throws Exception
+                {
+                    if (! (Unix.this instanceof Remote)) return Runtime.getRuntime ().availableProcessors ();
+                    try (AnyProcess proc = build ("nproc").start ();
+                         BufferedReader reader = new BufferedReader (new InputStreamReader (proc.getInputStream ())))
+                    {
+                        String line = reader.readLine ();
+                        return Integer.parseInt (line);
+                    }
+                }
+            });
         }
+        catch (Exception e) {}
+        return 1;
+    }
 
-        try (AnyProcess proc = build ("head", "-1", "/proc/stat").start ();
-             BufferedReader reader = new BufferedReader (new InputStreamReader (proc.getInputStream ())))
+    /**
+        Previous reading of /proc/stat, used to measure idle time over the interval since then.
+    **/
+    protected long statTime;
+    protected long statTotal;
+    protected long statIdle;
+
+    @Override
+    public double getProcessorIdle ()
+    {
+        // Approach: Compare jiffy counts in /proc/stat against the previous reading.
+        // When polled regularly, the previous reading is recent enough to give a meaningful
+        // measurement, so there is no need to wait between two readings.
+        try
         {
-            String line = reader.readLine ();
-            String[] pieces = line.split ("\\s+");
-            long user   = Long.parseLong (pieces[1]);
-            long system = Long.parseLong (pieces[3]);
-            long idle   = Long.parseLong (pieces[4]);
-            deltaTotal += user + system + idle;
-            deltaIdle  += idle;
+            return snapshot ("idle", statusPeriod, new Callable<Double> ()
+            {
+                public Double call () throws Exception
+                {
+                    long now = System.currentTimeMillis ();
+                    if (now - statTime > 60 * statusPeriod)  // Previous reading is missing or stale, so take a fresh one and wait a bit.
+                    {
+                        readStat ();
+                        try {Thread.sleep (1000);}
+                        catch (InterruptedException e) {}
+                    }
+                    long total = statTotal;
+                    long idle  = statIdle;
+                    readStat ();
+                    long deltaTotal = statTotal - total;
+                    long deltaIdle  = statIdle  - idle;
+                    if (deltaTotal <= 0) deltaTotal = deltaIdle = 1;
+                    return getProcessorTotal () * (double) deltaIdle / deltaTotal;
+                }
+            });
         }
         catch (Exception e) {}
+        return getProcessorTotal ();  // If /proc/stat is unavailable, assume fully idle.
+    }
 
-        double idle = (double) deltaIdle / deltaTotal;
-        return nproc * idle;
+    protected void readStat () throws Exception
+    {
+        String line = readProcFile ("/proc/stat", 1).get (0);
+        String[] pieces = line.split ("\\s+");
+        long user   = Long.parseLong (pieces[1]);
+        long system = Long.parseLong (pieces[3]);
+        long idle   = Long.parseLong (pieces[4]);
+        statTotal = user + system + idle;
+        statIdle  = idle;
+        statTime  = System.currentTimeMillis ();
     }
 }
@@ -17,6 +17,7 @@ import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.Callable;
 
 public class Windows extends Host
 {
@@ -47,22 +48,32 @@ public class Windows extends Host
         long pid = job.getOrDefault (0l, "$metadata", "pid");
         if (pid == 0) return false;
 
-        String jobDir = Paths.get (job.get ()).getParent ().toString ();
-        Process proc = new ProcessBuilder ("powershell", "get-process", "-Id", String.valueOf (pid), "|", "format-table", "Path").start ();
-        proc.getOutputStream ().close ();
-        try (BufferedReader reader = new BufferedReader (new InputStreamReader (proc.getInputStream ())))
+        // Match on pid alone. The snapshot only holds processes under the jobs dir, and the Path column
+        // may not contain the full job dir.
+        for (ProcessInfo info : getActiveProcs ())
         {
-            String line;
-            while ((line = reader.readLine ()) != null)
-            {
-                if (line.startsWith (jobDir)) return true;
-            }
+            if (info.pid == pid) return true;
         }
         return false;
     }
 
+    /**
+        The pair of powershell queries is shared by all callers within one statusPeriod.
+        The returned list is shared, so it must not be modified.
+    **/
     @Override
     public List<ProcessInfo> getActiveProcs () throws Exception
+    {
+        return snapshot ("get-process", statusPeriod, new Callable<List<ProcessInfo>> ()
+        {
+            public List<ProcessInfo> call () throws Exception
+            {
+                return queryActiveProcs ();
+            }
+        });
+    }
+
+    protected List<ProcessInfo> queryActiveProcs () throws Exception
     {
         List<ProcessInfo> result = new ArrayList<ProcessInfo> ();
         Map<Long,  ProcessInfo> id2process   = new HashMap<Long,  ProcessInfo> ();
@@ -71,7 +82,7 @@ public class Windows extends Host
         Path   resourceDir = getResourceDir ();
         String jobsDir     = resourceDir.resolve ("jobs").toString ();
 
-        Process proc = new ProcessBuilder ("powershell", "get-process", "|", "format-table", "Id,WorkingSet,Path").start ();
+        Process proc = new ProcessBuilder ("powershell", "get-process", "|", "format-table", "Id,WorkingSet,Path", "|", "out-string", "-width", "4096").start ();  // Wide enough that Path is not truncated.
         try (BufferedReader reader = new BufferedReader (new InputStreamReader (proc.getInputStream ())))
         {
             String line;
@@ -86,6 +97,7 @@ public class Windows extends Host
 
                     parts = parts[1].trim ().split (" ", 2);
                     info.memory = Long.valueOf (parts[0]);
+                    if (parts.length > 1) info.command = parts[1].trim ();
 
                     result.add (info);
                     id2process.put (info.pid, info);
@@ -133,6 +145,7 @@ public class Windows extends Host
     {
         Path jobDir = Paths.get (job.get ()).getParent ();
         Path script = jobDir.resolve ("n2a_job.bat");
+        Path events = jobDir.getParent ().resolve (JobEvents.fileName);  // Notify monitor thread. See JobEvents.
         stringToFile
         (
             script,
@@ -140,8 +153,10 @@ public class Windows extends Host
             + command + " > out 2>> err\r\n"
             + "if errorlevel 0 (\r\n"
             + "  echo success > finished\r\n"
+            + "  echo " + job.key () + " success >> " + quote (events) + "\r\n"
             + ") else (\r\n"
             + "  echo failure > finished\r\n"
+            + "  echo " + job.key () + " failure >> " + quote (events) + "\r\n"
             + ")\r\n"
         );
 
@@ -155,7 +170,7 @@ public class Windows extends Host
 
         // Get PID of newly-started job
         String jobDirString = jobDir.toString ();
-        proc = new ProcessBuilder ("powershell", "get-process", "|", "format-table", "Id,Path").start ();
+        proc = new ProcessBuilder ("powershell", "get-process", "|", "format-table", "Id,Path", "|", "out-string", "-width", "4096").start ();
         proc.getOutputStream ().close ();
         try (BufferedReader reader = new BufferedReader (new InputStreamReader (proc.getInputStream ())))
         {
@@ -166,6 +181,7 @@ public class Windows extends Host
                 {
                     line = line.trim ().split (" ", 2)[0];
                     job.set (Long.parseLong (line), "$metadata", "pid");
+                    invalidateSnapshots ();
                     return;
                 }
             }
@@ -178,10 +194,14 @@ public class Windows extends Host
         long pid = job.getOrDefault (0l, "$metadata", "pid");
         if (pid == 0) return;
 
-        if (force) new ProcessBuilder ("taskkill", "/PID", String.valueOf (pid), "/F").start ();
+        if (force)
+        {
+            new ProcessBuilder ("taskkill", "/PID", String.valueOf (pid), "/F").start ();
+        }
         // Windows does not provide a simple way to signal a non-GUI process.
         // Instead, the program is responsible to poll for the existence of the "finished" file
         // on a reasonable interval, say once per second. See Backend.kill()
+        invalidateSnapshots ();
     }
 
     @Override
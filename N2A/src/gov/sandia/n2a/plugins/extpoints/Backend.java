@@ -17,7 +17,8 @@ import java.nio.file.StandardOpenOption;
 import java.util.List;
 import gov.sandia.n2a.db.MNode;
 import gov.sandia.n2a.execenvs.Host;
-import gov.sandia.n2a.execenvs.Host.ProcessInfo;
+import gov.sandia.n2a.execenvs.Scheduler;
+import gov.sandia.n2a.execenvs.Scheduler.Footprint;
 import gov.sandia.n2a.plugins.ExtensionPoint;
 import gov.sandia.n2a.plugins.PluginManager;
 
@@ -81,46 +82,28 @@ public abstract class Backend implements ExtensionPoint
 
     /**
         Indicates that resources are available to execute the job.
-        This requires knowledge of three things:
-        * The specifics of the job (how big the model will be).
-        * The nature of the specific backend, such as how much resources it needs to handle the given model size.
-        * The target machine (available memory, CPUs, etc.) Information needed to determine this should be embedded in the job metadata.
+        Scheduler has already checked the slots declared for the host, charging each job it started
+        with its estimated footprint. This is a final check against the measured state of the host,
+        which also reflects load from outside this app.
     **/
-    public boolean canRunNow (Host host, MNode model)
+    public boolean canRunNow (Host host, MNode job)
     {
-        // Limited resources include:
-        // * Physical processors
-        // * Physical memory
-        // * Disk space
-        // It is difficult to estimate how much of these resources a given job
-        // will consume, so we make a very crude guess.
         try
         {
-            double cpuNeeded    = 0;
-            long   memoryNeeded = 0;
-            List<ProcessInfo> procs = host.getActiveProcs ();
-            for (ProcessInfo info : procs)
-            {
-                cpuNeeded    += info.cpu;
-                memoryNeeded += info.memory;
-            }
+            Footprint need = Scheduler.instance.estimate (this, job);
 
-            int processCount = procs.size ();
-            if (processCount == 0)
+            // A job that could never fit should not be blocked forever. Scheduler will ensure it runs alone.
+            // If the user explicitly declared slots for a resource, trust that rather than measurement.
+            // This allows deliberate oversubscription.
+            if (host.config.child ("slots", "cores") == null)
             {
-                cpuNeeded    = 1;         // Must have at least 1 core available to launch process.
-                memoryNeeded = 0x1 << 30; // Must have at least 1GiB available.
+                double cores = Math.min (need.cores, host.getProcessorTotal ());
+                if (host.getProcessorIdle () < cores * 0.5) return false;  // Allow some slack, since idle time is noisy.
             }
-            else
+            if (host.config.child ("slots", "memory") == null)
             {
-                // Assume that all processes are running the same model, so average makes sense.
-                // Could also take max.
-                cpuNeeded    /= processCount;
-                memoryNeeded /= processCount;
+                if (need.memory > 0  &&  need.memory < host.getMemoryTotal ()  &&  host.getMemoryFree () < need.memory) return false;
             }
-
-            if (host.getProcessorIdle () < cpuNeeded) return false;
-            if (host.getMemoryFree () < memoryNeeded) return false;
         }
         catch (Exception e)
         {
@@ -130,6 +113,20 @@ public abstract class Backend implements ExtensionPoint
         return true;
     }
 
+    /**
+        Estimates the resources the job will need while running.
+        Scheduler calls this once per model and caches the result, so it is acceptable for a backend
+        to do significant work here, such as digesting the model.
+        This default implementation trusts $metadata.cores and $metadata.memory (in bytes), if provided.
+    **/
+    public Footprint estimate (MNode job)
+    {
+        Footprint result = new Footprint ();
+        result.cores  = job.getOrDefault (1.0, "$metadata", "cores");
+        result.memory = job.getOrDefault (0L,  "$metadata", "memory");
+        return result;
+    }
+
     /**
         Simulate the model.
         Implementation is expected to start a new thread and do all work there.
@@ -141,6 +138,18 @@ public abstract class Backend implements ExtensionPoint
     {
     }
 
+    /**
+        Simulate several jobs as a single unit of work, for example many small samples from a study.
+        Each job must still behave as if launched separately: "started", "out", "err" and "finished"
+        all go in its own job directory, and it can be monitored or killed on its own.
+        The jobs have already been assigned to the same host.
+        This default implementation simply starts each one separately.
+    **/
+    public void start (List<MNode> jobs)
+    {
+        for (MNode job : jobs) start (job);
+    }
+
     public boolean isActive (MNode job)
     {
         Host env = Host.get (job);
@@ -6,14 +6,20 @@ the U.S. Government retains certain rights in this software.
 
 package gov.sandia.n2a.transfer;
 
+import gov.sandia.n2a.db.BulkTransfer;
+import gov.sandia.n2a.db.MCombo;
+import gov.sandia.n2a.db.MDir;
 import gov.sandia.n2a.db.MNode;
 import gov.sandia.n2a.db.Schema;
 import gov.sandia.n2a.plugins.extpoints.ExportModel;
 
 import java.io.BufferedWriter;
 import java.io.IOException;
+import java.io.OutputStream;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
 
 public class ExportNative implements ExportModel
 {
@@ -26,6 +32,12 @@ public class ExportNative implements ExportModel
     @Override
     public void export (MNode source, Path destination)
     {
+        if (source instanceof MDir  ||  source instanceof MCombo)
+        {
+            exportBulk (source, destination);
+            return;
+        }
+
         try
         {
             // Write a standard repository file. See MDoc.save()
@@ -39,4 +51,24 @@ public class ExportNative implements ExportModel
         {
         }
     }
+
+    /**
+        Writes every document in the given container to a zip archive, one entry per document.
+        The result can be read back by ImportNative.
+    **/
+    public void exportBulk (MNode source, Path destination)
+    {
+        List<String> keys = new ArrayList<String> ();
+        if (source instanceof MDir) keys.addAll (((MDir) source).keys ());
+        else for (MNode doc : source) keys.add (doc.key ());
+        try (OutputStream stream = Files.newOutputStream (destination))
+        {
+            new BulkTransfer ().exportZip (source, keys, stream);
+        }
+        catch (IOException e)
+        {
+            System.err.println ("Bulk export failed: " + destination);
+            e.printStackTrace ();
+        }
+    }
 }
@@ -6,16 +6,32 @@ the U.S. Government retains certain rights in this software.
 
 package gov.sandia.n2a.transfer;
 
+import gov.sandia.n2a.db.AppData;
+import gov.sandia.n2a.db.BulkTransfer;
+import gov.sandia.n2a.db.MDir;
+import gov.sandia.n2a.db.MNode;
 import gov.sandia.n2a.db.MVolatile;
 import gov.sandia.n2a.db.Schema;
 import gov.sandia.n2a.plugins.extpoints.ImportModel;
 import gov.sandia.n2a.ui.MainFrame;
 import gov.sandia.n2a.ui.eq.undo.AddDoc;
 
+import java.awt.EventQueue;
 import java.io.BufferedReader;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipInputStream;
+
+import javax.swing.ProgressMonitor;
 
 public class ImportNative implements ImportModel
 {
@@ -28,6 +44,12 @@ public class ImportNative implements ImportModel
     @Override
     public void process (Path source)
     {
+        if (Files.isDirectory (source)  ||  isZip (source))
+        {
+            processBulk (source);
+            return;
+        }
+
         try (BufferedReader reader = Files.newBufferedReader (source))
         {
             MVolatile doc = new MVolatile ();
@@ -39,9 +61,177 @@ public class ImportNative implements ImportModel
         }
     }
 
+    /**
+        Imports every model in a directory or zip archive.
+        The work is done on a separate thread, with a progress dialog that allows the user to cancel.
+        Unlike a single-file import, this is not undoable. Models that were stored before a cancel remain in the database.
+        A document that can't be read or parsed is skipped, and the rest of the import continues.
+        Must be called on the EDT.
+    **/
+    public void processBulk (final Path source)
+    {
+        MNode primary = AppData.models.getPrimary ();
+        if (! (primary instanceof MDir)) return;
+        final MDir dir = (MDir) primary;
+
+        final ProgressMonitor monitor = new ProgressMonitor (MainFrame.instance, "Importing " + source.getFileName (), "", 0, 100);
+        final Map<String,String> ids = new HashMap<String,String> ();  // from ID to model name. Registered with AppData once the import finishes. Only touched on the EDT.
+
+        Thread thread = new Thread ("Bulk Import")
+        {
+            public void run ()
+            {
+                BulkTransfer bulk = new BulkTransfer ();
+                bulk.progress = new BulkTransfer.Progress ()
+                {
+                    public boolean progress (final int done, final int total)
+                    {
+                        EventQueue.invokeLater (new Runnable ()
+                        {
+                            public void run ()
+                            {
+                                if (total > 0) monitor.setProgress (done * 100 / total);
+                                monitor.setNote (done + " models");
+                            }
+                        });
+                        return ! monitor.isCanceled ();
+                    }
+                };
+                BulkTransfer.Router router = new BulkTransfer.Router ()
+                {
+                    public MNode route (String name, final MNode doc)
+                    {
+                        name = name.substring (name.lastIndexOf ('/') + 1);  // Zip entries always use forward slash.
+                        if (name.startsWith (".")) return null;
+                        final String base = MDir.validFilenameFrom (name);
+
+                        // AppData.models and the ID index belong to the EDT, so do the lookups there.
+                        final String[] result = new String[1];
+                        try
+                        {
+                            EventQueue.invokeAndWait (new Runnable ()
+                            {
+                                public void run ()
+                                {
+                                    result[0] = uniqueName (dir, base);
+
+                                    MNode id = doc.childOrCreate ("$metadata", "id");
+                                    String idString = id.get ();
+                                    if (idString.isEmpty ()  ||  ids.containsKey (idString)  ||  AppData.getModel (idString) != null)
+                                    {
+                                        idString = AddDoc.generateID ();
+                                        id.set (idString);
+                                    }
+                                    ids.put (idString, result[0]);
+                                }
+                            });
+                        }
+                        catch (Exception e)
+                        {
+                            return null;
+                        }
+
+                        return dir.childOrCreate (result[0]);
+                    }
+                };
+
+                dir.beginBatch ();  // Since we are not on the EDT, listeners must not hear about individual models.
+                try
+                {
+                    if (Files.isDirectory (source))
+                    {
+                        bulk.importDir (source, router);
+                    }
+                    else
+                    {
+                        try (InputStream stream = Files.newInputStream (source))
+                        {
+                            bulk.importZip (stream, router);
+                        }
+                    }
+                }
+                catch (IOException e)
+                {
+                    System.err.println ("Bulk import failed: " + source);
+                    e.printStackTrace ();
+                }
+                finally
+                {
+                    EventQueue.invokeLater (new Runnable ()
+                    {
+                        public void run ()
+                        {
+                            dir.endBatch ();  // Triggers PanelModel.changed(), which rebuilds the search and MRU lists.
+                            for (Entry<String,String> e : ids.entrySet ()) AppData.set (e.getKey (), AppData.models.child (e.getValue ()));
+                            monitor.close ();
+                        }
+                    });
+                }
+            }
+        };
+        thread.setDaemon (true);
+        thread.start ();
+    }
+
+    /**
+        Similar to AddDoc.uniqueName(), but also checks the destination directory directly,
+        since AppData.models does not see new documents until the batch ends.
+    **/
+    public static String uniqueName (MDir dir, String name)
+    {
+        String result = name;
+        int suffix = 2;
+        while (dir.child (result) != null  ||  AppData.models.child (result) != null) result = name + " " + suffix++;
+        return result;
+    }
+
+    public static boolean isZip (Path source)
+    {
+        String name = source.getFileName ().toString ();
+        int lastDot = name.lastIndexOf ('.');
+        return  lastDot >= 0  &&  name.substring (lastDot).equalsIgnoreCase (".zip");
+    }
+
     @Override
     public float matches (Path source)
     {
+        if (Files.isDirectory (source))
+        {
+            // Judge by the first regular file.
+            try (DirectoryStream<Path> stream = Files.newDirectoryStream (source))
+            {
+                for (Path p : stream)
+                {
+                    if (Files.isDirectory (p)  ||  p.getFileName ().toString ().startsWith (".")) continue;
+                    return matches (p);
+                }
+            }
+            catch (IOException e)
+            {
+            }
+            return 0;
+        }
+
+        if (isZip (source))
+        {
+            // Judge by the first entry that is not a directory.
+            try (ZipInputStream zip = new ZipInputStream (Files.newInputStream (source)))
+            {
+                ZipEntry entry;
+                while ((entry = zip.getNextEntry ()) != null)
+                {
+                    if (entry.isDirectory ()) continue;
+                    String line = new BufferedReader (new InputStreamReader (zip, StandardCharsets.UTF_8)).readLine ();
+                    if (line != null  &&  line.startsWith ("N2A.schema")) return 1;
+                    return 0;
+                }
+            }
+            catch (IOException e)
+            {
+            }
+            return 0;
+        }
+
         try (BufferedReader reader = Files.newBufferedReader (source))
         {
             String line = reader.readLine ();
@@ -60,6 +250,6 @@ public class ImportNative implements ImportModel
         String name = source.getFileName ().toString ();
         int lastDot = name.lastIndexOf ('.');
         if (lastDot >= 0  &&  name.substring (lastDot).equalsIgnoreCase (".n2a")) return true;
-        return false;
+        return isZip (source);
     }
 }
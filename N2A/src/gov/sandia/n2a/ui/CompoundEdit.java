@@ -29,4 +29,21 @@ public class CompoundEdit extends javax.swing.undo.CompoundEdit
     {
         return edits.size () == 0;
     }
+
+    public synchronized long memory ()
+    {
+        long result = Undoable.overhead;
+        for (UndoableEdit e : edits) result += UndoManager.memory (e);
+        return result;
+    }
+
+    /**
+        @return true if any member edit released memory.
+    **/
+    public synchronized boolean spill ()
+    {
+        boolean result = false;
+        for (UndoableEdit e : edits) if (UndoManager.spill (e)) result = true;
+        return result;
+    }
 }
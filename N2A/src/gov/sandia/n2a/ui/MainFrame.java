@@ -67,6 +67,8 @@ public class MainFrame extends JFrame
         // TODO: make icon appear on Mac. This requires accessing the "dock", which is an arbitrarily different concept than "tray" on every other desktop system, even though it does the same thing.
 
         undoManager = new UndoManager ();
+        long undoSize = AppData.state.getLong ("General", "undoSize");  // in MB
+        if (undoSize > 0) undoManager.setBudget (undoSize * 0x100000);
         tabs = new MainTabbedPane ();
 
         Lay.BLtg (this,
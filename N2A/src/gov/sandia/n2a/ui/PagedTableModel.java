@@ -0,0 +1,183 @@
+/*
+Copyright 2021 National Technology & Engineering Solutions of Sandia, LLC (NTESS).
+Under the terms of Contract DE-NA0003525 with NTESS,
+the U.S. Government retains certain rights in this software.
+*/
+
+package gov.sandia.n2a.ui;
+
+import java.awt.EventQueue;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map.Entry;
+
+import javax.swing.event.TableModelEvent;
+import javax.swing.table.AbstractTableModel;
+
+/**
+    Table model for large sources, where producing the value of a cell is expensive compared to
+    drawing it. Values are materialized a page at a time, one column at a time, only when JTable asks
+    for a cell on that page. In practice this means only the visible rows and columns. A bounded number
+    of pages are kept, in LRU order.
+
+    Changes are reported through rowsChanged() and rowsInserted(). These collect all the changes made
+    during one pass of the EDT and send them as a single event, rather than one event per row.
+    Any event that passes through fireTableChanged() also drops the affected pages.
+
+    All methods must be called on the EDT.
+**/
+@SuppressWarnings("serial")
+public abstract class PagedTableModel extends AbstractTableModel
+{
+    public static int pageSize  = 128;  // rows
+    public static int pageLimit = 256;  // Maximum number of pages kept in memory. Each page holds one column, so this should cover several screens of columns.
+
+    protected LinkedHashMap<Long,Object[]> pages = new LinkedHashMap<Long,Object[]> (pageLimit, 0.75f, true)
+    {
+        protected boolean removeEldestEntry (Entry<Long,Object[]> eldest)
+        {
+            return size () > pageLimit;
+        }
+    };
+
+    protected int     updateFirst = -1;  // Range of rows changed since last event. -1 if none.
+    protected int     updateLast;
+    protected int     insertFirst = -1;  // Range of rows inserted since last event. -1 if none.
+    protected int     insertLast;
+    protected boolean flushPending;
+
+    /**
+        Produces the contents of a range of rows in one column.
+        @param first Index of the first row to load.
+        @param result One entry per row, to be filled with the value of the cell.
+    **/
+    protected abstract void loadPage (int first, int column, Object[] result);
+
+    public Object getValueAt (int row, int column)
+    {
+        int rowCount = getRowCount ();
+        if (row < 0  ||  row >= rowCount  ||  column < 0  ||  column >= getColumnCount ()) return null;
+
+        int      p     = row / pageSize;
+        int      first = p * pageSize;
+        Long     key   = (long) p << 32 | column;
+        Object[] page  = pages.get (key);
+        if (page == null  ||  row - first >= page.length)  // The second case means the page was loaded before rows were appended.
+        {
+            page = new Object[Math.min (pageSize, rowCount - first)];
+            loadPage (first, column, page);
+            pages.put (key, page);
+        }
+        return page[row - first];
+    }
+
+    /**
+        Drops all cached pages. Use when the underlying source changes in a way that can't be described by row ranges.
+    **/
+    public void clearPages ()
+    {
+        pages.clear ();
+    }
+
+    /**
+        Drops cached pages that overlap the given rows, inclusive.
+    **/
+    public void clearPages (int first, int last)
+    {
+        int pFirst = first / pageSize;
+        int pLast  = last  / pageSize;
+        Iterator<Long> it = pages.keySet ().iterator ();
+        while (it.hasNext ())
+        {
+            int p = (int) (it.next () >>> 32);
+            if (p >= pFirst  &&  p <= pLast) it.remove ();
+        }
+    }
+
+    /**
+        Reports that the contents of the given rows (inclusive) have changed.
+    **/
+    public void rowsChanged (int first, int last)
+    {
+        clearPages (first, last);
+        if (updateFirst < 0)
+        {
+            updateFirst = first;
+            updateLast  = last;
+        }
+        else
+        {
+            updateFirst = Math.min (updateFirst, first);
+            updateLast  = Math.max (updateLast,  last);
+        }
+        scheduleFlush ();
+    }
+
+    /**
+        Reports that rows were inserted at the given position (inclusive range).
+        Row numbers refer to the source after the insertion.
+    **/
+    public void rowsInserted (int first, int last)
+    {
+        // Insertion shifts every row after it, so a cached page can't be trusted.
+        clearPages ();
+        if (insertFirst >= 0  &&  (first < insertFirst  ||  first > insertLast + 1))  // Can't describe both insertions with one range.
+        {
+            fireTableRowsInserted (insertFirst, insertLast);
+            insertFirst = -1;
+        }
+        if (insertFirst < 0)
+        {
+            insertFirst = first;
+            insertLast  = last;
+        }
+        else
+        {
+            insertLast += last - first + 1;
+        }
+        scheduleFlush ();
+    }
+
+    protected void scheduleFlush ()
+    {
+        if (flushPending) return;
+        flushPending = true;
+        EventQueue.invokeLater (new Runnable ()
+        {
+            public void run ()
+            {
+                flush ();
+            }
+        });
+    }
+
+    /**
+        Sends any pending changes. Insertions go first, since row numbers in the update range refer to the source after insertion.
+    **/
+    public void flush ()
+    {
+        flushPending = false;
+        if (insertFirst >= 0)
+        {
+            int first = insertFirst;
+            insertFirst = -1;
+            fireTableRowsInserted (first, insertLast);
+        }
+        if (updateFirst >= 0)
+        {
+            int first = updateFirst;
+            updateFirst = -1;
+            int last = Math.min (updateLast, getRowCount () - 1);
+            if (first <= last) fireTableRowsUpdated (first, last);
+        }
+    }
+
+    public void fireTableChanged (TableModelEvent e)
+    {
+        int first = e.getFirstRow ();
+        int last  = e.getLastRow ();
+        if (e.getType () == TableModelEvent.UPDATE  &&  first >= 0  &&  last != Integer.MAX_VALUE) clearPages (first, last);
+        else                                                                                     clearPages ();
+        super.fireTableChanged (e);
+    }
+}
@@ -8,13 +8,50 @@ package gov.sandia.n2a.ui;
 
 import javax.swing.undo.UndoableEdit;
 
+/**
+    In addition to the count limit inherited from Swing, keeps the estimated memory held by the
+    history within a budget. Edits that carry a copy of a model subtree (see Undoable.bulk()) can
+    be large, so when the budget is exceeded the oldest of them move their copies to temporary files,
+    to be loaded again only if the user undoes that far. If that is still not enough, the oldest edits
+    are dropped, just as when the count limit is reached.
+**/
 @SuppressWarnings("serial")
 public class UndoManager extends javax.swing.undo.UndoManager
 {
+    public static final long defaultBudget = Runtime.getRuntime ().maxMemory () / 16;
+
+    protected long budget = defaultBudget;
+    protected long used;  // Estimated bytes held by all edits, as of the last call to enforceBudget().
+
+    public synchronized long getBudget ()
+    {
+        return budget;
+    }
+
+    public synchronized void setBudget (long budget)
+    {
+        this.budget = budget;
+        enforceBudget ();
+    }
+
+    public synchronized long getUsed ()
+    {
+        return used;
+    }
+
+    public synchronized int getCount ()
+    {
+        return edits.size ();
+    }
+
     public synchronized boolean apply (Undoable edit)
     {
         edit.redo ();  // All descendants of Undoable are expected to carry out their operation once on creation. We do that here for convenience.
 
+        // The edit before the current position may be asked to absorb the new one, so its state must be in memory.
+        UndoableEdit previous = editToBeUndone ();
+        if (previous instanceof Undoable) ((Undoable) previous).reload ();
+
         if (! super.addEdit (edit)) return false;
         UndoableEdit lastEdit = lastEdit ();  // lastEdit could be an Undoable or a CompoundEdit, thus we have to check ...
         if (lastEdit instanceof Undoable  &&  ((Undoable) lastEdit).anihilate ())
@@ -22,6 +59,7 @@ public class UndoManager extends javax.swing.undo.UndoManager
             int lastIndex = edits.size () - 1;
             trimEdits (lastIndex, lastIndex);  // We have to do this indirectly because indexOfNextAdd is package private, so we can't maintain it.
         }
+        enforceBudget ();
         return true;
     }
 
@@ -38,9 +76,67 @@ public class UndoManager extends javax.swing.undo.UndoManager
                 int lastIndex = edits.size () - 1;
                 trimEdits (lastIndex, lastIndex);
             }
+            enforceBudget ();
+        }
+    }
+
+    /**
+        Moves old edits to disk, then drops them if necessary, until the history fits the budget.
+        The edits on either side of the current position are never touched, so the next undo or redo
+        is always immediate. Neither is an edit that is still collecting members.
+    **/
+    protected void enforceBudget ()
+    {
+        UndoableEdit nextUndo = editToBeUndone ();
+        UndoableEdit nextRedo = editToBeRedone ();
+
+        int count = edits.size ();
+        long[] sizes = new long[count];
+        used = 0;
+        for (int i = 0; i < count; i++)
+        {
+            sizes[i] = memory (edits.get (i));
+            used += sizes[i];
+        }
+
+        for (int i = 0; i < count  &&  used > budget; i++)
+        {
+            UndoableEdit e = edits.get (i);
+            if (e == nextUndo  ||  e == nextRedo  ||  isInProgress (e)) continue;
+            if (! spill (e)) continue;
+            long size = memory (e);
+            used -= sizes[i] - size;
+            sizes[i] = size;
+        }
+
+        while (used > budget  &&  ! edits.isEmpty ())
+        {
+            UndoableEdit e = edits.get (0);
+            if (e == nextUndo  ||  e == nextRedo  ||  isInProgress (e)) break;
+            used -= memory (e);
+            trimEdits (0, 0);
         }
     }
 
+    public static boolean isInProgress (UndoableEdit edit)
+    {
+        return edit instanceof javax.swing.undo.CompoundEdit  &&  ((javax.swing.undo.CompoundEdit) edit).isInProgress ();
+    }
+
+    public static long memory (UndoableEdit edit)
+    {
+        if (edit instanceof Undoable)     return ((Undoable)     edit).memory ();
+        if (edit instanceof CompoundEdit) return ((CompoundEdit) edit).memory ();
+        return Undoable.overhead;
+    }
+
+    public static boolean spill (UndoableEdit edit)
+    {
+        if (edit instanceof Undoable)     return ((Undoable)     edit).spill ();
+        if (edit instanceof CompoundEdit) return ((CompoundEdit) edit).spill ();
+        return false;
+    }
+
     public synchronized void purge (Filter f)
     {
         for (int i = edits.size () - 1; i >= 0; i--)
@@ -7,25 +7,130 @@ the U.S. Government retains certain rights in this software.
 package gov.sandia.n2a.ui;
 
 import java.awt.Component;
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
 
 import javax.swing.undo.CannotRedoException;
 import javax.swing.undo.CannotUndoException;
 import javax.swing.undo.UndoableEdit;
 
+import gov.sandia.n2a.db.MNode;
+import gov.sandia.n2a.db.Schema;
+
 public class Undoable implements UndoableEdit
 {
     protected boolean   hasBeenDone = false;  // In the original AbstractUndoableEdit class, this was initialized true. We set it false and expect the caller to run redo() during creation of this object.
     protected boolean   alive       = true;
     public    Component tab         = MainFrame.instance.tabs.getSelectedComponent ();
+    protected long      bulkSize    = -1;     // Estimated size of bulk(), computed on first call to memory(). -1 if not yet computed.
+    protected Path      spillFile;            // If non-null, the contents of bulk() are stored here rather than in memory.
+
+    public static final long overhead     = 256;  // Approximate cost of an edit object, not counting any saved tree.
+    public static final long nodeOverhead = 128;  // Approximate cost of one MVolatile node, not counting the characters in its key and value.
 
     public void die ()
     {
         alive = false;
+        release ();
+    }
+
+    /**
+        Subclasses that hold a copy of some part of the database should return it here, so UndoManager
+        can account for its size and move it to disk when the history grows too large. The returned
+        node must be the same object for the life of this edit. Only its children are moved to disk.
+    **/
+    protected MNode bulk ()
+    {
+        return null;
+    }
+
+    /**
+        @return Estimated number of bytes this edit holds in memory.
+    **/
+    public long memory ()
+    {
+        MNode b = bulk ();
+        if (b == null  ||  spillFile != null) return overhead;
+        if (bulkSize < 0) bulkSize = weigh (b);
+        return overhead + bulkSize;
+    }
+
+    public static long weigh (MNode node)
+    {
+        long result = nodeOverhead + 2 * (node.key ().length () + node.get ().length ());
+        for (MNode c : node) result += weigh (c);
+        return result;
+    }
+
+    /**
+        Writes the children of bulk() to a temporary file and removes them from memory.
+        They are loaded again the next time this edit is undone or redone.
+        @return true if memory was released.
+    **/
+    public boolean spill ()
+    {
+        MNode b = bulk ();
+        if (b == null  ||  spillFile != null  ||  b.size () == 0) return false;
+        Path file = null;
+        try
+        {
+            file = Files.createTempFile ("n2a-undo-", ".n2a");
+            file.toFile ().deleteOnExit ();
+            try (BufferedWriter writer = Files.newBufferedWriter (file))
+            {
+                Schema.latest ().writeAll (b, writer);
+            }
+            b.clear ();
+            spillFile = file;
+            return true;
+        }
+        catch (IOException e)
+        {
+            System.err.println ("Failed to move undo state to disk");
+            e.printStackTrace ();
+            if (file != null) file.toFile ().delete ();
+            return false;
+        }
+    }
+
+    /**
+        Restores the children of bulk() if they were moved to disk. Safe to call at any time.
+        @return false if the saved state could not be recovered, in which case this edit is no longer usable.
+    **/
+    public boolean reload ()
+    {
+        if (spillFile == null) return true;
+        try (BufferedReader reader = Files.newBufferedReader (spillFile))
+        {
+            Schema.readAll (bulk (), reader);
+            return true;
+        }
+        catch (IOException e)
+        {
+            System.err.println ("Failed to load undo state from " + spillFile);
+            e.printStackTrace ();
+            alive = false;
+            return false;
+        }
+        finally
+        {
+            release ();
+        }
+    }
+
+    protected void release ()
+    {
+        if (spillFile == null) return;
+        spillFile.toFile ().delete ();
+        spillFile = null;
     }
 
     public void undo () throws CannotUndoException
     {
-        if (! canUndo ()) throw new CannotUndoException ();
+        if (! canUndo ()  ||  ! reload ()) throw new CannotUndoException ();
         hasBeenDone = false;
         if (tab != null) MainFrame.instance.tabs.setSelectedComponent (tab);
     }
@@ -37,7 +142,7 @@ public class Undoable implements UndoableEdit
 
     public void redo () throws CannotRedoException
     {
-        if (! canRedo ()) throw new CannotRedoException();
+        if (! canRedo ()  ||  ! reload ()) throw new CannotRedoException ();
         hasBeenDone = true;
         if (tab != null) MainFrame.instance.tabs.setSelectedComponent (tab);
     }
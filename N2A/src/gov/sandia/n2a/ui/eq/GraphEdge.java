@@ -232,6 +232,7 @@ public class GraphEdge
         textBoxTo  = null;
         bounds     = new Rectangle (0, 0, -1, -1);  // empty, so won't affect union(), and will return false from intersects()
         root       = null;
+        nodeFrom.parent.index.invalidate ();
 
         int padTip = 0;  // Distance from boundary of nodeTo to target the tip. Varies depending on arrow type.
         String headType = nodeFrom.node.source.get (alias, "$metadata", "gui", "arrow");
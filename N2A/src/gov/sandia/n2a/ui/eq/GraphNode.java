@@ -37,6 +37,7 @@ import javax.swing.ActionMap;
 import javax.swing.Box;
 import javax.swing.InputMap;
 import javax.swing.JPanel;
+import javax.swing.JTree;
 import javax.swing.JViewport;
 import javax.swing.KeyStroke;
 import javax.swing.SwingUtilities;
@@ -80,7 +81,8 @@ public class GraphNode extends JPanel
     protected boolean             selected;
     protected JPanel              panelTitle;
     protected Component           hr                  = Box.createVerticalStrut (border.t + 1);
-    public    PanelEquationTree   panelEquationTree;
+    public    PanelEquationTree   panelEquationTree;   // Created on first use. Until then, this node is just a title and border, which is all a closed node needs.
+    public    boolean             ownTree;             // Indicates that container.view is NODE, so this node edits its equations in its own tree rather than the property panel.
     protected ResizeListener      resizeListener      = new ResizeListener ();
     protected List<GraphEdge>     edgesOut            = new ArrayList<GraphEdge> ();
     public    List<GraphEdge>     edgesIn             = new ArrayList<GraphEdge> ();
@@ -118,18 +120,15 @@ public class GraphNode extends JPanel
         node.graph  = this;
 
         node.fakeRoot (true);
-        if (container.view == PanelEquations.NODE)
-        {
-            panelEquationTree = new PanelEquationTree (container);
-            panelEquationTree.loadPart (node);
-        }
+        ownTree = container.view == PanelEquations.NODE;
+        open    = ownTree  &&  node.source.getBoolean ("$metadata", "gui", "bounds", "open");
 
-        // Internally, this class uses the null/non-null state of panelEquationsTree to indicated whether
-        // container.view is NODE or a property panel mode.
-        open =  panelEquationTree != null  &&  node.source.getBoolean ("$metadata", "gui", "bounds", "open");
+        // A large graph consists mostly of closed nodes, and building a full equation tree for each one
+        // would make load time and memory proportional to the whole model rather than what is shown.
+        // Instead, the tree is built when the node is opened, focused or edited. See getEquationTree().
 
         title = new TitleRenderer ();
-        title.getTreeCellRendererComponent (getEquationTree ().tree, node, false, open, false, -2, false);  // Configure JLabel with info from node.
+        title.getTreeCellRendererComponent (getRendererTree (), node, false, open, false, -2, false);  // Configure JLabel with info from node.
         boolean focusable =  side == null;
         title.setFocusable (focusable);            // make focusable in general
         title.setRequestFocusEnabled (focusable);  // make focusable by mouse
@@ -138,7 +137,7 @@ public class GraphNode extends JPanel
         panelTitle.setOpaque (false);
         if (open) panelTitle.add (hr, BorderLayout.CENTER);
         Lay.BLtg (this, "N", panelTitle);
-        if (open) add (panelEquationTree, BorderLayout.CENTER);
+        if (open) add (getEquationTree (), BorderLayout.CENTER);
         setBorder (border);
         setOpaque (false);
 
@@ -185,12 +184,30 @@ public class GraphNode extends JPanel
         return node.getToolTipText (fm);
     }
 
+    /**
+        Returns the tree that edits this node. In NODE view, this creates our own tree if it does not exist yet.
+    **/
     public PanelEquationTree getEquationTree ()
     {
-        if (panelEquationTree == null) return container.panelEquationTree;
+        if (! ownTree) return container.panelEquationTree;
+        if (panelEquationTree == null)
+        {
+            panelEquationTree = new PanelEquationTree (container);
+            panelEquationTree.loadPart (node);
+        }
         return panelEquationTree;
     }
 
+    /**
+        The tree to hand to the title renderer. Unlike getEquationTree(), this never creates a tree,
+        since the renderer only needs a tree for its general appearance.
+    **/
+    public JTree getRendererTree ()
+    {
+        if (panelEquationTree != null) return panelEquationTree.tree;
+        return container.panelEquationTree.tree;
+    }
+
     public Component getTargetComponent ()
     {
         if (titleFocused) return title;
@@ -225,7 +242,7 @@ public class GraphNode extends JPanel
     public void restoreFocus ()
     {
         container.setSelected (false);
-        if (panelEquationTree == null)
+        if (! ownTree)
         {
             PanelEquationTree pet = container.panelEquationTree;
             container.active = pet;
@@ -247,10 +264,11 @@ public class GraphNode extends JPanel
         }
         else
         {
-            container.active = panelEquationTree;
+            container.active = getEquationTree ();
         }
 
         parent.setComponentZOrder (this, 0);
+        parent.index.invalidate ();
         parent.scrollRectToVisible (getBounds ());
         repaint ();
 
@@ -285,7 +303,7 @@ public class GraphNode extends JPanel
         }
         else
         {
-            if (panelEquationTree == null) pet.loadPart (node);  // Because switchFocus() can also be used to grab focus from another part.
+            if (! ownTree) pet.loadPart (node);  // Because switchFocus() can also be used to grab focus from another part.
             else                           setOpen (true);
             if (selectRow0)
             {
@@ -310,7 +328,7 @@ public class GraphNode extends JPanel
         if (open)
         {
             panelTitle.add (hr, BorderLayout.CENTER);
-            add (panelEquationTree, BorderLayout.CENTER);
+            add (getEquationTree (), BorderLayout.CENTER);
         }
         else
         {
@@ -321,7 +339,7 @@ public class GraphNode extends JPanel
             remove (panelEquationTree);  // assume that equation tree does not have focus
         }
         boolean focused = title.isFocusOwner ();
-        title.getTreeCellRendererComponent (panelEquationTree.tree, node, focused || selected, open, false, -2, focused);
+        title.getTreeCellRendererComponent (getRendererTree (), node, focused || selected, open, false, -2, focused);
         animate (new Rectangle (getLocation (), getPreferredSize ()));
     }
 
@@ -372,6 +390,24 @@ public class GraphNode extends JPanel
         return d;
     }
 
+    /**
+        Bounds of the whole footprint of this node, including pins that stick out on either side.
+    **/
+    public Rectangle getBoundsWithPins ()
+    {
+        Rectangle bounds = getBounds ();
+        Rectangle result = new Rectangle (bounds);
+        if (pinInBounds  != null) result = result.union (new Rectangle (bounds.x - pinInBounds.width,  bounds.y + border.t, pinInBounds.width,  pinInBounds.height));
+        if (pinOutBounds != null) result = result.union (new Rectangle (bounds.x + bounds.width,       bounds.y + border.t, pinOutBounds.width, pinOutBounds.height));
+        return result;
+    }
+
+    public void setBounds (int x, int y, int width, int height)
+    {
+        super.setBounds (x, y, width, height);  // All the other ways of moving or resizing a component funnel through here.
+        if (parent != null) parent.index.invalidate ();
+    }
+
     public Point getCenter ()
     {
         Rectangle bounds = getBounds ();
@@ -466,7 +502,7 @@ public class GraphNode extends JPanel
 
         node.setUserObject ();
         boolean focused = title.isFocusOwner ();
-        title.getTreeCellRendererComponent (getEquationTree ().tree, node, focused || selected, open, false, -2, focused);
+        title.getTreeCellRendererComponent (getRendererTree (), node, focused || selected, open, false, -2, focused);
 
         panelTitle.invalidate ();
         setSize (getPreferredSize ());  // GraphLayout won't do this, so we must do it manually.
@@ -490,7 +526,7 @@ public class GraphNode extends JPanel
         {
             x += bounds.getInt ("x");
             y += bounds.getInt ("y");
-            if (panelEquationTree != null) setOpen (bounds.getBoolean ("open"));
+            if (ownTree) setOpen (bounds.getBoolean ("open"));
         }
 
         // Determine new size
@@ -534,6 +570,7 @@ public class GraphNode extends JPanel
         {
             paintRegion = edge.bounds;
             parent.edges.remove (edge);
+            parent.index.invalidate ();
             edgesOut.remove (edge);
             if (edge.nodeTo != null) edge.nodeTo.edgesIn.remove (edge);
         }
@@ -541,6 +578,7 @@ public class GraphNode extends JPanel
         {
             edge = new GraphEdge (this, partTo, alias);
             parent.edges.add (edge);
+            parent.index.invalidate ();
             edgesOut.add (edge);
             if (edge.nodeTo != null) edge.nodeTo.edgesIn.add (edge);
         }
@@ -647,6 +685,7 @@ public class GraphNode extends JPanel
     {
         pinInBounds  = null;
         pinOutBounds = null;
+        if (parent != null) parent.index.invalidate ();
         if (node.pinIn == null  &&  node.pinOut == null) return;
 
         FontMetrics fm = getFontMetrics (getFont ());
@@ -854,23 +893,23 @@ public class GraphNode extends JPanel
             {
                 public void actionPerformed (ActionEvent e)
                 {
-                    if (panelEquationTree != null  &&  open) toggleOpen ();
+                    if (ownTree  &&  open) toggleOpen ();
                 }
             });
             actionMap.put ("selectNext", new AbstractAction ()
             {
                 public void actionPerformed (ActionEvent e)
                 {
-                    if (panelEquationTree != null  &&  ! open) toggleOpen ();  // because switchFocus() does not change metadata "open" flag
+                    if (ownTree  &&  ! open) toggleOpen ();  // because switchFocus() does not change metadata "open" flag
                     container.panelEquationGraph.clearSelection ();
-                    switchFocus (false, panelEquationTree != null);
+                    switchFocus (false, ownTree);
                 }
             });
             actionMap.put ("selectChild", new AbstractAction ()
             {
                 public void actionPerformed (ActionEvent e)
                 {
-                    if (panelEquationTree != null  &&  ! open)
+                    if (ownTree  &&  ! open)
                     {
                         toggleOpen ();
                     }
@@ -1059,7 +1098,7 @@ public class GraphNode extends JPanel
                             int iconWidth = node.getIcon (open).getIconWidth ();  // "open" isn't actually important for root node, as NodePart doesn't currently change appearance.
                             if (x < iconWidth)
                             {
-                                if (panelEquationTree != null) toggleOpen ();
+                                if (ownTree) toggleOpen ();
                             }
                             else if (isFocusOwner ())
                             {
@@ -1138,7 +1177,7 @@ public class GraphNode extends JPanel
             {
                 public void focusGained (FocusEvent e)
                 {
-                    getTreeCellRendererComponent (getEquationTree ().tree, node, true, open, false, -2, true);
+                    getTreeCellRendererComponent (getRendererTree (), node, true, open, false, -2, true);
                     restoreFocus ();  // does repaint
                 }
 
@@ -1151,7 +1190,7 @@ public class GraphNode extends JPanel
                         if (g == null) container.panelEquationGraph.clearSelection ();  // Next focus in not a graph node, so unset all selections. This avoids visual confusion.
                     }
 
-                    getTreeCellRendererComponent (getEquationTree ().tree, node, GraphNode.this.selected, open, false, -2, false);
+                    getTreeCellRendererComponent (getRendererTree (), node, GraphNode.this.selected, open, false, -2, false);
                     GraphNode.this.repaint ();
                 }
             });
@@ -1175,7 +1214,7 @@ public class GraphNode extends JPanel
             {
                 UIupdated = false;
                 // We are never the focus owner, because updateUI() is triggered from the L&F panel.
-                getTreeCellRendererComponent (getEquationTree ().tree, node, false, open, false, -2, false);
+                getTreeCellRendererComponent (getRendererTree (), node, false, open, false, -2, false);
             }
             return super.getPreferredSize ();
         }
@@ -1183,7 +1222,7 @@ public class GraphNode extends JPanel
         public void updateSelected ()
         {
             boolean focused = isFocusOwner ();
-            getTreeCellRendererComponent (getEquationTree ().tree, node, GraphNode.this.selected || focused, open, false, -2, focused);
+            getTreeCellRendererComponent (getRendererTree (), node, GraphNode.this.selected || focused, open, false, -2, focused);
             GraphNode.this.repaint ();
         }
 
@@ -1294,6 +1333,7 @@ public class GraphNode extends JPanel
 
             // All mouse event coordinates are relative to the bounds of this component.
             parent.setComponentZOrder (GraphNode.this, 0);
+            parent.index.invalidate ();
             start   = me.getPoint ();
             min     = getMinimumSize ();
             old     = getBounds ();
@@ -1379,6 +1419,7 @@ public class GraphNode extends JPanel
                     edge.anchor = new Point (start);  // Position in this component where drag started.
                     edge.tip = new Vector2 (0, 0);  // This is normally created by GraphEdge.updateShape(), but we don't call that first.
                     parent.edges.add (edge);
+                    parent.index.invalidate ();
                 }
                 int nx = Math.max (x + me.getX (), 0);
                 int ny = Math.max (y + me.getY (), 0);
@@ -1526,6 +1567,7 @@ public class GraphNode extends JPanel
                     if (edge != null)
                     {
                         parent.edges.remove (edge);
+                        parent.index.invalidate ();
                         parent.repaint (edge.bounds);
 
                         Point p = new Point (getX () + me.getX (), getY () + me.getY ());
@@ -31,8 +31,13 @@ import java.awt.event.FocusListener;
 import java.awt.event.MouseEvent;
 import java.awt.event.MouseWheelEvent;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
 import java.util.Enumeration;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Map.Entry;
 
 import javax.swing.AbstractAction;
@@ -266,7 +271,7 @@ public class PanelEquationGraph extends JScrollPane
     public void removePart (NodePart node, boolean holdFocusInGraph)
     {
         if (node.graph == null) return;
-        if (container.active == node.getTree ()) container.active = null;  // In case this graph panel loses focus completely.
+        if (container.active != null  &&  container.active.root == node) container.active = null;  // In case this graph panel loses focus completely. Avoids node.getTree(), which could build a tree just to discard it.
 
         // Try to keep focus inside graph area.
         if (holdFocusInGraph)
@@ -402,6 +407,7 @@ public class PanelEquationGraph extends JScrollPane
         protected GraphLayout        layout;                               // For ease of access, to avoid calling getLayout() all the time.
         protected GraphMouseListener mouseListener;
         protected List<GraphEdge>    edges  = new ArrayList<GraphEdge> (); // Note that GraphNodes are stored directly as Swing components.
+        public    GraphIndex         index  = new GraphIndex ();           // Spatial lookup for nodes and edges. Must be invalidated whenever either collection or their geometry changes.
         public    Point              offset = new Point ();                // Offset from persistent coordinates to viewport coordinates. Add this to a stored (x,y) value to get non-negative coordinates that can be painted.
         protected JPopupMenu         arrowMenu;
         protected GraphEdge          arrowEdge;                            // Most recent edge when arrowMenu was activated.
@@ -533,6 +539,7 @@ public class PanelEquationGraph extends JScrollPane
             pinIn = null;  // Don't care about the fake NodePart attached to these graph nodes.
             pinOut = null;
             edges.clear ();
+            index.invalidate ();
         }
 
         public void load ()
@@ -724,6 +731,7 @@ public class PanelEquationGraph extends JScrollPane
             }
             for (GraphEdge e : edges) e.clearBound ();
             edges.clear ();
+            index.invalidate ();
             buildEdges ();
         }
 
@@ -864,7 +872,9 @@ public class PanelEquationGraph extends JScrollPane
         {
             for (Component c : getComponents ())
             {
-                if (c instanceof GraphNode) ((GraphNode) c).panelEquationTree.updateLock ();
+                if (! (c instanceof GraphNode)) continue;
+                PanelEquationTree pet = ((GraphNode) c).panelEquationTree;
+                if (pet != null) pet.updateLock ();  // A tree created later picks up the current lock state in loadPart().
             }
         }
 
@@ -872,7 +882,10 @@ public class PanelEquationGraph extends JScrollPane
         {
             for (Component c : getComponents ())
             {
-                if (c instanceof GraphNode) ((GraphNode) c).panelEquationTree.updateFilterLevel ();
+                if (! (c instanceof GraphNode)) continue;
+                GraphNode gn = (GraphNode) c;
+                if (gn.panelEquationTree != null) gn.panelEquationTree.updateFilterLevel ();
+                else                              gn.node.filter ();  // Keep the node's own state current, so a tree built later shows the right children.
             }
         }
 
@@ -898,8 +911,18 @@ public class PanelEquationGraph extends JScrollPane
 
         public GraphEdge findTipAt (Point p)
         {
+            // Candidates are edges that pass near p, along with edges that attach to a pin under p.
+            int a = (int) Math.ceil (GraphEdge.arrowheadLength);
+            List<GraphEdge> candidates = index.edgesIn (new Rectangle (p.x - a, p.y - a, 2 * a + 1, 2 * a + 1));
+            for (GraphNode g : index.nodesIn (new Rectangle (p.x, p.y, 1, 1)))
+            {
+                candidates.addAll (g.edgesIn);
+                candidates.addAll (g.edgesOut);
+            }
+            index.sort (candidates);
+
             Vector2 p2 = new Vector2 (p.x, p.y);
-            for (GraphEdge e : edges)
+            for (GraphEdge e : candidates)
             {
                 if (e.tip != null  &&  e.tip.distance (p2) < GraphEdge.arrowheadLength) return e;
                 // These tests extend the clickable area to include the full width of the pin zone.
@@ -947,7 +970,7 @@ public class PanelEquationGraph extends JScrollPane
 
         public GraphEdge findTopicAt (Point p)
         {
-            for (GraphEdge e : edges)
+            for (GraphEdge e : index.edgesIn (new Rectangle (p.x, p.y, 1, 1)))
             {
                 if (! e.topic.isEmpty ()  &&  e.textBox.contains (p)) return e;
             }
@@ -956,10 +979,8 @@ public class PanelEquationGraph extends JScrollPane
 
         public GraphNode findNodeAt (Point p, boolean includePins)
         {
-            for (Component c : getComponents ())
+            for (GraphNode g : index.nodesIn (new Rectangle (p.x, p.y, 1, 1)))
             {
-                if (! (c instanceof GraphNode)) continue;
-                GraphNode g = (GraphNode) c;
                 Rectangle bounds = g.getBounds ();
                 if (bounds.contains (p)) return g;
                 if (! includePins) continue;
@@ -972,9 +993,9 @@ public class PanelEquationGraph extends JScrollPane
         public List<GraphNode> findNodesIn (Rectangle r)
         {
             List<GraphNode> result = new ArrayList<GraphNode> ();
-            for (Component c : getComponents ())
+            for (GraphNode g : index.nodesIn (r))
             {
-                if (c instanceof GraphNode  &&  r.intersects (c.getBounds ())) result.add ((GraphNode) c);
+                if (r.intersects (g.getBounds ())) result.add (g);  // Exclude nodes that only overlap r with their pins.
             }
             return result;
         }
@@ -1036,14 +1057,11 @@ public class PanelEquationGraph extends JScrollPane
             Stroke oldStroke = g2.getStroke ();
             g2.setStroke (new BasicStroke (GraphEdge.strokeThickness, BasicStroke.CAP_ROUND, BasicStroke.JOIN_ROUND));
             g2.setRenderingHint (RenderingHints.KEY_ANTIALIASING, RenderingHints.VALUE_ANTIALIAS_ON);
-            for (GraphEdge e : edges) if (e.bounds.intersects (clip)) e.paintComponent (g2);
+            for (GraphEdge e : index.edgesIn (clip)) e.paintComponent (g2);
 
             // Draw pins
             g2.setStroke (oldStroke);
-            for (Component c : getComponents ())
-            {
-                if (c instanceof GraphNode) ((GraphNode) c).paintPins (g2, clip);  // Test clip bounds against pins. Paint pin if any overlap.
-            }
+            for (GraphNode gn : index.nodesIn (clip)) gn.paintPins (g2, clip);  // Test clip bounds against pins. Paint pin if any overlap.
 
             g2.dispose ();
         }
@@ -1382,6 +1400,7 @@ public class PanelEquationGraph extends JScrollPane
 
         public void addLayoutComponent (Component comp, Object constraints)
         {
+            graphPanel.index.invalidate ();
             Dimension d = comp.getPreferredSize ();
             comp.setSize (d);
             Point p = comp.getLocation ();
@@ -1390,6 +1409,7 @@ public class PanelEquationGraph extends JScrollPane
 
         public void removeLayoutComponent (Component comp)
         {
+            graphPanel.index.invalidate ();
         }
 
         public Dimension preferredLayoutSize (Container target)
@@ -1503,6 +1523,162 @@ public class PanelEquationGraph extends JScrollPane
         }
     }
 
+    /**
+        Buckets nodes and edges on a uniform grid, so that painting and hit-testing only visit what lies near the region of interest.
+        Rather than track every individual change in geometry, the whole index is marked stale and then rebuilt on the next query.
+        Scrolling does not change component coordinates, so the index remains valid while the user pans around a large graph.
+    **/
+    public class GraphIndex
+    {
+        public static final int cellSize = 256;  // pixels
+        public static final int maxCells = 64;   // An item that covers more cells than this goes in the oversize list instead.
+
+        protected boolean                           valid;
+        protected Map<Long,List<Object>>            cells     = new HashMap<Long,List<Object>> ();
+        protected List<Object>                      oversize  = new ArrayList<Object> ();
+        protected IdentityHashMap<Object,Integer>   order     = new IdentityHashMap<Object,Integer> ();  // Z-order for nodes, list position for edges. Queries return items in this order.
+        protected IdentityHashMap<Object,Rectangle> footprint = new IdentityHashMap<Object,Rectangle> ();
+
+        protected Comparator<Object> comparator = new Comparator<Object> ()
+        {
+            public int compare (Object a, Object b)
+            {
+                Integer A = order.get (a);
+                Integer B = order.get (b);
+                if (A == null) A = Integer.MAX_VALUE;  // Items not in the index go last.
+                if (B == null) B = Integer.MAX_VALUE;
+                return A.compareTo (B);
+            }
+        };
+
+        public void invalidate ()
+        {
+            valid = false;
+        }
+
+        protected void update ()
+        {
+            if (valid) return;
+            valid = true;
+            cells.clear ();
+            oversize.clear ();
+            order.clear ();
+            footprint.clear ();
+
+            int i = 0;
+            for (Component c : graphPanel.getComponents ())
+            {
+                if (! (c instanceof GraphNode)) continue;
+                GraphNode g = (GraphNode) c;
+                order.put (g, i++);
+                insert (g, g.getBoundsWithPins ());
+            }
+            i = 0;
+            for (GraphEdge e : graphPanel.edges)
+            {
+                order.put (e, i++);
+                insert (e, e.bounds);
+            }
+        }
+
+        protected void insert (Object item, Rectangle r)
+        {
+            if (r.isEmpty ()) return;
+            footprint.put (item, r);
+            int x0 = Math.floorDiv (r.x, cellSize);
+            int y0 = Math.floorDiv (r.y, cellSize);
+            int x1 = Math.floorDiv (r.x + r.width  - 1, cellSize);
+            int y1 = Math.floorDiv (r.y + r.height - 1, cellSize);
+            if ((long) (x1 - x0 + 1) * (y1 - y0 + 1) > maxCells)
+            {
+                oversize.add (item);
+                return;
+            }
+            for (int y = y0; y <= y1; y++)
+            {
+                for (int x = x0; x <= x1; x++)
+                {
+                    Long key = key (x, y);
+                    List<Object> cell = cells.get (key);
+                    if (cell == null)
+                    {
+                        cell = new ArrayList<Object> ();
+                        cells.put (key, cell);
+                    }
+                    cell.add (item);
+                }
+            }
+        }
+
+        protected Long key (int x, int y)
+        {
+            return ((long) x << 32) | (y & 0xFFFFFFFFL);
+        }
+
+        /**
+            Collects every item of the given type whose footprint intersects r.
+            @return A fresh list which the caller may modify, sorted in z-order for nodes or paint order for edges.
+        **/
+        protected <T> List<T> query (Rectangle r, Class<T> type)
+        {
+            update ();
+            List<T> result = new ArrayList<T> ();
+            if (r.isEmpty ()) return result;
+            IdentityHashMap<Object,Boolean> visited = new IdentityHashMap<Object,Boolean> ();
+            for (Object o : oversize) collect (o, r, type, visited, result);
+            int x0 = Math.floorDiv (r.x, cellSize);
+            int y0 = Math.floorDiv (r.y, cellSize);
+            int x1 = Math.floorDiv (r.x + r.width  - 1, cellSize);
+            int y1 = Math.floorDiv (r.y + r.height - 1, cellSize);
+            for (int y = y0; y <= y1; y++)
+            {
+                for (int x = x0; x <= x1; x++)
+                {
+                    List<Object> cell = cells.get (key (x, y));
+                    if (cell == null) continue;
+                    for (Object o : cell) collect (o, r, type, visited, result);
+                }
+            }
+            Collections.sort (result, comparator);
+            return result;
+        }
+
+        protected <T> void collect (Object o, Rectangle r, Class<T> type, IdentityHashMap<Object,Boolean> visited, List<T> result)
+        {
+            if (! type.isInstance (o)  ||  visited.put (o, Boolean.TRUE) != null) return;
+            if (footprint.get (o).intersects (r)) result.add (type.cast (o));
+        }
+
+        /**
+            @return Nodes whose bounds or pins intersect r, from top to bottom of z-order.
+        **/
+        public List<GraphNode> nodesIn (Rectangle r)
+        {
+            return query (r, GraphNode.class);
+        }
+
+        /**
+            @return Edges whose bounds intersect r, in the same order as GraphPanel.edges.
+        **/
+        public List<GraphEdge> edgesIn (Rectangle r)
+        {
+            return query (r, GraphEdge.class);
+        }
+
+        /**
+            Puts a list of edges gathered from several sources into paint order, and removes duplicates.
+        **/
+        public void sort (List<GraphEdge> edges)
+        {
+            update ();
+            Collections.sort (edges, comparator);
+            for (int i = edges.size () - 1; i > 0; i--)
+            {
+                if (edges.get (i) == edges.get (i - 1)) edges.remove (i);
+            }
+        }
+    }
+
     public class GraphTransferHandler extends TransferHandler
     {
         public boolean canImport (TransferSupport xfer)
@@ -1738,6 +1914,7 @@ public class PanelEquationGraph extends JScrollPane
                             //edge.anchor = p;  // Position in this component where drag started.
                             edge.tip = new Vector2 (0, 0);  // This is normally created by GraphEdge.updateShape(), but we don't call that first.
                             graphPanel.edges.add (edge);
+                            graphPanel.index.invalidate ();
                         }
                     }
                 }
@@ -1869,6 +2046,7 @@ public class PanelEquationGraph extends JScrollPane
                         if (edge.pinSideTo == null)  // transient edge that did not get completed
                         {
                             graphPanel.edges.remove (edge);
+                            graphPanel.index.invalidate ();
                             graphPanel.repaint (edge.bounds);
                         }
                         else  // previously-existing edge that has been disconnected
@@ -2145,6 +2323,7 @@ public class PanelEquationGraph extends JScrollPane
                             if (edge.pinSideTo == null)  // transient edge
                             {
                                 graphPanel.edges.remove (edge);
+                                graphPanel.index.invalidate ();
                                 graphPanel.repaint (edge.bounds);
                             }
                             else  // existing edge
@@ -1154,8 +1154,9 @@ public class PanelEquationTree extends JScrollPane
             }
             else if (n instanceof NodeVariable)
             {
-                needsRepaint = ((NodeVariable) n).findHighlights (name);
-                updateHighlights (n, name);
+                NodeVariable v = (NodeVariable) n;
+                needsRepaint = v.findHighlights (name);
+                if (v.contentsBuilt) updateHighlights (n, name);  // Otherwise, the equations will pick up the name when they are created.
             }
             else if (n instanceof NodeEquation)
             {
@@ -60,6 +60,7 @@ import javax.swing.Box;
 import javax.swing.ImageIcon;
 import javax.swing.InputMap;
 import javax.swing.JButton;
+import javax.swing.JCheckBox;
 import javax.swing.JComponent;
 import javax.swing.JFileChooser;
 import javax.swing.JMenuItem;
@@ -542,6 +543,7 @@ public class PanelEquations extends JPanel
             root.findPins ();
             loadPart (root);
             AppData.state.set (record.key (), "PanelModel", "lastUsed");
+            ReferenceIndex.schedule ();
         }
         catch (Exception e)
         {
@@ -1138,25 +1140,62 @@ public class PanelEquations extends JPanel
 
         public void actionPerformed (ActionEvent e)
         {
-            if (record == null) return;
             stopEditing ();
 
             // Construct and customize a file chooser
             final JFileChooser fc = new JFileChooser (AppData.properties.get ("resourceDir"));
-            fc.setDialogTitle ("Export \"" + record.key () + "\"");
-            fc.setSelectedFile (new File (record.key ()));
             ExporterFilter n2a = null;
             List<ExtensionPoint> exps = PluginManager.getExtensionsForPoint (Export.class);
             for (ExtensionPoint exp : exps)
             {
                 if (! (exp instanceof ExportModel)  &&  ! (exp instanceof ExportBibliography)) continue;
                 ExporterFilter ef = new ExporterFilter ((Export) exp);
-                fc.addChoosableFileFilter (ef);
                 if (ef.exporter.getName ().contains ("N2A")) n2a = ef;
+                else if (record != null) fc.addChoosableFileFilter (ef);  // With no model open, only the native format can export the whole collection.
             }
+            if (n2a == null  &&  record == null) return;
+            if (n2a != null) fc.addChoosableFileFilter (n2a);
             fc.setAcceptAllFileFilterUsed (false);
             if (n2a != null) fc.setFileFilter (n2a);
 
+            // The native exporter can also write every model to a single zip archive.
+            final ExporterFilter nativeFilter = n2a;
+            final JCheckBox all = new JCheckBox ("All models");
+            all.setSelected (record == null);
+            all.setEnabled (record != null  &&  n2a != null);
+            all.setVisible (n2a != null);
+            final ActionListener retitle = new ActionListener ()
+            {
+                public void actionPerformed (ActionEvent e)
+                {
+                    if (all.isSelected ())
+                    {
+                        fc.setDialogTitle ("Export All Models");
+                        fc.setSelectedFile (new File ("models.zip"));
+                        if (nativeFilter != null) fc.setFileFilter (nativeFilter);
+                    }
+                    else
+                    {
+                        fc.setDialogTitle ("Export \"" + record.key () + "\"");
+                        fc.setSelectedFile (new File (record.key ()));
+                    }
+                }
+            };
+            all.addActionListener (retitle);
+            retitle.actionPerformed (null);
+            fc.addPropertyChangeListener (JFileChooser.FILE_FILTER_CHANGED_PROPERTY, new PropertyChangeListener ()
+            {
+                public void propertyChange (PropertyChangeEvent e)
+                {
+                    if (e.getNewValue () != nativeFilter  &&  all.isSelected ())
+                    {
+                        all.setSelected (false);
+                        retitle.actionPerformed (null);
+                    }
+                }
+            });
+            fc.setAccessory (all);
+
             // Display chooser and collect result
             int result = fc.showSaveDialog (MainFrame.instance);
 
@@ -1167,7 +1206,8 @@ public class PanelEquations extends JPanel
                 ExporterFilter filter = (ExporterFilter) fc.getFileFilter ();
                 try
                 {
-                    filter.exporter.export (record, path);
+                    if (all.isSelected ()) filter.exporter.export (AppData.models, path);  // ExportNative writes a zip when given a container.
+                    else                   filter.exporter.export (record,         path);
                 }
                 catch (Exception error)
                 {
@@ -1228,6 +1268,7 @@ public class PanelEquations extends JPanel
             // Construct and customize a file chooser
             final JFileChooser fc = new JFileChooser (AppData.properties.get ("resourceDir"));
             fc.setDialogTitle ("Import Model");
+            fc.setFileSelectionMode (JFileChooser.FILES_AND_DIRECTORIES);  // A directory (or zip) of models is imported in bulk. See ImportNative.
             List<ExtensionPoint> exps = PluginManager.getExtensionsForPoint (Import.class);
             for (ExtensionPoint exp : exps)
             {
@@ -0,0 +1,266 @@
+/*
+Copyright 2021 National Technology & Engineering Solutions of Sandia, LLC (NTESS).
+Under the terms of Contract DE-NA0003525 with NTESS,
+the U.S. Government retains certain rights in this software.
+*/
+
+package gov.sandia.n2a.ui.eq;
+
+import java.awt.event.ActionEvent;
+import java.awt.event.ActionListener;
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map.Entry;
+
+import javax.swing.Timer;
+
+import gov.sandia.n2a.db.MDoc;
+import gov.sandia.n2a.db.MNode;
+import gov.sandia.n2a.db.MVolatile;
+import gov.sandia.n2a.eqset.EquationEntry;
+import gov.sandia.n2a.eqset.EquationSet;
+import gov.sandia.n2a.eqset.EquationSet.ConnectionBinding;
+import gov.sandia.n2a.eqset.MPart;
+import gov.sandia.n2a.eqset.Variable;
+import gov.sandia.n2a.eqset.VariableReference;
+import gov.sandia.n2a.language.AccessVariable;
+import gov.sandia.n2a.language.Operator;
+import gov.sandia.n2a.language.Visitor;
+import gov.sandia.n2a.ui.eq.undo.ChangeVariable;
+
+/**
+    A fully-resolved compilation of the model open in the equation editor, built on a background thread,
+    along with a reverse index from each variable, part or connection binding to the variables whose code
+    refers to it.
+
+    Renames (ChangeVariable and ChangePart) need to find every such reference across the collated model.
+    Compiling the whole model for each rename is too slow on the EDT for large models. Instead, shortly
+    after editing goes quiet, we compile a snapshot of the document off the EDT. A rename may use the result
+    only if every document that went into it still has the same content hash. Otherwise the rename
+    compiles in place, as before.
+
+    A rename modifies the compiled model, so each result is handed out at most once.
+**/
+public class ReferenceIndex
+{
+    public    EquationSet                               compiled;
+    protected MNode                                     record;
+    protected IdentityHashMap<MNode,Long>               documents = new IdentityHashMap<MNode,Long> ();  // Every document that contributed to the compilation, along with its content hash at that time.
+    protected IdentityHashMap<Object,List<Variable>>    referrers = new IdentityHashMap<Object,List<Variable>> ();
+
+    public static int delay = 1000;  // Milliseconds of quiet after the last edit before starting a compile.
+
+    protected static Timer          timer;
+    protected static int            generation;  // Identifies the most recent snapshot. Compiles of older snapshots are discarded when they finish.
+    protected static ReferenceIndex latest;
+
+    /**
+        Requests a fresh compile of the document in the equation editor, once editing goes quiet.
+        Must be called on the EDT.
+    **/
+    public static void schedule ()
+    {
+        if (timer == null)
+        {
+            timer = new Timer (delay, new ActionListener ()
+            {
+                public void actionPerformed (ActionEvent e)
+                {
+                    start ();
+                }
+            });
+            timer.setRepeats (false);
+        }
+        timer.restart ();
+    }
+
+    protected static void start ()
+    {
+        final MNode record = PanelModel.instance.panelEquations.record;
+        if (record == null) return;
+
+        // Copying the document is cheap compared to compiling it, and frees the compile thread from racing with further edits.
+        final MNode snapshot = new MVolatile (null, record.key ());
+        snapshot.merge (record);
+
+        // Collate and hash here on the EDT, where all edits happen, so every hash is taken before the compile thread reads
+        // anything. If a document changes after this point, take() will see a different hash and reject the result.
+        final ReferenceIndex index = new ReferenceIndex ();
+        final MPart collated;
+        try
+        {
+            collated = index.collate (record, snapshot);
+        }
+        catch (Exception e)
+        {
+            return;
+        }
+        final int g;
+        synchronized (ReferenceIndex.class)
+        {
+            g = ++generation;
+            latest = null;
+        }
+
+        Thread thread = new Thread ("Reference Index")
+        {
+            public void run ()
+            {
+                try
+                {
+                    index.build (collated);
+                }
+                catch (Exception e)
+                {
+                    return;  // The model is not in a compilable state. Renames will compile in place.
+                }
+                synchronized (ReferenceIndex.class)
+                {
+                    if (g == generation) latest = index;
+                }
+            }
+        };
+        thread.setDaemon (true);
+        thread.setPriority (Thread.MIN_PRIORITY);
+        thread.start ();
+    }
+
+    /**
+        Hands over the most recent compile, provided it still matches the content of every document it was built from.
+        The caller owns the result and may modify it. Must be called on the EDT.
+        @param record The top-level document that the caller is about to edit.
+        @return null if no current compile is available.
+    **/
+    public static ReferenceIndex take (MNode record)
+    {
+        ReferenceIndex result;
+        synchronized (ReferenceIndex.class)
+        {
+            result = latest;
+            latest = null;
+        }
+        if (result == null  ||  result.record != record) return null;
+        for (Entry<MNode,Long> e : result.documents.entrySet ())
+        {
+            if (e.getKey ().contentHash () != e.getValue ()) return null;
+        }
+        return result;
+    }
+
+    /**
+        Collates the snapshot and records the content hash of every document behind it.
+        Must be called on the EDT.
+    **/
+    protected MPart collate (MNode record, MNode snapshot)
+    {
+        this.record = record;
+        documents.put (record, record.contentHash ());
+        MPart collated = new MPart (snapshot);
+        collectDocuments (collated);
+        return collated;
+    }
+
+    protected void build (MPart collated) throws Exception
+    {
+        // Same sequence as ChangeVariable.apply(). Resolution errors are expected in a model under construction.
+        compiled = new EquationSet (collated);
+        compiled.name = record.key ();
+        try
+        {
+            compiled.resolveConnectionBindings ();
+        }
+        catch (Exception e) {}
+        try
+        {
+            compiled.resolveLHS ();
+        }
+        catch (Exception e) {}
+        try
+        {
+            compiled.resolveRHS ();
+        }
+        catch (Exception e) {}
+        ChangeVariable.prepareConnections (compiled);
+
+        index (compiled);
+    }
+
+    /**
+        Finds the inherited documents behind the collated model.
+    **/
+    protected void collectDocuments (MPart part)
+    {
+        MNode doc = part.getOriginal ();
+        while (doc != null  &&  ! (doc instanceof MDoc)) doc = doc.parent ();
+        if (doc != null  &&  ! documents.containsKey (doc)) documents.put (doc, doc.contentHash ());
+        for (MNode c : part) collectDocuments ((MPart) c);
+    }
+
+    protected void index (EquationSet s)
+    {
+        for (EquationSet p : s.parts) index (p);
+
+        class ReferenceVisitor implements Visitor
+        {
+            Variable v;
+            public boolean visit (Operator op)
+            {
+                if (op instanceof AccessVariable)
+                {
+                    AccessVariable av = (AccessVariable) op;
+                    if (av.reference != null) addReference (av.reference, v);
+                    return false;
+                }
+                return true;
+            }
+        }
+        ReferenceVisitor visitor = new ReferenceVisitor ();
+        for (Variable v : s.variables)
+        {
+            visitor.v = v;
+            if (v.reference != null) addReference (v.reference, v);  // The LHS, which can name a variable in another part.
+            if (v.equations == null) continue;
+            for (EquationEntry ee : v.equations)
+            {
+                if (ee.expression != null) ee.expression.visit (visitor);
+                if (ee.condition  != null) ee.condition .visit (visitor);
+            }
+        }
+    }
+
+    protected void addReference (VariableReference r, Variable v)
+    {
+        if (r.variable != null) add (r.variable, v);
+        for (Object o : r.resolution)
+        {
+            add (o, v);
+            if (o instanceof ConnectionBinding) add (((ConnectionBinding) o).variable, v);
+        }
+    }
+
+    protected void add (Object target, Variable v)
+    {
+        List<Variable> list = referrers.get (target);
+        if (list == null)
+        {
+            list = new ArrayList<Variable> ();
+            referrers.put (target, list);
+        }
+        // Each variable is indexed in one pass, so a duplicate can only be the last entry.
+        int last = list.size () - 1;
+        if (last < 0  ||  list.get (last) != v) list.add (v);
+    }
+
+    /**
+        @param target A Variable, EquationSet or ConnectionBinding variable from the compiled model.
+        @return Every variable whose code refers to target, either directly or along its resolution path.
+        The list may include variables inside target itself.
+    **/
+    public List<Variable> referrers (Object target)
+    {
+        List<Variable> result = referrers.get (target);
+        if (result == null) return new ArrayList<Variable> ();
+        return result;
+    }
+}
@@ -16,8 +16,12 @@ import java.io.ByteArrayInputStream;
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Base64;
+import java.util.Collections;
+import java.util.Comparator;
 import java.util.Enumeration;
+import java.util.HashMap;
 import java.util.HashSet;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
@@ -74,6 +78,7 @@ public class NodePart extends NodeContainer
     public    Set<NodePart>               transitConnections;  // connections which pass up through this node to a peer node to begin descent
     protected List<UnsatisfiedConnection> unsatisfiedConnections;
     protected boolean                     connectionTarget;    // Some other part connects to us.
+    protected Set<NodeVariable>           connectionDependents; // Variables whose connection analysis passed through this part or anything below it. May contain stale entries, which are harmless.
     public    GraphNode                   graph;
     public    PanelEquationTree           pet;                 // If non-null, this part is the root of a currently-displayed tree. If null, then no tree operations are necessary.
     protected NodePart                    trueParent;
@@ -299,6 +304,90 @@ public class NodePart extends NodeContainer
         for (Object o : children) if (o instanceof NodePart)     ((NodePart)     o).findConnections ();  // Recurses down to sub-parts, so everything gets examined.
     }
 
+    /**
+        Brings connection analysis up to date after this part has been rebuilt, without examining the whole model.
+        This is equivalent to calling findConnections() on our parent, except that only those variables outside this
+        part whose analysis actually passed through it get examined again. Everything inside this part is examined,
+        since it consists of new nodes.
+    **/
+    public void updateConnections ()
+    {
+        NodePart parent = getTrueParent ();
+        if (parent == null)
+        {
+            findConnections ();
+            return;
+        }
+
+        // Collect dependents, while dropping any that have left the tree.
+        NodeBase root = this;
+        while (root.getTrueParent () != null) root = root.getTrueParent ();
+        for (NodePart p = this; p != null; p = p.getTrueParent ())
+        {
+            if (p.connectionDependents == null) continue;
+            Iterator<NodeVariable> it = p.connectionDependents.iterator ();
+            while (it.hasNext ()) if (rootOf (it.next ()) != root) it.remove ();
+        }
+        List<NodeVariable> outside = new ArrayList<NodeVariable> ();
+        if (connectionDependents != null)
+        {
+            for (NodeVariable v : connectionDependents) if (! isAbove (v)) outside.add (v);
+        }
+
+        findConnections ();
+
+        // Shallow variables first, since deeper ones may tunnel through their bindings. This is the same order as findConnections().
+        final Map<NodeVariable,Integer> depth = new HashMap<NodeVariable,Integer> ();
+        for (NodeVariable v : outside) depth.put (v, v.getLevel ());
+        Collections.sort (outside, new Comparator<NodeVariable> ()
+        {
+            public int compare (NodeVariable a, NodeVariable b)
+            {
+                return depth.get (a) - depth.get (b);
+            }
+        });
+        for (NodeVariable v : outside)
+        {
+            NodePart p = (NodePart) v.getParent ();
+            String key = v.source.key ().trim ();
+            boolean  wasBinding = v.isBinding;
+            NodePart wasTarget  = p.connectionBindings == null ? null : p.connectionBindings.get (key);
+            v.findConnections ();
+            p.unsatisfiedConnections = null;
+            if (p.connectionBindings != null  &&  p.connectionBindings.isEmpty ()) p.connectionBindings = null;  // Same state findConnections() would leave if there are no bindings.
+            NodePart target = p.connectionBindings == null ? null : p.connectionBindings.get (key);
+            if (v.isBinding != wasBinding  ||  target != wasTarget) p.updateSubpartConnections ();
+        }
+    }
+
+    /**
+        Notes that the connection analysis of the given variable passed through this part.
+        The dependency is also recorded on all our ancestors, because a rebuild of any of them replaces this node.
+    **/
+    public void addConnectionDependent (NodeVariable v)
+    {
+        for (NodePart p = this; p != null; p = p.getTrueParent ())
+        {
+            if (p.connectionDependents == null) p.connectionDependents = new HashSet<NodeVariable> ();
+            if (! p.connectionDependents.add (v)) return;  // Already recorded here, so also recorded on all ancestors.
+        }
+    }
+
+    protected static NodeBase rootOf (NodeBase n)
+    {
+        while (n.getTrueParent () != null) n = n.getTrueParent ();
+        return n;
+    }
+
+    /**
+        @return true if n is this node or one of its descendants.
+    **/
+    protected boolean isAbove (NodeBase n)
+    {
+        for (; n != null; n = n.getTrueParent ()) if (n == this) return true;
+        return false;
+    }
+
     /**
         If one of our child variables updates its connection-binding state, then update all child parts as well.
         This locates inner connections that pass through the connection binding.
@@ -331,6 +420,7 @@ public class NodePart extends NodeContainer
     **/
     public NodeBase resolveName (NodeVariable from, NodePart upFrom, String name)
     {
+        addConnectionDependent (from);
         if (name.isEmpty ()) return this;
         String[] pieces = name.split ("\\.", 2);
         String ns = pieces[0];
@@ -992,6 +1082,7 @@ public class NodePart extends NodeContainer
     public PanelEquationTree getTree ()
     {
         if (pet != null) return pet;
+        if (graph != null  &&  graph.ownTree) return graph.getEquationTree ();  // In NODE view, a graph node only builds its tree once something needs it.
         if (parent == null) return null;  // True root, or no tree operations required. If this were instead a fake root that needs tree operations, then pet would be non-null.
         return ((NodeBase) parent).getTree ();
     }
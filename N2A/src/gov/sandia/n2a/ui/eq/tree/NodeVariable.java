@@ -42,6 +42,8 @@ import gov.sandia.n2a.ui.images.ImageUtil;
 import javax.swing.Icon;
 import javax.swing.ImageIcon;
 import javax.swing.JTree;
+import javax.swing.tree.MutableTreeNode;
+import javax.swing.tree.TreeNode;
 import javax.swing.tree.TreePath;
 
 @SuppressWarnings("serial")
@@ -53,6 +55,8 @@ public class NodeVariable extends NodeContainer
 
     public    boolean       isBinding;
     protected List<Integer> highlights;
+    protected String        highlightName = "";  // Most recent name given to findHighlights(), so that equations created later can be marked the same way.
+    public    boolean       contentsBuilt;  // Equations, annotations and references are only created once something asks for our children.
 
     static
     {
@@ -87,17 +91,34 @@ public class NodeVariable extends NodeContainer
     public void build ()
     {
         setUserObject ();
+        contentsBuilt = true;  // so removeAllChildren() doesn't create the old contents just to discard them
         removeAllChildren ();
+        contentsBuilt = false;
 
-        // While building the equation list, we also enforce the one-line rule.
+        // We also enforce the one-line rule here, rather than when the equation list is built.
         // This is because build() may be called as the result of a change in inheritance,
         // which could result in a dangling top-level override of a single equation.
         // We may actually make small changes to the database here, which is not ideal,
         // but should do little harm.
         if (source.isFromTopDocument ()) enforceOneLine (source);
+    }
+
+    /**
+        Creates the equation, annotation and reference nodes under this variable.
+        A large model has far more of these than anything else, and most are never seen,
+        so build() leaves them out. Every method that exposes our children calls this first.
+    **/
+    public void buildContents ()
+    {
+        if (contentsBuilt) return;
+        contentsBuilt = true;
+
         for (MNode n : source)
         {
-            if (n.key ().startsWith ("@")) add (new NodeEquation ((MPart) n));
+            if (! n.key ().startsWith ("@")) continue;
+            NodeEquation e = new NodeEquation ((MPart) n);
+            add (e);
+            if (! highlightName.isEmpty ()) e.findHighlights (highlightName);
         }
 
         MPart metadata = (MPart) source.child ("$metadata");
@@ -116,6 +137,85 @@ public class NodeVariable extends NodeContainer
         {
             for (MNode r : references) add (new NodeReference ((MPart) r));
         }
+
+        super.filter ();
+    }
+
+    @Override
+    public void filter ()
+    {
+        if (contentsBuilt) super.filter ();
+        else               filtered = null;  // Will be filled in by buildContents().
+    }
+
+    @Override
+    public List<Integer> getFiltered ()
+    {
+        buildContents ();
+        return filtered;
+    }
+
+    @Override
+    public int getChildCount ()
+    {
+        buildContents ();
+        return super.getChildCount ();
+    }
+
+    @Override
+    public TreeNode getChildAt (int index)
+    {
+        buildContents ();
+        return super.getChildAt (index);
+    }
+
+    @Override
+    public Enumeration<TreeNode> children ()
+    {
+        buildContents ();
+        return super.children ();
+    }
+
+    @Override
+    public int getIndex (TreeNode child)
+    {
+        buildContents ();
+        return super.getIndex (child);
+    }
+
+    @Override
+    public int getIndexFiltered (TreeNode child)
+    {
+        buildContents ();
+        return super.getIndexFiltered (child);
+    }
+
+    @Override
+    public void insert (MutableTreeNode child, int index)
+    {
+        buildContents ();
+        super.insert (child, index);
+    }
+
+    @Override
+    public void remove (int index)
+    {
+        buildContents ();
+        super.remove (index);
+    }
+
+    @Override
+    public NodeBase child (String key)
+    {
+        buildContents ();
+        return super.child (key);
+    }
+
+    @Override
+    public NodeBase childFiltered (String key)
+    {
+        buildContents ();
+        return super.childFiltered (key);
     }
 
     /**
@@ -186,10 +286,7 @@ public class NodeVariable extends NodeContainer
             if (value.isEmpty ()  ||  value.startsWith ("$kill")) return;  // Must not be revoked.
             if (name.contains ("$")  ||  name.contains ("\\.")  ||  name.endsWith ("'")) return;  // LHS must be a simple identifier.
             if (! NodePart.isIdentifierPath (value)) return;  // RHS must be a valid part name path (not a derivative, no combiner, no expression, no condition).
-            if (children != null)  // Must be single line.
-            {
-                for (Object o : children) if (o instanceof NodeEquation) return;
-            }
+            if (hasEquations ()) return;  // Must be single line.
 
             // Scan for the referent.
             referent = parent.resolveName (this, null, value);
@@ -222,6 +319,7 @@ public class NodeVariable extends NodeContainer
 
     public boolean findHighlights (String name)
     {
+        highlightName = name;
         boolean result = false;
         if (highlights != null)
         {
@@ -291,20 +389,7 @@ public class NodeVariable extends NodeContainer
         Variable.ParsedValue pieces = new Variable.ParsedValue (getValue ());
         result.add ("=" + pieces.combiner);
 
-        boolean hasEquations = false;
-        if (! expanded  &&  children != null)
-        {
-            for (Object o : children)
-            {
-                if (o instanceof NodeEquation)
-                {
-                    hasEquations = true;
-                    break;
-                }
-            }
-        }
-
-        if (hasEquations)  // show special mark when multi-line equation is collapsed
+        if (! expanded  &&  hasEquations ())  // show special mark when multi-line equation is collapsed
         {
             result.add (EquationTreeCellRenderer.leftArrow);
         }
@@ -470,6 +555,11 @@ public class NodeVariable extends NodeContainer
 
     public boolean hasEquations ()
     {
+        if (! contentsBuilt)  // Answer from source, so that rendering a collapsed variable doesn't force its contents into existence.
+        {
+            for (MNode n : source) if (n.key ().startsWith ("@")) return true;
+            return false;
+        }
         if (children != null)
         {
             for (Object o : children) if (o instanceof NodeEquation) return true;
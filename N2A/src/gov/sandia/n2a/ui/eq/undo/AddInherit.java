@@ -43,7 +43,6 @@ public class AddInherit extends UndoableView
     {
         NodePart parent = (NodePart) NodeBase.locateNode (path);
         if (parent == null) throw new CannotUndoException ();
-        NodePart grandparent = (NodePart) parent.getTrueParent ();
 
         NodeBase node = parent.child ("$inherit");
         TreeNode[] nodePath = node.getPath ();
@@ -58,8 +57,7 @@ public class AddInherit extends UndoableView
         MPart mparent = parent.source;
         mparent.clear ("$inherit");  // Complex restructuring happens here.
         parent.build ();  // Handles all cases (complete deletion or exposed hidden node)
-        if (grandparent == null) parent     .findConnections ();
-        else                     grandparent.findConnections ();
+        parent.updateConnections ();
         parent.rebuildPins ();
         parent.filter ();
         if (parent == pe.part)
@@ -96,7 +94,6 @@ public class AddInherit extends UndoableView
     {
         NodePart parent = (NodePart) NodeBase.locateNode (path);
         if (parent == null) throw new CannotRedoException ();
-        NodePart grandparent = (NodePart) parent.getTrueParent ();
 
         PanelEquations pe = PanelModel.instance.panelEquations;
         PanelEquationTree pet = parent.getTree ();
@@ -105,8 +102,7 @@ public class AddInherit extends UndoableView
 
         parent.source.set (value, "$inherit");
         parent.build ();
-        if (grandparent == null) parent     .findConnections ();
-        else                     grandparent.findConnections ();
+        parent.updateConnections ();
         parent.rebuildPins ();
         parent.filter ();
         if (parent == pe.part)
@@ -53,7 +53,6 @@ public class ChangeInherit extends UndoableView
         NodeBase node = NodeBase.locateNode (path);
         if (node == null) throw new CannotRedoException ();
         NodePart parent      = (NodePart) node.getParent ();
-        NodePart grandparent = (NodePart) parent.getTrueParent ();
 
         PanelEquations pe = PanelModel.instance.panelEquations;
         PanelEquationTree pet = node.getTree ();
@@ -63,8 +62,7 @@ public class ChangeInherit extends UndoableView
         node.source.set (value);  // Complex restructuring happens here.
 
         parent.build ();
-        if (grandparent == null) parent     .findConnections ();
-        else                     grandparent.findConnections ();
+        parent.updateConnections ();
         parent.rebuildPins ();
         parent.filter ();
         if (parent == pe.part)
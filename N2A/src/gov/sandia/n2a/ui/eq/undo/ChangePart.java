@@ -34,6 +34,7 @@ import gov.sandia.n2a.ui.eq.PanelEquationTree;
 import gov.sandia.n2a.ui.eq.PanelEquations;
 import gov.sandia.n2a.ui.eq.PanelEquations.FocusCacheEntry;
 import gov.sandia.n2a.ui.eq.PanelModel;
+import gov.sandia.n2a.ui.eq.ReferenceIndex;
 import gov.sandia.n2a.ui.eq.tree.NodeAnnotation;
 import gov.sandia.n2a.ui.eq.tree.NodeBase;
 import gov.sandia.n2a.ui.eq.tree.NodePart;
@@ -90,6 +91,8 @@ public class ChangePart extends UndoableView
         NodeBase temp = parent.child (nameBefore);
         if (! (temp instanceof NodePart)) throw new CannotRedoException ();
         NodePart nodeBefore = (NodePart) temp;
+        PanelEquations pe = PanelModel.instance.panelEquations;
+        ReferenceIndex referenceIndex = ReferenceIndex.take (pe.record);  // Must be taken before the database changes. See ChangeVariable.apply().
 
         // Update the database
         
@@ -104,53 +107,62 @@ public class ChangePart extends UndoableView
         //   See ChangeVariable.apply() for a similar procedure. More detailed comments appear there.
         //   We make use of static functions in that class to do the heavy work of emitting code with name changes.
         //   TODO: This approach will probably fail on parts that contain references to themselves.
-        PanelEquations pe = PanelModel.instance.panelEquations;
         List<List<String>> references = new ArrayList<List<String>> ();
         try
         {
             MPart doc = pe.root.source;
-            EquationSet compiled = new EquationSet (doc);
-            List<String> keypath = new ArrayList<String> (path.subList (1, path.size ()));
-            EquationSet eold;
-            EquationSet enew;
-            if (oldPart == null)
+            EquationSet eold = null;
+            EquationSet enew = null;
+            List<Variable> users = null;
+            if (referenceIndex != null  &&  oldPart == null)
             {
-                EquationSet p = (EquationSet) compiled.getObject (keypath);
-                eold = new EquationSet (p, nameBefore);
-                p.parts.add (eold);
-                keypath.add (nameAfter);
+                users = new ArrayList<Variable> ();
+                eold = useIndex (referenceIndex, users, nameBefore, nameAfter);
+                enew = eold;
             }
-            else
+            if (eold == null)
             {
-                keypath.add (nameBefore);
-                eold = (EquationSet) compiled.getObject (keypath);
-                keypath.set (keypath.size () - 1, nameAfter);
-            }
-            enew = (EquationSet) compiled.getObject (keypath);
+                EquationSet compiled = new EquationSet (doc);
+                List<String> keypath = new ArrayList<String> (path.subList (1, path.size ()));
+                if (oldPart == null)
+                {
+                    EquationSet p = (EquationSet) compiled.getObject (keypath);
+                    eold = new EquationSet (p, nameBefore);
+                    p.parts.add (eold);
+                    keypath.add (nameAfter);
+                }
+                else
+                {
+                    keypath.add (nameBefore);
+                    eold = (EquationSet) compiled.getObject (keypath);
+                    keypath.set (keypath.size () - 1, nameAfter);
+                }
+                enew = (EquationSet) compiled.getObject (keypath);
 
-            try
-            {
-                compiled.resolveConnectionBindings ();
-            }
-            catch (Exception e) {}
-            try
-            {
-                compiled.resolveLHS ();
-                compiled.resolveRHS ();
-            }
-            catch (Exception e) {}
-            ChangeVariable.prepareConnections (compiled);
+                try
+                {
+                    compiled.resolveConnectionBindings ();
+                }
+                catch (Exception e) {}
+                try
+                {
+                    compiled.resolveLHS ();
+                    compiled.resolveRHS ();
+                }
+                catch (Exception e) {}
+                ChangeVariable.prepareConnections (compiled);
 
-            // Collect variables that might have changed.
-            List<Variable> users = collectVariables (compiled, eold);
-            if (eold.dependentConnections != null)
-            {
-                // Each equation set tracks connection bindings which depend on it for their resolution.
-                // The variable associated with such a connection binding could explicitly mention the part name.
-                for (ConnectionBinding cb : eold.dependentConnections) users.add (cb.variable);
-            }
+                // Collect variables that might have changed.
+                users = collectVariables (compiled, eold);
+                if (eold.dependentConnections != null)
+                {
+                    // Each equation set tracks connection bindings which depend on it for their resolution.
+                    // The variable associated with such a connection binding could explicitly mention the part name.
+                    for (ConnectionBinding cb : eold.dependentConnections) users.add (cb.variable);
+                }
 
-            eold.name = enew.name;
+                eold.name = enew.name;
+            }
             for (Variable v : users)
             {
                 List<String> ref = v.getKeyPath ();
@@ -377,6 +389,33 @@ public class ChangePart extends UndoableView
         }
     }
 
+    /**
+        Collects users of the renamed part from a background compile, rather than compiling the model here.
+        The compiled part is renamed in place, so that references to it render with the new name.
+        @return The compiled part, or null if the index can't handle this case.
+        In that case, the caller should compile the model itself.
+    **/
+    public EquationSet useIndex (ReferenceIndex index, List<Variable> users, String nameBefore, String nameAfter)
+    {
+        Object o = index.compiled.getObject (path.subList (1, path.size ()));
+        if (! (o instanceof EquationSet)) return null;
+        EquationSet p = (EquationSet) o;
+        EquationSet eold = p.findPart (nameBefore);
+        if (eold == null  ||  p.findPart (nameAfter) != null  ||  p.find (Variable.fromLHS (nameAfter)) != null) return null;
+
+        users.addAll (index.referrers (eold));
+        if (eold.dependentConnections != null)
+        {
+            for (ConnectionBinding cb : eold.dependentConnections) users.add (cb.variable);
+        }
+
+        // Parts are sorted by name, so re-insert under the new one.
+        p.parts.remove (eold);
+        eold.name = nameAfter;
+        p.parts.add (eold);
+        return eold;
+    }
+
     public List<Variable> collectVariables (EquationSet s, EquationSet renamed)
     {
         List<Variable> result = new ArrayList<Variable> ();
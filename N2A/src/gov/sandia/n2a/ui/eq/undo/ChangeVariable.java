@@ -37,6 +37,7 @@ import gov.sandia.n2a.ui.eq.PanelEquationGraph;
 import gov.sandia.n2a.ui.eq.PanelEquationTree;
 import gov.sandia.n2a.ui.eq.PanelEquations;
 import gov.sandia.n2a.ui.eq.PanelModel;
+import gov.sandia.n2a.ui.eq.ReferenceIndex;
 import gov.sandia.n2a.ui.eq.tree.NodeBase;
 import gov.sandia.n2a.ui.eq.tree.NodePart;
 import gov.sandia.n2a.ui.eq.tree.NodeVariable;
@@ -122,6 +123,11 @@ public class ChangeVariable extends UndoableView
         }
         else
         {
+            // A background compile of the document as it stands before this edit can stand in for a fresh compile below.
+            // Bindings are left to the full procedure, since they change the structure of the model.
+            ReferenceIndex referenceIndex = null;
+            if (! nodeBefore.isBinding) referenceIndex = ReferenceIndex.take (pe.record);
+
             // Update database
 
             //   Move the subtree
@@ -139,72 +145,77 @@ public class ChangeVariable extends UndoableView
                 // "doc" is a collated model, so changes will also be made to references from inherited nodes.
                 // Such changes will be saved as an override.
                 MPart doc = pe.root.source;
-                EquationSet compiled = new EquationSet (doc);  // TODO: this is a potentially lengthy operation. For very large models, need to reduce load on EDT. Either maintain incremental compilation, or compile on separate thread.
-                compiled.name = doc.key ();
-                List<String> vkeypath = new ArrayList<String> (path.subList (1, path.size ()));
-                Variable vold;
-                Variable vnew;
-                if (oldPart == null)
-                {
-                    EquationSet p = (EquationSet) compiled.getObject (vkeypath);
-                    vold = Variable.fromLHS (nameBefore);
-                    vold.equations = new TreeSet<EquationEntry> ();
-                    if (nodeBefore.isBinding) vold.equations.add (new EquationEntry (newPart.get ()));
-                    p.add (vold);
-                    vkeypath.add (Variable.stripContextPrefix (nameAfter));
-                }
-                else
+                List<Variable> users = new ArrayList<Variable> ();
+                Variable vold = null;
+                Variable vnew = null;
+                if (referenceIndex != null  &&  oldPart == null) vold = useIndex (referenceIndex, users, nameBefore, nameAfter);
+                if (vold == null)
                 {
-                    vkeypath.add (Variable.stripContextPrefix (nameBefore));
-                    vold = (Variable) compiled.getObject (vkeypath);
-                    vkeypath.set (vkeypath.size () - 1, nameAfter);
-                }
-                vnew = (Variable) compiled.getObject (vkeypath);
+                    users.clear ();
+                    EquationSet compiled = new EquationSet (doc);
+                    compiled.name = doc.key ();
+                    List<String> vkeypath = new ArrayList<String> (path.subList (1, path.size ()));
+                    if (oldPart == null)
+                    {
+                        EquationSet p = (EquationSet) compiled.getObject (vkeypath);
+                        vold = Variable.fromLHS (nameBefore);
+                        vold.equations = new TreeSet<EquationEntry> ();
+                        if (nodeBefore.isBinding) vold.equations.add (new EquationEntry (newPart.get ()));
+                        p.add (vold);
+                        vkeypath.add (Variable.stripContextPrefix (nameAfter));
+                    }
+                    else
+                    {
+                        vkeypath.add (Variable.stripContextPrefix (nameBefore));
+                        vold = (Variable) compiled.getObject (vkeypath);
+                        vkeypath.set (vkeypath.size () - 1, nameAfter);
+                    }
+                    vnew = (Variable) compiled.getObject (vkeypath);
 
-                try
-                {
-                    // This will throw an AbortRun if any connection is not properly bound.
-                    // However, not every connection binding necessarily leads to this variable.
-                    compiled.resolveConnectionBindings ();
-                }
-                catch (Exception e) {}
-                try
-                {
-                    compiled.resolveLHS ();
-                }
-                catch (Exception e) {}
-                try
-                {
-                    // This will very likely throw an AbortRun exception to report unresolved variables.
-                    // This will do no harm. All we need is that other equations resolve to this variable.
-                    compiled.resolveRHS ();
-                }
-                catch (Exception e) {}
-                prepareConnections (compiled);
+                    try
+                    {
+                        // This will throw an AbortRun if any connection is not properly bound.
+                        // However, not every connection binding necessarily leads to this variable.
+                        compiled.resolveConnectionBindings ();
+                    }
+                    catch (Exception e) {}
+                    try
+                    {
+                        compiled.resolveLHS ();
+                    }
+                    catch (Exception e) {}
+                    try
+                    {
+                        // This will very likely throw an AbortRun exception to report unresolved variables.
+                        // This will do no harm. All we need is that other equations resolve to this variable.
+                        compiled.resolveRHS ();
+                    }
+                    catch (Exception e) {}
+                    prepareConnections (compiled);
 
-                List<Variable> users = new ArrayList<Variable> ();
-                if (vold.usedBy != null)
-                {
-                    for (Object o : vold.usedBy)
+                    if (vold.usedBy != null)
                     {
-                        if (! (o instanceof Variable)) continue;
-                        if ((o == vnew  ||  o == vold)  &&  nameAfter.equals (this.nameBefore)) continue;  // On undo, don't touch savedTree or exposed node. They should return to their exact previous values.
-                        users.add ((Variable) o);
+                        for (Object o : vold.usedBy)
+                        {
+                            if (! (o instanceof Variable)) continue;
+                            if ((o == vnew  ||  o == vold)  &&  nameAfter.equals (this.nameBefore)) continue;  // On undo, don't touch savedTree or exposed node. They should return to their exact previous values.
+                            users.add ((Variable) o);
+                        }
                     }
-                }
-                // A variable depends on other variables which write to it. These appear in its "uses" member.
-                // The write relationship is created by naming the target variable on the LHS of the source variable.
-                // This kind of relationship is not generally reciprocal, so we must check uses as well as usedBy.
-                if (vold.uses != null)
-                {
-                    for (Variable v : vold.uses.keySet ())
+                    // A variable depends on other variables which write to it. These appear in its "uses" member.
+                    // The write relationship is created by naming the target variable on the LHS of the source variable.
+                    // This kind of relationship is not generally reciprocal, so we must check uses as well as usedBy.
+                    if (vold.uses != null)
                     {
-                        if (v.reference.variable == vold) users.add (v);
+                        for (Variable v : vold.uses.keySet ())
+                        {
+                            if (v.reference.variable == vold) users.add (v);
+                        }
                     }
-                }
 
-                vold.name  = vnew.name;
-                vold.order = vnew.order;
+                    vold.name  = vnew.name;
+                    vold.order = vnew.order;
+                }
                 for (Variable v : users)
                 {
                     if (v == vnew  &&  v.equations.size () == 1) continue;  // Don't modify expression on variable line itself. Instead, assume the user edited it exactly as intended.
@@ -371,6 +382,36 @@ public class ChangeVariable extends UndoableView
         }
     }
 
+    /**
+        Collects users of the renamed variable from a background compile, rather than compiling the model here.
+        The compiled variable is renamed in place, so that references to it render with the new name.
+        @return The compiled variable under its old name, or null if the index can't handle this case.
+        In that case, the caller should compile the model itself.
+    **/
+    public Variable useIndex (ReferenceIndex index, List<Variable> users, String nameBefore, String nameAfter)
+    {
+        Object o = index.compiled.getObject (path.subList (1, path.size ()));
+        if (! (o instanceof EquationSet)) return null;
+        EquationSet p = (EquationSet) o;
+        Variable vold  = p.find (Variable.fromLHS (nameBefore));
+        Variable query = Variable.fromLHS (nameAfter);
+        if (vold == null  ||  p.find (query) != null  ||  p.findPart (query.name) != null) return null;
+
+        for (Variable v : index.referrers (vold))
+        {
+            // The compiled equations of the variable itself predate this edit, so we can't rewrite them here.
+            if (v == vold) return null;
+            users.add (v);
+        }
+
+        // Variables are sorted by name, so re-insert under the new one.
+        p.variables.remove (vold);
+        vold.name  = query.name;
+        vold.order = query.order;
+        p.variables.add (vold);
+        return vold;
+    }
+
     /**
         Tags dependencies between connection binding variables.
         Also prepares the variable held in each connection binding so it can be emitted by changeExpression()
@@ -597,6 +638,21 @@ public class ChangeVariable extends UndoableView
         return container.findPart (name) != null;
     }
 
+    /**
+        Absorbs a following change to the value of the same variable, so that a run of such edits keeps only
+        one saved subtree. Renames are not absorbed, because they also rewrite references in other variables.
+    **/
+    public boolean addEdit (UndoableEdit edit)
+    {
+        if (multi  ||  edit.getClass () != ChangeVariable.class) return false;
+        ChangeVariable change = (ChangeVariable) edit;
+        if (change.multi  ||  change.replacePath != null) return false;
+        if (! path.equals (change.path)  ||  ! nameAfter.equals (change.nameBefore)  ||  ! change.nameBefore.equals (change.nameAfter)) return false;
+        if (valueAfter.equals ("$kill")  ||  change.valueAfter.equals ("$kill")) return false;
+        valueAfter = change.valueAfter;
+        return true;
+    }
+
     public boolean replaceEdit (UndoableEdit edit)
     {
         if (edit instanceof AddVariable)
@@ -608,4 +664,9 @@ public class ChangeVariable extends UndoableView
 
         return false;
     }
+
+    protected MNode bulk ()
+    {
+        return savedTree;
+    }
 }
@@ -45,7 +45,6 @@ public class ChangeVariableToInherit extends UndoableView
 
         NodePart parent = (NodePart) NodeBase.locateNode (path);
         if (parent == null) throw new CannotUndoException ();
-        NodePart grandparent = (NodePart) parent.getTrueParent ();
 
         // Update the database
         MPart mparent = parent.source;
@@ -61,8 +60,7 @@ public class ChangeVariableToInherit extends UndoableView
         PanelEquationGraph peg = pe.panelEquationGraph;
 
         parent.build ();
-        if (grandparent == null) parent     .findConnections ();
-        else                     grandparent.findConnections ();
+        parent.updateConnections ();
         parent.rebuildPins ();
         parent.filter ();
         if (parent == pe.part)
@@ -96,7 +94,6 @@ public class ChangeVariableToInherit extends UndoableView
 
         NodePart parent = (NodePart) NodeBase.locateNode (path);
         if (parent == null) throw new CannotRedoException ();
-        NodePart grandparent = (NodePart) parent.getTrueParent ();
 
         // Update database
         MPart mparent = parent.source;
@@ -111,8 +108,7 @@ public class ChangeVariableToInherit extends UndoableView
         PanelEquationGraph peg = pe.panelEquationGraph;
 
         parent.build ();
-        if (grandparent == null) parent     .findConnections ();
-        else                     grandparent.findConnections ();
+        parent.updateConnections ();
         parent.rebuildPins ();
         parent.filter ();
         if (parent == pe.part)
@@ -11,6 +11,7 @@ import java.util.List;
 import javax.swing.undo.UndoableEdit;
 
 import gov.sandia.n2a.db.MDoc;
+import gov.sandia.n2a.db.MNode;
 import gov.sandia.n2a.db.MVolatile;
 import gov.sandia.n2a.ui.Undoable;
 import gov.sandia.n2a.ui.eq.PanelModel;
@@ -64,4 +65,9 @@ public class DeleteDoc extends Undoable
     {
         return neutralized;
     }
+
+    protected MNode bulk ()
+    {
+        return saved;
+    }
 }
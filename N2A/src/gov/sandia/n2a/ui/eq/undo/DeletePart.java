@@ -88,4 +88,9 @@ public class DeletePart extends UndoableView
     {
         return neutralized;
     }
+
+    protected MNode bulk ()
+    {
+        return savedSubtree;
+    }
 }
@@ -10,6 +10,7 @@ import javax.swing.undo.CannotRedoException;
 import javax.swing.undo.CannotUndoException;
 import gov.sandia.n2a.ui.Undoable;
 import gov.sandia.n2a.ui.eq.PanelModel;
+import gov.sandia.n2a.ui.eq.ReferenceIndex;
 import gov.sandia.n2a.ui.eq.tree.NodeBase;
 import gov.sandia.n2a.ui.eq.PanelEquations.StoredView;
 
@@ -46,11 +47,13 @@ public class UndoableView extends Undoable
     {
         super.undo ();
         if (view != null) view.restore ();
+        ReferenceIndex.schedule ();
     }
 
     public void redo () throws CannotRedoException
     {
         super.redo ();
         if (view != null) view.restore ();
+        ReferenceIndex.schedule ();  // Subclasses apply their change after this returns, but the compile is delayed well past that.
     }
 }
@@ -0,0 +1,207 @@
+/*
+Copyright 2021 National Technology & Engineering Solutions of Sandia, LLC (NTESS).
+Under the terms of Contract DE-NA0003525 with NTESS,
+the U.S. Government retains certain rights in this software.
+*/
+
+package gov.sandia.n2a.ui.jobs;
+
+import java.awt.geom.Rectangle2D;
+import java.io.BufferedWriter;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.jfree.chart.ChartUtils;
+import org.jfree.chart.JFreeChart;
+import org.jfree.chart.plot.XYPlot;
+import org.jfree.chart.title.LegendTitle;
+import org.jfree.data.Range;
+import org.jfree.graphics2d.svg.SVGGraphics2D;
+
+import gov.sandia.n2a.db.MNode;
+
+/**
+    Renders the output of many jobs to image files, without a display. Invoked from the command line by
+    giving one or more -render=path arguments. See Main. Each path can be a job directory, a directory
+    that contains job directories (such as the jobs directory itself), or a specific output file.
+
+    Charts are built by the same classes as the Run tab, so they look the same as what the user would
+    see there. Jobs are rendered in parallel.
+
+    The chart spec is an MNode, assembled from key=value arguments and/or a -param file. Keys:
+    <dl>
+    <dt>file</dt><dd>Name of the output file in each job directory. Default is "out".</dd>
+    <dt>chart</dt><dd>"Graph" or "Raster". Default is "Graph".</dd>
+    <dt>format</dt><dd>"png" or "svg". Default is "png".</dd>
+    <dt>width, height</dt><dd>Size of image in pixels. Default is 800 by 600.</dd>
+    <dt>xmin, xmax, ymin, ymax</dt><dd>Fixed bounds for the axes. Each one is optional.</dd>
+    <dt>title</dt><dd>Text for the top of each chart. "$job" is replaced by the name of the job directory.</dd>
+    <dt>legend</dt><dd>0 to hide the legend on a Graph. By default, the legend follows the Run tab.</dd>
+    <dt>output</dt><dd>Directory to receive all images, named after the job. By default, each image goes next to its output file.</dd>
+    <dt>threads</dt><dd>Number of jobs to render at the same time. Default is the number of processors.</dd>
+    </dl>
+**/
+public class BatchRender
+{
+    /**
+        @return true if every job rendered successfully.
+    **/
+    public static boolean render (List<Path> paths, final MNode spec)
+    {
+        String fileName = spec.getOrDefault ("out", "file");
+        List<Path> files = new ArrayList<Path> ();
+        for (Path p : paths)
+        {
+            if (! Files.isDirectory (p))
+            {
+                if (Files.exists (p)) files.add (p);
+                else                  System.err.println ("Not found: " + p);
+                continue;
+            }
+            Path f = p.resolve (fileName);
+            if (Files.exists (f))  // A single job directory
+            {
+                files.add (f);
+                continue;
+            }
+            try (DirectoryStream<Path> stream = Files.newDirectoryStream (p))  // A directory of jobs
+            {
+                List<Path> jobs = new ArrayList<Path> ();
+                for (Path d : stream)
+                {
+                    Path g = d.resolve (fileName);
+                    if (Files.exists (g)) jobs.add (g);
+                }
+                Collections.sort (jobs);
+                files.addAll (jobs);
+            }
+            catch (Exception e)
+            {
+                System.err.println ("Can't list " + p);
+            }
+        }
+        if (files.isEmpty ())
+        {
+            System.err.println ("Nothing to render.");
+            return false;
+        }
+
+        int threads = spec.getOrDefault (Runtime.getRuntime ().availableProcessors (), "threads");
+        ExecutorService pool = Executors.newFixedThreadPool (Math.max (1, Math.min (threads, files.size ())));
+        boolean result = true;
+        try
+        {
+            List<Future<Boolean>> futures = new ArrayList<Future<Boolean>> ();
+            for (final Path f : files)
+            {
+                futures.add (pool.submit (new Callable<Boolean> ()
+                {
+                    public Boolean call () throws Exception
+                    {
+                        return render (f, spec);
+                    }
+                }));
+            }
+            for (Future<Boolean> future : futures)
+            {
+                try
+                {
+                    if (! future.get ()) result = false;
+                }
+                catch (Exception e)
+                {
+                    result = false;
+                }
+            }
+        }
+        finally
+        {
+            pool.shutdown ();
+        }
+        return result;
+    }
+
+    /**
+        Renders a single output file according to spec.
+        @return true if an image was written.
+    **/
+    public static boolean render (Path file, MNode spec)
+    {
+        String jobName = file.toAbsolutePath ().getParent ().getFileName ().toString ();
+        String chartType = spec.getOrDefault ("Graph", "chart");
+        String format    = spec.getOrDefault ("png",   "format").toLowerCase ();
+        int    width     = spec.getOrDefault (800,     "width");
+        int    height    = spec.getOrDefault (600,     "height");
+
+        Path image;
+        String output = spec.get ("output");
+        if (output.isEmpty ()) image = file.resolveSibling (file.getFileName () + "." + format);
+        else                   image = file.getFileSystem ().getPath (output).resolve (jobName + "." + format);
+
+        try
+        {
+            OutputParser parser;
+            if (chartType.equalsIgnoreCase ("Raster")) parser = new Raster (file);
+            else                                       parser = new Plot   (file);
+            if (! parser.hasData ())
+            {
+                System.err.println ("No data: " + file);
+                return false;
+            }
+            JFreeChart chart = parser.createChart ();
+            configure (chart, spec, jobName);
+
+            Files.createDirectories (image.toAbsolutePath ().getParent ());
+            if (format.equals ("svg"))
+            {
+                try (BufferedWriter writer = Files.newBufferedWriter (image))
+                {
+                    SVGGraphics2D g2 = new SVGGraphics2D (width, height);
+                    g2.setRenderingHint (JFreeChart.KEY_SUPPRESS_SHADOW_GENERATION, true);
+                    chart.draw (g2, new Rectangle2D.Double (0, 0, width, height));
+                    writer.write (g2.getSVGDocument ());
+                }
+            }
+            else
+            {
+                ChartUtils.saveChartAsPNG (image.toFile (), chart, width, height);
+            }
+            System.out.println (image);
+            return true;
+        }
+        catch (Exception e)
+        {
+            System.err.println ("Failed to render " + file);
+            e.printStackTrace ();
+            return false;
+        }
+    }
+
+    public static void configure (JFreeChart chart, MNode spec, String jobName)
+    {
+        String title = spec.get ("title");
+        if (! title.isEmpty ()) chart.setTitle (title.replace ("$job", jobName));
+
+        LegendTitle legend = chart.getLegend ();
+        if (legend != null  &&  spec.child ("legend") != null) legend.setVisible (spec.getFlag ("legend"));
+
+        if (! (chart.getPlot () instanceof XYPlot)) return;
+        XYPlot plot = (XYPlot) chart.getPlot ();
+        Range x = plot.getDomainAxis ().getRange ();
+        Range y = plot.getRangeAxis  ().getRange ();
+        double xmin = spec.getOrDefault (x.getLowerBound (), "xmin");
+        double xmax = spec.getOrDefault (x.getUpperBound (), "xmax");
+        double ymin = spec.getOrDefault (y.getLowerBound (), "ymin");
+        double ymax = spec.getOrDefault (y.getUpperBound (), "ymax");
+        if (spec.child ("xmin") != null  ||  spec.child ("xmax") != null) plot.getDomainAxis ().setRange (xmin, xmax);
+        if (spec.child ("ymin") != null  ||  spec.child ("ymax") != null) plot.getRangeAxis  ().setRange (ymin, ymax);
+    }
+}
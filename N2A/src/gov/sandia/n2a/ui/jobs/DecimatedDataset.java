@@ -0,0 +1,380 @@
+/*
+Copyright 2021 National Technology & Engineering Solutions of Sandia, LLC (NTESS).
+Under the terms of Contract DE-NA0003525 with NTESS,
+the U.S. Government retains certain rights in this software.
+*/
+
+package gov.sandia.n2a.ui.jobs;
+
+import java.awt.Graphics2D;
+import java.awt.geom.Rectangle2D;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+
+import org.jfree.chart.JFreeChart;
+import org.jfree.chart.plot.PlotRenderingInfo;
+import org.jfree.chart.plot.XYPlot;
+import org.jfree.chart.renderer.xy.XYItemRendererState;
+import org.jfree.chart.renderer.xy.XYLineAndShapeRenderer;
+import org.jfree.data.DomainInfo;
+import org.jfree.data.DomainOrder;
+import org.jfree.data.Range;
+import org.jfree.data.RangeInfo;
+import org.jfree.data.xy.AbstractXYDataset;
+import org.jfree.data.xy.XYDataset;
+
+import gov.sandia.n2a.ui.jobs.OutputParser.Column;
+
+/**
+    Presents output columns to JFreeChart directly from their primitive storage, without copying them into XYSeries.
+    Before each draw, the series are reduced to at most four points per horizontal pixel of the visible domain
+    (first, min, max and last, also known as M4 decimation). The resulting line is indistinguishable from one
+    drawn through every sample, but drawing time depends on the width of the chart rather than the length of the trace.
+    Zooming in recomputes the reduction for the new domain, so detail appears as it becomes visible.
+
+    Decimation is kept per thread, because PanelChart may abandon a draw in progress and start another.
+    Rows appended to the columns by a running job are ignored until extend() is called, so the parser
+    can keep reading while a draw is in progress.
+**/
+@SuppressWarnings("serial")
+public class DecimatedDataset extends AbstractXYDataset implements DomainInfo, RangeInfo
+{
+    protected Column       time;
+    protected List<Column> columns;
+    protected int[][]      order;   // For each series, positions in time order mapped to rows. Null entry if rows are already in time order, which is the usual case.
+    protected int[]        counts;  // For each series, the number of rows published to the chart.
+    protected Range        domain;
+    protected Range        range;
+    protected int          rowCount;
+
+    protected ThreadLocal<int[][]> visible = new ThreadLocal<int[][]> ();  // For each series, the positions to draw. Null on a thread that has not decimated, in which case all positions are used.
+
+    public static ThreadLocal<Boolean> preview          = new ThreadLocal<Boolean> ();  // When true, the current thread is drawing a quick first pass.
+    public static int                  previewDivisor   = 8;       // Preview uses this many times fewer buckets than pixels.
+    public static int                  previewThreshold = 100000;  // Total number of rows before PanelChart bothers with a preview pass.
+
+    public DecimatedDataset (Column time, List<Column> columns)
+    {
+        this.time    = time;
+        this.columns = columns;
+
+        int count = columns.size ();
+        order  = new int[count][];
+        counts = new int[count];
+        scan ();
+    }
+
+    /**
+        Publishes any rows added to the columns since the last scan, and notifies the chart.
+        Must be called on the EDT.
+    **/
+    public void extend ()
+    {
+        scan ();
+        fireDatasetChanged ();
+    }
+
+    /**
+        Updates bounds and time order to cover all rows currently in the columns.
+    **/
+    protected void scan ()
+    {
+        double xmin = domain == null ? Double.POSITIVE_INFINITY : domain.getLowerBound ();
+        double xmax = domain == null ? Double.NEGATIVE_INFINITY : domain.getUpperBound ();
+        double ymin = range  == null ? Double.POSITIVE_INFINITY : range .getLowerBound ();
+        double ymax = range  == null ? Double.NEGATIVE_INFINITY : range .getUpperBound ();
+        int count = columns.size ();
+        for (int s = 0; s < count; s++)
+        {
+            Column c = columns.get (s);
+            int from = counts[s];
+            int n    = c.values.size ();
+            if (n <= from) continue;
+            rowCount += n - from;
+
+            boolean sorted = order[s] == null;
+            float last = from > 0 ? time.values.getFloat (from - 1 + c.startRow) : Float.NEGATIVE_INFINITY;
+            for (int r = from; r < n; r++)
+            {
+                float x = time.values.getFloat (r + c.startRow);
+                if (x < last) sorted = false;
+                last = x;
+                xmin = Math.min (xmin, x);
+                xmax = Math.max (xmax, x);
+                double y = y (c, r);
+                ymin = Math.min (ymin, y);
+                ymax = Math.max (ymax, y);
+            }
+            if (! sorted) order[s] = sortByTime (c, n);
+            counts[s] = n;
+        }
+        if (xmin <= xmax) domain = new Range (xmin, xmax);
+        if (ymin <= ymax) range  = new Range (ymin, ymax);
+    }
+
+    /**
+        XYSeries keeps its points sorted by x, so do the same for the rare column whose time is not monotonic.
+    **/
+    protected int[] sortByTime (final Column c, int n)
+    {
+        Integer[] rows = new Integer[n];
+        for (int r = 0; r < n; r++) rows[r] = r;
+        Arrays.sort (rows, new Comparator<Integer> ()
+        {
+            public int compare (Integer a, Integer b)
+            {
+                return Float.compare (time.values.getFloat (a + c.startRow), time.values.getFloat (b + c.startRow));
+            }
+        });
+        int[] result = new int[n];
+        for (int r = 0; r < n; r++) result[r] = rows[r];
+        return result;
+    }
+
+    protected static double y (Column c, int row)
+    {
+        float value = c.values.getFloat (row);
+        if (Float.isInfinite (value)  ||  Float.isNaN (value)) return 0;  // JFreeChart chokes on infinity (how to determine a vertical scale for that?)
+        return value;
+    }
+
+    protected int row (int series, int position)
+    {
+        int[] o = order[series];
+        if (o == null) return position;
+        return o[position];
+    }
+
+    protected double x (int series, int position)
+    {
+        return time.values.getFloat (row (series, position) + columns.get (series).startRow);
+    }
+
+    /**
+        @return The first position whose time is not less than (or if after is true, not less than or equal to) the given value.
+    **/
+    protected int search (int series, double value, boolean after)
+    {
+        int lo = 0;
+        int hi = counts[series];
+        while (lo < hi)
+        {
+            int mid = (lo + hi) >>> 1;
+            double x = x (series, mid);
+            if (x < value  ||  after  &&  x == value) lo = mid + 1;
+            else                                     hi = mid;
+        }
+        return lo;
+    }
+
+    /**
+        Selects the positions to draw for the given domain and width, for use by the current thread.
+    **/
+    public void decimate (double xlow, double xhigh, int buckets)
+    {
+        int count = columns.size ();
+        int[][] result = new int[count][];
+        for (int s = 0; s < count; s++) result[s] = decimate (s, xlow, xhigh, Math.max (1, buckets));
+        visible.set (result);
+    }
+
+    protected int[] decimate (int series, double xlow, double xhigh, int buckets)
+    {
+        Column c = columns.get (series);
+        int n = counts[series];
+        if (n == 0) return new int[0];
+
+        // Include one point beyond each edge, so lines reach the sides of the chart.
+        int first = Math.max (0,     search (series, xlow,  false) - 1);
+        int last  = Math.min (n - 1, search (series, xhigh, true));
+        if (last < first) return new int[0];
+
+        int[] result;
+        int size = 0;
+        if (last - first + 1 <= 4 * buckets  ||  xhigh <= xlow)
+        {
+            result = new int[last - first + 1];
+            for (int p = first; p <= last; p++) result[size++] = p;
+            return result;
+        }
+
+        result = new int[4 * buckets + 6];  // The +6 covers the edge points and the last bucket, which clamping can make slightly wider.
+        result[size++] = first;
+        double scale = buckets / (xhigh - xlow);
+        int bucket   = -1;
+        int bFirst   = 0;
+        int bLast    = 0;
+        int bMin     = 0;
+        int bMax     = 0;
+        double yMin  = 0;
+        double yMax  = 0;
+        int[] sort   = new int[4];
+        for (int p = first + 1; p < last; p++)
+        {
+            int b = (int) ((x (series, p) - xlow) * scale);
+            b = Math.max (0, Math.min (buckets - 1, b));
+            double y = y (c, row (series, p));
+            if (b != bucket)
+            {
+                if (bucket >= 0) size = emit (result, size, sort, bFirst, bMin, bMax, bLast);
+                bucket = b;
+                bFirst = p;
+                bMin   = p;
+                bMax   = p;
+                yMin   = y;
+                yMax   = y;
+            }
+            else if (y < yMin)
+            {
+                bMin = p;
+                yMin = y;
+            }
+            else if (y > yMax)
+            {
+                bMax = p;
+                yMax = y;
+            }
+            bLast = p;
+        }
+        if (bucket >= 0) size = emit (result, size, sort, bFirst, bMin, bMax, bLast);
+        result[size++] = last;
+        return Arrays.copyOf (result, size);
+    }
+
+    /**
+        Appends the four extreme positions of a bucket in time order, skipping duplicates.
+    **/
+    protected static int emit (int[] result, int size, int[] sort, int a, int b, int c, int d)
+    {
+        sort[0] = a;
+        sort[1] = b;
+        sort[2] = c;
+        sort[3] = d;
+        Arrays.sort (sort);
+        for (int p : sort)
+        {
+            if (result[size - 1] != p) result[size++] = p;
+        }
+        return size;
+    }
+
+    protected int position (int series, int item)
+    {
+        int[][] v = visible.get ();
+        if (v == null) return item;
+        return v[series][item];
+    }
+
+    public int getSeriesCount ()
+    {
+        return columns.size ();
+    }
+
+    @SuppressWarnings("rawtypes")
+    public Comparable getSeriesKey (int series)
+    {
+        return columns.get (series).header;
+    }
+
+    public DomainOrder getDomainOrder ()
+    {
+        return DomainOrder.ASCENDING;
+    }
+
+    public int getItemCount (int series)
+    {
+        int[][] v = visible.get ();
+        if (v == null) return counts[series];
+        return v[series].length;
+    }
+
+    public double getXValue (int series, int item)
+    {
+        return x (series, position (series, item));
+    }
+
+    public double getYValue (int series, int item)
+    {
+        return y (columns.get (series), row (series, position (series, item)));
+    }
+
+    public Number getX (int series, int item)
+    {
+        return getXValue (series, item);
+    }
+
+    public Number getY (int series, int item)
+    {
+        return getYValue (series, item);
+    }
+
+    public double getDomainLowerBound (boolean includeInterval)
+    {
+        if (domain == null) return Double.NaN;
+        return domain.getLowerBound ();
+    }
+
+    public double getDomainUpperBound (boolean includeInterval)
+    {
+        if (domain == null) return Double.NaN;
+        return domain.getUpperBound ();
+    }
+
+    public Range getDomainBounds (boolean includeInterval)
+    {
+        return domain;
+    }
+
+    public double getRangeLowerBound (boolean includeInterval)
+    {
+        if (range == null) return Double.NaN;
+        return range.getLowerBound ();
+    }
+
+    public double getRangeUpperBound (boolean includeInterval)
+    {
+        if (range == null) return Double.NaN;
+        return range.getUpperBound ();
+    }
+
+    public Range getRangeBounds (boolean includeInterval)
+    {
+        return range;
+    }
+
+    /**
+        Determines whether a chart holds enough data to be worth drawing in two passes.
+    **/
+    public static boolean isLarge (JFreeChart chart)
+    {
+        if (chart == null  ||  ! (chart.getPlot () instanceof XYPlot)) return false;
+        XYPlot plot = (XYPlot) chart.getPlot ();
+        long total = 0;
+        for (int i = 0; i < plot.getDatasetCount (); i++)
+        {
+            XYDataset d = plot.getDataset (i);
+            if (d instanceof DecimatedDataset) total += ((DecimatedDataset) d).rowCount;
+        }
+        return total > previewThreshold;
+    }
+
+    /**
+        Line renderer that reduces a DecimatedDataset to fit the visible domain before drawing it.
+    **/
+    @SuppressWarnings("serial")
+    public static class Renderer extends XYLineAndShapeRenderer
+    {
+        public XYItemRendererState initialise (Graphics2D g2, Rectangle2D dataArea, XYPlot plot, XYDataset data, PlotRenderingInfo info)
+        {
+            if (data instanceof DecimatedDataset)
+            {
+                Range r = plot.getDomainAxis ().getRange ();
+                int buckets = (int) Math.ceil (dataArea.getWidth ());
+                if (Boolean.TRUE.equals (preview.get ())) buckets /= previewDivisor;
+                ((DecimatedDataset) data).decimate (r.getLowerBound (), r.getUpperBound (), buckets);
+            }
+            return super.initialise (g2, dataArea, plot, data, info);
+        }
+    }
+}
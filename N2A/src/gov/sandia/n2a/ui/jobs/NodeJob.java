@@ -48,6 +48,8 @@ public class NodeJob extends NodeBase
     public static final ImageIcon iconLingering = ImageUtil.getImage ("lingering.png");
     public static final ImageIcon iconStopped   = ImageUtil.getImage ("stop.gif");
 
+    public static long remoteFallbackPeriod = 30000;  // Milliseconds between checks for the "finished" file on a remote host that is pushing completion events.
+
     protected static List<String> imageFileSuffixes = Arrays.asList (ImageIO.getReaderFileSuffixes ());  // We don't expect to load image handling plugins after startup, so one-time initialization is fine.
 
     protected String  key;
@@ -58,6 +60,7 @@ public class NodeJob extends NodeBase
     protected double  expectedSimTime = 0;  // If greater than 0, then we can use this to estimate percent complete.
     protected long    lastMonitored   = 0;
     protected long    lastActive      = 0;
+    protected long    lastRemoteCheck = 0;
     protected long    lastDisplay     = 0;
     public    boolean deleted;
     public    boolean old;                  // Indicates that the associated job existed before the current invocation of this app started. Used to limit which hosts are automatically enabled.
@@ -75,6 +78,29 @@ public class NodeJob extends NodeBase
         }
     }
 
+    /**
+        Restores a job from its summary in the runs index, without opening any of the job's files.
+        If the summary is null, then the job is unknown to the index, and this is equivalent to
+        constructing from a pre-existing source.
+    **/
+    public NodeJob (String key, MNode summary)
+    {
+        this.key = key;
+        old = true;
+        if (summary == null)
+        {
+            setUserObject (key);
+            return;
+        }
+        inherit  = summary.get ("inherit");
+        complete = (float) summary.getOrDefault (-1.0, "complete");
+        long started  = summary.getLong ("started");
+        long finished = summary.getLong ("finished");
+        if (started  > 0) dateStarted  = new Date (started);
+        if (finished > 0) dateFinished = new Date (finished);
+        setUserObject (inherit.isEmpty () ? key : inherit);
+    }
+
     @Override
     public boolean isLeaf ()
     {
@@ -92,11 +118,39 @@ public class NodeJob extends NodeBase
         return iconUnknown;
     }
 
+    public String getKey ()
+    {
+        return key;
+    }
+
     public MNode getSource ()
     {
         return AppData.runs.child (key);
     }
 
+    /**
+        Indicates that this job has reached a state it will never leave, so its summary in the
+        runs index can be trusted without checking files on disk.
+    **/
+    public synchronized boolean isFinal ()
+    {
+        return complete >= 1  &&  complete != 3;
+    }
+
+    /**
+        Records a summary of this job in the runs index, so the next session can show it without loading the job itself.
+    **/
+    public synchronized void index (MNode source)
+    {
+        MNode summary = AppData.runsIndex.childOrCreate (key);
+        summary.set (inherit,                              "inherit");
+        summary.set (source.get ("$metadata", "host"),    "host");
+        summary.set (source.get ("$metadata", "backend"), "backend");
+        summary.set (complete,                             "complete");
+        summary.set (dateStarted  == null ? null : dateStarted .getTime (), "started");
+        summary.set (dateFinished == null ? null : dateFinished.getTime (), "finished");
+    }
+
     /**
         @return Path to the source file (not the containing directory).
     **/
@@ -120,6 +174,9 @@ public class NodeJob extends NodeBase
         Path localJobDir = Host.getJobDir (Host.getLocalResourceDir (), source);
         Path finished = localJobDir.resolve ("finished");
         if (Files.exists (finished)) checkFinished (finished);
+        Path started = localJobDir.resolve ("started");
+        if (dateStarted == null  &&  Files.exists (started)) dateStarted = new Date (Host.lastModified (started));
+        index (source);
 
         EventQueue.invokeLater (new Runnable ()
         {
@@ -130,7 +187,6 @@ public class NodeJob extends NodeBase
             }
         });
 
-        Path started = localJobDir.resolve ("started");
         if (Files.exists (started))
         {
             Host env = Host.get (source);
@@ -166,6 +222,25 @@ public class NodeJob extends NodeBase
         }
     }
 
+    /**
+        Called by the host's monitor thread when the job reports that it has ended.
+        For a remote job, this saves fetching the "finished" file, since the event carries the same information.
+    **/
+    public void notifyFinished (String status)
+    {
+        if (deleted) return;
+        MNode source = getSource ();
+        if (source == null) return;
+        Path finished = Host.getJobDir (Host.getLocalResourceDir (), source).resolve ("finished");
+        if (! Files.exists (finished))
+        {
+            try {Files.copy (new ByteArrayInputStream (status.getBytes ("UTF-8")), finished);}
+            catch (IOException e) {}
+        }
+        synchronized (this) {lastMonitored = 0;}  // Skip throttling.
+        monitorProgress ();
+    }
+
     public synchronized void monitorProgress ()
     {
         if (deleted) return;
@@ -187,9 +262,11 @@ public class NodeJob extends NodeBase
         Path localJobDir = Host.getJobDir (Host.getLocalResourceDir (), source);
         // If job is remote, attempt to grab its state files.
         // TODO: handle remote jobs waiting in queue. Plan is to update "started" file with queue status.
+        // When the host pushes completion events, fetching the file is only a fallback, so do it rarely.
         Path finished = localJobDir.resolve ("finished");
-        if (! Files.exists (finished)  &&  env instanceof Remote)
+        if (! Files.exists (finished)  &&  env instanceof Remote  &&  (! env.eventsLive ()  ||  lastMonitored - lastRemoteCheck > remoteFallbackPeriod))
         {
+            lastRemoteCheck = lastMonitored;
             @SuppressWarnings("resource")
             Remote remote = (Remote) env;
             if (remote.isConnected ()  ||  remote.isEnabled ())
@@ -274,6 +351,7 @@ public class NodeJob extends NodeBase
         PanelStudy panelStudy = PanelStudy.instance;
         if (complete != oldComplete)
         {
+            index (source);
             EventQueue.invokeLater (new Runnable ()
             {
                 public void run ()
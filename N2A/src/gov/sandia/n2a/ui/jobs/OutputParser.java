@@ -9,17 +9,28 @@ package gov.sandia.n2a.ui.jobs;
 import java.awt.Color;
 import java.io.BufferedReader;
 import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.ByteBuffer;
+import java.nio.channels.SeekableByteChannel;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.util.AbstractList;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Comparator;
 import java.util.List;
+import java.util.RandomAccess;
 
 import gov.sandia.n2a.db.MDoc;
 import gov.sandia.n2a.db.MNode;
+import gov.sandia.n2a.execenvs.Host.AnyProcess;
+import gov.sandia.n2a.execenvs.RemoteView;
 import gov.sandia.n2a.language.UnitValue;
 import tech.units.indriya.AbstractUnit;
 
+import org.jfree.chart.JFreeChart;
+
 public class OutputParser
 {
     public List<Column> columns = new ArrayList<Column> ();
@@ -32,6 +43,13 @@ public class OutputParser
     public double       xmax;  // Note that "x" is always time.
     public double       ymin;
     public double       ymax;
+    public RemoteView   view;        // If data came from a reduced view of a remote file, this is the view used.
+    public Path         columnPath;  // Auxiliary file that describes columns. Retained so the same description can be applied to a new view.
+    public Path         path;        // Local file that was parsed, if any. Retained so rows appended by a running job can be read. See update().
+    public long         offset;      // Number of bytes of path consumed so far. Always at the end of a line. -1 if the file can't be followed.
+
+    protected int       row;       // Number of data rows parsed so far.
+    protected boolean   reshaped;  // Indicates that the most recent line added columns or changed headers.
 
     public void parse (Path f)
     {
@@ -40,6 +58,94 @@ public class OutputParser
 
     public void parse (Path f, float defaultValue)
     {
+        start (f.resolveSibling (f.getFileName ().toString () + ".columns"), defaultValue);
+        path   = f;
+        offset = 0;
+        try (SeekableByteChannel channel = Files.newByteChannel (f))
+        {
+            read (channel, true);
+        }
+        catch (IOException e)
+        {
+        }
+        finish ();
+    }
+
+    /**
+        Reads any rows appended to the file since it was last parsed, typically because the job is still running.
+        Only complete lines are consumed, so a row is never split between two calls.
+        Subclasses extend this to prepare the new rows for display. Safe to call on any thread, but the new rows
+        should not be handed to a chart until refresh() is called on the EDT.
+        @return Number of rows added. -1 if the file can't be followed incrementally, for example because
+        new columns appeared. In that case, the caller should parse the file again from scratch.
+    **/
+    public synchronized int update ()
+    {
+        if (path == null  ||  offset < 0) return -1;
+        int rowsBefore = row;
+        reshaped = false;
+        try (SeekableByteChannel channel = Files.newByteChannel (path))
+        {
+            if (channel.size () < offset) return -1;  // File was truncated or replaced.
+            read (channel, false);
+        }
+        catch (Exception e)  // Including a badly-formed number, which would also fail a full parse.
+        {
+            return -1;
+        }
+        if (reshaped) return -1;
+        return row - rowsBefore;
+    }
+
+    /**
+        Publishes rows added by update() to the chart produced by createChart(). Called on the EDT.
+        The chart may be drawing on another thread, so subclasses that support following a file
+        must arrange their datasets to only show rows published this way.
+    **/
+    public void refresh ()
+    {
+    }
+
+    /**
+        Reads a reduced version of a remote output file. See RemoteView.
+        @param columnPath Local copy of the auxiliary columns file, if any.
+    **/
+    public void parse (RemoteView view, Path columnPath)
+    {
+        this.view = view;
+        try (AnyProcess proc = view.start ();
+             BufferedReader br = new BufferedReader (new InputStreamReader (proc.getInputStream (), StandardCharsets.UTF_8)))
+        {
+            parse (br, columnPath, 0.0f);
+        }
+        catch (Exception e)
+        {
+            System.err.println ("Failed to fetch reduced view of " + view.file);
+            e.printStackTrace ();
+        }
+    }
+
+    public void parse (BufferedReader br, Path columnPath, float defaultValue)
+    {
+        start (columnPath, defaultValue);
+        try
+        {
+            while (true)
+            {
+                String line = br.readLine ();
+                if (line == null) break;  // indicates end of stream
+                parseLine (line);
+            }
+        }
+        catch (IOException e)
+        {
+		}
+        finish ();
+    }
+
+    protected void start (Path columnPath, float defaultValue)
+    {
+        this.columnPath   = columnPath;
         columns           = new ArrayList<Column> ();
         raw               = true;  // Will be negated if any non-empty column name is found.
         isXycePRN         = false;
@@ -49,58 +155,97 @@ public class OutputParser
         xmax              = Double.POSITIVE_INFINITY;
         ymin              = Double.NaN;
         ymax              = Double.NaN;
+        path              = null;
+        offset            = -1;
+        row               = 0;
+    }
 
-        try (BufferedReader br = Files.newBufferedReader (f))
+    /**
+        Parses lines from the current offset to the end of the file.
+        @param initial Indicates that this is the first pass over the file. In that case, a final line
+        that lacks its newline is parsed as well, but the file can't be followed after that point.
+    **/
+    protected void read (SeekableByteChannel channel, boolean initial) throws IOException
+    {
+        channel.position (offset);
+        ByteBuffer buffer = ByteBuffer.allocate (0x10000);
+        byte[]     line   = new byte[256];
+        int        length = 0;
+        while (channel.read (buffer) > 0)
         {
-            int row = 0;
-            while (true)
+            byte[] a = buffer.array ();
+            int    n = buffer.position ();
+            for (int i = 0; i < n; i++)
             {
-                String line = br.readLine ();
-                if (line == null) break;  // indicates end of stream
-            	if (line.length () == 0) continue;
-            	if (line.startsWith ("End of")) continue;
-
-                String[] parts = line.split ("\\s");
-                int lastSize = columns.size ();
-                while (columns.size () < parts.length)
+                byte b = a[i];
+                if (b == '\n')
                 {
-                	Column c = new Column ();
-                	c.startRow = row;
-                	columns.add (c);
+                    int end = length;
+                    if (end > 0  &&  line[end-1] == '\r') end--;
+                    parseLine (new String (line, 0, end, StandardCharsets.UTF_8));
+                    offset += length + 1;
+                    length = 0;
+                    continue;
                 }
+                if (length == line.length) line = Arrays.copyOf (line, length * 2);
+                line[length++] = b;
+            }
+            buffer.clear ();
+        }
+        if (length > 0  &&  initial)
+        {
+            parseLine (new String (line, 0, length, StandardCharsets.UTF_8));
+            offset = -1;
+        }
+    }
 
-                char fc = parts[0].charAt (0);  // first character
-                if (fc == '-'  ||  fc == '+'  ||  fc == '.'  ||  fc >= '0'  &&  fc <= '9')  // number
-                {
-                    int p = isXycePRN ? 1 : 0;  // skip parsing Index column, since we don't use it
-                    for (; p < parts.length; p++)
-                    {
-                        Column c = columns.get (p);
-                        float value = defaultValue;
-                        if (! parts[p].isEmpty ())
-                        {
-                            value = Float.parseFloat (parts[p]);
-                            c.textWidth = Math.max (c.textWidth, parts[p].length ());
-                        }
-                        c.values.add (value);
-                    }
-                    for (; p < columns.size (); p++) columns.get (p).values.add (defaultValue);  // Because the structure is not sparse, we must fill out every row.
-                    row++;
-                }
-                else  // column header
+    protected void parseLine (String line)
+    {
+        if (line.length () == 0) return;
+        if (line.startsWith ("End of")) return;
+
+        String[] parts = line.split ("\\s");
+        int lastSize = columns.size ();
+        while (columns.size () < parts.length)
+        {
+            Column c = newColumn ();
+            c.startRow = row;
+            columns.add (c);
+            reshaped = true;
+        }
+
+        char fc = parts[0].charAt (0);  // first character
+        if (fc == '-'  ||  fc == '+'  ||  fc == '.'  ||  fc >= '0'  &&  fc <= '9')  // number
+        {
+            int p = isXycePRN ? 1 : 0;  // skip parsing Index column, since we don't use it
+            for (; p < parts.length; p++)
+            {
+                Column c = columns.get (p);
+                float value = defaultValue;
+                if (! parts[p].isEmpty ())
                 {
-                    raw = false;
-                    isXycePRN = parts[0].equals ("Index");
-                    for (int p = lastSize; p < parts.length; p++)
-                    {
-                        columns.get (p).header = parts[p];
-                    }
+                    value = Float.parseFloat (parts[p]);
+                    c.textWidth = Math.max (c.textWidth, parts[p].length ());
                 }
+                c.add (value);
             }
+            for (; p < columns.size (); p++) columns.get (p).add (defaultValue);  // Because the structure is not sparse, we must fill out every row.
+            row++;
         }
-        catch (IOException e)
+        else  // column header
         {
-		}
+            raw = false;
+            reshaped = true;
+            isXycePRN = parts[0].equals ("Index");
+            for (int p = lastSize; p < parts.length; p++)
+            {
+                columns.get (p).header = parts[p];
+            }
+        }
+    }
+
+    protected void finish ()
+    {
         if (columns.size () == 0) return;
 
         // Determine time column
@@ -121,12 +266,14 @@ public class OutputParser
         }
 
         // Get rid of Index column. No subclass uses it.
-        if (isXycePRN) columns.remove (0);
+        if (isXycePRN)
+        {
+            columns.remove (0);
+            offset = -1;  // Column positions in the file no longer match the list, so stop following.
+        }
 
         // If there is a separate columns file, open and parse it.
-        Path jobDir = f.getParent ();
-        Path columnPath = jobDir.resolve (f.getFileName ().toString () + ".columns");
-        if (Files.isReadable (columnPath))
+        if (columnPath != null  &&  Files.isReadable (columnPath))
         {
             MDoc columnFile = new MDoc (columnPath);
             for (MNode n : columnFile)
@@ -171,6 +318,34 @@ public class OutputParser
         }
     }
 
+    /**
+        Subclasses that need a different storage scheme for column data override this.
+        Called during parsing, when a new column first appears. The column is not yet in the list of columns.
+    **/
+    public Column newColumn ()
+    {
+        return new Column ();
+    }
+
+    /**
+        Subclasses that display as a chart override this.
+    **/
+    public JFreeChart createChart ()
+    {
+        return null;
+    }
+
+    /**
+        Produces a new instance of the same class, with data fetched for the given time range.
+        Only possible when data came from a RemoteView, and only for subclasses that support it.
+        @param xmin NaN to return to the full extent of the data.
+        @return null if not supported.
+    **/
+    public OutputParser zoom (double xmin, double xmax)
+    {
+        return null;
+    }
+
     public Column getColumn (String columnName)
     {
         for (Column c : columns) if (c.header.equals (columnName)) return c;
@@ -205,7 +380,7 @@ public class OutputParser
     {
         public String      header = "";
         public int         index;  // If this is a spike raster, then header should convert to an integer.
-        public List<Float> values = new ArrayList<Float> ();
+        public FloatList   values = new FloatList ();
         public int         startRow;
         public int         textWidth;
         public double      min    = Double.POSITIVE_INFINITY;
@@ -214,11 +389,21 @@ public class OutputParser
         public UnitValue   scale;
         public Color       color;
 
+        /**
+            Appends the value for the next row of this column.
+        **/
+        public void add (float value)
+        {
+            values.add (value);
+        }
+
         public void computeStats ()
         {
-            for (Float f : values)
+            int count = values.size ();
+            for (int i = 0; i < count; i++)
             {
-                if (f.isInfinite ()  ||  f.isNaN ()) continue;
+                float f = values.getFloat (i);
+                if (Float.isInfinite (f)  ||  Float.isNaN (f)) continue;
                 min = Math.min (min, f);
                 max = Math.max (max, f);
             }
@@ -250,7 +435,67 @@ public class OutputParser
             //if (row < 0) return value;  TODO: implement line-by-line reading mode. row==-1 means retrieve current value. See OutputParser.h
             row -= startRow;
             if (row < 0  ||  row >= values.size ()) return defaultValue;
-            return values.get (row);
+            return values.getFloat (row);
+        }
+    }
+
+    /**
+        A list of floats stored in a primitive array, rather than as boxed values.
+        For a long trace, this takes a fraction of the heap used by a list of Float objects.
+        The List interface is for compatibility. Code that touches many values should use
+        getFloat() and setFloat() instead.
+    **/
+    public static class FloatList extends AbstractList<Float> implements RandomAccess
+    {
+        protected float[] data = new float[16];
+        protected int     size;
+
+        public int size ()
+        {
+            return size;
+        }
+
+        public float getFloat (int index)
+        {
+            if (index >= size) throw new IndexOutOfBoundsException ("Index: " + index + ", Size: " + size);
+            return data[index];
+        }
+
+        public void setFloat (int index, float value)
+        {
+            if (index >= size) throw new IndexOutOfBoundsException ("Index: " + index + ", Size: " + size);
+            data[index] = value;
+        }
+
+        public boolean add (float value)
+        {
+            if (size == data.length) data = Arrays.copyOf (data, size * 2);
+            data[size++] = value;
+            modCount++;
+            return true;
+        }
+
+        public Float get (int index)
+        {
+            return getFloat (index);
+        }
+
+        public Float set (int index, Float value)
+        {
+            float result = getFloat (index);
+            data[index] = value;
+            return result;
+        }
+
+        public boolean add (Float value)
+        {
+            return add ((float) value);
+        }
+
+        public void clear ()
+        {
+            size = 0;
+            modCount++;
         }
     }
 
@@ -9,6 +9,7 @@ package gov.sandia.n2a.ui.jobs;
 import java.awt.Color;
 import java.awt.Cursor;
 import java.awt.Dimension;
+import java.awt.EventQueue;
 import java.awt.Graphics;
 import java.awt.Graphics2D;
 import java.awt.GraphicsConfiguration;
@@ -26,6 +27,7 @@ import java.awt.event.MouseWheelEvent;
 import java.awt.geom.Point2D;
 import java.awt.geom.Rectangle2D;
 import java.awt.image.BufferedImage;
+import java.awt.image.ColorModel;
 import java.awt.print.PageFormat;
 import java.awt.print.Printable;
 import java.awt.print.PrinterException;
@@ -51,6 +53,7 @@ import org.jfree.chart.ChartRenderingInfo;
 import org.jfree.chart.ChartTransferable;
 import org.jfree.chart.ChartUtils;
 import org.jfree.chart.JFreeChart;
+import org.jfree.chart.axis.ValueAxis;
 import org.jfree.chart.editor.ChartEditor;
 import org.jfree.chart.editor.ChartEditorManager;
 import org.jfree.chart.event.ChartChangeEvent;
@@ -59,7 +62,9 @@ import org.jfree.chart.plot.Pannable;
 import org.jfree.chart.plot.Plot;
 import org.jfree.chart.plot.PlotOrientation;
 import org.jfree.chart.plot.PlotRenderingInfo;
+import org.jfree.chart.plot.XYPlot;
 import org.jfree.chart.plot.Zoomable;
+import org.jfree.data.Range;
 import org.jfree.graphics2d.svg.SVGGraphics2D;
 
 import gov.sandia.n2a.ui.Lay;
@@ -82,6 +87,13 @@ public class PanelChart extends JPanel implements ChartChangeListener, Printable
 
     protected JPanel buttonBar;
 
+    // When the chart shows a reduced view of a remote file, the data is fetched again whenever
+    // the user zooms in or pans outside what was fetched.
+    protected OutputParser source;
+    protected Range        fetched;  // Time range covered by the current data.
+    protected Timer        refetchTimer;
+    protected Thread       refetchThread;
+
     public PanelChart ()
     {
         MouseInputAdapter mouseListener = new PanelChartMouseListener ();
@@ -120,6 +132,15 @@ public class PanelChart extends JPanel implements ChartChangeListener, Printable
             buttonPrint,
             Box.createHorizontalStrut (15)
         );
+
+        refetchTimer = new Timer (500, new ActionListener ()  // Wait for gesture to settle.
+        {
+            public void actionPerformed (ActionEvent e)
+            {
+                checkRefetch ();
+            }
+        });
+        refetchTimer.setRepeats (false);
     }
 
     /**
@@ -128,6 +149,27 @@ public class PanelChart extends JPanel implements ChartChangeListener, Printable
     **/
     public void setChart (JFreeChart newChart)
     {
+        setChart (newChart, null);
+    }
+
+    /**
+        @param source If this came from a RemoteView, the chart will fetch more detail as the user zooms in.
+    **/
+    public void setChart (JFreeChart newChart, OutputParser source)
+    {
+        refetchTimer.stop ();
+        refetchThread = null;
+        this.source = source;
+        fetched     = null;
+        if (source != null  &&  source.view != null  &&  newChart != null)
+        {
+            fetched = domainRange (newChart);
+            if (fetched != null  &&  source.view.isZoomed ())  // The first and last rows lie outside the requested range, so that lines reach the edges.
+            {
+                fetched = new Range (source.view.xmin, source.view.xmax);
+            }
+        }
+
         if (chart != null) chart.removeChangeListener (this);
         chart = newChart;
         if (chart == null)
@@ -144,6 +186,19 @@ public class PanelChart extends JPanel implements ChartChangeListener, Printable
         // Need to allocate buffer and start drawing. This will be handled by one (and only one) of setSize() or addNotify().
     }
 
+    /**
+        Shows rows that the source has read from a growing file since the chart was built. See OutputParser.update().
+        Any draw in progress is abandoned in favor of one that includes the new rows.
+    **/
+    public void refresh ()
+    {
+        if (source == null  ||  chart == null) return;
+        drawThread = null;     // So the current draw discards its result, and chartChanged() starts a new one.
+        plot.setNotify (false);  // Collect all dataset changes into a single chart change.
+        source.refresh ();
+        plot.setNotify (true);
+    }
+
     public class PanelChartMouseListener extends MouseInputAdapter
     {
         public double panW;
@@ -447,6 +502,12 @@ public class PanelChart extends JPanel implements ChartChangeListener, Printable
         if (! (plot instanceof Zoomable)) return;
         Zoomable z = (Zoomable) plot;
 
+        if (source != null  &&  source.view != null  &&  source.view.isZoomed ())
+        {
+            refetch (Double.NaN, Double.NaN);  // Return to full extent. The new chart will be fit to data.
+            return;
+        }
+
         Point2D zp = zoomPoint;
         if (zp == null) zp = new Point ();
         PlotRenderingInfo pri = info.getPlotInfo ();
@@ -513,11 +574,84 @@ public class PanelChart extends JPanel implements ChartChangeListener, Printable
     @Override
     public void chartChanged (ChartChangeEvent event)
     {
+        if (fetched != null) refetchTimer.restart ();
         if (drawThread != null  &&  drawThread.isAlive ()) return;  // Prevent infinite loop when initializing Raster.TickRenderer. All other code should explicitly guard against changing chart while draw is in progress.
         drawThread = new DrawThread ();
         drawThread.start ();
     }
 
+    public static Range domainRange (JFreeChart chart)
+    {
+        if (chart == null) return null;
+        Plot p = chart.getPlot ();
+        if (! (p instanceof XYPlot)) return null;
+        return ((XYPlot) p).getDomainAxis ().getRange ();
+    }
+
+    /**
+        Determines if the visible time range needs more data than we have.
+        That is the case when it extends past what was fetched, or when it is narrow enough
+        that a new view would show significantly more detail.
+    **/
+    public void checkRefetch ()
+    {
+        if (fetched == null  ||  refetchThread != null) return;
+        Range visible = domainRange (chart);
+        if (visible == null) return;
+        boolean outside = visible.getLowerBound () < fetched.getLowerBound ()  ||  visible.getUpperBound () > fetched.getUpperBound ();
+        boolean narrow  = visible.getLength () < fetched.getLength () / 2;
+        if (outside  ||  narrow) refetch (visible.getLowerBound (), visible.getUpperBound ());
+    }
+
+    /**
+        Fetches data for the given time range on a separate thread, then replaces the chart while
+        keeping the current axis ranges.
+    **/
+    public void refetch (final double xmin, final double xmax)
+    {
+        final OutputParser oldSource = source;
+        if (oldSource == null) return;
+        refetchThread = new Thread ("PanelChart Refetch")
+        {
+            public void run ()
+            {
+                final Thread self = this;
+                final OutputParser newSource = oldSource.zoom (xmin, xmax);
+                final JFreeChart newChart = (newSource == null  ||  ! newSource.hasData ()) ? null : newSource.createChart ();
+                EventQueue.invokeLater (new Runnable ()
+                {
+                    public void run ()
+                    {
+                        if (refetchThread != self) return;  // Chart was replaced while we were working.
+                        if (newChart == null)  // Failed, most likely due to lost connection. Allow another attempt on next gesture.
+                        {
+                            refetchThread = null;
+                            return;
+                        }
+                        if (! Double.isNaN (xmin)  &&  plot instanceof XYPlot  &&  newChart.getPlot () instanceof XYPlot)
+                        {
+                            // Keep the user's view.
+                            XYPlot oldPlot = (XYPlot) plot;
+                            XYPlot newPlot = (XYPlot) newChart.getPlot ();
+                            newPlot.getDomainAxis ().setRange (oldPlot.getDomainAxis ().getRange ());
+                            int count = Math.min (oldPlot.getRangeAxisCount (), newPlot.getRangeAxisCount ());
+                            for (int i = 0; i < count; i++)
+                            {
+                                ValueAxis oldAxis = oldPlot.getRangeAxis (i);
+                                ValueAxis newAxis = newPlot.getRangeAxis (i);
+                                if (oldAxis != null  &&  newAxis != null) newAxis.setRange (oldAxis.getRange ());
+                            }
+                        }
+                        setChart (newChart, newSource);
+                        replaceBuffer ();
+                    }
+                });
+            }
+        };
+        refetchThread.setDaemon (true);
+        refetchThread.start ();
+    }
+
     public class DrawThread extends Thread implements ActionListener
     {
         public Timer timer = new Timer (1000, this);
@@ -533,11 +667,31 @@ public class PanelChart extends JPanel implements ChartChangeListener, Printable
         {
             try
             {
-                int w = buffer.getWidth ();
-                int h = buffer.getHeight ();
+                BufferedImage image = buffer;
+                int w = image.getWidth ();
+                int h = image.getHeight ();
                 Rectangle2D bufferArea = new Rectangle2D.Double (0, 0, w, h);
 
-                Graphics2D bg = (Graphics2D) buffer.getGraphics ();  // buffer in our containing class may change, but that does no harm to bg. It merely means that we may waste some work painting a buffer that will never be used.
+                if (DecimatedDataset.isLarge (chart))
+                {
+                    // Put a coarse version on screen right away, then draw full detail off screen so it replaces the preview in one step.
+                    Graphics2D bg = (Graphics2D) image.getGraphics ();
+                    DecimatedDataset.preview.set (true);
+                    try
+                    {
+                        if (drawThread == this) chart.draw (bg, bufferArea, null, info);
+                    }
+                    catch (Exception e) {}
+                    DecimatedDataset.preview.remove ();
+                    bg.dispose ();
+                    if (drawThread != this) return;
+                    repaint ();
+
+                    ColorModel cm = image.getColorModel ();
+                    image = new BufferedImage (cm, cm.createCompatibleWritableRaster (w, h), cm.isAlphaPremultiplied (), null);
+                }
+
+                Graphics2D bg = (Graphics2D) image.getGraphics ();  // buffer in our containing class may change, but that does no harm to bg. It merely means that we may waste some work painting a buffer that will never be used.
                 timer.start ();
                 try
                 {
@@ -547,7 +701,11 @@ public class PanelChart extends JPanel implements ChartChangeListener, Printable
                 timer.stop ();
                 bg.dispose ();
 
-                if (drawThread == this) repaint ();  // The final repaint.
+                if (drawThread == this)
+                {
+                    buffer = image;  // No change unless a preview was drawn.
+                    repaint ();  // The final repaint.
+                }
             }
             catch (Exception e) {}  // For example, a NullPointerException for either buffer or chart.
         }
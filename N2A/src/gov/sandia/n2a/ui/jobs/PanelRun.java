@@ -12,9 +12,11 @@ import gov.sandia.n2a.db.MDoc;
 import gov.sandia.n2a.db.MNode;
 import gov.sandia.n2a.db.MNode.Visitor;
 import gov.sandia.n2a.execenvs.Host;
-import gov.sandia.n2a.execenvs.Host.CopyProgress;
 import gov.sandia.n2a.execenvs.Remote;
-import gov.sandia.n2a.execenvs.SshFileSystemProvider.SshDirectoryStream;
+import gov.sandia.n2a.execenvs.RemoteSync;
+import gov.sandia.n2a.execenvs.RemoteView;
+import gov.sandia.n2a.execenvs.Scheduler;
+import gov.sandia.n2a.execenvs.Scheduler.Usage;
 import gov.sandia.n2a.ui.Lay;
 import gov.sandia.n2a.ui.eq.PanelModel;
 import gov.sandia.n2a.ui.images.ImageUtil;
@@ -30,13 +32,8 @@ import java.beans.PropertyChangeEvent;
 import java.beans.PropertyChangeListener;
 import java.io.BufferedReader;
 import java.io.IOException;
-import java.io.InputStream;
-import java.io.OutputStream;
-import java.nio.file.DirectoryStream;
 import java.nio.file.Files;
 import java.nio.file.Path;
-import java.nio.file.StandardOpenOption;
-import java.nio.file.attribute.BasicFileAttributes;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.HashMap;
@@ -51,6 +48,7 @@ import javax.swing.Icon;
 import javax.swing.ImageIcon;
 import javax.swing.JButton;
 import javax.swing.JComboBox;
+import javax.swing.JLabel;
 import javax.swing.JMenuItem;
 import javax.swing.JPanel;
 import javax.swing.JPopupMenu;
@@ -59,7 +57,10 @@ import javax.swing.JSplitPane;
 import javax.swing.JTextArea;
 import javax.swing.JToggleButton;
 import javax.swing.JTree;
+import javax.swing.Timer;
 import javax.swing.UIManager;
+import javax.swing.event.AncestorEvent;
+import javax.swing.event.AncestorListener;
 import javax.swing.event.PopupMenuEvent;
 import javax.swing.event.PopupMenuListener;
 import javax.swing.event.TreeExpansionEvent;
@@ -82,6 +83,7 @@ public class PanelRun extends JPanel
     public DefaultTreeModel model;
     public JTree            tree;
     public JScrollPane      treePane;
+    public JLabel           labelScheduler;  // Summary of host utilization, from Scheduler.
 
     public JButton             buttonStop;
     public JPopupMenu          menuHost;
@@ -93,6 +95,7 @@ public class PanelRun extends JPanel
     public JScrollPane         displayPane = new JScrollPane ();
     public DisplayThread       displayThread = null;
     public NodeBase            displayNode = null;
+    public RemoteSync          sync;  // Mirrors output of the focused job, if it is remote. Only changed on EDT.
     public MDir                runs;  // Copied from AppData for convenience
     public Map<String,NodeJob> jobNodes = new HashMap<String,NodeJob> ();  // for quick lookup of job node based on job key.
 
@@ -156,6 +159,7 @@ public class PanelRun extends JPanel
                     job = (NodeJob) displayNode;
                 }
                 buttonStop.setEnabled (job.complete < 1  ||  job.complete == 3);
+                focusSync (job);
             }
         });
 
@@ -208,8 +212,14 @@ public class PanelRun extends JPanel
                 // This also means that we don't really need to synchronize on
                 // "running", because no other thread will try to access it until we give
                 // the go-ahead.
-                List<NodeJob> reverse = new ArrayList<NodeJob> (AppData.runs.size ());
-                for (MNode n : AppData.runs) reverse.add (new NodeJob (n, false));
+                // Jobs are restored from the runs index where possible, so that populating the tree
+                // only costs a directory scan rather than opening every job.
+                List<String>  keys    = AppData.runs.keys ();
+                List<NodeJob> reverse = new ArrayList<NodeJob> (keys.size ());
+                MNode index = AppData.runsIndex;
+                for (String key : keys) reverse.add (new NodeJob (key, index.child (key)));
+                Set<String> keySet = new HashSet<String> (keys);
+                for (MNode n : index) if (! keySet.contains (n.key ())) index.clear (n.key ());  // Forget jobs that were deleted outside this app.
                 for (int i = reverse.size () - 1; i >= 0; i--)  // Reverse the order, so later dates come first.
                 {
                     NodeJob n = reverse.get (i);
@@ -236,7 +246,12 @@ public class PanelRun extends JPanel
                 Host.restartAssignmentThread ();
                 for (Host h : Host.getHosts ()) h.restartMonitorThread ();
                 // Here, order doesn't matter so much, but we sill want to examine more recent jobs first.
-                for (int i = reverse.size () - 1; i >= 0; i--) reverse.get (i).distribute ();
+                // Jobs whose summary says they are done need no further attention until the user opens them.
+                for (int i = reverse.size () - 1; i >= 0; i--)
+                {
+                    NodeJob n = reverse.get (i);
+                    if (! n.isFinal ()) n.distribute ();
+                }
             }
         };
         loadHostMonitors.setDaemon (true);
@@ -465,7 +480,11 @@ public class PanelRun extends JPanel
             this,
             split = Lay.SPL
             (
-                treePane = Lay.sp (tree),
+                Lay.BL
+                (
+                    "C", treePane = Lay.sp (tree),
+                    "S", labelScheduler = new JLabel (" ")
+                ),
                 Lay.BL
                 (
                     "N", Lay.BL
@@ -494,6 +513,36 @@ public class PanelRun extends JPanel
         );
         setFocusCycleRoot (true);
 
+        // Only poll while the summary is actually visible.
+        final Timer schedulerTimer = new Timer (2000, null);
+        schedulerTimer.setRepeats (false);
+        schedulerTimer.addActionListener (new ActionListener ()
+        {
+            public void actionPerformed (ActionEvent e)
+            {
+                if (! labelScheduler.isShowing ()) return;
+                updateScheduler ();
+                schedulerTimer.restart ();
+            }
+        });
+        labelScheduler.addAncestorListener (new AncestorListener ()
+        {
+            public void ancestorAdded (AncestorEvent e)
+            {
+                updateScheduler ();
+                schedulerTimer.restart ();
+            }
+
+            public void ancestorRemoved (AncestorEvent e)
+            {
+                schedulerTimer.stop ();
+            }
+
+            public void ancestorMoved (AncestorEvent e)
+            {
+            }
+        });
+
         split.setDividerLocation (AppData.state.getOrDefault (250, "PanelRun", "divider"));
         split.addPropertyChangeListener (JSplitPane.DIVIDER_LOCATION_PROPERTY, new PropertyChangeListener ()
         {
@@ -505,6 +554,42 @@ public class PanelRun extends JPanel
         });
     }
 
+    /**
+        Shows utilization of each host that is doing work, as seen by the scheduler.
+        The label gives a one-line summary, and the tooltip gives details.
+    **/
+    public void updateScheduler ()
+    {
+        Scheduler scheduler = Scheduler.instance;
+        int waiting = scheduler.getWaiting ();
+        StringBuilder text = new StringBuilder ();
+        StringBuilder tip  = new StringBuilder ("<html>");
+        if (waiting > 0)
+        {
+            text.append ("Waiting " + waiting);
+            tip .append ("Waiting: " + waiting + " (blocked " + scheduler.getBlocked () + ")<br>");
+        }
+        for (Usage u : scheduler.getUsage ())
+        {
+            if (u.jobs == 0  &&  u.average < 0.01) continue;
+            if (text.length () > 0) text.append ("  ");
+            String slots = Double.isInfinite (u.slotCores) ? "" : "/" + Math.round (u.slotCores);
+            text.append (u.name + " " + Math.round (u.cores) + slots);
+            tip .append (u.name + ": " + u.jobs + " jobs");
+            if (u.slotJobs > 0) tip.append (" of " + u.slotJobs);
+            tip .append ("; cores " + Math.round (u.cores));
+            if (! Double.isInfinite (u.slotCores)) tip.append (" of " + Math.round (u.slotCores));
+            tip .append ("; memory " + Math.round (100.0 * u.memory / Math.max (1, u.slotMemory)) + "%");
+            tip .append ("; average load " + Math.round (100 * u.average) + "%");
+            if (u.backfillJobs > 0) tip.append ("; backfilled " + u.backfillJobs);
+            if (u.reserved     != null) tip.append ("; reserved");
+            tip .append ("<br>");
+        }
+        if (text.length () == 0) text.append (" ");  // Keep label from collapsing.
+        labelScheduler.setText (text.toString ());
+        labelScheduler.setToolTipText (tip.length () > 6 ? tip.toString () : null);
+    }
+
     public void saveScripts ()
     {
         MNode scripts = AppData.state.childOrCreate ("PanelRun", "scripts");
@@ -520,6 +605,7 @@ public class PanelRun extends JPanel
         public NodeFile node;
         public String   viz;  ///< The type of visualization to show, such as table, graph or raster
         public boolean  stop = false;
+        public boolean  follow;  ///< Periodic update while the job runs. If the same chart is on display, only new rows are read.
 
         public DisplayThread (NodeFile node, String viz)
         {
@@ -542,6 +628,8 @@ public class PanelRun extends JPanel
                 // The current code only handles small files.
                 MNode job = ((NodeJob) node.getParent ()).getSource ();
                 Host env = Host.get (job);
+                RemoteView view = null;  // For very large files that will be charted, fetch a reduced version rather than the whole thing.
+                Path columnPath = null;
                 if (env instanceof Remote)
                 {
                     ((Remote) env).enable ();  // The user explicitly selected the file, which implies permission to prompt for remote password.
@@ -549,61 +637,33 @@ public class PanelRun extends JPanel
                     {
                         String fileName = node.path.getFileName ().toString ();
                         Path localFile  = Host.getJobDir (Host.getLocalResourceDir (), job).resolve (fileName);
-                        Path remoteFile = Host.getJobDir (env.getResourceDir (),       job).resolve (fileName);
-
-                        BasicFileAttributes localAttributes  = null;
-                        BasicFileAttributes remoteAttributes = null;
-                        try {localAttributes  = Files.readAttributes (localFile,  BasicFileAttributes.class);}
-                        catch (Exception e) {}
-                        try {remoteAttributes = Files.readAttributes (remoteFile, BasicFileAttributes.class);}
-                        catch (Exception e) {}
 
-                        if (remoteAttributes != null)
+                        // Use the background sync for the focused job, so that anything it already fetched is not checked again.
+                        RemoteSync s = sync;
+                        if (s == null  ||  ! s.getJob ().key ().equals (job.key ())) s = new RemoteSync (env, job);
+                        RemoteSync.Entry entry = s.getEntry (fileName);
+                        if (entry != null  &&  entry.size > RemoteView.threshold  &&  (viz.equals ("Graph")  ||  viz.equals ("Raster")))
                         {
-                            if (remoteAttributes.isDirectory ())  // An image sequence stored in a sub-directory.
-                            {
-                                // Copy any remote files that are not present in local directory.
-                                if (localAttributes == null) Files.createDirectories (localFile);
-                                // else local should be a directory. Otherwise, this will fail silently.
-                                try (DirectoryStream<Path> stream = Files.newDirectoryStream (remoteFile))
-                                {
-                                    int total = ((SshDirectoryStream) stream).count ();
-                                    int count = 0;
-                                    for (Path rp : stream)
-                                    {
-                                        Path lp = localFile.resolve (rp.getFileName ().toString ());
-                                        if (! Files.exists (lp))
-                                        {
-                                            try {Files.copy (rp, lp);}
-                                            catch (IOException e) {}
-                                        }
-                                        count++;
-                                        synchronized (displayText) {displayText.setText (String.format ("Downloading %2.0f%%", 100.0 * count / total));}
-                                    }
-                                }
-                            }
-                            else
+                            view = new RemoteView (env, Host.getJobDir (env.getResourceDir (), job).resolve (fileName));
+                            String columnName = fileName + ".columns";
+                            s.watch (columnName);
+                            s.sync (columnName, null);
+                            columnPath = localFile.resolveSibling (columnName);
+                        }
+                        else
+                        {
+                            s.watch (fileName);
+                            s.sync (fileName, new RemoteSync.Progress ()
                             {
-                                long position = 0;
-                                if (localAttributes == null) Files.createFile (localFile);
-                                else                         position = localAttributes.size ();
-                                long count = remoteAttributes.size () - position;
-                                if (count > 0)
+                                public void update (long done, long total)
                                 {
-                                    try (InputStream remoteStream = Files.newInputStream (remoteFile);
-                                         OutputStream localStream = Files.newOutputStream (localFile, StandardOpenOption.WRITE, StandardOpenOption.APPEND);)
-                                    {
-                                        remoteStream.skip (position);
-                                        Host.copy (remoteStream, localStream, count, new CopyProgress ()
-                                        {
-                                            public void update (float percent)
-                                            {
-                                                synchronized (displayText) {displayText.setText (String.format ("Downloading %2.0f%%", percent * 100));}
-                                            }
-                                        });
-                                    }
+                                    if (total == 0) return;
+                                    synchronized (displayText) {displayText.setText (String.format ("Downloading %2.0f%%", 100.0 * done / total));}
                                 }
-                            }
+                            });
+                        }
+                        if (view == null  &&  Files.exists (localFile))
+                        {
                             node.path = localFile;  // Force to use local copy, regardless of whether it was local or remote before.
                         }
                     }
@@ -612,6 +672,11 @@ public class PanelRun extends JPanel
 
                 // Step 2 -- Load data
                 // The exact method depends on node type and the current display mode, selected by pushbuttons and stored in viz
+                if (follow  &&  view == null  &&  tail ())
+                {
+                    signalDone ();
+                    return;
+                }
                 if (node.type == NodeFile.Type.Video)
                 {
                     final Video v = new Video (node);
@@ -649,7 +714,7 @@ public class PanelRun extends JPanel
                     // Determine if the file is actually a table that can be graphed
                     Path dir = node.path.getParent ();
                     String fileName = node.path.getFileName ().toString ();
-                    boolean graphable = Files.exists (dir.resolve (fileName + ".columns"));  // An auxiliary column file is sufficient evidence that this is tabular data.
+                    boolean graphable = view != null  ||  Files.exists (dir.resolve (fileName + ".columns"));  // An auxiliary column file is sufficient evidence that this is tabular data. A view is only created for a chart, so the user has already made that judgment.
                     if (! graphable)
                     {
                         BufferedReader reader = Files.newBufferedReader (node.path);
@@ -698,19 +763,19 @@ public class PanelRun extends JPanel
                         }
                         else if (viz.equals ("Graph"))
                         {
-                            Plot plot = new Plot (node.path);
+                            Plot plot = view == null ? new Plot (node.path) : new Plot (view, columnPath);
                             if (plot.hasData ())
                             {
-                                displayChart.setChart (plot.createChart ());
+                                displayChart.setChart (plot.createChart (), plot);
                                 panel = displayChart;
                             }
                         }
                         else if (viz.equals ("Raster"))
                         {
-                            Raster raster = new Raster (node.path);
+                            Raster raster = view == null ? new Raster (node.path) : new Raster (view, columnPath);
                             if (raster.hasData ())
                             {
-                                displayChart.setChart (raster.createChart ());
+                                displayChart.setChart (raster.createChart (), raster);
                                 panel = displayChart;
                             }
                         }
@@ -741,7 +806,8 @@ public class PanelRun extends JPanel
                 }
 
                 // Default is plain text
-                final String contents = Host.fileToString (node.path);
+                // A file big enough to need a view is too big to show as text, and would have to be downloaded in full.
+                final String contents = view == null ? Host.fileToString (node.path) : "Unable to chart reduced view of remote file.";
                 if (stop)
                 {
                     signalDone ();
@@ -770,6 +836,30 @@ public class PanelRun extends JPanel
             signalDone ();
         };
 
+        /**
+            Appends new rows to the chart already on display, rather than building a new one.
+            @return true if the display is up to date. false if the caller should build it from scratch.
+        **/
+        public boolean tail ()
+        {
+            final OutputParser source = displayChart.source;
+            if (source == null  ||  source.path == null  ||  ! source.path.equals (node.path)) return false;
+            if (! (viz.equals ("Graph")  &&  source instanceof Plot  ||  viz.equals ("Raster")  &&  source instanceof Raster)) return false;
+
+            int added = source.update ();
+            if (added < 0) return false;
+            if (added == 0  ||  stop) return true;
+            EventQueue.invokeLater (new Runnable ()
+            {
+                public void run ()
+                {
+                    if (stop  ||  displayChart.source != source) return;
+                    displayChart.refresh ();
+                }
+            });
+            return true;
+        }
+
         public void signalDone ()
         {
             synchronized (displayText)
@@ -799,9 +889,29 @@ public class PanelRun extends JPanel
 
         String viz = buttons.getSelection ().getActionCommand ();
         displayThread = new DisplayThread ((NodeFile) displayNode, viz);
+        displayThread.follow = ! showLoading;
         displayThread.start ();
     }
 
+    /**
+        Switches background synchronization to the given job. The sync thread only does work once
+        some file of the job has been displayed, so merely clicking through the list of jobs is cheap.
+    **/
+    public void focusSync (NodeJob job)
+    {
+        MNode source = job.getSource ();
+        if (sync != null)
+        {
+            if (sync.getJob ().key ().equals (source.key ())) return;
+            sync.stop ();
+            sync = null;
+        }
+        Host env = Host.get (source);
+        if (! (env instanceof Remote)) return;
+        sync = new RemoteSync (env, source);
+        sync.start ();
+    }
+
     public void viewJob ()
     {
         if (displayThread != null)
@@ -946,6 +1056,11 @@ public class PanelRun extends JPanel
                 displayNode = null;  // All access to this happens on EDT, so safe.
                 displayText.setText ("");
             }
+            if (sync != null)
+            {
+                sync.stop ();
+                sync = null;
+            }
             if (displayPane.getViewport ().getView () != displayText) displayPane.setViewportView (displayText);
         }
         else  // Set the new selection. This will not be touched by the delete process.
@@ -994,6 +1109,7 @@ public class PanelRun extends JPanel
                         job = (NodeJob) node;
                         synchronized (job) {job.deleted = true;}  // Signal the monitor thread to drop this job.
                         synchronized (jobNodes) {jobNodes.remove (job.key);}
+                        AppData.runsIndex.clear (job.key);
                     }
                     else
                     {
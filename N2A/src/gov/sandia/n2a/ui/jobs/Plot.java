@@ -12,6 +12,8 @@ import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
 
+import gov.sandia.n2a.execenvs.RemoteView;
+
 import org.jfree.chart.ChartFactory;
 import org.jfree.chart.JFreeChart;
 import org.jfree.chart.axis.NumberAxis;
@@ -21,16 +23,14 @@ import org.jfree.chart.plot.XYPlot;
 import org.jfree.chart.renderer.xy.XYLineAndShapeRenderer;
 import org.jfree.chart.title.LegendTitle;
 import org.jfree.data.Range;
-import org.jfree.data.xy.XYSeries;
-import org.jfree.data.xy.XYSeriesCollection;
 
 public class Plot extends OutputParser
 {
-    protected int                columnCount;
-    protected XYSeriesCollection dataset0;
-    protected XYSeriesCollection dataset1;
-    protected double             range0;
-    protected double             range1;
+    protected int              columnCount;
+    protected DecimatedDataset dataset0;
+    protected DecimatedDataset dataset1;
+    protected double           range0;
+    protected double           range1;
 
     public Plot (Path path)
     {
@@ -38,9 +38,36 @@ public class Plot extends OutputParser
         createDatasets ();
     }
 
-    public void createDatasets ()
+    public Plot (RemoteView view, Path columnPath)
+    {
+        parse (view, columnPath);
+        createDatasets ();
+    }
+
+    public OutputParser zoom (double xmin, double xmax)
+    {
+        if (view == null) return null;
+        return new Plot (view.zoom (xmin, xmax), columnPath);
+    }
+
+    public synchronized int update ()
+    {
+        int added = super.update ();
+        if (added > 0) convertUnits (added);
+        return added;
+    }
+
+    public synchronized void refresh ()
+    {
+        dataset0.extend ();
+        if (dataset1 != null) dataset1.extend ();
+    }
+
+    /**
+        @param rows Number of rows at the end of each column to convert.
+    **/
+    public void convertUnits (int rows)
     {
-        // Convert units
         for (Column c : columns)  // Includes time column, which can also be scaled.
         {
             if (c.scale == null) continue;
@@ -48,8 +75,13 @@ public class Plot extends OutputParser
             //if (! raw) c.header += "(" + c.scale + ")";
             if (scale == 1) continue;
             int count = c.values.size ();
-            for (int i = 0; i < count; i++) c.values.set (i, (float) (c.values.get (i) / scale));
+            for (int i = Math.max (0, count - rows); i < count; i++) c.values.setFloat (i, (float) (c.values.getFloat (i) / scale));
         }
+    }
+
+    public void createDatasets ()
+    {
+        convertUnits (Integer.MAX_VALUE);  // all rows
 
         // Decide between one or two axis display
 
@@ -153,21 +185,13 @@ public class Plot extends OutputParser
             }
         }
 
-        // Generate data series
+        // Generate data series. These read directly from the columns. See DecimatedDataset.
 
-        dataset0 = new XYSeriesCollection();
+        dataset0 = new DecimatedDataset (time, left);
         double min = Double.POSITIVE_INFINITY;
         double max = Double.NEGATIVE_INFINITY;
     	for (Column c : left)
         {
-        	XYSeries series = new XYSeries (c.header);
-            for (int r = 0; r < c.values.size (); r++)
-            {
-                Float value = c.values.get (r);
-                if (value.isInfinite ()  ||  value.isNaN ()) value = 0.0f;  // JFreeChart chokes on infinity (how to determine a vertical scale for that?)
-                series.add (time.values.get (r + c.startRow), value);
-            }
-            dataset0.addSeries (series);
             min = Math.min (min, c.min);
             max = Math.max (max, c.max);
         }
@@ -182,19 +206,11 @@ public class Plot extends OutputParser
 
     	if (right != null)
     	{
-            dataset1 = new XYSeriesCollection();
+            dataset1 = new DecimatedDataset (time, right);
             min = Double.POSITIVE_INFINITY;
             max = Double.NEGATIVE_INFINITY;
             for (Column c : right)
             {
-                XYSeries series = new XYSeries (c.header);
-                for (int r = 0; r < c.values.size (); r++)
-                {
-                    Float value = c.values.get (r);
-                    if (value.isInfinite ()  ||  value.isNaN ()) value = 0.0f;  // JFreeChart chokes on infinity (how to determine a vertical scale for that?)
-                    series.add (time.values.get (r + c.startRow), value);
-                }
-                dataset1.addSeries (series);
                 min = Math.min (min, c.min);
                 max = Math.max (max, c.max);
             }
@@ -243,7 +259,7 @@ public class Plot extends OutputParser
             shift = 0.75f + 0.5f / count;
         }
 
-        XYLineAndShapeRenderer renderer = new XYLineAndShapeRenderer();
+        XYLineAndShapeRenderer renderer = new DecimatedDataset.Renderer ();
         for (int i = 0; i < dataset0.getSeriesCount (); i++)
         {
             renderer.setSeriesShapesVisible (i, false);
@@ -277,7 +293,7 @@ public class Plot extends OutputParser
             count = dataset1.getSeriesCount () * 2;
             shift = 0.25f + 0.5f / count;
 
-            renderer = new XYLineAndShapeRenderer();
+            renderer = new DecimatedDataset.Renderer ();
             for (int i = 0; i < dataset1.getSeriesCount (); i++)
             {
                 renderer.setSeriesShapesVisible (i, false);
@@ -8,32 +8,47 @@ package gov.sandia.n2a.ui.jobs;
 
 import java.awt.Color;
 import java.awt.Graphics2D;
-import java.awt.Rectangle;
 import java.awt.geom.Rectangle2D;
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
 import java.nio.file.Path;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 
+import gov.sandia.n2a.execenvs.RemoteView;
+
 import org.jfree.chart.ChartFactory;
 import org.jfree.chart.JFreeChart;
 import org.jfree.chart.axis.NumberAxis;
+import org.jfree.chart.axis.ValueAxis;
+import org.jfree.chart.plot.CrosshairState;
 import org.jfree.chart.plot.PlotOrientation;
 import org.jfree.chart.plot.PlotRenderingInfo;
 import org.jfree.chart.plot.XYPlot;
 import org.jfree.chart.renderer.xy.XYDotRenderer;
 import org.jfree.chart.renderer.xy.XYItemRendererState;
+import org.jfree.data.DomainInfo;
+import org.jfree.data.DomainOrder;
+import org.jfree.data.Range;
+import org.jfree.data.RangeInfo;
+import org.jfree.data.xy.AbstractXYDataset;
 import org.jfree.data.xy.XYDataset;
-import org.jfree.data.xy.XYSeries;
-import org.jfree.data.xy.XYSeriesCollection;
 
 /**
     Create a spike-raster plot.
+
+    Spike output is mostly zeros, so columns store only the rows where a spike occurs.
+    This index is built as the file is parsed, in a single pass. Rather than handing JFreeChart
+    one shape per spike, the renderer paints spikes directly into an image the size of the plot,
+    so drawing time is bounded by the number of spikes visible and by the pixel area, rather than
+    by the length of the run.
 **/
 public class Raster extends OutputParser
 {
-    public XYSeriesCollection dataset     = new XYSeriesCollection ();
-    public List<Color>        colors      = new ArrayList<Color> ();  // correspond 1-to-1 with series added to dataset
-    public double             timeQuantum = 1;  // The closest spacing between two spikes on a single row.
+    public SpikeDataset dataset     = new SpikeDataset ();
+    public List<Color>  colors      = new ArrayList<Color> ();  // correspond 1-to-1 with columns
+    public double       timeQuantum = 1;  // The closest spacing between two spikes on a single row.
 
     public Raster (Path path)
     {
@@ -41,6 +56,29 @@ public class Raster extends OutputParser
         createDataset ();
     }
 
+    public Raster (RemoteView view, Path columnPath)
+    {
+        parse (view, columnPath);
+        createDataset ();
+    }
+
+    public OutputParser zoom (double xmin, double xmax)
+    {
+        if (view == null) return null;
+        return new Raster (view.zoom (xmin, xmax), columnPath);
+    }
+
+    public Column newColumn ()
+    {
+        return new SpikeColumn (columns.size ());
+    }
+
+    public boolean hasData ()
+    {
+        for (Column c : columns) if (((SpikeColumn) c).rows > 0) return true;
+        return false;
+    }
+
     public void createDataset ()
     {
         // Convert column indices.
@@ -69,47 +107,80 @@ public class Raster extends OutputParser
         }
 
         int totalCount = 0;
-        for (Column c : columns) if (! timeFound  ||  c != time) totalCount += c.values.size ();
+        for (Column c : columns) if (! timeFound  ||  c != time) totalCount += ((SpikeColumn) c).rows;
+
+        if (timeFound)
+        {
+            int count = time.values.size ();
+            if (count > 0)
+            {
+                double lastTime = time.values.getFloat (0);
+                double minTimeQuantum = (time.values.getFloat (count - 1) - lastTime) / totalCount;
+                for (int r = 1; r < count; r++)
+                {
+                    double thisTime = time.values.getFloat (r);
+                    double diff = thisTime - lastTime;
+                    // If diff is less than minTimeQuantum, it could be due to jittering for "before" or "after" event delivery.
+                    if (diff >= minTimeQuantum) timeQuantum = Math.min (timeQuantum, diff);
+                    lastTime = thisTime;
+                }
+            }
+        }
 
-        // Generate dateset
+        // Generate dataset
         Color red = Color.getHSBColor (0.0f, 1.0f, 0.8f);
         for (Column c : columns)
         {
-            XYSeries series = new XYSeries (c.header);
-            dataset.addSeries (series);
-
             if (c.color == null) colors.add (red);
             else                 colors.add (c.color);
+            if (timeFound  &&  c == time) continue;
 
-            int count = c.values.size ();
-            if (timeFound)
-            {
-                if (c == time)
-                {
-                    double lastTime = c.values.get (0);
-                    double minTimeQuantum = (c.values.get (count - 1) - lastTime) / totalCount;
-                    for (int r = 1; r < count; r++)
-                    {
-                        double thisTime = c.values.get (r);
-                        double diff = thisTime - lastTime;
-                        // If diff is less than minTimeQuantum, it could be due to jittering for "before" or "after" event delivery.
-                        if (diff >= minTimeQuantum) timeQuantum = Math.min (timeQuantum, diff);
-                        lastTime = thisTime;
-                    }
-                    continue;
-                }
-                for (int r = 0; r < count; r++)
-                {
-                    if (c.values.get (r) != 0) series.add (time.values.get (r + c.startRow).doubleValue (), c.index);
-                }
-            }
-            else
+            SpikeColumn s = (SpikeColumn) c;
+            s.argb = colors.get (colors.size () - 1).getRGB ();
+            dataset.columns.add (s);
+        }
+        if (timeFound) ((SpikeColumn) time).spikes = null;  // Stop recording spikes for the time column.
+        convertSpikes ();
+        for (SpikeColumn s : dataset.columns) s.times = s.nextTimes;
+        dataset.scan ();
+    }
+
+    public synchronized int update ()
+    {
+        int added = super.update ();
+        if (added > 0) convertSpikes ();
+        return added;
+    }
+
+    public synchronized void refresh ()
+    {
+        for (SpikeColumn s : dataset.columns) s.times = s.nextTimes;
+        dataset.extend ();
+    }
+
+    /**
+        Moves spikes recorded by the parser into the sorted time arrays. The results go to nextTimes,
+        so that a draw in progress is not disturbed.
+    **/
+    public void convertSpikes ()
+    {
+        for (SpikeColumn s : dataset.columns)
+        {
+            int before = s.nextTimes.length;
+            float[] t = Arrays.copyOf (s.nextTimes, before + s.spikeCount);
+            boolean sorted = true;
+            float last = before > 0 ? t[before - 1] : Float.NEGATIVE_INFINITY;
+            for (int i = 0; i < s.spikeCount; i++)
             {
-                for (int r = 0; r < count; r++)
-                {
-                    if (c.values.get (r) != 0) series.add (r + c.startRow, c.index);
-                }
+                int r = s.spikes[i];
+                float v = timeFound ? time.get (r) : r;
+                t[before + i] = v;
+                if (v < last) sorted = false;
+                last = v;
             }
+            if (! sorted) Arrays.sort (t);
+            s.nextTimes  = t;
+            s.spikeCount = 0;  // Spikes are consumed, so the parser only holds those that arrive later.
         }
     }
 
@@ -134,37 +205,252 @@ public class Raster extends OutputParser
         plot.setRangePannable  (true);
         NumberAxis rangeAxis = (NumberAxis) plot.getRangeAxis ();
         rangeAxis.setStandardTickUnits (NumberAxis.createIntegerTickUnits ());  // Integer units only
-        TickRenderer renderer = new TickRenderer ();
-        plot.setRenderer (renderer);
-
-        int count = colors.size ();
-        for (int i = 0; i < count; i++) renderer.setSeriesPaint (i, colors.get (i));
+        plot.setRenderer (new TickRenderer ());
 
         return chart;
     }
 
+    /**
+        Column that keeps only the rows where a spike occurs.
+        Values are retained for the columns that could serve as time, since spike times come from there.
+    **/
+    public static class SpikeColumn extends Column
+    {
+        public int     position;    // Index of this column in the file, including any Xyce Index column.
+        public int     rows;        // Total number of rows seen by this column, equivalent to values.size() for a regular column.
+        public int[]   spikes = new int[16];  // Absolute row of each nonzero value not yet moved to nextTimes. Null for the time column.
+        public int     spikeCount;
+        public float[] times     = new float[0];  // Sorted time of each spike. This is the version visible to the chart.
+        public float[] nextTimes = times;         // Sorted time of each spike, including those not yet published by refresh().
+        public int     dense = -1;  // Whether to store every value. -1 means not yet decided.
+        public int     argb;        // Color of ticks, in the form used by the image buffer.
+
+        public SpikeColumn (int position)
+        {
+            this.position = position;
+        }
+
+        public void add (float value)
+        {
+            if (dense < 0)
+            {
+                // Header is known by the time the first value arrives. See OutputParser.parseLine()
+                if (position <= 1  ||  header.equals ("t")  ||  header.equals ("TIME")  ||  header.equals ("$t")) dense = 1;
+                else                                                                                            dense = 0;
+            }
+            if (dense == 1) values.add (value);
+            if (value != 0  &&  spikes != null)
+            {
+                if (spikeCount == spikes.length) spikes = Arrays.copyOf (spikes, spikeCount * 2);
+                spikes[spikeCount++] = startRow + rows;
+            }
+            rows++;
+        }
+    }
+
+    /**
+        Presents the spike columns to JFreeChart. The bounds are exact, so the axes can auto-range without
+        visiting every spike. There is only a single token item, because TickRenderer does all the drawing
+        during initialise(), and XYPlot skips the renderer altogether for an empty dataset.
+    **/
+    @SuppressWarnings("serial")
+    public static class SpikeDataset extends AbstractXYDataset implements DomainInfo, RangeInfo
+    {
+        public List<SpikeColumn> columns = new ArrayList<SpikeColumn> ();
+        public Range             domain;
+        public Range             range;
+
+        /**
+            Determines bounds from the published spike times.
+        **/
+        public void scan ()
+        {
+            double xmin = Double.POSITIVE_INFINITY;
+            double xmax = Double.NEGATIVE_INFINITY;
+            double ymin = Double.POSITIVE_INFINITY;
+            double ymax = Double.NEGATIVE_INFINITY;
+            for (SpikeColumn c : columns)
+            {
+                int count = c.times.length;
+                if (count == 0) continue;
+                xmin = Math.min (xmin, c.times[0]);
+                xmax = Math.max (xmax, c.times[count - 1]);
+                ymin = Math.min (ymin, c.index);
+                ymax = Math.max (ymax, c.index);
+            }
+            if (xmin <= xmax)
+            {
+                domain = new Range (xmin, xmax);
+                range  = new Range (ymin, ymax);
+            }
+        }
+
+        /**
+            Updates bounds after refresh() and notifies the chart. Must be called on the EDT.
+        **/
+        public void extend ()
+        {
+            scan ();
+            fireDatasetChanged ();
+        }
+
+        public int getSeriesCount ()
+        {
+            return 1;
+        }
+
+        @SuppressWarnings("rawtypes")
+        public Comparable getSeriesKey (int series)
+        {
+            return "spikes";
+        }
+
+        public DomainOrder getDomainOrder ()
+        {
+            return DomainOrder.NONE;
+        }
+
+        public int getItemCount (int series)
+        {
+            if (domain == null) return 0;
+            return 1;
+        }
+
+        public double getXValue (int series, int item)
+        {
+            return domain.getLowerBound ();
+        }
+
+        public double getYValue (int series, int item)
+        {
+            return range.getLowerBound ();
+        }
+
+        public Number getX (int series, int item)
+        {
+            return getXValue (series, item);
+        }
+
+        public Number getY (int series, int item)
+        {
+            return getYValue (series, item);
+        }
+
+        public double getDomainLowerBound (boolean includeInterval)
+        {
+            if (domain == null) return Double.NaN;
+            return domain.getLowerBound ();
+        }
+
+        public double getDomainUpperBound (boolean includeInterval)
+        {
+            if (domain == null) return Double.NaN;
+            return domain.getUpperBound ();
+        }
+
+        public Range getDomainBounds (boolean includeInterval)
+        {
+            return domain;
+        }
+
+        public double getRangeLowerBound (boolean includeInterval)
+        {
+            if (range == null) return Double.NaN;
+            return range.getLowerBound ();
+        }
+
+        public double getRangeUpperBound (boolean includeInterval)
+        {
+            if (range == null) return Double.NaN;
+            return range.getUpperBound ();
+        }
+
+        public Range getRangeBounds (boolean includeInterval)
+        {
+            return range;
+        }
+    }
+
+    /**
+        Paints every visible spike straight into the pixels of an image covering the data area,
+        then draws that image in one operation. Within a row, spikes that land on a tick already
+        painted are skipped, so a dense row costs no more than its width in pixels.
+    **/
     @SuppressWarnings("serial")
     public class TickRenderer extends XYDotRenderer
     {
-        public XYItemRendererState initialise (Graphics2D g2, Rectangle2D dataArea, XYPlot plot, XYDataset dataset, PlotRenderingInfo info)
+        public XYItemRendererState initialise (Graphics2D g2, Rectangle2D dataArea, XYPlot plot, XYDataset data, PlotRenderingInfo info)
         {
-            Rectangle clipBounds = g2.getClipBounds ();
+            XYItemRendererState state = super.initialise (g2, dataArea, plot, data, info);
+
+            int w = (int) Math.ceil (dataArea.getWidth ());
+            int h = (int) Math.ceil (dataArea.getHeight ());
+            if (w <= 0  ||  h <= 0  ||  ! (data instanceof SpikeDataset)) return state;
+
+            // Dot size is computed locally rather than through setDotHeight() and setDotWidth(),
+            // because those fire change events and the chart is not supposed to change during a draw.
+            ValueAxis domainAxis = plot.getDomainAxis ();
+            ValueAxis rangeAxis  = plot.getRangeAxis ();
+            Range     xrange     = domainAxis.getRange ();
+            Range     yrange     = rangeAxis .getRange ();
 
-            double rasterLines = plot.getRangeAxis ().getRange ().getLength ();
-            int    height      = (int) Math.floor (clipBounds.height / rasterLines);
+            double rasterLines = yrange.getLength ();
+            int    height      = (int) Math.floor (h / rasterLines);
             if      (height > 10) height -= 2;
             else if (height > 2 ) height -= 1;
             height = Math.min (20, height);
             height = Math.max (1,  height);
-            setDotHeight ((int) height);
 
-            double timeSteps = plot.getDomainAxis ().getRange ().getLength () / timeQuantum + 1;
-            int    width     = (int) Math.floor (clipBounds.width / timeSteps);
+            double timeSteps = xrange.getLength () / timeQuantum + 1;
+            int    width     = (int) Math.floor (w / timeSteps);
             width = Math.min (height / 2, width);
             width = Math.max (1,          width);
-            setDotWidth ((int) width);
 
-            return super.initialise (g2, dataArea, plot, dataset, info);
+            BufferedImage image  = new BufferedImage (w, h, BufferedImage.TYPE_INT_ARGB);
+            int[]         pixels = ((DataBufferInt) image.getRaster ().getDataBuffer ()).getData ();
+            double        x0     = dataArea.getX ();
+            double        y0     = dataArea.getY ();
+            double        xlow   = xrange.getLowerBound ();
+            double        xhigh  = xrange.getUpperBound ();
+            double        xscale = w / xrange.getLength ();
+            for (SpikeColumn c : ((SpikeDataset) data).columns)
+            {
+                if (c.index < yrange.getLowerBound ()  ||  c.index > yrange.getUpperBound ()) continue;
+                float[] times = c.times;
+                if (times.length == 0) continue;
+
+                int top    = (int) Math.round (rangeAxis.valueToJava2D (c.index, dataArea, plot.getRangeAxisEdge ()) - y0) - height / 2;
+                int bottom = Math.min (h, top + height);
+                top        = Math.max (0, top);
+                if (top >= bottom) continue;
+
+                int i = Arrays.binarySearch (times, (float) xlow);
+                if (i < 0) i = -i - 1;
+                while (i > 0  &&  times[i-1] >= xlow) i--;  // binarySearch() gives an arbitrary position among equal values
+                int painted = Integer.MIN_VALUE;  // Right edge of the most recent tick.
+                for (; i < times.length  &&  times[i] <= xhigh; i++)
+                {
+                    int left = (int) Math.floor ((times[i] - xlow) * xscale) - width / 2;
+                    if (left < painted) continue;
+                    int right = Math.min (w, left + width);
+                    painted = left + width;
+                    left = Math.max (0, left);
+                    if (left >= right) continue;
+                    for (int y = top; y < bottom; y++)
+                    {
+                        int offset = y * w;
+                        Arrays.fill (pixels, offset + left, offset + right, c.argb);
+                    }
+                }
+            }
+            g2.drawImage (image, (int) Math.round (x0), (int) Math.round (y0), null);
+
+            return state;
+        }
+
+        public void drawItem (Graphics2D g2, XYItemRendererState state, Rectangle2D dataArea, PlotRenderingInfo info, XYPlot plot, ValueAxis domainAxis, ValueAxis rangeAxis, XYDataset dataset, int series, int item, CrosshairState crosshairState, int pass)
+        {
+            // Everything was drawn by initialise().
         }
     }
 }
@@ -13,13 +13,13 @@ import java.util.ArrayList;
 
 import javax.swing.JLabel;
 import javax.swing.JTable;
-import javax.swing.table.AbstractTableModel;
 import javax.swing.table.DefaultTableCellRenderer;
 import javax.swing.table.TableColumnModel;
 
 import gov.sandia.n2a.db.MNode;
 import gov.sandia.n2a.db.MVolatile;
 import gov.sandia.n2a.language.type.Scalar;
+import gov.sandia.n2a.ui.PagedTableModel;
 
 public class Table extends OutputParser
 {
@@ -90,8 +90,11 @@ public class Table extends OutputParser
         }
     }
 
+    /**
+        Formats cells a page at a time, only for the rows and columns the table actually displays.
+    **/
     @SuppressWarnings("serial")
-    public class OutputTableModel extends AbstractTableModel
+    public class OutputTableModel extends PagedTableModel
     {
         public int getRowCount ()
         {
@@ -108,14 +111,21 @@ public class Table extends OutputParser
             return columns.get (column).header;
         }
 
-        public Object getValueAt (int row, int column)
+        protected void loadPage (int first, int column, Object[] result)
         {
             Column c = columns.get (column);
-            row -= c.startRow;
-            if (row < 0  ||  row >= c.values.size ()) return "";
-            float result = c.values.get (row);
-            if (Float.isNaN (result)) return "";
-            return Scalar.print (result);
+            for (int i = 0; i < result.length; i++)
+            {
+                int row = first + i - c.startRow;
+                if (row < 0  ||  row >= c.values.size ())
+                {
+                    result[i] = "";
+                    continue;
+                }
+                float value = c.values.getFloat (row);
+                if (Float.isNaN (value)) result[i] = "";
+                else                     result[i] = Scalar.print (value);
+            }
         }
     }
 }
@@ -14,11 +14,19 @@ import java.awt.event.MouseAdapter;
 import java.awt.event.MouseEvent;
 import java.awt.event.MouseWheelEvent;
 import java.awt.image.BufferedImage;
-import java.io.IOException;
+import java.io.InputStream;
 import java.nio.file.Files;
 import java.nio.file.Path;
-import java.util.Optional;
-import java.util.concurrent.CountDownLatch;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map.Entry;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
 import java.util.stream.Stream;
 
 import javax.imageio.ImageIO;
@@ -27,45 +35,73 @@ import javax.swing.JScrollBar;
 
 import gov.sandia.n2a.ui.Lay;
 
+/**
+    Plays a directory of numbered images, such as the output of draw().
+
+    Frames are decoded by a background thread into a bounded LRU cache, reading ahead in the
+    direction of travel. Playback runs at a fixed frame rate, independent of decode speed, and
+    only stalls when the next frame is not ready. Scrubbing requests a frame and shows it once
+    decoded, so the EDT never waits on the disk, and intermediate positions are simply dropped.
+    While the job is running, new frames are detected with a WatchService, or by polling if the
+    directory is on a file system that doesn't support watching.
+
+    All changes to index and image happen on the EDT. The other threads coordinate through
+    the monitor of the frame cache.
+**/
 @SuppressWarnings("serial")
 public class Video extends JPanel
 {
     protected NodeJob       job;
     protected Path          dir;
     protected String        suffix;
-    protected int           index = -1;
-    protected int           last;
+    protected int           index  = -1; // Frame currently displayed.
+    protected int           target = -1; // Most recent frame requested by the user. Moves ahead of index while scrubbing.
+    protected volatile int  last = -1;
     protected BufferedImage image;
     protected PlayThread    thread;
 
+    protected FrameCache   cache = new FrameCache ();
+    protected Set<Integer> failed = new HashSet<Integer> ();  // Frames that could not be decoded. Cleared whenever the directory changes, since the file may have been incomplete.
+    protected int          focus;          // Decoder works outward from this frame ...
+    protected int          direction = 1;  // ... in this direction.
+    protected int          requested = -1; // Frame to display on the EDT as soon as it is decoded. -1 if none.
+    protected Decoder      decoder;
+    protected Watcher      watcher;
+
     protected JPanel     panelImage;
     protected JScrollBar scrollbar;
 
+    public static double framesPerSecond = 30;
+    public static int    readAhead       = 16;               // Number of frames to decode ahead of the current one.
+    public static long   cacheBytes      = 256 * 1024 * 1024; // Approximate upper limit on memory used by decoded frames. At least readAhead frames are kept regardless.
+    public static long   pollPeriod      = 500;              // Milliseconds between checks for new frames when the file system can't be watched.
+
     public Video (NodeFile node)
     {
         job = (NodeJob) node.getParent ();
         dir = node.path;
 
+        // Single pass over directory to find the extent of the sequence and the file type.
         try (Stream<Path> stream = Files.list (dir);)
         {
-            last = (int) stream.count () - 1;
-        }
-        catch (Exception e)
-        {
-            return;
-        }
-
-        try (Stream<Path> stream = Files.list (dir);)
-        {
-            Optional<Path> someFile = stream.findAny ();
-            Path p = someFile.get ();
-            String[] pieces = p.getFileName ().toString ().split ("\\.");
-            suffix = pieces[1].toLowerCase ();
+            Iterator<Path> it = stream.iterator ();
+            while (it.hasNext ())
+            {
+                String[] pieces = it.next ().getFileName ().toString ().split ("\\.");
+                if (pieces.length < 2) continue;
+                try
+                {
+                    last = Math.max (last, Integer.parseInt (pieces[0]));
+                    if (suffix == null) suffix = pieces[1].toLowerCase ();
+                }
+                catch (NumberFormatException e) {}
+            }
         }
         catch (Exception e)
         {
             return;
         }
+        if (suffix == null) return;
 
         // Build GUI
 
@@ -81,8 +117,6 @@ public class Video extends JPanel
             {
                 if (thread != null  &&  thread.playing) pause ();
                 scratch ((float) e.getX () / panelImage.getWidth ());
-                panelImage.paintImmediately (panelImage.getBounds ());
-                scrollbar.setValue (index);
             }
 
             public void mouseWheelMoved (MouseWheelEvent e)
@@ -90,7 +124,6 @@ public class Video extends JPanel
                 if (thread != null  &&  thread.playing) pause ();
                 if (e.getWheelRotation () > 0) nextImage ();
                 else                           previousImage ();
-                panelImage.paintImmediately (panelImage.getBounds ());
             }
         };
         panelImage = new PanelImage ();
@@ -107,8 +140,7 @@ public class Video extends JPanel
                 if (newIndex != index)
                 {
                     if (thread != null  &&  thread.playing) pause ();
-                    scratch ((float) newIndex / last);
-                    panelImage.paintImmediately (panelImage.getBounds ());
+                    seek (newIndex);
                 }
             }
         });
@@ -121,89 +153,322 @@ public class Video extends JPanel
 
     public void nextImage ()
     {
-        if (suffix == null) return;
-        int nextIndex = index + 1;
-        try
+        if (suffix == null  ||  target >= last) return;
+        seek (target + 1);
+    }
+
+    public void previousImage ()
+    {
+        if (suffix == null  ||  target <= 0) return;
+        seek (target - 1);
+    }
+
+    public void scratch (float position)
+    {
+        if (suffix == null  ||  last < 0) return;
+        seek (Math.max (0, Math.min (last, Math.round (position * last))));
+    }
+
+    /**
+        Displays the given frame, either immediately if it is already decoded, or as soon as the decoder gets to it.
+        Must be called on the EDT.
+    **/
+    public void seek (int i)
+    {
+        BufferedImage frame;
+        synchronized (cache)
         {
-            image = ImageIO.read (dir.resolve (nextIndex + "." + suffix).toFile ());
-            if (nextIndex > last)
+            if (i != target) direction = i > target ? 1 : -1;
+            target = i;
+            focus  = i;
+            frame  = cache.get (i);
+            requested = frame == null ? i : -1;
+            cache.notifyAll ();
+        }
+        if (frame != null) display (i, frame);
+    }
+
+    /**
+        Must be called on the EDT.
+    **/
+    protected void display (int i, BufferedImage frame)
+    {
+        image  = frame;
+        index  = i;
+        target = i;
+        if (scrollbar.getMaximum () <= last) scrollbar.setMaximum (last + 1);
+        if (scrollbar.getValue () != i) scrollbar.setValue (i);
+        panelImage.repaint ();
+    }
+
+    protected BufferedImage read (int i)
+    {
+        try (InputStream stream = Files.newInputStream (dir.resolve (i + "." + suffix)))
+        {
+            return ImageIO.read (stream);
+        }
+        catch (Exception e)
+        {
+            return null;
+        }
+    }
+
+    /**
+        Records the appearance of new frames, and wakes any thread waiting on them.
+    **/
+    protected void extend (int newLast)
+    {
+        synchronized (cache)
+        {
+            if (newLast > last) last = newLast;
+            failed.clear ();
+            cache.notifyAll ();
+        }
+        EventQueue.invokeLater (new Runnable ()
+        {
+            public void run ()
+            {
+                if (scrollbar.getMaximum () <= last) scrollbar.setMaximum (last + 1);
+            }
+        });
+    }
+
+    protected boolean jobRunning ()
+    {
+        return job.complete < 1;
+    }
+
+    /**
+        LRU map of decoded frames, bounded by the approximate number of bytes they occupy.
+        Callers must hold the monitor of this object.
+    **/
+    public static class FrameCache extends LinkedHashMap<Integer,BufferedImage>
+    {
+        protected long bytes;
+
+        public FrameCache ()
+        {
+            super (64, 0.75f, true);  // access order
+        }
+
+        public BufferedImage put (Integer key, BufferedImage frame)
+        {
+            BufferedImage old = super.put (key, frame);
+            if (old != null) bytes -= size (old);
+            bytes += size (frame);
+
+            Iterator<Entry<Integer,BufferedImage>> it = entrySet ().iterator ();
+            while (bytes > cacheBytes  &&  size () > readAhead + 2  &&  it.hasNext ())
             {
-                last = nextIndex;
-                scrollbar.setMaximum (last + 1);
+                Entry<Integer,BufferedImage> e = it.next ();
+                if (e.getKey ().equals (key)) continue;
+                bytes -= size (e.getValue ());
+                it.remove ();
             }
-            index = nextIndex;
-            scrollbar.setValue (index);
+            return old;
+        }
+
+        public static long size (BufferedImage frame)
+        {
+            return 4L * frame.getWidth () * frame.getHeight ();
         }
-        catch (Exception e) {}
     }
 
-    public void previousImage ()
+    /**
+        Decodes the requested frame first, then frames in the direction of travel, up to readAhead.
+    **/
+    public class Decoder extends Thread
     {
-        if (suffix == null) return;
-        int nextIndex = index - 1;
-        if (nextIndex < 0) return;
-        try
+        public volatile boolean stop;
+
+        public Decoder ()
+        {
+            super ("Video Decoder");
+            setDaemon (true);
+        }
+
+        public void run ()
         {
-            image = ImageIO.read (dir.resolve (nextIndex + "." + suffix).toFile ());
-            index = nextIndex;
-            scrollbar.setValue (index);
+            while (! stop)
+            {
+                int next;
+                synchronized (cache)
+                {
+                    next = nextToDecode ();
+                    if (next < 0)
+                    {
+                        try {cache.wait ();}
+                        catch (InterruptedException e) {}
+                        continue;
+                    }
+                }
+
+                final BufferedImage frame = read (next);
+                final int i = next;
+                synchronized (cache)
+                {
+                    if (frame == null) failed.add (i);
+                    else               cache.put (i, frame);
+                    cache.notifyAll ();
+                    if (frame == null  ||  requested != i) continue;
+                }
+                EventQueue.invokeLater (new Runnable ()
+                {
+                    public void run ()
+                    {
+                        synchronized (cache)
+                        {
+                            if (requested != i) return;  // User has moved on.
+                            requested = -1;
+                        }
+                        display (i, frame);
+                    }
+                });
+            }
+        }
+
+        /**
+            Caller must hold the monitor of cache.
+        **/
+        protected int nextToDecode ()
+        {
+            if (requested >= 0  &&  ! cache.containsKey (requested)  &&  ! failed.contains (requested)) return requested;
+            for (int k = 0; k <= readAhead; k++)
+            {
+                int i = focus + k * direction;
+                if (i < 0  ||  i > last) break;
+                if (! cache.containsKey (i)  &&  ! failed.contains (i)) return i;
+            }
+            return -1;
         }
-        catch (IOException e) {}
     }
 
-    public void scratch (float position)
+    /**
+        Follows the directory for new frames while the job is running.
+    **/
+    public class Watcher extends Thread
     {
-        if (suffix == null  ||  last < 0) return;
-        int nextIndex = (int) Math.round (position * last);
-        try
+        public volatile boolean stop;
+
+        public Watcher ()
         {
-            image = ImageIO.read (dir.resolve (nextIndex + "." + suffix).toFile ());
-            index = nextIndex;
+            super ("Video Watcher");
+            setDaemon (true);
+        }
+
+        public void run ()
+        {
+            try (WatchService service = dir.getFileSystem ().newWatchService ())
+            {
+                dir.register (service, StandardWatchEventKinds.ENTRY_CREATE, StandardWatchEventKinds.ENTRY_MODIFY);
+                scan ();  // Catch any frames that appeared before the watch was registered.
+                while (! stop  &&  jobRunning ())
+                {
+                    WatchKey key = service.poll (1, TimeUnit.SECONDS);  // Timeout only serves to notice the end of the job.
+                    if (key == null) continue;
+                    int newLast = -1;
+                    for (WatchEvent<?> e : key.pollEvents ())
+                    {
+                        Object context = e.context ();
+                        if (context == null) continue;
+                        String[] pieces = context.toString ().split ("\\.");
+                        try {newLast = Math.max (newLast, Integer.parseInt (pieces[0]));}
+                        catch (NumberFormatException error) {}
+                    }
+                    key.reset ();
+                    if (newLast >= 0) extend (newLast);
+                }
+                return;
+            }
+            catch (InterruptedException e)
+            {
+                return;
+            }
+            catch (Exception e) {}  // Most likely a remote directory, which doesn't support watching.
+
+            while (! stop  &&  jobRunning ())
+            {
+                scan ();
+                try {Thread.sleep (pollPeriod);}
+                catch (InterruptedException e) {return;}
+            }
+        }
+
+        protected void scan ()
+        {
+            int newLast = last;
+            while (Files.exists (dir.resolve ((newLast + 1) + "." + suffix))) newLast++;
+            if (newLast > last) extend (newLast);
         }
-        catch (IOException e) {}
     }
 
     public class PlayThread extends Thread
     {
-        public boolean playing;
+        public volatile boolean playing;
+        public int              position;  // The most recent frame handed to the EDT.
 
-        public void run ()
+        public PlayThread (int position)
         {
+            super ("Video Play");
+            setDaemon (true);
+            this.position = position;
             playing = true;
+        }
+
+        public void run ()
+        {
+            long period = Math.round (1e9 / framesPerSecond);
+            long due    = System.nanoTime ();
             while (playing)
             {
-                int oldIndex = index;
-                nextImage ();
-                if (index == oldIndex)
+                final int next = position + 1;
+                BufferedImage frame = null;
+                synchronized (cache)
                 {
-                    if (job.complete < 1)  // Busy-wait for new images to come from simulation.
+                    focus     = next;
+                    direction = 1;
+                    cache.notifyAll ();
+                    while (playing)
                     {
-                        try
+                        frame = cache.get (next);
+                        if (frame != null) break;
+                        boolean running = jobRunning ();
+                        if (next > last  &&  ! running) playing = false;  // End of sequence.
+                        else if (failed.contains (next)  &&  (next < last  ||  ! running)) break;  // Unreadable frame, so skip it.
+                        else
                         {
-                            Thread.sleep (100);  // Balance between jerkiness and load on processor.
-                            continue;
+                            try {cache.wait (1000);}  // Timeout only serves to notice the end of the job.
+                            catch (InterruptedException e) {playing = false;}
                         }
-                        catch (InterruptedException e) {}
                     }
-                    break;
                 }
-                CountDownLatch latch = new CountDownLatch (1);
+                if (! playing) break;
+                position = next;
+                if (frame == null) continue;
+
+                // Hold frame until it is due. If decoding fell behind, restart the clock rather than rushing to catch up.
+                long now = System.nanoTime ();
+                if (due > now)
+                {
+                    try {Thread.sleep ((due - now) / 1000000, (int) ((due - now) % 1000000));}
+                    catch (InterruptedException e) {break;}
+                }
+                else
+                {
+                    due = now;
+                }
+                due += period;
+
+                final BufferedImage f = frame;
                 EventQueue.invokeLater (new Runnable ()
                 {
                     public void run ()
                     {
-                        if (playing) panelImage.paintImmediately (panelImage.getBounds ());
-                        latch.countDown ();
+                        if (thread != PlayThread.this  ||  ! playing) return;
+                        synchronized (cache) {requested = -1;}
+                        display (next, f);
                     }
                 });
-                try
-                {
-                    latch.await ();
-                }
-                catch (InterruptedException e)
-                {
-                    break;
-                }
             }
             playing = false;
         }
@@ -213,23 +478,49 @@ public class Video extends JPanel
     {
         if (panelImage == null) return;
         if (thread != null  &&  thread.playing) return;
-        if (index >= last) index = -1;
-        thread = new PlayThread ();
-        thread.setDaemon (true);
+        int start = index >= last ? -1 : index;
+        thread = new PlayThread (start);
         thread.start ();
     }
 
     public void pause ()
     {
-        if (thread != null) thread.playing = false;
+        if (thread != null)
+        {
+            thread.playing = false;
+            thread.interrupt ();
+        }
         thread = null;
     }
 
+    @Override
+    public void addNotify ()
+    {
+        super.addNotify ();
+        if (panelImage == null) return;
+        decoder = new Decoder ();
+        decoder.start ();
+        watcher = new Watcher ();
+        watcher.start ();
+    }
+
     @Override
     public void removeNotify ()
     {
         super.removeNotify ();
         pause ();
+        if (decoder != null)
+        {
+            decoder.stop = true;
+            decoder.interrupt ();
+            decoder = null;
+        }
+        if (watcher != null)
+        {
+            watcher.stop = true;
+            watcher.interrupt ();
+            watcher = null;
+        }
     }
 
     public class PanelImage extends JPanel
@@ -237,7 +528,7 @@ public class Video extends JPanel
         public void paintComponent (Graphics g)
         {
             super.paintComponent (g);
-            if (index < 0) return;
+            if (index < 0  ||  image == null) return;
 
             int pw = getWidth ();
             int ph = getHeight ();
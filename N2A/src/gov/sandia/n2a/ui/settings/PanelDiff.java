@@ -121,8 +121,7 @@ public class PanelDiff extends JTree
         MNode B = delta.getDocument ();
         root = new NodeDiff ();
         root.key = delta.name;
-        root.buildA (A);
-        root.buildB (B);
+        root.build (A, B);
         model.setRoot (root);  // Updates tree
         for (int i = 0; i < getRowCount (); i++) expandRow (i);  // Expand all nodes completely.
     }
@@ -264,6 +263,44 @@ public class PanelDiff extends JTree
             }
         }
 
+        /**
+            Fills in tree with values from both A and B.
+            Equivalent to buildA() followed by buildB(), except that subtrees with identical content
+            are skipped based on their hashes, so the cost depends on the size of the difference
+            rather than the size of the document.
+        **/
+        public void build (MNode A, MNode B)
+        {
+            if (A == null)
+            {
+                buildB (B);
+                return;
+            }
+            if (B == null)
+            {
+                buildA (A);
+                return;
+            }
+            this.A = A;
+            this.B = B;
+            if (key.isEmpty ()) key = B.key ();
+            for (MNode a : A)
+            {
+                MNode b = B.child (a.key ());
+                if (b != null  &&  a.equalsRecursive (b)) continue;  // No differences, so purge. Cached hashes reject most differing subtrees without a walk.
+                NodeDiff n = new NodeDiff ();
+                add (n);
+                n.build (a, b);
+            }
+            for (MNode b : B)
+            {
+                if (A.child (b.key ()) != null) continue;  // Already handled above.
+                NodeDiff n = new NodeDiff ();
+                add (n);
+                n.buildB (b);
+            }
+        }
+
         /**
             Fills in tree with values from B.
             Does not know whether children nodes are present or not.
@@ -464,8 +501,9 @@ public class PanelDiff extends JTree
             // We assume that p has no child with key==name.
             NodeDiff c = new NodeDiff ();
             p.add (c);
-            if (root.A != null) c.buildA (root.A.child (keyArray));
-            c.buildB (doc.child (keyArray));
+            MNode A = null;
+            if (root.A != null) A = root.A.child (keyArray);
+            c.build (A, doc.child (keyArray));
 
             // Update display
             model.nodeStructureChanged (p);
@@ -7,8 +7,11 @@ the U.S. Government retains certain rights in this software.
 package gov.sandia.n2a.ui.settings;
 
 import gov.sandia.n2a.db.AppData;
+import gov.sandia.n2a.db.MDocCache;
 import gov.sandia.n2a.plugins.extpoints.Settings;
 import gov.sandia.n2a.ui.Lay;
+import gov.sandia.n2a.ui.MainFrame;
+import gov.sandia.n2a.ui.UndoManager;
 import gov.sandia.n2a.ui.images.ImageUtil;
 
 import java.awt.Component;
@@ -21,6 +24,9 @@ import javax.swing.JComboBox;
 import javax.swing.JLabel;
 import javax.swing.JPanel;
 import javax.swing.JTextField;
+import javax.swing.Timer;
+import javax.swing.event.AncestorEvent;
+import javax.swing.event.AncestorListener;
 
 @SuppressWarnings("serial")
 public class SettingsGeneral extends JPanel implements Settings
@@ -98,6 +104,145 @@ public class SettingsGeneral extends JPanel implements Settings
         return Lay.BL ("W", Lay.FL ("H", label, field));
     }
 
+    /**
+        Keeps a statistics label current while it is on screen. The timer is single-shot. It is restarted
+        when the label is shown and after each edit, and re-arms itself only while the label is showing,
+        so nothing runs once the settings panel is closed.
+    **/
+    public Timer statsTimer (final JLabel stats, final ActionListener update)
+    {
+        final Timer timer = new Timer (1000, null);
+        timer.setRepeats (false);
+        timer.addActionListener (new ActionListener ()
+        {
+            public void actionPerformed (ActionEvent e)
+            {
+                if (! stats.isShowing ()) return;
+                update.actionPerformed (e);
+                timer.restart ();
+            }
+        });
+        stats.addAncestorListener (new AncestorListener ()
+        {
+            public void ancestorAdded (AncestorEvent e)
+            {
+                update.actionPerformed (null);
+                timer.restart ();
+            }
+
+            public void ancestorRemoved (AncestorEvent e)
+            {
+                timer.stop ();
+            }
+
+            public void ancestorMoved (AncestorEvent e)
+            {
+            }
+        });
+        return timer;
+    }
+
+    /**
+        Memory budget for loaded documents, along with live statistics so the user can judge whether it is adequate.
+    **/
+    public JPanel addCacheField ()
+    {
+        MDocCache cache = MDocCache.instance;
+        JLabel label = new JLabel ("Document cache size (MB)");
+        final JTextField field = new JTextField (String.valueOf (cache.getBudget () / 0x100000), 6);
+
+        final JLabel stats = new JLabel ();
+        final Timer timer = statsTimer (stats, new ActionListener ()
+        {
+            public void actionPerformed (ActionEvent e)
+            {
+                long hits;
+                long misses;
+                long evictions;
+                synchronized (cache)
+                {
+                    hits      = cache.hits;
+                    misses    = cache.misses;
+                    evictions = cache.evictions;
+                }
+                stats.setText (cache.getCount () + " docs, " + cache.getUsed () / 0x100000 + " MB used, " + hits + " hits, " + misses + " misses, " + evictions + " evictions");
+            }
+        });
+
+        ActionListener apply = new ActionListener ()
+        {
+            public void actionPerformed (ActionEvent arg0)
+            {
+                try
+                {
+                    long size = Long.parseLong (field.getText ().trim ());
+                    if (size <= 0) return;
+                    AppData.state.set (size, "General", "cacheSize");
+                    cache.setBudget (size * 0x100000);
+                    timer.restart ();
+                }
+                catch (NumberFormatException e) {}
+            }
+        };
+        field.addActionListener (apply);
+        field.addFocusListener (new FocusAdapter ()
+        {
+            public void focusLost (FocusEvent e)
+            {
+                apply.actionPerformed (null);
+            }
+        });
+
+        return Lay.BL ("W", Lay.FL ("H", label, field, stats));
+    }
+
+    /**
+        Memory budget for the undo history. Older edits beyond this go to disk or are dropped.
+    **/
+    public JPanel addUndoField ()
+    {
+        // This panel is constructed during plugin initialization, before MainFrame exists, so look up the undo manager on each use.
+        JLabel label = new JLabel ("Undo memory (MB)");
+        final JTextField field = new JTextField (AppData.state.getOrDefault (String.valueOf (UndoManager.defaultBudget / 0x100000), "General", "undoSize"), 6);
+
+        final JLabel stats = new JLabel ();
+        final Timer timer = statsTimer (stats, new ActionListener ()
+        {
+            public void actionPerformed (ActionEvent e)
+            {
+                if (MainFrame.instance == null) return;
+                UndoManager um = MainFrame.instance.undoManager;
+                stats.setText (um.getCount () + " edits, " + um.getUsed () / 0x100000 + " MB used");
+            }
+        });
+
+        ActionListener apply = new ActionListener ()
+        {
+            public void actionPerformed (ActionEvent arg0)
+            {
+                try
+                {
+                    long size = Long.parseLong (field.getText ().trim ());
+                    if (size <= 0) return;
+                    AppData.state.set (size, "General", "undoSize");
+                    if (MainFrame.instance != null) MainFrame.instance.undoManager.setBudget (size * 0x100000);
+                    timer.restart ();
+                }
+                catch (NumberFormatException e) {}
+            }
+        };
+        field.addActionListener (apply);
+        field.addFocusListener (new FocusAdapter ()
+        {
+            public void focusLost (FocusEvent e)
+            {
+                apply.actionPerformed (null);
+            }
+        });
+
+        return Lay.BL ("W", Lay.FL ("H", label, field, stats));
+    }
+
     public SettingsGeneral ()
     {
         JPanel constants = addField ("constants", "Model that provides global constants", 40, "Constants");
@@ -105,13 +250,17 @@ public class SettingsGeneral extends JPanel implements Settings
         JPanel proxyHost     = addFieldSystemProperty ("httpsProxyHost",    "HTTPS Proxy Host", 40, "https.proxyHost");
         JPanel proxyPort     = addFieldSystemProperty ("httpsProxyPort",    "HTTPS Proxy Port",  5, "https.proxyPort");
         JPanel nonProxyHosts = addFieldSystemProperty ("httpNonProxyHosts", "Non-Proxy Hosts",  40, "http.nonProxyHosts");
+        JPanel cacheSize     = addCacheField ();
+        JPanel undoSize      = addUndoField ();
         JPanel form = Lay.BxL
         (
             constants,
             dimension,
             proxyHost,
             proxyPort,
-            nonProxyHosts
+            nonProxyHosts,
+            cacheSize,
+            undoSize
         );
         Lay.BLtg (this, "N", form);
     }
@@ -700,7 +700,7 @@ public class SettingsRepo extends JScrollPane implements Settings
         MDir result = (MDir) existingModels.get (repoName);
         if (result == null)
         {
-            result = new MDir (repoName, reposDir.resolve (repoName).resolve ("models"));
+            result = AppData.repoDir (repoName, "models");
             existingModels.put (repoName, result);
         }
         return result;
@@ -711,7 +711,7 @@ public class SettingsRepo extends JScrollPane implements Settings
         MDir result = (MDir) existingReferences.get (repoName);
         if (result == null)
         {
-            result = new MDir (repoName, reposDir.resolve (repoName).resolve ("references"));
+            result = AppData.repoDir (repoName, "references");
             existingReferences.put (repoName, result);
         }
         return result;
@@ -1014,6 +1014,12 @@ public class SettingsRepo extends JScrollPane implements Settings
                     models    .set (repoDir.resolve ("models"));  // Flushes write queue, so save thread won't interfere with the move.
                     references.set (repoDir.resolve ("references"));
                     AppData.repos.move (oldName, newName);
+                    // Journal file names follow the location of the dir, so start fresh ones under the new name.
+                    // The old ones are empty, because set() just saved everything.
+                    models    .unjournal ();
+                    references.unjournal ();
+                    AppData.journal (models);
+                    AppData.journal (references);
                     GitWrapper newWrapper = new GitWrapper (repoDir.resolve (".git"));
                     gitRepos.set (row, newWrapper);
                     gitModel.current = newWrapper;  // Presumably current == oldWrapper, so we just replace it without checking.
@@ -1075,8 +1081,8 @@ public class SettingsRepo extends JScrollPane implements Settings
             GitWrapper gitRepo = new GitWrapper (baseDir.resolve (".git"));
             gitRepo.setURL (URL);
             AppData.repos.set (1, name, "visible");  // Implicitly creates the repo node.
-            existingModels    .put (name, new MDir (name, baseDir.resolve ("models")));
-            existingReferences.put (name, new MDir (name, baseDir.resolve ("references")));
+            existingModels    .put (name, AppData.repoDir (name, "models"));
+            existingReferences.put (name, AppData.repoDir (name, "references"));
             needRebuild = true;
 
             repoModel.repos   .add (row, AppData.repos.child (name));
@@ -1094,6 +1100,9 @@ public class SettingsRepo extends JScrollPane implements Settings
             GitWrapper wrapper = gitRepos.get (row);
             String     name    = repos   .get (row).key ();
 
+            // Otherwise the journals would be orphaned, and could replay into a later repo with the same name.
+            getModels     (name).unjournal ();
+            getReferences (name).unjournal ();
             existingModels    .remove (name);
             existingReferences.remove (name);
             gitRepos          .remove (row);
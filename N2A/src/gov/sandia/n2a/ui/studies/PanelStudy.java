@@ -14,6 +14,7 @@ import gov.sandia.n2a.db.MVolatile;
 import gov.sandia.n2a.eqset.MPart;
 import gov.sandia.n2a.execenvs.Host;
 import gov.sandia.n2a.ui.Lay;
+import gov.sandia.n2a.ui.PagedTableModel;
 import gov.sandia.n2a.ui.Utility;
 import gov.sandia.n2a.ui.eq.PanelEquations;
 import gov.sandia.n2a.ui.eq.PanelModel;
@@ -55,7 +56,6 @@ import javax.swing.JTable;
 import javax.swing.ListSelectionModel;
 import javax.swing.event.ListSelectionEvent;
 import javax.swing.event.ListSelectionListener;
-import javax.swing.table.AbstractTableModel;
 import javax.swing.table.DefaultTableCellRenderer;
 import javax.swing.table.TableCellRenderer;
 import javax.swing.table.TableColumn;
@@ -507,6 +507,7 @@ public class PanelStudy extends JPanel
                     final MNode job = AppData.runs.childOrCreate (jobKey);  // Create the dir and model doc
                     job.merge (collated);
                     job.set (inherit, "$inherit");
+                    job.set (source.key (), "$metadata", "study", "id");  // Groups the jobs of this study for fair sharing. See Scheduler.
                     ((MDoc) job).save ();  // Force directory (and job file) to exist, so Backends can work with the dir.
                     jobIndex.put (jobKey, index);
                     source.set (jobKey, "jobs", index++);
@@ -625,7 +626,7 @@ public class PanelStudy extends JPanel
 
         public void addJob ()
         {
-            modelSamples.fireTableRowsInserted (0, 0);
+            modelSamples.rowsInserted (0, 0);
         }
 
         public void updateJob (String jobKey)
@@ -635,14 +636,20 @@ public class PanelStudy extends JPanel
             if (index == null) return;
             int rowCount = displayStudy.source.childOrEmpty ("jobs").size ();
             int row = rowCount - index - 1;  // Because jobs are displayed in reverse order.
-            modelSamples.fireTableRowsUpdated (row, row);
+            modelSamples.rowsChanged (row, row);
         }
     }
 
-    public class SampleTableModel extends AbstractTableModel
+    /**
+        Only the visible cells are read from the job records, a page at a time. See PagedTableModel.
+        The status icon in column 0 is always current, since it comes straight from the job node.
+    **/
+    public class SampleTableModel extends PagedTableModel
     {
         protected Study          currentStudy;
         protected List<String[]> variablePaths = new ArrayList<String[]> ();
+        protected int            jobsPage = -1;  // Page whose job records are held in jobs.
+        protected MNode[]        jobs;           // Job records for the most recently loaded page, so that loading other columns of the same page doesn't repeat the lookup.
 
         public int getRowCount ()
         {
@@ -668,25 +675,57 @@ public class PanelStudy extends JPanel
 
         public Object getValueAt (int row, int column)
         {
-            checkIndices ();
-            int columnCount = variablePaths.size () + 1;
-            int rowCount = displayStudy.source.childOrEmpty ("jobs").size ();
+            if (column > 0) return super.getValueAt (row, column);
 
-            if (column < 0  ||  column >= columnCount) return null;
+            // Determine status icon (column 0)
+            if (displayStudy == null) return null;
+            int rowCount = displayStudy.source.childOrEmpty ("jobs").size ();
             if (row < 0  ||  row >= rowCount) return null;
-
             String jobKey = displayStudy.source.get ("jobs", rowCount - row - 1);  // Reverse row order, so most-recently created jobs show at top.
             if (jobKey.isEmpty ()) return null;
-            MNode job = AppData.runs.child (jobKey);
-            if (job == null) return null;
-            if (column > 0) return job.get (variablePaths.get (column - 1));
-
-            // Determine status icon (column 0)
             NodeJob node = PanelRun.instance.jobNodes.get (jobKey);
             if (node == null  ||  node.deleted) return NodeJob.iconFailed;
             return node.getIcon (false);
         }
 
+        protected void loadPage (int first, int column, Object[] result)
+        {
+            checkIndices ();
+            if (displayStudy == null) return;
+            String[] path = variablePaths.get (column - 1);
+
+            int page = first / pageSize;
+            if (jobsPage != page  ||  jobs == null  ||  jobs.length != result.length)
+            {
+                jobsPage = page;
+                jobs     = new MNode[result.length];
+                MNode jobKeys = displayStudy.source.childOrEmpty ("jobs");
+                int rowCount = jobKeys.size ();
+                for (int i = 0; i < result.length; i++)
+                {
+                    String jobKey = jobKeys.get (rowCount - first - i - 1);  // Reverse row order, so most-recently created jobs show at top.
+                    if (! jobKey.isEmpty ()) jobs[i] = AppData.runs.child (jobKey);
+                }
+            }
+
+            for (int i = 0; i < result.length; i++)
+            {
+                if (jobs[i] != null) result[i] = jobs[i].get (path);
+            }
+        }
+
+        public void clearPages ()
+        {
+            super.clearPages ();
+            jobs = null;
+        }
+
+        public void clearPages (int first, int last)
+        {
+            super.clearPages (first, last);
+            jobs = null;
+        }
+
         public synchronized void checkIndices ()
         {
             if (currentStudy == displayStudy) return;